@@ -0,0 +1,62 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented test checking that {@link BookAdapter} allocates nothing when binding
+ * recycled rows, as happens during steady-state scrolling.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookAdapterAllocationTest {
+
+    private static final int ROWS = 200;
+    private static final int BINDS = 5000;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void onBindViewHolder_allocatesNothing() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = InstrumentationRegistry.getTargetContext();
+                List<Book> books = new ArrayList<>();
+                for (int i = 0; i < ROWS; i++) {
+                    books.add(new Book(1000L + i, "Book number " + i, i * 3, ROWS - i, "Supplier", "5550000"));
+                }
+
+                BookAdapter adapter = new BookAdapter(context);
+                // The first list is shown right away, without diffing
+                adapter.submitList(books);
+                BookAdapter.ViewHolder holder = adapter.onCreateViewHolder(new RecyclerView(context), 0);
+
+                // Warm up, so that the views reach their steady-state size
+                for (int i = 0; i < ROWS; i++) {
+                    adapter.onBindViewHolder(holder, i);
+                }
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < BINDS; i++) {
+                    adapter.onBindViewHolder(holder, i % ROWS);
+                }
+                Debug.stopAllocCounting();
+
+                assertEquals("Objects allocated by " + BINDS + " binds", 0, Debug.getThreadAllocCount());
+            }
+        });
+    }
+}
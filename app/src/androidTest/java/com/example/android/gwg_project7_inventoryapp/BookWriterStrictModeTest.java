@@ -0,0 +1,122 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test checking that the writes submitted to a {@link BookWriter} from the main
+ * thread touch no disk there. The main thread crashes on any disk access while they run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookWriterStrictModeTest {
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "strict-mode-test-supplier";
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private Instrumentation instrumentation;
+    private ContentResolver resolver;
+    private BookWriter bookWriter;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        bookWriter = new BookWriter(resolver);
+        deleteTestRows();
+    }
+
+    @After
+    public void tearDown() {
+        deleteTestRows();
+    }
+
+    @Test
+    public void writesFromTheMainThread_touchNoDiskThere() throws InterruptedException {
+        final ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_NAME, "Strict book");
+        values.put(BooksEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        values.put(BooksEntry.COLUMN_SUPPLIER_NAME, TEST_SUPPLIER);
+        values.put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+
+        final Uri[] inserted = new Uri[1];
+        final Bundle[] adjusted = new Bundle[1];
+        final int[] deleted = new int[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        final StrictMode.ThreadPolicy[] previous = new StrictMode.ThreadPolicy[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                previous[0] = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+                // Each write is submitted from the callback of the one before
+                bookWriter.insert(values, new BookWriter.Callback<Uri>() {
+                    @Override
+                    public void onResult(final Uri uri) {
+                        inserted[0] = uri;
+                        bookWriter.adjustStock(uri, -1, new BookWriter.Callback<Bundle>() {
+                            @Override
+                            public void onResult(Bundle result) {
+                                adjusted[0] = result;
+                                bookWriter.delete(uri, new BookWriter.Callback<Integer>() {
+                                    @Override
+                                    public void onResult(Integer result) {
+                                        deleted[0] = result;
+                                        done.countDown();
+                                    }
+                                });
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        try {
+            assertTrue("The writes didn't complete", done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        } finally {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    StrictMode.setThreadPolicy(previous[0]);
+                }
+            });
+        }
+
+        assertNotNull(inserted[0]);
+        assertEquals(4, adjusted[0].getInt(BooksEntry.EXTRA_QUANTITY));
+        assertEquals(1, deleted[0]);
+    }
+
+    private void deleteTestRows() {
+        resolver.delete(BooksEntry.CONTENT_URI,
+                BooksEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{TEST_SUPPLIER});
+    }
+}
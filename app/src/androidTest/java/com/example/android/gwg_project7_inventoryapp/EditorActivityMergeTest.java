@@ -0,0 +1,146 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.MotionEvent;
+import android.widget.EditText;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test checking that saving the {@link EditorActivity} keeps the sales made since
+ * the quantity was changed with its buttons.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EditorActivityMergeTest {
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "editor-merge-test-supplier";
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private Instrumentation instrumentation;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        deleteTestRows();
+    }
+
+    @After
+    public void tearDown() {
+        deleteTestRows();
+    }
+
+    @Test
+    public void saveAfterButtonAdjustment_keepsLaterSales() {
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_NAME, "Merged book");
+        values.put(BooksEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        values.put(BooksEntry.COLUMN_SUPPLIER_NAME, TEST_SUPPLIER);
+        values.put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        final Uri uri = resolver.insert(BooksEntry.CONTENT_URI, values);
+
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(), EditorActivity.class)
+                .setData(uri)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        final EditorActivity activity = (EditorActivity) instrumentation.startActivitySync(intent);
+        final EditText name = (EditText) activity.findViewById(R.id.book_name_edit_text);
+        EditText quantity = (EditText) activity.findViewById(R.id.book_quantity_edit_text);
+        awaitText(quantity, "10");
+
+        // Restock one copy with the button, then rename the book
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.findViewById(R.id.increase_btn).performClick();
+            }
+        });
+        awaitText(quantity, "11");
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                long now = SystemClock.uptimeMillis();
+                MotionEvent touch = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, 0, 0, 0);
+                name.dispatchTouchEvent(touch);
+                touch.recycle();
+                name.setText("Renamed book");
+            }
+        });
+
+        // A sale at the counter lands before the edit is saved
+        Bundle extras = new Bundle();
+        extras.putInt(BooksEntry.EXTRA_DELTA, -1);
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_ADJUST_STOCK,
+                String.valueOf(ContentUris.parseId(uri)), extras);
+
+        instrumentation.invokeMenuActionSync(activity, R.id.action_save, 0);
+
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (!"Renamed book".equals(readString(uri, BooksEntry.COLUMN_PRODUCT_NAME))) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                fail("The edit was not saved");
+            }
+            SystemClock.sleep(20);
+        }
+        // The restock and the sale, not the quantity shown when saving
+        assertEquals("10", readString(uri, BooksEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    /**
+     * Wait until the given view shows the given text, which the editor sets once a background
+     * read or write is done.
+     */
+    private void awaitText(final EditText view, String text) {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        final String[] shown = new String[1];
+        do {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    shown[0] = view.getText().toString();
+                }
+            });
+            if (text.equals(shown[0])) {
+                return;
+            }
+            SystemClock.sleep(20);
+        } while (SystemClock.elapsedRealtime() < deadline);
+        fail("Expected " + text + ", shown " + shown[0]);
+    }
+
+    private String readString(Uri uri, String column) {
+        Cursor cursor = resolver.query(uri, new String[]{column}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteTestRows() {
+        resolver.delete(BooksEntry.CONTENT_URI,
+                BooksEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{TEST_SUPPLIER});
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test for {@link BookProvider#applyBatch}: one transaction per batch, or per
+ * segment between yield points, with the notifications sent once it commits.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderBatchTest {
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "batch-test-supplier";
+
+    /**
+     * Operations between two yield points of the long batch
+     */
+    private static final int YIELD_INTERVAL = 50;
+
+    private ContentResolver resolver;
+    private TestBooks books;
+    private HandlerThread observerThread;
+    private ContentObserver observer;
+
+    /**
+     * Number of books of the test seen by each change notification
+     */
+    private final List<Integer> countsSeen = new CopyOnWriteArrayList<>();
+    private final CountDownLatch notified = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws InterruptedException {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        books = new TestBooks(resolver, TEST_SUPPLIER);
+        books.deleteAll();
+        // Let the notification of the cleanup go out before observing
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MILLIS * 4);
+
+        observerThread = new HandlerThread("observer");
+        observerThread.start();
+        observer = new ContentObserver(new Handler(observerThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                countsSeen.add(books.count());
+                notified.countDown();
+            }
+        };
+        resolver.registerContentObserver(BooksEntry.CONTENT_URI, true, observer);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.unregisterContentObserver(observer);
+        observerThread.quit();
+        books.deleteAll();
+    }
+
+    @Test
+    public void failingOperation_rollsBackTheBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = inserts(5);
+        // No name, refused by the provider
+        operations.add(ContentProviderOperation.newInsert(BooksEntry.CONTENT_URI)
+                .withValues(books.values(null, 1, 1))
+                .build());
+
+        try {
+            resolver.applyBatch(BooksContract.CONTENT_AUTHORITY, operations);
+            fail("Expected the invalid insert to fail the batch");
+        } catch (IllegalArgumentException expected) {
+            // The inserts before it are rolled back
+        }
+
+        assertEquals(0, books.count());
+        // Nothing was committed, so nothing is notified
+        assertFalse(notified.await(ChangeNotifier.COALESCE_WINDOW_MILLIS * 4, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void notifications_waitForTheCommit() throws Exception {
+        ContentProviderResult[] results = resolver.applyBatch(BooksContract.CONTENT_AUTHORITY, inserts(200));
+
+        assertEquals(200, results.length);
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        // The first notification already saw every book of the batch
+        assertEquals(Integer.valueOf(200), countsSeen.get(0));
+    }
+
+    @Test
+    public void batchLongerThanTheYieldInterval_appliesFully() throws Exception {
+        final long contended = books.insert("Contended book", 0);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger restocks = new AtomicInteger();
+        // Writes from another thread make the batch actually yield at its yield points
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    books.adjustStock(contended, 1);
+                    restocks.incrementAndGet();
+                }
+            }
+        };
+        writer.start();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int count = YIELD_INTERVAL * 20;
+        for (int i = 0; i < count; i++) {
+            operations.add(ContentProviderOperation.newInsert(BooksEntry.CONTENT_URI)
+                    .withValues(books.values("Batch book " + i, 10, 1))
+                    .withYieldAllowed(i % YIELD_INTERVAL == 0)
+                    .build());
+        }
+        try {
+            assertEquals(count, resolver.applyBatch(BooksContract.CONTENT_AUTHORITY, operations).length);
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+
+        // The contended book plus every book of the batch
+        assertEquals(count + 1, books.count());
+        assertEquals(restocks.get(), books.quantity(contended));
+    }
+
+    private ArrayList<ContentProviderOperation> inserts(int count) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            operations.add(ContentProviderOperation.newInsert(BooksEntry.CONTENT_URI)
+                    .withValues(books.values("Batch book " + i, 10, 1))
+                    .build());
+        }
+        return operations;
+    }
+}
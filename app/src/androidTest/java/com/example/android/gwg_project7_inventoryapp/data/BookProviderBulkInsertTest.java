@@ -0,0 +1,94 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test comparing {@link BookProvider#bulkInsert} against one insert per row.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderBulkInsertTest {
+
+    private static final String LOG_TAG = BookProviderBulkInsertTest.class.getSimpleName();
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "bulk-insert-test-supplier";
+
+    private static final int ROW_COUNT = 2000;
+
+    private ContentResolver resolver;
+    private TestBooks books;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        books = new TestBooks(resolver, TEST_SUPPLIER);
+        books.deleteAll();
+    }
+
+    @After
+    public void tearDown() {
+        books.deleteAll();
+    }
+
+    @Test
+    public void bulkInsert_insertsAllRows() {
+        int inserted = resolver.bulkInsert(BooksEntry.CONTENT_URI, books.rows("Book", ROW_COUNT));
+
+        assertEquals(ROW_COUNT, inserted);
+        assertEquals(ROW_COUNT, books.count());
+    }
+
+    @Test
+    public void bulkInsert_invalidRowInsertsNothing() {
+        ContentValues[] rows = books.rows("Book", 10);
+        rows[7].remove(BooksEntry.COLUMN_PRODUCT_NAME);
+
+        try {
+            resolver.bulkInsert(BooksEntry.CONTENT_URI, rows);
+            fail("Expected the invalid row to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // The whole batch is rejected
+        }
+        assertEquals(0, books.count());
+    }
+
+    @Test
+    public void bulkInsert_isFasterThanSingleInserts() {
+        ContentValues[] rows = books.rows("Book", ROW_COUNT);
+
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues row : rows) {
+            resolver.insert(BooksEntry.CONTENT_URI, row);
+        }
+        long singleMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        books.deleteAll();
+
+        start = SystemClock.elapsedRealtime();
+        resolver.bulkInsert(BooksEntry.CONTENT_URI, rows);
+        long bulkMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        long singleRate = ROW_COUNT * 1000L / singleMillis;
+        long bulkRate = ROW_COUNT * 1000L / bulkMillis;
+        Log.i(LOG_TAG, "insert: " + singleRate + " rows/s, bulkInsert: " + bulkRate + " rows/s");
+
+        assertEquals(ROW_COUNT, books.count());
+        assertTrue("bulkInsert should beat one insert per row", bulkRate > singleRate);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test for {@link BooksEntry#METHOD_CHECKOUT}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderCheckoutTest {
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "checkout-test-supplier";
+
+    private ContentResolver resolver;
+    private TestBooks books;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        books = new TestBooks(resolver, TEST_SUPPLIER);
+        books.deleteAll();
+    }
+
+    @After
+    public void tearDown() {
+        books.deleteAll();
+    }
+
+    @Test
+    public void checkout_sellsEveryLine() {
+        long first = books.insert("Checkout book", 5);
+        long second = books.insert("Checkout book", 2);
+
+        Bundle result = checkout(new long[]{first, second}, new int[]{3, 2});
+
+        assertTrue(result.getBoolean(BooksEntry.EXTRA_CHECKED_OUT));
+        assertTrue(Arrays.equals(new boolean[]{true, true}, result.getBooleanArray(BooksEntry.EXTRA_IN_STOCK)));
+        assertTrue(Arrays.equals(new int[]{2, 0}, result.getIntArray(BooksEntry.EXTRA_REMAINING)));
+        assertEquals(2, books.quantity(first));
+        assertEquals(0, books.quantity(second));
+    }
+
+    @Test
+    public void checkout_shortLineSellsNothing() {
+        long first = books.insert("Checkout book", 5);
+        long second = books.insert("Checkout book", 1);
+
+        Bundle result = checkout(new long[]{first, second}, new int[]{1, 2});
+
+        assertFalse(result.getBoolean(BooksEntry.EXTRA_CHECKED_OUT));
+        assertTrue(Arrays.equals(new boolean[]{true, false}, result.getBooleanArray(BooksEntry.EXTRA_IN_STOCK)));
+        // The short line reports what was left for it
+        assertEquals(1, result.getIntArray(BooksEntry.EXTRA_REMAINING)[1]);
+        assertEquals(5, books.quantity(first));
+        assertEquals(1, books.quantity(second));
+    }
+
+    @Test
+    public void checkout_linesOfTheSameBookAddUp() {
+        long book = books.insert("Checkout book", 3);
+
+        Bundle result = checkout(new long[]{book, book}, new int[]{2, 2});
+
+        assertFalse(result.getBoolean(BooksEntry.EXTRA_CHECKED_OUT));
+        assertTrue(Arrays.equals(new boolean[]{true, false}, result.getBooleanArray(BooksEntry.EXTRA_IN_STOCK)));
+        assertEquals(3, books.quantity(book));
+    }
+
+    @Test
+    public void checkout_unknownBookSellsNothing() {
+        long book = books.insert("Checkout book", 3);
+
+        Bundle result = checkout(new long[]{book, Long.MAX_VALUE}, new int[]{1, 1});
+
+        assertFalse(result.getBoolean(BooksEntry.EXTRA_CHECKED_OUT));
+        assertEquals(-1, result.getIntArray(BooksEntry.EXTRA_REMAINING)[1]);
+        assertEquals(3, books.quantity(book));
+    }
+
+    @Test
+    public void checkout_refusesQuantitiesBelowOne() {
+        long book = books.insert("Checkout book", 3);
+
+        try {
+            checkout(new long[]{book}, new int[]{-1});
+            fail("Expected a negative quantity to be refused");
+        } catch (IllegalArgumentException expected) {
+            // Nothing was sold
+        }
+        assertEquals(3, books.quantity(book));
+    }
+
+    private Bundle checkout(long[] ids, int[] quantities) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(BooksEntry.EXTRA_BOOK_IDS, ids);
+        extras.putIntArray(BooksEntry.EXTRA_QUANTITIES, quantities);
+        return resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_CHECKOUT, null, extras);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test reading the export of {@link BookProvider} in each format.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderExportTest {
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "export-test-supplier, \"quoted\"";
+
+    /**
+     * More rows than one page of the export
+     */
+    private static final int ROW_COUNT = 1234;
+
+    private ContentResolver resolver;
+    private TestBooks books;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        books = new TestBooks(resolver, TEST_SUPPLIER);
+        books.deleteAll();
+        resolver.bulkInsert(BooksEntry.CONTENT_URI, books.rows("Book", ROW_COUNT));
+    }
+
+    @After
+    public void tearDown() {
+        books.deleteAll();
+    }
+
+    @Test
+    public void csvExport_holdsEveryBook() throws IOException {
+        Uri uri = BooksEntry.EXPORT_URI.buildUpon()
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_FORMAT, BooksEntry.FORMAT_CSV)
+                .build();
+        assertEquals(BooksEntry.CSV_TYPE, resolver.getType(uri));
+
+        int testRows = 0;
+        InputStream in = resolver.openInputStream(uri);
+        try {
+            BookCsv.RecordReader records = new BookCsv.RecordReader(
+                    new BufferedReader(new InputStreamReader(in, "UTF-8")));
+            List<String> header = records.next();
+            assertEquals(BooksEntry._ID, header.get(0));
+            int supplierColumn = header.indexOf(BooksEntry.COLUMN_SUPPLIER_NAME);
+            int nameColumn = header.indexOf(BooksEntry.COLUMN_PRODUCT_NAME);
+            List<String> record;
+            while ((record = records.next()) != null) {
+                if (TEST_SUPPLIER.equals(record.get(supplierColumn))) {
+                    assertEquals("Book " + testRows, record.get(nameColumn));
+                    testRows++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(ROW_COUNT, testRows);
+    }
+
+    @Test
+    public void jsonExport_isChosenByMimeType() throws IOException {
+        assertArrayEquals(new String[]{BooksEntry.JSON_TYPE},
+                resolver.getStreamTypes(BooksEntry.EXPORT_URI, "application/*"));
+
+        int testRows = 0;
+        AssetFileDescriptor file = resolver.openTypedAssetFileDescriptor(BooksEntry.EXPORT_URI, BooksEntry.JSON_TYPE, null);
+        JsonReader json = new JsonReader(new InputStreamReader(file.createInputStream(), "UTF-8"));
+        try {
+            json.beginArray();
+            while (json.hasNext()) {
+                String name = null;
+                String supplier = null;
+                json.beginObject();
+                while (json.hasNext()) {
+                    switch (json.nextName()) {
+                        case BooksEntry.COLUMN_PRODUCT_NAME:
+                            name = json.nextString();
+                            break;
+                        case BooksEntry.COLUMN_SUPPLIER_NAME:
+                            supplier = json.nextString();
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (TEST_SUPPLIER.equals(supplier)) {
+                    assertEquals("Book " + testRows, name);
+                    testRows++;
+                }
+            }
+            json.endArray();
+        } finally {
+            json.close();
+        }
+        assertEquals(ROW_COUNT, testRows);
+    }
+
+    @Test
+    public void writesDuringExport_areNotExported() throws IOException, InterruptedException {
+        int testRows = 0;
+        InputStream in = resolver.openInputStream(BooksEntry.EXPORT_URI);
+        try {
+            BookCsv.RecordReader records = new BookCsv.RecordReader(
+                    new BufferedReader(new InputStreamReader(in, "UTF-8")));
+            List<String> header = records.next();
+            int supplierColumn = header.indexOf(BooksEntry.COLUMN_SUPPLIER_NAME);
+
+            // Delete the books once the export has started, which waits for it to be read
+            Thread deleter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    books.deleteAll();
+                }
+            });
+            deleter.start();
+            List<String> record;
+            while ((record = records.next()) != null) {
+                if (TEST_SUPPLIER.equals(record.get(supplierColumn))) {
+                    testRows++;
+                }
+            }
+            deleter.join();
+        } finally {
+            in.close();
+        }
+        assertEquals(ROW_COUNT, testRows);
+        assertEquals(0, books.count());
+    }
+
+    @Test
+    public void export_cannotBeWritten() {
+        try {
+            resolver.openFileDescriptor(BooksEntry.EXPORT_URI, "w");
+            fail("Expected the export to be read-only");
+        } catch (FileNotFoundException expected) {
+            // Only reading is supported
+        }
+    }
+}
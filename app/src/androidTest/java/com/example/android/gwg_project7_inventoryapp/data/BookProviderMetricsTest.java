@@ -0,0 +1,94 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test checking that {@link BookProvider} records a query when its cursor is read,
+ * which is when SQLite runs it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderMetricsTest {
+
+    private static final String TEST_DB = "metrics-test.db";
+
+    private static final String QUERY_BOOKS = "query books";
+
+    private Context context;
+    private BookProvider provider;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        provider = new BookProvider(TEST_DB, null);
+        provider.attachInfo(context, null);
+
+        ContentValues[] rows = new ContentValues[3];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_NAME, "Metrics book " + i);
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_PRICE, 10);
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_QUANTITY, 1);
+            rows[i].put(BooksEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+            rows[i].put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        }
+        provider.bulkInsert(BooksEntry.CONTENT_URI, rows);
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void query_isRecordedWithItsRowsOnceRead() {
+        Cursor cursor = provider.query(BooksEntry.CONTENT_URI, null, null, null, null);
+        try {
+            // Nothing has run yet
+            assertNull(queryMetrics());
+
+            assertEquals(3, cursor.getCount());
+            Bundle metrics = queryMetrics();
+            assertEquals(1, metrics.getLong(BooksEntry.EXTRA_CALLS));
+            assertEquals(3, metrics.getLong(BooksEntry.EXTRA_ROWS));
+            assertTrue(metrics.getLong(BooksEntry.EXTRA_TIME_NANOS) > 0);
+
+            // Reading on doesn't record it again
+            while (cursor.moveToNext()) {
+                cursor.getString(0);
+            }
+            assertEquals(1, queryMetrics().getLong(BooksEntry.EXTRA_CALLS));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void unreadQuery_isRecordedWhenClosed() {
+        provider.query(BooksEntry.CONTENT_URI, null, null, null, null).close();
+
+        Bundle metrics = queryMetrics();
+        assertEquals(1, metrics.getLong(BooksEntry.EXTRA_CALLS));
+        assertEquals(0, metrics.getLong(BooksEntry.EXTRA_ROWS));
+    }
+
+    private Bundle queryMetrics() {
+        return provider.call(BooksEntry.METHOD_METRICS, null, null).getBundle(QUERY_BOOKS);
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.MovementsEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test for the stock movements journal and its compaction into daily totals.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderMovementsTest {
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "movements-test-supplier";
+
+    private ContentResolver resolver;
+    private TestBooks books;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        books = new TestBooks(resolver, TEST_SUPPLIER);
+        books.deleteAll();
+    }
+
+    @After
+    public void tearDown() {
+        books.deleteAll();
+    }
+
+    @Test
+    public void everyQuantityChange_isJournaled() {
+        long book = books.insert("Movements book", 5);
+        books.adjustStock(book, -2);
+        books.adjustStock(book, 3);
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        resolver.update(TestBooks.uri(book), values, null, null);
+
+        List<long[]> movements = movements(book);
+
+        // Columns: delta, kind
+        assertEquals(4, movements.size());
+        assertMovement(5, MovementsEntry.KIND_CORRECTION, movements.get(0));
+        assertMovement(-2, MovementsEntry.KIND_SALE, movements.get(1));
+        assertMovement(3, MovementsEntry.KIND_RESTOCK, movements.get(2));
+        assertMovement(4, MovementsEntry.KIND_CORRECTION, movements.get(3));
+        assertEquals(books.quantity(book), sumOfDeltas(movements));
+    }
+
+    @Test
+    public void refusedChanges_journalNothing() {
+        long first = books.insert("Movements book", 5);
+        long second = books.insert("Movements book", 1);
+
+        books.adjustStock(second, -2);
+        Bundle extras = new Bundle();
+        extras.putLongArray(BooksEntry.EXTRA_BOOK_IDS, new long[]{first, second});
+        extras.putIntArray(BooksEntry.EXTRA_QUANTITIES, new int[]{1, 2});
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_CHECKOUT, null, extras);
+
+        // Only the opening quantities
+        assertEquals(1, movements(first).size());
+        assertEquals(1, movements(second).size());
+    }
+
+    @Test
+    public void zeroDelta_changesNothing() {
+        long book = books.insert("Movements book", 5);
+
+        Bundle result = books.adjustStock(book, 0);
+
+        assertFalse(result.getBoolean(BooksEntry.EXTRA_ADJUSTED));
+        assertEquals(5, result.getInt(BooksEntry.EXTRA_QUANTITY));
+        // No movement, and no new version
+        assertEquals(1, movements(book).size());
+        assertEquals(1, books.readLong(book, BooksEntry.COLUMN_VERSION));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingDelta_isRefused() {
+        long book = books.insert("Movements book", 5);
+
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_ADJUST_STOCK, String.valueOf(book), new Bundle());
+    }
+
+    @Test
+    public void compaction_keepsDailyTotals() {
+        long book = books.insert("Movements book", 5);
+        books.adjustStock(book, -1);
+        books.adjustStock(book, -1);
+        books.adjustStock(book, 4);
+        List<long[]> before = daily(book);
+
+        // Roll up everything made up to the end of today
+        Bundle extras = new Bundle();
+        extras.putLong(BooksEntry.EXTRA_BEFORE, System.currentTimeMillis() + MovementsEntry.DAY_MILLIS);
+        Bundle result = resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_COMPACT_MOVEMENTS, null, extras);
+
+        assertTrue(result.getLong(BooksEntry.EXTRA_ROW_COUNT) >= 4);
+        assertEquals(0, movements(book).size());
+        List<long[]> after = daily(book);
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertTrue(Arrays.equals(before.get(i), after.get(i)));
+        }
+        // Columns: sold, restocked, corrected, movement count
+        long[] totals = after.get(after.size() - 1);
+        assertEquals(2, totals[0]);
+        assertEquals(4, totals[1]);
+        assertEquals(5, totals[2]);
+        assertEquals(4, totals[3]);
+    }
+
+    @Test
+    public void timeRange_limitsMovements() {
+        long book = books.insert("Movements book", 5);
+        long now = System.currentTimeMillis();
+
+        Uri future = MovementsEntry.buildMovementsUri(book).buildUpon()
+                .appendQueryParameter(MovementsEntry.QUERY_PARAMETER_FROM, String.valueOf(now + MovementsEntry.DAY_MILLIS))
+                .build();
+        Cursor cursor = resolver.query(future, null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertMovement(long delta, long kind, long[] movement) {
+        assertEquals(delta, movement[0]);
+        assertEquals(kind, movement[1]);
+    }
+
+    private static long sumOfDeltas(List<long[]> movements) {
+        long sum = 0;
+        for (long[] movement : movements) {
+            sum += movement[0];
+        }
+        return sum;
+    }
+
+    private List<long[]> movements(long book) {
+        return rows(MovementsEntry.buildMovementsUri(book),
+                new String[]{MovementsEntry.COLUMN_DELTA, MovementsEntry.COLUMN_KIND});
+    }
+
+    private List<long[]> daily(long book) {
+        return rows(MovementsEntry.buildDailyUri(book), new String[]{
+                MovementsEntry.COLUMN_SOLD,
+                MovementsEntry.COLUMN_RESTOCKED,
+                MovementsEntry.COLUMN_CORRECTED,
+                MovementsEntry.COLUMN_MOVEMENT_COUNT});
+    }
+
+    private List<long[]> rows(Uri uri, String[] projection) {
+        List<long[]> rows = new ArrayList<>();
+        Cursor cursor = resolver.query(uri, projection, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long[] row = new long[projection.length];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = cursor.getLong(i);
+                }
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
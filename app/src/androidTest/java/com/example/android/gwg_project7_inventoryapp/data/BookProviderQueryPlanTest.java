@@ -0,0 +1,220 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.StatsEntry;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test running every query shape the app sends to {@link BookProvider} against a
+ * seeded database, and failing if the plan of one of them scans the whole books table or sorts
+ * it where an index should be used.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderQueryPlanTest {
+
+    private static final String TEST_DB = "query-plan-test.db";
+
+    private static final int BOOK_COUNT = 2000;
+    private static final int SUPPLIER_COUNT = 20;
+
+    private static final String[] PROJECTION = {
+            BooksEntry._ID,
+            BooksEntry.COLUMN_PRODUCT_NAME,
+            BooksEntry.COLUMN_PRODUCT_PRICE,
+            BooksEntry.COLUMN_PRODUCT_QUANTITY,
+            BooksEntry.COLUMN_SUPPLIER_NAME,
+            BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+
+    /**
+     * Plan detail of a scan of the books table, which reads every book unless it goes through
+     * an index
+     */
+    private static final String BOOKS_SCAN = "SCAN (TABLE )?" + BooksEntry.TABLE_NAME + "\\b.*";
+
+    private Context context;
+    private RecordingLog log;
+    private BookProvider provider;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        log = new RecordingLog();
+        provider = new BookProvider(TEST_DB, log);
+        provider.attachInfo(context, null);
+
+        ContentValues[] rows = new ContentValues[BOOK_COUNT];
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_NAME, "Plan book " + i);
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_PRICE, i % 100);
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_QUANTITY, i % 30);
+            rows[i].put(BooksEntry.COLUMN_SUPPLIER_NAME, "Supplier " + (i % SUPPLIER_COUNT));
+            rows[i].put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        }
+        provider.bulkInsert(BooksEntry.CONTENT_URI, rows);
+        log.clear();
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void listPages_seekThePrimaryKey() {
+        read(pageUri(0, 50), null, null, null);
+        read(pageUri(BOOK_COUNT / 2, 50), null, null, null);
+
+        assertIndexed(true);
+    }
+
+    @Test
+    public void singleBook_seeksThePrimaryKey() {
+        read(ContentUris.withAppendedId(BooksEntry.CONTENT_URI, 42), null, null, null);
+
+        assertIndexed(false);
+    }
+
+    @Test
+    public void search_goesThroughTheFullTextIndex() {
+        read(BooksEntry.SEARCH_URI.buildUpon()
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_SEARCH, "plan book 42")
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT, "20")
+                .build(), null, null, null);
+
+        assertIndexed(false);
+    }
+
+    @Test
+    public void sortByName_readsTheNameIndex() {
+        read(BooksEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT, "50")
+                        .build(),
+                null, null, BooksEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE");
+
+        assertIndexed(true);
+    }
+
+    @Test
+    public void filters_useTheirIndex() {
+        read(BooksEntry.CONTENT_URI, BooksEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{"Supplier 3"}, null);
+        read(BooksEntry.CONTENT_URI,
+                BooksEntry.COLUMN_PRODUCT_QUANTITY + "<=" + BooksEntry.LOW_STOCK_THRESHOLD, null, null);
+
+        assertIndexed(false);
+    }
+
+    @Test
+    public void statistics_neverReadTheBooks() {
+        read(provider.query(StatsEntry.CONTENT_URI, null, null, null, null));
+        read(provider.query(StatsEntry.SUPPLIERS_URI, null, null, null, null));
+
+        assertIndexed(false);
+    }
+
+    @Test
+    public void stockUpdates_seekThePrimaryKey() {
+        Uri bookUri = ContentUris.withAppendedId(BooksEntry.CONTENT_URI, 7);
+        Bundle extras = new Bundle();
+        extras.putInt(BooksEntry.EXTRA_DELTA, -1);
+        provider.call(BooksEntry.METHOD_ADJUST_STOCK, "7", extras);
+
+        Bundle sales = new Bundle();
+        sales.putLongArray(BooksEntry.EXTRA_BOOK_IDS, new long[]{8, 9});
+        sales.putIntArray(BooksEntry.EXTRA_DELTAS, new int[]{-1, 2});
+        provider.call(BooksEntry.METHOD_APPLY_SALES, null, sales);
+
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, 12);
+        provider.update(bookUri, values, null, null);
+        provider.delete(bookUri, null, null);
+
+        assertIndexed(false);
+    }
+
+    private static Uri pageUri(long after, int limit) {
+        return BooksEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_AFTER, String.valueOf(after))
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+    }
+
+    /**
+     * Run a query and read its rows, the way the app does.
+     */
+    private void read(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        read(provider.query(uri, PROJECTION, selection, selectionArgs, sortOrder));
+    }
+
+    private void read(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Fail if a statement run since the last check scanned the books without an index, or,
+     * if {@code ordered}, sorted them instead of reading them in index order.
+     */
+    private void assertIndexed(boolean ordered) {
+        assertFalse("No statement was recorded", log.statements.isEmpty());
+        for (int i = 0; i < log.statements.size(); i++) {
+            for (String detail : log.plans.get(i)) {
+                boolean fullScan = detail.matches(BOOKS_SCAN) && !detail.contains(" INDEX ");
+                boolean sorted = ordered && detail.startsWith("USE TEMP B-TREE FOR ORDER BY");
+                if (fullScan || sorted) {
+                    fail(log.statements.get(i) + "\n" + log.plans.get(i));
+                }
+            }
+        }
+        log.clear();
+    }
+
+    /**
+     * Log recording every statement with its plan, instead of logging the slow ones.
+     */
+    private static class RecordingLog extends SlowQueryLog {
+
+        final List<String> statements = new ArrayList<>();
+        final List<List<String>> plans = new ArrayList<>();
+
+        RecordingLog() {
+            super(0);
+        }
+
+        @Override
+        synchronized void onSlowStatement(String sql, long nanos, List<String> plan) {
+            statements.add(sql);
+            plans.add(plan);
+        }
+
+        synchronized void clear() {
+            statements.clear();
+            plans.clear();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.StatsEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test saving and restoring snapshots of the books through {@link BookProvider}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderSnapshotTest {
+
+    private static final String LOG_TAG = BookProviderSnapshotTest.class.getSimpleName();
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "snapshot-test-supplier";
+
+    private static final int ROW_COUNT = 100000;
+
+    private ContentResolver resolver;
+    private TestBooks books;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        snapshotFile = new File(context.getCacheDir(), "test.snapshot");
+        books = new TestBooks(resolver, TEST_SUPPLIER);
+        books.deleteAll();
+    }
+
+    @After
+    public void tearDown() {
+        books.deleteAll();
+        snapshotFile.delete();
+    }
+
+    @Test
+    public void restore_bringsBackBooksIndexesAndStatistics() {
+        resolver.bulkInsert(BooksEntry.CONTENT_URI, books.rows("Snapshot book", ROW_COUNT));
+        long firstId = books.firstId();
+        long units = testSupplierUnits();
+
+        long start = SystemClock.elapsedRealtime();
+        Bundle saved = resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_WRITE_SNAPSHOT,
+                snapshotFile.getAbsolutePath(), null);
+        long saveMillis = SystemClock.elapsedRealtime() - start;
+        books.deleteAll();
+
+        start = SystemClock.elapsedRealtime();
+        Bundle restored = resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_RESTORE_SNAPSHOT,
+                snapshotFile.getAbsolutePath(), null);
+        long restoreMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Saved " + saved.getLong(BooksEntry.EXTRA_ROW_COUNT) + " books in " + saveMillis
+                + " ms, restored in " + restoreMillis + " ms");
+
+        assertEquals(saved.getLong(BooksEntry.EXTRA_ROW_COUNT), restored.getLong(BooksEntry.EXTRA_ROW_COUNT));
+        assertEquals(firstId, books.firstId());
+        assertEquals(units, testSupplierUnits());
+        // The full-text index was rebuilt
+        Cursor cursor = resolver.query(BooksEntry.SEARCH_URI.buildUpon()
+                        .appendQueryParameter(BooksEntry.QUERY_PARAMETER_SEARCH, "snapshot book 4242")
+                        .build(),
+                new String[]{BooksEntry._ID}, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void corruptSnapshot_changesNothing() throws IOException {
+        books.insert("Kept", 1);
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_WRITE_SNAPSHOT, snapshotFile.getAbsolutePath(), null);
+
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+        try {
+            resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_RESTORE_SNAPSHOT, snapshotFile.getAbsolutePath(), null);
+            fail("Expected the corrupt snapshot to be refused");
+        } catch (IllegalArgumentException expected) {
+            // Nothing was restored
+        }
+        assertEquals(1, testSupplierUnits());
+    }
+
+    private long testSupplierUnits() {
+        Cursor cursor = resolver.query(StatsEntry.SUPPLIERS_URI, new String[]{StatsEntry.COLUMN_UNITS},
+                StatsEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{TEST_SUPPLIER}, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test for {@link BooksEntry#COLUMN_VERSION} and the updates conditioned on it
+ * with {@link BooksEntry#QUERY_PARAMETER_EXPECTED_VERSION}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderVersionTest {
+
+    /**
+     * Supplier name used to tag the rows inserted by this test, so they can be cleaned up.
+     */
+    private static final String TEST_SUPPLIER = "version-test-supplier";
+
+    private ContentResolver resolver;
+    private TestBooks books;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        books = new TestBooks(resolver, TEST_SUPPLIER);
+        books.deleteAll();
+    }
+
+    @After
+    public void tearDown() {
+        books.deleteAll();
+    }
+
+    @Test
+    public void everyChange_bumpsVersion() {
+        long book = books.insert("Version book", 5);
+        assertEquals(1, version(book));
+
+        books.adjustStock(book, -1);
+        assertEquals(2, version(book));
+
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_PRICE, 12);
+        assertEquals(1, resolver.update(TestBooks.uri(book), values, null, null));
+        assertEquals(3, version(book));
+    }
+
+    @Test
+    public void refusedAdjustment_keepsVersion() {
+        long book = books.insert("Version book", 0);
+
+        books.adjustStock(book, -1);
+
+        assertEquals(1, version(book));
+    }
+
+    @Test
+    public void conditionalUpdate_writesCurrentVersion() {
+        long book = books.insert("Version book", 5);
+
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, 9);
+        assertEquals(1, resolver.update(expecting(book, 1), values, null, null));
+
+        assertEquals(9, books.quantity(book));
+        assertEquals(2, version(book));
+    }
+
+    @Test
+    public void conditionalUpdate_keepsConcurrentSale() {
+        long book = books.insert("Version book", 5);
+        // A sale lands while an editor shows version 1
+        books.adjustStock(book, -1);
+
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        assertEquals(0, resolver.update(expecting(book, 1), values, null, null));
+
+        assertEquals(4, books.quantity(book));
+        assertEquals(2, version(book));
+    }
+
+    @Test
+    public void writingVersion_isRefused() {
+        long book = books.insert("Version book", 5);
+
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_VERSION, 1);
+        try {
+            resolver.update(TestBooks.uri(book), values, null, null);
+            fail("Expected writing the version to be refused");
+        } catch (IllegalArgumentException expected) {
+            // The version is only set by the provider
+        }
+        assertEquals(1, version(book));
+    }
+
+    private static Uri expecting(long id, long version) {
+        return TestBooks.uri(id).buildUpon()
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(version))
+                .build();
+    }
+
+    private long version(long id) {
+        return books.readLong(id, BooksEntry.COLUMN_VERSION);
+    }
+}
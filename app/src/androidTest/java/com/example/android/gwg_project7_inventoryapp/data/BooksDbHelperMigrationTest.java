@@ -0,0 +1,319 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.MovementsEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented test checking that {@link BooksDbHelper} upgrades old databases without losing
+ * data, and that upgraded databases match freshly created ones.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BooksDbHelperMigrationTest {
+
+    private static final String UPGRADED_DB = "migration-test-upgraded.db";
+    private static final String FRESH_DB = "migration-test-fresh.db";
+
+    /**
+     * The version before the current one, which most installs upgrade from
+     */
+    private static final int PREVIOUS_VERSION = BooksDbHelper.DATABASE_VERSION - 1;
+
+    private static final String SQL_SELECT_BOOKS = "SELECT _id, product_name, price, quantity,"
+            + " supplier_name, supplier_phone_number FROM books ORDER BY _id";
+
+    /**
+     * The books table exactly as version 1 of the app created it.
+     */
+    private static final String SQL_CREATE_BOOKS_TABLE_V1 = "CREATE TABLE books ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "product_name TEXT NOT NULL, "
+            + "price INTEGER NOT NULL, "
+            + "quantity INTEGER NOT NULL, "
+            + "supplier_name TEXT, "
+            + "supplier_phone_number TEXT );";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(UPGRADED_DB);
+        context.deleteDatabase(FRESH_DB);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(UPGRADED_DB);
+        context.deleteDatabase(FRESH_DB);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsData() {
+        createVersion1Database();
+
+        SQLiteDatabase db = new BooksDbHelper(context, UPGRADED_DB).getWritableDatabase();
+        Cursor cursor = db.query(BooksEntry.TABLE_NAME, null, null, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Dune", cursor.getString(cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_NAME)));
+            assertEquals(3, cursor.getInt(cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_QUANTITY)));
+        } finally {
+            cursor.close();
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_createsIndexes() {
+        createVersion1Database();
+
+        SQLiteDatabase db = new BooksDbHelper(context, UPGRADED_DB).getWritableDatabase();
+        try {
+            Set<String> indexes = schemaObjects(db, "index");
+            assertTrue(indexes.contains(BooksDbHelper.INDEX_PRODUCT_NAME));
+            assertTrue(indexes.contains(BooksDbHelper.INDEX_SUPPLIER_NAME));
+            assertTrue(indexes.contains(BooksDbHelper.INDEX_PRODUCT_QUANTITY));
+            if (BooksDbHelper.supportsPartialIndexes(db)) {
+                assertTrue(indexes.contains(BooksDbHelper.INDEX_LOW_STOCK));
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradedSchema_matchesFreshSchema() {
+        createVersion1Database();
+
+        SQLiteDatabase upgraded = new BooksDbHelper(context, UPGRADED_DB).getWritableDatabase();
+        SQLiteDatabase fresh = new BooksDbHelper(context, FRESH_DB).getWritableDatabase();
+        try {
+            assertEquals(BooksDbHelper.DATABASE_VERSION, upgraded.getVersion());
+            assertEquals(schemaObjects(fresh, null), schemaObjects(upgraded, null));
+        } finally {
+            upgraded.close();
+            fresh.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsTheSeededRowsAtEveryStep() {
+        SQLiteDatabase db = openVersion1Database();
+        try {
+            for (int version = 2; version <= BooksDbHelper.DATABASE_VERSION; version++) {
+                BooksDbHelper.upgrade(db, version - 1, version);
+                assertSeededRows(db, version);
+            }
+
+            // The sync IDs given by the migration are unique
+            try {
+                db.execSQL("UPDATE books SET sync_id = (SELECT sync_id FROM books WHERE _id = 1) WHERE _id = 2");
+                fail("Expected a duplicate sync ID to be refused");
+            } catch (SQLiteConstraintException expected) {
+                // Refused by the unique index
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromPreviousVersion_keepsTheSeededRows() {
+        SQLiteDatabase old = openVersion1Database();
+        try {
+            BooksDbHelper.upgrade(old, 1, PREVIOUS_VERSION);
+            old.setVersion(PREVIOUS_VERSION);
+            // Written through the triggers of the previous version
+            old.execSQL("INSERT INTO books (product_name, price, quantity, supplier_name)"
+                    + " VALUES ('Walden', 7, 4, 'Beacon')");
+            old.execSQL("UPDATE books SET quantity = quantity + 2 WHERE product_name = 'Emma'");
+        } finally {
+            old.close();
+        }
+
+        SQLiteDatabase db = new BooksDbHelper(context, UPGRADED_DB).getWritableDatabase();
+        try {
+            assertEquals(BooksDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(Arrays.asList("1,Dune,12,3,Chilton,5550100,", "2,Emma,5,2,null,null,",
+                    "3,Walden,7,4,Beacon,null,"), rows(db, SQL_SELECT_BOOKS));
+            assertEquals(Arrays.asList("3,", "1,"),
+                    rows(db, "SELECT docid FROM books_fts WHERE books_fts MATCH 'walden OR dune' ORDER BY docid DESC"));
+            assertStatsMatchBooks("Upgraded", db);
+            assertEquals(Arrays.asList("1,", "2,", "1,"), rows(db, "SELECT version FROM books ORDER BY _id"));
+            // The provider journals sales, so the raw update above left only the openings
+            assertEquals(Arrays.asList("1,3,", "2,0,", "3,4,"), rows(db, "SELECT " + MovementsEntry.COLUMN_BOOK_ID
+                    + ", SUM(" + MovementsEntry.COLUMN_DELTA + ") FROM " + BooksDbHelper.TABLE_STOCK_MOVEMENTS
+                    + " GROUP BY 1 ORDER BY 1"));
+            assertSyncState("Upgraded", db, 3);
+
+            // The triggers of the new version list the books changed after the upgrade
+            db.execSQL("UPDATE books SET quantity = quantity - 1 WHERE product_name = 'Walden'");
+            assertEquals(Arrays.asList("3,"), rows(db, "SELECT c.quantity_delta FROM "
+                    + BooksDbHelper.TABLE_BOOK_CHANGES + " c JOIN books b ON b.sync_id = c.sync_id"
+                    + " WHERE b.product_name = 'Walden'"));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void inventoryStats_matchBooksAfterChanges() {
+        createVersion1Database();
+
+        SQLiteDatabase db = new BooksDbHelper(context, UPGRADED_DB).getWritableDatabase();
+        try {
+            // The book of version 1 is counted by the migration, the others by the triggers
+            db.execSQL("INSERT INTO books (product_name, price, quantity, supplier_name)"
+                    + " VALUES ('Emma', 5, 0, 'Chilton'), ('Ulysses', 20, 2, NULL), ('Walden', 7, 4, 'Beacon')");
+            db.execSQL("UPDATE books SET quantity = quantity + 1 WHERE product_name = 'Emma'");
+            db.execSQL("UPDATE books SET supplier_name = 'Chilton' WHERE product_name = 'Walden'");
+            db.execSQL("DELETE FROM books WHERE product_name = 'Dune'");
+
+            assertStatsMatchBooks("Changed", db);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void createVersion1Database() {
+        openVersion1Database().close();
+    }
+
+    /**
+     * Create the version 1 database with its books and return it open.
+     */
+    private SQLiteDatabase openVersion1Database() {
+        SQLiteDatabase db = context.openOrCreateDatabase(UPGRADED_DB, Context.MODE_PRIVATE, null);
+        db.execSQL(SQL_CREATE_BOOKS_TABLE_V1);
+        db.execSQL("INSERT INTO books (product_name, price, quantity, supplier_name, supplier_phone_number)"
+                + " VALUES ('Dune', 12, 3, 'Chilton', '5550100')");
+        db.execSQL("INSERT INTO books (product_name, price, quantity) VALUES ('Emma', 5, 0)");
+        db.setVersion(1);
+        return db;
+    }
+
+    /**
+     * Check the books of version 1, and what each migration step up to the given version built
+     * from them.
+     */
+    private static void assertSeededRows(SQLiteDatabase db, int version) {
+        String step = "Version " + version;
+        assertEquals(step, Arrays.asList("1,Dune,12,3,Chilton,5550100,", "2,Emma,5,0,null,null,"),
+                rows(db, SQL_SELECT_BOOKS));
+        if (version >= 3) {
+            // The books already there were indexed
+            assertEquals(step, Arrays.asList("1,"), rows(db, "SELECT docid FROM books_fts WHERE books_fts MATCH 'chilton'"));
+            assertEquals(step, Arrays.asList("2,"), rows(db, "SELECT docid FROM books_fts WHERE books_fts MATCH 'emma'"));
+        }
+        if (version >= 5) {
+            assertStatsMatchBooks(step, db);
+        }
+        if (version >= 6) {
+            assertEquals(step, Arrays.asList("1,", "1,"), rows(db, "SELECT version FROM books ORDER BY _id"));
+        }
+        if (version >= 7) {
+            // Each book opens with its quantity as a correction
+            String correction = MovementsEntry.KIND_CORRECTION + ",";
+            assertEquals(step, Arrays.asList("1,3," + correction, "2,0," + correction),
+                    rows(db, "SELECT " + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_DELTA + ", "
+                            + MovementsEntry.COLUMN_KIND + " FROM " + BooksDbHelper.TABLE_STOCK_MOVEMENTS + " ORDER BY 1"));
+        }
+        if (version >= 8) {
+            assertSyncState(step, db, 2);
+        }
+    }
+
+    /**
+     * Check that the inventory statistics hold what counting the books gives.
+     */
+    private static void assertStatsMatchBooks(String message, SQLiteDatabase db) {
+        String[] stats = {
+                "supplier_name, title_count, units, stock_value, out_of_stock_count",
+                "IFNULL(supplier_name, ''), COUNT(*), SUM(quantity), SUM(price * quantity), SUM(quantity <= 0)"};
+        assertEquals(message, rows(db, "SELECT " + stats[1] + " FROM books GROUP BY 1 ORDER BY 1"),
+                rows(db, "SELECT " + stats[0] + " FROM " + BooksDbHelper.TABLE_INVENTORY_STATS + " ORDER BY 1"));
+    }
+
+    /**
+     * Check that each of the given number of books got a sync ID of its own, and is listed for
+     * the first sync with its whole quantity, and that the store got its ID.
+     */
+    private static void assertSyncState(String message, SQLiteDatabase db, int bookCount) {
+        assertEquals(message, bookCount, DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(DISTINCT sync_id) FROM books WHERE sync_id IS NOT NULL", null));
+        assertTrue(message, schemaObjects(db, "index").contains(BooksDbHelper.INDEX_SYNC_ID));
+        List<String> listed = new ArrayList<>();
+        for (int i = 0; i < bookCount; i++) {
+            listed.add("1,");
+        }
+        assertEquals(message, listed, rows(db, "SELECT b.quantity = c.quantity_delta FROM "
+                + BooksDbHelper.TABLE_BOOK_CHANGES + " c JOIN books b ON b.sync_id = c.sync_id"));
+        assertEquals(message, 1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                + BooksDbHelper.TABLE_SYNC_STATE + " WHERE name = ? AND value IS NOT NULL",
+                new String[]{BooksDbHelper.SYNC_STATE_STORE_ID}));
+    }
+
+    /**
+     * Return every row of the given query, its values separated by commas.
+     */
+    private static List<String> rows(SQLiteDatabase db, String sql) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(cursor.getString(i)).append(',');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Return "type name: sql" for every schema object of the given type, or of any type if null.
+     */
+    private static Set<String> schemaObjects(SQLiteDatabase db, String type) {
+        Set<String> objects = new TreeSet<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name <> 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                if (type == null) {
+                    objects.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + cursor.getString(2));
+                } else if (type.equals(cursor.getString(0))) {
+                    objects.add(cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return objects;
+    }
+}
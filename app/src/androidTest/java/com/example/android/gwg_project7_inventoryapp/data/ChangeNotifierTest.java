@@ -0,0 +1,115 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test checking that quick successive writes to {@link BookProvider} cause a
+ * single change notification.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChangeNotifierTest {
+
+    private static final int SALES = 10;
+
+    private ContentResolver resolver;
+    private HandlerThread observerThread;
+    private Uri bookUri;
+    private final AtomicInteger notifications = new AtomicInteger();
+    private ContentObserver observer;
+
+    @Before
+    public void setUp() {
+        resolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_NAME, "Coalescing");
+        values.put(BooksEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, SALES);
+        values.put(BooksEntry.COLUMN_SUPPLIER_NAME, "Notifier");
+        values.put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        bookUri = resolver.insert(BooksEntry.CONTENT_URI, values);
+
+        observerThread = new HandlerThread("observer");
+        observerThread.start();
+        observer = new ContentObserver(new Handler(observerThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notifications.incrementAndGet();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        resolver.unregisterContentObserver(observer);
+        observerThread.quit();
+        resolver.delete(bookUri, null, null);
+    }
+
+    @Test
+    public void quickSales_areNotifiedOnce() throws InterruptedException {
+        // Let the notification of the insert go out first
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MILLIS * 4);
+        resolver.registerContentObserver(BooksEntry.CONTENT_URI, true, observer);
+        Bundle before = stats();
+
+        for (int i = 0; i < SALES; i++) {
+            sell();
+        }
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MILLIS * 4);
+
+        Bundle after = stats();
+        assertEquals(SALES, after.getLong(BooksEntry.EXTRA_CHANGES_REQUESTED)
+                - before.getLong(BooksEntry.EXTRA_CHANGES_REQUESTED));
+        assertTrue("Expected the sales to be coalesced, got " + notifications.get() + " notifications",
+                notifications.get() <= 2);
+    }
+
+    @Test
+    public void suspendedNotifications_areSentOnResume() throws InterruptedException {
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MILLIS * 4);
+        resolver.registerContentObserver(BooksEntry.CONTENT_URI, true, observer);
+
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_SUSPEND_NOTIFICATIONS, null, null);
+        for (int i = 0; i < SALES; i++) {
+            sell();
+        }
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MILLIS * 4);
+        assertEquals(0, notifications.get());
+
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_RESUME_NOTIFICATIONS, null, null);
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MILLIS * 4);
+        assertEquals(1, notifications.get());
+    }
+
+    private void sell() {
+        Bundle extras = new Bundle();
+        extras.putInt(BooksEntry.EXTRA_DELTA, -1);
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_ADJUST_STOCK,
+                String.valueOf(ContentUris.parseId(bookUri)), extras);
+    }
+
+    private Bundle stats() {
+        return resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_NOTIFICATION_STATS, null, null);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Books written by an instrumented test through the app provider. They are tagged with a
+ * supplier name of their own, so the test can clean them up without touching the other books.
+ */
+final class TestBooks {
+
+    private final ContentResolver resolver;
+    private final String supplier;
+
+    /**
+     * @param resolver The resolver reaching the app provider
+     * @param supplier The supplier name tagging the books of the test
+     */
+    TestBooks(ContentResolver resolver, String supplier) {
+        this.resolver = resolver;
+        this.supplier = supplier;
+    }
+
+    /**
+     * Return the values of a valid book of the test.
+     */
+    ContentValues values(String name, int price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(BooksEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(BooksEntry.COLUMN_SUPPLIER_NAME, supplier);
+        values.put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        return values;
+    }
+
+    /**
+     * Return the values of the given number of books, named after the prefix and their index,
+     * with varied prices and quantities.
+     */
+    ContentValues[] rows(String namePrefix, int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = values(namePrefix + " " + i, i % 100, i % 20);
+        }
+        return rows;
+    }
+
+    /**
+     * Insert a book with the given quantity and return its ID.
+     */
+    long insert(String name, int quantity) {
+        return ContentUris.parseId(resolver.insert(BooksEntry.CONTENT_URI, values(name, 10, quantity)));
+    }
+
+    /**
+     * Return the number of books of the test.
+     */
+    int count() {
+        Cursor cursor = resolver.query(BooksEntry.CONTENT_URI, new String[]{BooksEntry._ID},
+                BooksEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{supplier}, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the ID of the first book of the test.
+     */
+    long firstId() {
+        Cursor cursor = resolver.query(BooksEntry.CONTENT_URI, new String[]{BooksEntry._ID},
+                BooksEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{supplier}, BooksEntry._ID);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    int quantity(long id) {
+        return (int) readLong(id, BooksEntry.COLUMN_PRODUCT_QUANTITY);
+    }
+
+    /**
+     * Return an integer column of a book.
+     */
+    long readLong(long id, String column) {
+        Cursor cursor = resolver.query(uri(id), new String[]{column}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Add the delta to the quantity of a book with {@link BooksEntry#METHOD_ADJUST_STOCK}.
+     */
+    Bundle adjustStock(long id, int delta) {
+        Bundle extras = new Bundle();
+        extras.putInt(BooksEntry.EXTRA_DELTA, delta);
+        return resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_ADJUST_STOCK, String.valueOf(id), extras);
+    }
+
+    /**
+     * Delete every book of the test.
+     */
+    void deleteAll() {
+        resolver.delete(BooksEntry.CONTENT_URI,
+                BooksEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{supplier});
+    }
+
+    static Uri uri(long id) {
+        return ContentUris.withAppendedId(BooksEntry.CONTENT_URI, id);
+    }
+}
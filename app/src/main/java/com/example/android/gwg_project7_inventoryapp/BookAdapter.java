@@ -0,0 +1,189 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v7.recyclerview.extensions.AsyncListDiffer;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import java.util.List;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+
+/**
+ * {@link BookAdapter} is an adapter for a {@link RecyclerView} that shows a list of
+ * {@link Book} snapshots.
+ * <p>
+ * When a new list is submitted, the difference with the current list is computed on a background
+ * thread, keyed on the book ID, and only the rows that actually changed are rebound. Binding a
+ * row allocates nothing: each row keeps its views in a {@link ViewHolder}, numbers are formatted
+ * into buffers owned by the holder and all rows share the same click listeners.
+ */
+public class BookAdapter extends RecyclerView.Adapter<BookAdapter.ViewHolder> {
+
+    /**
+     * Books are the same item if they have the same ID, and look the same if the values shown
+     * by the row are equal.
+     */
+    private static final DiffUtil.ItemCallback<Book> DIFF_CALLBACK = new DiffUtil.ItemCallback<Book>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+            return oldBook.getId() == newBook.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Book oldBook, @NonNull Book newBook) {
+            return oldBook.getQuantity() == newBook.getQuantity()
+                    && oldBook.getPrice() == newBook.getPrice()
+                    && oldBook.getName().equals(newBook.getName());
+        }
+    };
+
+    private final Context context;
+    private final AsyncListDiffer<Book> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+
+    /**
+     * Click listener shared by all rows, opening the book. The row holder is the view tag.
+     */
+    private final View.OnClickListener itemClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            InventoryActivity activity = (InventoryActivity) context;
+            activity.openBook(holder.bookId);
+        }
+    };
+
+    /**
+     * Click listener shared by the sale buttons of all rows. The row holder is the button tag.
+     */
+    private final View.OnClickListener saleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            InventoryActivity activity = (InventoryActivity) context;
+            activity.bookSale(holder.bookId);
+        }
+    };
+
+    /**
+     * Constructs a new {@link BookAdapter}.
+     *
+     * @param context The context
+     */
+    public BookAdapter(Context context) {
+        this.context = context;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given books. Rows are updated once the difference with the current books has
+     * been computed in the background. The list must not be changed afterwards.
+     */
+    public void submitList(List<Book> books) {
+        differ.submitList(books);
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).getId();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        view.setOnClickListener(itemClickListener);
+        holder.bookQuantitySaleButton.setTag(holder);
+        holder.bookQuantitySaleButton.setOnClickListener(saleClickListener);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Book book = differ.getCurrentList().get(position);
+        holder.bookId = book.getId();
+        holder.bookNameTextView.setText(book.getName());
+        holder.setPrice(book.getPrice());
+        holder.setQuantity(book.getQuantity());
+    }
+
+    /**
+     * Views and text buffers of one list item.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+
+        @BindView(R.id.name_text_view)
+        TextView bookNameTextView;
+
+        @BindView(R.id.price_textview)
+        TextView bookPriceTextView;
+
+        @BindView(R.id.quantity_textview)
+        TextView bookQuantityTextView;
+
+        @BindView(R.id.sale_btn)
+        Button bookQuantitySaleButton;
+
+        /**
+         * ID of the book shown by the row
+         */
+        long bookId;
+
+        /**
+         * Buffers the numbers of the row are formatted into, reused by every bind
+         */
+        private final char[] bookPrice = new char[11];
+        private final char[] bookQuantity = new char[11];
+
+        ViewHolder(View view) {
+            super(view);
+            ButterKnife.bind(this, view);
+        }
+
+        void setPrice(int price) {
+            int start = formatInt(price, bookPrice);
+            bookPriceTextView.setText(bookPrice, start, bookPrice.length - start);
+        }
+
+        void setQuantity(int quantity) {
+            int start = formatInt(quantity, bookQuantity);
+            bookQuantityTextView.setText(bookQuantity, start, bookQuantity.length - start);
+        }
+    }
+
+    /**
+     * Write the decimal digits of the value at the end of the buffer, without creating a String.
+     * The buffer must hold at least 11 chars.
+     *
+     * @return the index of the first char written
+     */
+    static int formatInt(int value, char[] buffer) {
+        int position = buffer.length;
+        // Work on the negative value, so Integer.MIN_VALUE doesn't overflow
+        int remaining = value < 0 ? value : -value;
+        do {
+            buffer[--position] = (char) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            buffer[--position] = '-';
+        }
+        return position;
+    }
+}
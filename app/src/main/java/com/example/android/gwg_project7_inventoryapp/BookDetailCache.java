@@ -0,0 +1,98 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Bounded cache of the books last shown by the list, so the editor can show a book on its first
+ * frame instead of waiting for the database.
+ * <p>
+ * The list rows already hold every column of a book, so the cache is filled from the list
+ * snapshots with the rows around the visible window, without querying again. A book is dropped
+ * as soon as the provider notifies a change to it, and every book is dropped when the whole
+ * table changes. Changes to the other views below the books, such as the statistics, leave the
+ * books alone. A cached book may still be a little out of date, so the editor confirms it
+ * against the provider afterwards.
+ */
+public class BookDetailCache {
+
+    /**
+     * Number of books kept
+     */
+    private static final int MAX_BOOKS = 200;
+
+    private final LruCache<Long, Book> books = new LruCache<>(MAX_BOOKS);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Drops the books that changed. Notifications are delivered on a binder thread, the cache
+     * being thread-safe.
+     */
+    private final ContentObserver invalidationObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            books.evictAll();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            List<String> segments = uri == null ? null : uri.getPathSegments();
+            if (segments == null || segments.size() < 2) {
+                books.evictAll();
+            } else if (TextUtils.isDigitsOnly(segments.get(1))) {
+                books.remove(Long.parseLong(segments.get(1)));
+            }
+            // Any other path, like books/stats, is derived from the books and notified along
+            // with the change to them
+        }
+    };
+
+    public BookDetailCache(ContentResolver contentResolver) {
+        contentResolver.registerContentObserver(BooksEntry.CONTENT_URI, true, invalidationObserver);
+    }
+
+    /**
+     * Cache the books of the given list from {@code from} (inclusive) to {@code to} (exclusive),
+     * clamped to the list.
+     */
+    public void putAll(List<Book> list, int from, int to) {
+        for (int i = Math.max(0, from); i < Math.min(list.size(), to); i++) {
+            Book book = list.get(i);
+            books.put(book.getId(), book);
+        }
+    }
+
+    /**
+     * Return the cached book with the given ID, or null if it isn't cached.
+     */
+    public Book get(long id) {
+        Book book = books.get(id);
+        if (book != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return book;
+    }
+
+    /**
+     * Return the share of {@link #get(long)} calls that found the book, from 0 to 1.
+     */
+    public float getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (float) hits / total;
+    }
+}
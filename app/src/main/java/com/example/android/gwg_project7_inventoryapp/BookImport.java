@@ -0,0 +1,204 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Imports a CSV file of books chosen by the user, one import at a time, with a
+ * {@link CsvImporter} writing each chunk through {@link ContentResolver#bulkInsert}. Change
+ * notifications are held back during the import, so the list refreshes once at the end instead
+ * of once per chunk. Progress and the outcome are delivered to the listener on the main thread.
+ */
+public class BookImport {
+
+    private static final String LOG_TAG = BookImport.class.getSimpleName();
+
+    /**
+     * File the rejected records of the last import are written to
+     */
+    private static final String REJECT_FILE = "import-rejects.csv";
+
+    /**
+     * Number of records parsed and written together
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Told about an import, on the main thread.
+     */
+    public interface Listener {
+
+        void onImportProgress(long imported, long rejected);
+
+        /**
+         * Called when the import ended. The result is null if the file couldn't be imported.
+         */
+        void onImportFinished(CsvImporter.Result result, File rejectFile);
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // The following fields are only used on the main thread
+    private Listener listener;
+    private CsvImporter importer;
+    private long imported;
+    private long rejected;
+
+    public BookImport(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Set the listener, which is told right away about the progress of a running import.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null && importer != null) {
+            listener.onImportProgress(imported, rejected);
+        }
+    }
+
+    public boolean isRunning() {
+        return importer != null;
+    }
+
+    /**
+     * Stop the running import, if any. The books already written stay.
+     */
+    public void cancel() {
+        if (importer != null) {
+            importer.cancel();
+        }
+    }
+
+    /**
+     * Import the books of the CSV file at the given URI in the background. Return false if an
+     * import is already running.
+     */
+    public boolean start(final Uri uri) {
+        if (importer != null) {
+            return false;
+        }
+        final ContentResolver contentResolver = context.getContentResolver();
+        final CsvImporter csvImporter = new CsvImporter(new CsvImporter.Sink() {
+            @Override
+            public void insert(List<Book> books) {
+                ContentValues[] values = new ContentValues[books.size()];
+                for (int i = 0; i < values.length; i++) {
+                    Book book = books.get(i);
+                    values[i] = new ContentValues();
+                    values[i].put(BooksEntry.COLUMN_PRODUCT_NAME, book.getName());
+                    values[i].put(BooksEntry.COLUMN_PRODUCT_PRICE, book.getPrice());
+                    values[i].put(BooksEntry.COLUMN_PRODUCT_QUANTITY, book.getQuantity());
+                    values[i].put(BooksEntry.COLUMN_SUPPLIER_NAME, book.getSupplierName());
+                    values[i].put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, book.getSupplierPhone());
+                }
+                contentResolver.bulkInsert(BooksEntry.CONTENT_URI, values);
+                // Keep the notifications suspended for as long as the import makes progress
+                contentResolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_RENEW_SUSPENSION, null, null);
+            }
+        }, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), CHUNK_SIZE);
+        importer = csvImporter;
+        imported = 0;
+        rejected = 0;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                File rejectFile = new File(rejectDirectory(), REJECT_FILE);
+                CsvImporter.Result result = null;
+                contentResolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_SUSPEND_NOTIFICATIONS, null, null);
+                try {
+                    result = importFile(contentResolver, uri, rejectFile, csvImporter);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Import of " + uri + " failed", e);
+                } finally {
+                    contentResolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_RESUME_NOTIFICATIONS, null, null);
+                }
+                finish(result, rejectFile);
+            }
+        }, "BookImport").start();
+        return true;
+    }
+
+    private CsvImporter.Result importFile(ContentResolver contentResolver, Uri uri, File rejectFile,
+                                          CsvImporter csvImporter) throws IOException {
+        InputStream input = contentResolver.openInputStream(uri);
+        if (input == null) {
+            throw new IOException("Can't open " + uri);
+        }
+        Reader in = new BufferedReader(new InputStreamReader(input, UTF_8));
+        try {
+            Writer rejects = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejectFile), UTF_8));
+            try {
+                return csvImporter.importBooks(in, rejects, new CsvImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(final long importedCount, final long rejectedCount) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                imported = importedCount;
+                                rejected = rejectedCount;
+                                if (listener != null) {
+                                    listener.onImportProgress(importedCount, rejectedCount);
+                                }
+                            }
+                        });
+                    }
+                });
+            } finally {
+                rejects.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void finish(final CsvImporter.Result result, final File rejectFile) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                importer = null;
+                if (listener != null) {
+                    listener.onImportFinished(result, rejectFile);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the directory of the reject file, on shared storage when there is one so the user
+     * can open the file.
+     */
+    private File rejectDirectory() {
+        File directory = context.getExternalFilesDir(null);
+        return directory != null ? directory : context.getFilesDir();
+    }
+}
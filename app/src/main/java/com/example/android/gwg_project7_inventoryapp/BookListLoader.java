@@ -0,0 +1,104 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+import com.example.android.gwg_project7_inventoryapp.data.BookCursors;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Loader reading a list of books into {@link Book} snapshots on a background thread, so the
+ * list can be diffed without holding a cursor. Like a CursorLoader, it reloads when the books
+ * listed change, which is notified on {@link BooksEntry#LIST_NOTIFICATION_URI}.
+ */
+public class BookListLoader extends AsyncTaskLoader<List<Book>> {
+
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+    private final Uri uri;
+    private final String[] projection;
+
+    /**
+     * Books delivered last
+     */
+    private List<Book> books;
+
+    /**
+     * Whether the observer is registered
+     */
+    private boolean observing;
+
+    /**
+     * Constructs a new {@link BookListLoader}.
+     *
+     * @param context    The context
+     * @param uri        The list content URI to query
+     * @param projection Columns to read
+     */
+    public BookListLoader(Context context, Uri uri, String[] projection) {
+        super(context);
+        this.uri = uri;
+        this.projection = projection;
+    }
+
+    @Override
+    public List<Book> loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(uri, projection, null, null, null);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return BookCursors.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<Book> data) {
+        if (isReset()) {
+            return;
+        }
+        books = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!observing) {
+            getContext().getContentResolver().registerContentObserver(
+                    BooksEntry.LIST_NOTIFICATION_URI, true, observer);
+            observing = true;
+        }
+        if (books != null) {
+            deliverResult(books);
+        }
+        if (takeContentChanged() || books == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        books = null;
+        if (observing) {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+            observing = false;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keyset pages of the inventory list, of which only a window around the visible rows is loaded.
+ * <p>
+ * Page n holds the books after key n, in ID order, up to and including key n + 1, the last book
+ * of the page when the next page was started. The key of every page reached so far is kept, 8
+ * bytes per page, so a page dropped from the window is loaded again from its key when the user
+ * scrolls back to it, with the same books as before minus the ones deleted since. Pages more
+ * than {@code marginPages + 1} pages away from the visible rows are dropped, so the books held
+ * and diffed stay bounded by the visible rows plus twice that margin, however far the user
+ * scrolls.
+ * <p>
+ * Only used on the main thread.
+ */
+class BookPages {
+
+    /**
+     * Starts and stops the loading of the pages.
+     */
+    interface Loading {
+
+        /**
+         * Start loading the given page, made of the books after the given key. The books are
+         * passed to {@link #onPageLoaded} once loaded, and every time they change.
+         */
+        void startPage(int page, long afterId);
+
+        /**
+         * Stop loading the given page.
+         */
+        void stopPage(int page);
+    }
+
+    private final int pageSize;
+    private final int marginPages;
+    private final Loading loading;
+
+    /**
+     * Key each page reached so far is loaded after, in order
+     */
+    private final List<Long> keys = new ArrayList<>();
+
+    /**
+     * Books of each page, in the same order, or null while the page isn't loaded. These lists
+     * are never changed once shown, a changed page is replaced by a new list.
+     */
+    private final List<List<Book>> books = new ArrayList<>();
+
+    /**
+     * First and last started pages. Every page in between is started too.
+     */
+    private int firstPage;
+    private int lastPage = -1;
+
+    /**
+     * @param pageSize    the number of books loaded per page
+     * @param marginPages the number of pages loaded ahead of the visible rows, in each direction
+     * @param loading     starts and stops the loading of the pages
+     */
+    BookPages(int pageSize, int marginPages, Loading loading) {
+        this.pageSize = pageSize;
+        this.marginPages = marginPages;
+        this.loading = loading;
+    }
+
+    /**
+     * Start loading the first page.
+     */
+    void start() {
+        restore(new long[]{0}, 0, 0);
+    }
+
+    /**
+     * Start loading the given window of pages, saved from {@link #getKeys()},
+     * {@link #getFirstPage()} and {@link #getLastPage()}.
+     */
+    void restore(long[] savedKeys, int first, int last) {
+        for (long key : savedKeys) {
+            keys.add(key);
+            books.add(null);
+        }
+        firstPage = first;
+        lastPage = last;
+        for (int page = first; page <= last; page++) {
+            loading.startPage(page, keys.get(page));
+        }
+    }
+
+    long[] getKeys() {
+        long[] saved = new long[keys.size()];
+        for (int page = 0; page < saved.length; page++) {
+            saved[page] = keys.get(page);
+        }
+        return saved;
+    }
+
+    int getFirstPage() {
+        return firstPage;
+    }
+
+    int getLastPage() {
+        return lastPage;
+    }
+
+    /**
+     * Keep the books loaded for the given page. The books of the next page, which the page
+     * overlaps once books were deleted from it, are left out. If the page no longer ends where
+     * the next page starts, books were added or removed at the end of the list, and the
+     * following pages are stale: they are dropped and reloaded as the user scrolls.
+     */
+    void onPageLoaded(int page, List<Book> pageBooks) {
+        if (page < firstPage || page > lastPage) {
+            // Stopped since
+            return;
+        }
+        if (page + 1 < keys.size()) {
+            long nextKey = keys.get(page + 1);
+            int end = pageBooks.size();
+            while (end > 0 && pageBooks.get(end - 1).getId() > nextKey) {
+                end--;
+            }
+            boolean reachesNextPage = end < pageBooks.size()
+                    || (end > 0 && pageBooks.get(end - 1).getId() == nextKey);
+            if (end < pageBooks.size()) {
+                pageBooks = new ArrayList<>(pageBooks.subList(0, end));
+            }
+            if (!reachesNextPage) {
+                dropPagesAfter(page);
+            }
+        }
+        books.set(page, pageBooks);
+    }
+
+    /**
+     * Forget the books of the given page, which are no longer valid.
+     */
+    void onPageReset(int page) {
+        if (page < books.size()) {
+            books.set(page, null);
+        }
+    }
+
+    /**
+     * Return the books to show: the books of the loaded pages of the window, in order, up to
+     * the first page still loading after them.
+     */
+    List<Book> getBooks() {
+        List<Book> shown = new ArrayList<>();
+        boolean started = false;
+        for (int page = firstPage; page <= lastPage; page++) {
+            List<Book> pageBooks = books.get(page);
+            if (pageBooks == null) {
+                if (started) {
+                    break;
+                }
+                // Still loading before the pages already shown
+                continue;
+            }
+            started = true;
+            shown.addAll(pageBooks);
+        }
+        return shown;
+    }
+
+    /**
+     * Replace the given book in its page. Return whether it was loaded.
+     */
+    boolean replace(Book book) {
+        int page = pageOf(book.getId());
+        List<Book> pageBooks = books.get(page);
+        if (pageBooks == null) {
+            return false;
+        }
+        for (int i = 0; i < pageBooks.size(); i++) {
+            if (pageBooks.get(i).getId() == book.getId()) {
+                List<Book> updated = new ArrayList<>(pageBooks);
+                updated.set(i, book);
+                books.set(page, updated);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the window to the rows showing the given books: drop the pages too far from them,
+     * and start the pages within the margin.
+     */
+    void onVisibleRange(long firstVisibleId, long lastVisibleId) {
+        int firstVisible = pageOf(firstVisibleId);
+        int lastVisible = pageOf(lastVisibleId);
+
+        int keepFrom = firstVisible - marginPages - 1;
+        int keepTo = lastVisible + marginPages + 1;
+        for (int page = firstPage; page <= lastPage; page++) {
+            if (page < keepFrom || page > keepTo) {
+                stop(page);
+            }
+        }
+        int from = Math.max(0, firstVisible - marginPages);
+        if (lastPage < keepFrom || firstPage > keepTo) {
+            // Jumped away from the whole window, start again around the visible rows
+            firstPage = from;
+            lastPage = from - 1;
+        } else {
+            firstPage = Math.max(firstPage, keepFrom);
+            lastPage = Math.min(lastPage, keepTo);
+        }
+
+        while (firstPage > from) {
+            firstPage--;
+            loading.startPage(firstPage, keys.get(firstPage));
+        }
+        while (lastPage < lastVisible + marginPages) {
+            if (lastPage + 1 >= keys.size()) {
+                // A new page, after the last book of the last page if that page is full
+                List<Book> last = books.get(lastPage);
+                if (last == null || last.size() < pageSize) {
+                    return;
+                }
+                keys.add(last.get(last.size() - 1).getId());
+                books.add(null);
+            }
+            lastPage++;
+            loading.startPage(lastPage, keys.get(lastPage));
+        }
+    }
+
+    /**
+     * Return the page holding the book with the given ID, the last page whose key is below it.
+     */
+    private int pageOf(long id) {
+        int low = 0;
+        int high = keys.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (keys.get(middle) < id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void stop(int page) {
+        loading.stopPage(page);
+        books.set(page, null);
+    }
+
+    /**
+     * Stop loading every page after the given one, and forget their keys.
+     */
+    private void dropPagesAfter(int page) {
+        for (int i = keys.size() - 1; i > page; i--) {
+            if (i <= lastPage) {
+                loading.stopPage(i);
+            }
+            keys.remove(i);
+            books.remove(i);
+        }
+        lastPage = Math.min(lastPage, page);
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Runs the writes to the books in the background, so the main thread never waits for the
+ * database.
+ * <p>
+ * Writes run on a fixed number of lanes, each a single background thread. All the writes to the
+ * same book run on the same lane, so they run in the order they were submitted, while writes to
+ * different books can run side by side. Writes to the whole table, like inserts or deleting all
+ * books, run in order on the first lane. Results are delivered on the main thread, and a write
+ * can be cancelled until its result is delivered.
+ */
+public class BookWriter {
+
+    private static final String LOG_TAG = BookWriter.class.getSimpleName();
+
+    /**
+     * Number of lanes writes are spread over
+     */
+    private static final int LANE_COUNT = 3;
+
+    /**
+     * Result of {@link #merge} when a field was changed both by the merged changes and by
+     * another write, so nothing was written.
+     */
+    public static final int CONFLICT = -1;
+
+    /**
+     * Number of times {@link #merge} reads the book again before it gives up racing other
+     * writes to it
+     */
+    private static final int MERGE_ATTEMPTS = 3;
+
+    /**
+     * A write to run in the background.
+     */
+    public interface Operation<T> {
+        T run(ContentResolver contentResolver);
+    }
+
+    /**
+     * Receives the result of a write, on the main thread. The result is null if the write
+     * threw an exception.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * A submitted write, which can be cancelled.
+     */
+    public static final class Task {
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile Future<?> future;
+
+        /**
+         * Cancel the write. If it hasn't started yet it never runs, otherwise it completes but its
+         * result isn't delivered. Must be called on the main thread to be sure the result isn't
+         * delivered afterwards.
+         */
+        public void cancel() {
+            cancelled.set(true);
+            Future<?> future = this.future;
+            if (future != null) {
+                // The database isn't interrupted, a running write completes
+                future.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final ExecutorService[] lanes = new ExecutorService[LANE_COUNT];
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public BookWriter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+        for (int i = 0; i < LANE_COUNT; i++) {
+            final String name = "BookWriter-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, name);
+                }
+            });
+        }
+    }
+
+    /**
+     * Insert a book. The callback receives the URI of the new book.
+     */
+    public Task insert(final ContentValues values, @Nullable Callback<Uri> callback) {
+        return submit(BooksEntry.CONTENT_URI, new Operation<Uri>() {
+            @Override
+            public Uri run(ContentResolver contentResolver) {
+                return contentResolver.insert(BooksEntry.CONTENT_URI, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update the books at the given URI. The callback receives the number of books updated.
+     */
+    public Task update(final Uri uri, final ContentValues values, @Nullable Callback<Integer> callback) {
+        return submit(uri, new Operation<Integer>() {
+            @Override
+            public Integer run(ContentResolver contentResolver) {
+                return contentResolver.update(uri, values, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Write the given changes to the book at the given item URI, where they were made to the
+     * values {@code base} read at version {@code baseVersion} of the book. Only the changed
+     * fields are written, and only if the book is still at the version they are based on. If
+     * another write changed the book in between, its current values are read and the changes are
+     * written over them, keeping the other write, unless it changed one of the same fields to
+     * something else. The callback receives 1 if the changes were written, 0 if the book is gone,
+     * or {@link #CONFLICT}.
+     *
+     * @param base        values of the fields as they were read, keyed by column
+     * @param baseVersion {@link BooksEntry#COLUMN_VERSION} they were read at, or -1 if unknown
+     * @param changes     new values of the changed fields, keyed by column
+     */
+    public Task merge(final Uri uri, final ContentValues base, final long baseVersion, final ContentValues changes,
+                      @Nullable Callback<Integer> callback) {
+        return submit(uri, new Operation<Integer>() {
+            @Override
+            public Integer run(ContentResolver contentResolver) {
+                ContentValues pending = new ContentValues(changes);
+                long version = baseVersion;
+                for (int attempt = 0; attempt < MERGE_ATTEMPTS; attempt++) {
+                    if (version != -1) {
+                        if (pending.size() == 0) {
+                            // The other writes already made every change
+                            return 1;
+                        }
+                        Uri conditional = uri.buildUpon()
+                                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(version))
+                                .build();
+                        if (contentResolver.update(conditional, pending, null, null) != 0) {
+                            return 1;
+                        }
+                    }
+                    // The book changed since the base was read, merge with what it holds now
+                    List<String> columns = new ArrayList<>(pending.keySet());
+                    columns.add(BooksEntry.COLUMN_VERSION);
+                    Cursor cursor = contentResolver.query(uri, columns.toArray(new String[columns.size()]),
+                            null, null, null);
+                    if (cursor == null) {
+                        return 0;
+                    }
+                    try {
+                        if (!cursor.moveToFirst()) {
+                            return 0;
+                        }
+                        for (int i = 0; i < columns.size() - 1; i++) {
+                            String column = columns.get(i);
+                            String current = cursor.getString(i);
+                            if (TextUtils.equals(current, pending.getAsString(column))) {
+                                pending.remove(column);
+                            } else if (!TextUtils.equals(current, base.getAsString(column))) {
+                                return CONFLICT;
+                            }
+                        }
+                        version = cursor.getLong(columns.size() - 1);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                Log.w(LOG_TAG, "Gave up merging " + uri + " after " + MERGE_ATTEMPTS + " attempts");
+                return CONFLICT;
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete the books at the given URI. The callback receives the number of books deleted.
+     */
+    public Task delete(final Uri uri, @Nullable Callback<Integer> callback) {
+        return submit(uri, new Operation<Integer>() {
+            @Override
+            public Integer run(ContentResolver contentResolver) {
+                return contentResolver.delete(uri, null, null);
+            }
+        }, callback);
+    }
+
+    /**
+     * Add the given delta to the quantity of the book at the given URI, with
+     * {@link BooksEntry#METHOD_ADJUST_STOCK}. The callback receives the result of the method.
+     */
+    public Task adjustStock(final Uri uri, final int delta, @Nullable Callback<Bundle> callback) {
+        return submit(uri, new Operation<Bundle>() {
+            @Override
+            public Bundle run(ContentResolver contentResolver) {
+                Bundle extras = new Bundle();
+                extras.putInt(BooksEntry.EXTRA_DELTA, delta);
+                return contentResolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_ADJUST_STOCK,
+                        String.valueOf(ContentUris.parseId(uri)), extras);
+            }
+        }, callback);
+    }
+
+    /**
+     * Sell the given quantities of the given books in one call, all or nothing, with
+     * {@link BooksEntry#METHOD_CHECKOUT}. The callback receives the result of the method.
+     */
+    public Task checkout(final long[] ids, final int[] quantities, @Nullable Callback<Bundle> callback) {
+        return submit(BooksEntry.CONTENT_URI, new Operation<Bundle>() {
+            @Override
+            public Bundle run(ContentResolver contentResolver) {
+                Bundle extras = new Bundle();
+                extras.putLongArray(BooksEntry.EXTRA_BOOK_IDS, ids);
+                extras.putIntArray(BooksEntry.EXTRA_QUANTITIES, quantities);
+                return contentResolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_CHECKOUT, null, extras);
+            }
+        }, callback);
+    }
+
+    /**
+     * Run the given write on the lane of the given URI, and deliver its result to the callback
+     * on the main thread.
+     */
+    public <T> Task submit(final Uri uri, final Operation<T> operation, @Nullable final Callback<T> callback) {
+        final Task task = new Task();
+        task.future = laneFor(uri).submit(new Runnable() {
+            @Override
+            public void run() {
+                if (task.isCancelled()) {
+                    return;
+                }
+                T operationResult;
+                try {
+                    operationResult = operation.run(contentResolver);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Write to " + uri + " failed", e);
+                    operationResult = null;
+                }
+                final T result = operationResult;
+                if (callback == null) {
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!task.isCancelled()) {
+                            callback.onResult(result);
+                        }
+                    }
+                });
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Return the lane running the writes to the given URI: the lane of the book for a single
+     * book, the first lane for the whole table.
+     */
+    private ExecutorService laneFor(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        String last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || !TextUtils.isDigitsOnly(last)) {
+            return lanes[0];
+        }
+        long id = Long.parseLong(last);
+        return lanes[(int) ((id & Long.MAX_VALUE) % LANE_COUNT)];
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+import com.example.android.gwg_project7_inventoryapp.core.BookValidator;
+import com.example.android.gwg_project7_inventoryapp.data.BookCsv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Imports books from a CSV file written with the {@link BookCsv#COLUMNS} header.
+ * <p>
+ * The import is a pipeline. A reader thread streams the file and cuts it into chunks of
+ * records, which a pool of threads parses and validates with the {@link BookValidator} rules.
+ * The thread calling {@link #importBooks} is the only writer: it takes the parsed chunks in file
+ * order and hands the valid books of each chunk to the {@link Sink}, one transaction per chunk.
+ * At most a few chunks wait between the steps, so memory stays bounded whatever the size of the
+ * file. Invalid records are written to a reject file with the reason they were rejected.
+ */
+public class CsvImporter {
+
+    /**
+     * Writes the books of one chunk, in one transaction.
+     */
+    public interface Sink {
+        void insert(List<Book> books);
+    }
+
+    /**
+     * Told about the progress of the import, on the writer thread, after each chunk.
+     */
+    public interface ProgressListener {
+        void onProgress(long imported, long rejected);
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+        public final long imported;
+        public final long rejected;
+        public final boolean cancelled;
+
+        Result(long imported, long rejected, boolean cancelled) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.cancelled = cancelled;
+        }
+    }
+
+    /**
+     * Records parsed together
+     */
+    private static final class Chunk {
+        final List<Book> books = new ArrayList<>();
+        final List<List<String>> rejects = new ArrayList<>();
+    }
+
+    /**
+     * Marks the end of the chunks
+     */
+    private static final Future<Chunk> END = new FutureTask<>(new Callable<Chunk>() {
+        @Override
+        public Chunk call() {
+            return null;
+        }
+    });
+
+    private final Sink sink;
+    private final int parseThreads;
+    private final int chunkSize;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Constructs a new {@link CsvImporter}.
+     *
+     * @param sink         The sink writing the books
+     * @param parseThreads The number of threads parsing records
+     * @param chunkSize    The number of records parsed and written together
+     */
+    public CsvImporter(Sink sink, int parseThreads, int chunkSize) {
+        this.sink = sink;
+        this.parseThreads = parseThreads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Stop the import. The chunks already written stay, the others are dropped.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Import the books of the given CSV stream, on the calling thread. Invalid records are
+     * written to {@code rejects}, with the line they started on and the reason they were
+     * rejected. Return once every chunk is written, or once the import is cancelled.
+     *
+     * @throws IOException if the stream can't be read or isn't a book file
+     */
+    public Result importBooks(final Reader in, Writer rejects, ProgressListener listener) throws IOException {
+        final BookCsv.RecordReader records = new BookCsv.RecordReader(in);
+        final int[] columns = readHeader(records.next());
+
+        List<String> rejectHeader = new ArrayList<>(Arrays.asList(BookCsv.COLUMNS));
+        rejectHeader.add("line");
+        rejectHeader.add("error");
+        BookCsv.writeRecord(rejects, rejectHeader);
+
+        final ExecutorService parsers = Executors.newFixedThreadPool(parseThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "CsvImportParser");
+            }
+        });
+        // Bounds the chunks read ahead of the writer
+        final BlockingQueue<Future<Chunk>> chunks = new ArrayBlockingQueue<>(parseThreads * 2);
+        final IOException[] readError = new IOException[1];
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readChunks(records, columns, parsers, chunks);
+                } catch (IOException e) {
+                    readError[0] = e;
+                } catch (InterruptedException e) {
+                    // The writer gave up
+                } finally {
+                    putQuietly(chunks, END);
+                }
+            }
+        }, "CsvImportReader");
+        reader.start();
+
+        long imported = 0;
+        long rejected = 0;
+        boolean finished = false;
+        try {
+            while (true) {
+                Future<Chunk> future = chunks.take();
+                if (future == END) {
+                    finished = true;
+                    break;
+                }
+                Chunk chunk = future.get();
+                if (cancelled) {
+                    continue;
+                }
+                if (!chunk.books.isEmpty()) {
+                    sink.insert(chunk.books);
+                }
+                for (List<String> reject : chunk.rejects) {
+                    BookCsv.writeRecord(rejects, reject);
+                }
+                imported += chunk.books.size();
+                rejected += chunk.rejects.size();
+                if (listener != null) {
+                    listener.onProgress(imported, rejected);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Parsing never throws, but keep the cause visible if it does
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // If the writer stopped early, unblock the reader so it can finish, then stop the parsers
+            if (!finished) {
+                cancelled = true;
+                reader.interrupt();
+                chunks.clear();
+            }
+            joinQuietly(reader);
+            parsers.shutdownNow();
+        }
+        rejects.flush();
+
+        if (readError[0] != null) {
+            throw readError[0];
+        }
+        return new Result(imported, rejected, cancelled);
+    }
+
+    /**
+     * Return the index of each of the {@link BookCsv#COLUMNS} in the given header.
+     */
+    private static int[] readHeader(List<String> header) throws IOException {
+        if (header == null) {
+            throw new IOException("Empty file");
+        }
+        // Spreadsheets often start UTF-8 files with a byte order mark
+        if (!header.isEmpty() && header.get(0).startsWith("\uFEFF")) {
+            header.set(0, header.get(0).substring(1));
+        }
+        int[] columns = new int[BookCsv.COLUMNS.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = header.indexOf(BookCsv.COLUMNS[i]);
+            if (columns[i] == -1) {
+                throw new IOException("Missing column " + BookCsv.COLUMNS[i]);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Read the records in chunks and queue each chunk for parsing, in file order.
+     */
+    private void readChunks(BookCsv.RecordReader records, final int[] columns, ExecutorService parsers,
+                            BlockingQueue<Future<Chunk>> chunks) throws IOException, InterruptedException {
+        while (!cancelled) {
+            final List<List<String>> fields = new ArrayList<>(chunkSize);
+            final long[] lineNumbers = new long[chunkSize];
+            List<String> record;
+            while (fields.size() < chunkSize && (record = records.next()) != null) {
+                lineNumbers[fields.size()] = records.getLineNumber();
+                fields.add(record);
+            }
+            if (fields.isEmpty()) {
+                return;
+            }
+            chunks.put(parsers.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() {
+                    return parseChunk(fields, lineNumbers, columns);
+                }
+            }));
+        }
+    }
+
+    private static Chunk parseChunk(List<List<String>> records, long[] lineNumbers, int[] columns) {
+        Chunk chunk = new Chunk();
+        String[] values = new String[columns.length];
+        for (int i = 0; i < records.size(); i++) {
+            List<String> record = records.get(i);
+            for (int c = 0; c < columns.length; c++) {
+                values[c] = columns[c] < record.size() ? record.get(columns[c]).trim() : null;
+            }
+            String error = null;
+            Integer price = parseInt(values[1]);
+            Integer quantity = parseInt(values[2]);
+            // The columns have no defaults, so unlike the provider the import needs both numbers
+            if (price == null) {
+                error = "Price must be a number";
+            } else if (quantity == null) {
+                error = "Quantity must be a number";
+            } else {
+                error = BookValidator.validate(emptyToNull(values[0]), price, quantity,
+                        emptyToNull(values[3]), emptyToNull(values[4]));
+            }
+
+            if (error == null) {
+                chunk.books.add(new Book(0, values[0], price, quantity, values[3], values[4]));
+            } else {
+                List<String> reject = new ArrayList<>(Arrays.asList(values));
+                reject.add(String.valueOf(lineNumbers[i]));
+                reject.add(error);
+                chunk.rejects.add(reject);
+            }
+        }
+        return chunk;
+    }
+
+    private static Integer parseInt(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Empty fields are missing values, like the empty fields of the editor
+     */
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static void putQuietly(BlockingQueue<Future<Chunk>> queue, Future<Chunk> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(future);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -3,7 +3,9 @@ package com.example.android.gwg_project7_inventoryapp;
 import android.Manifest;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -12,11 +14,13 @@ import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -25,6 +29,12 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+import com.example.android.gwg_project7_inventoryapp.core.Stock;
+import com.example.android.gwg_project7_inventoryapp.data.BookCursors;
+
+import java.util.List;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
@@ -82,6 +92,22 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      * Book table Uri
      */
     private Uri currentBookUri;
+    /**
+     * Writer running the writes to the book in the background
+     */
+    private BookWriter bookWriter;
+    /**
+     * Time the editor was opened, to report how long it took to show the book
+     */
+    private long openedAt;
+    /**
+     * Book whose values the editor shows, or null if it doesn't show any yet
+     */
+    private Book shownBook;
+    /**
+     * {@link BooksEntry#COLUMN_VERSION} of the shown book, or -1 if it isn't known
+     */
+    private long shownVersion = -1;
     /**
      * Boolean flag that keeps track of whether the book has been edited (true) or not (false)
      */
@@ -102,8 +128,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        openedAt = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_editor);
 
+        bookWriter = ((InventoryApplication) getApplication()).getBookWriter();
+
         // Examine the intent that was used to launch this activity,
         // in order to figure out if we're creating a new book or editing an existing one.
         Intent intent = getIntent();
@@ -124,7 +153,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
 
             // Initialize a loader to read the book data from the database
-            // and display the current values in the editor
+            // and display the current values in the editor. If the book is cached, it is
+            // shown first and the loader only confirms it.
             getLoaderManager().initLoader(EXISTING_BOOK_LOADER, null, this);
         }
 
@@ -139,6 +169,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mSupplierNameEditText.setOnTouchListener(touchListener);
         mSuppplierPhoneNumberEditText.setOnTouchListener(touchListener);
 
+        // Show the book as the list last read it on the first frame, without a database round trip
+        if (currentBookUri != null && savedInstanceState == null) {
+            BookDetailCache bookDetailCache = ((InventoryApplication) getApplication()).getBookDetailCache();
+            Book cachedBook = bookDetailCache.get(ContentUris.parseId(currentBookUri));
+            if (cachedBook != null) {
+                bindBook(cachedBook);
+                reportPopulated("cache", bookDetailCache);
+            }
+        }
+
         // Create listener to call supply
         mPlacePhoneCallButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -157,10 +197,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         increaseButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                ContentValues contentValues = new ContentValues();
-                contentValues.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, Integer.parseInt(mBookQuantityEditText.getText().toString().trim()) + 1);
-                getContentResolver().update(currentBookUri, contentValues, null, null);
-
+                adjustQuantity(1);
             }
         });
 
@@ -168,19 +205,54 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         decreaseButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (Integer.parseInt(mBookQuantityEditText.getText().toString().trim()) <= 0) {
+                adjustQuantity(-1);
+            }
+        });
+    }
+
+    /**
+     * Add the given delta to the book quantity. For an existing book the provider applies the
+     * delta in a single statement in the background and returns the new quantity, which is then
+     * displayed. Taps are applied in order, so the last quantity displayed is the latest.
+     * <p>
+     * The quantity is already written, so it also becomes the base the edits are merged from.
+     * Otherwise saving would take it for an edit and write it over the sales made since.
+     */
+    private void adjustQuantity(int delta) {
+        String bookQuantityString = mBookQuantityEditText.getText().toString().trim();
+
+        // A new book isn't in the database yet, so only change the value in the editor
+        if (currentBookUri == null) {
+            int bookQuantity = TextUtils.isEmpty(bookQuantityString) ? 0 : Integer.parseInt(bookQuantityString);
+            if (!Stock.canAdjust(bookQuantity, delta)) {
+                Toast.makeText(this, R.string.out_stock, Toast.LENGTH_SHORT).show();
+            } else {
+                mBookQuantityEditText.setText(Integer.toString(Stock.adjust(bookQuantity, delta)));
+            }
+            return;
+        }
+
+        bookWriter.adjustStock(currentBookUri, delta, new BookWriter.Callback<Bundle>() {
+            @Override
+            public void onResult(Bundle result) {
+                if (result == null || !result.getBoolean(BooksEntry.EXTRA_ADJUSTED)) {
                     Toast.makeText(EditorActivity.this, R.string.out_stock, Toast.LENGTH_SHORT).show();
                 } else {
-                    ContentValues contentValues = new ContentValues();
-                    contentValues.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, Integer.parseInt(mBookQuantityEditText.getText().toString().trim()) - 1);
-                    getContentResolver().update(currentBookUri, contentValues, null, null);
+                    int quantity = result.getInt(BooksEntry.EXTRA_QUANTITY);
+                    if (shownBook != null) {
+                        // The shown version predates the adjustment, so saving checks the
+                        // book again before writing
+                        shownBook = shownBook.withQuantity(quantity);
+                    }
+                    mBookQuantityEditText.setText(Integer.toString(quantity));
                 }
             }
         });
     }
 
     /**
-     * Get user input from editor and save new book into database.
+     * Get user input from editor and save new book into database. The book is written in the
+     * background, and the result is shown once it is written, even if the editor is closed.
      */
     private void saveBook() {
         // Read from input fields
@@ -220,38 +292,76 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         contentValues.put(BooksEntry.COLUMN_PRODUCT_PRICE, bookPrice);
         contentValues.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, bookQuantity);
 
+        // The editor is closed before the result arrives, so toasts use the application context
+        final Context appContext = getApplicationContext();
+
         // Determine if this is a new or existing book by checking if currentBookUri is null or not
         if (currentBookUri == null) {
-            // Insert a new book into the provider, returning the content URI for the new book.
-            Uri newUri = getContentResolver().insert(BooksEntry.CONTENT_URI, contentValues);
-
-            // Show a toast message depending on whether or not the insertion was successful
-            if (newUri == null) {
-                // If the row ID is null, then there was an error with insertion.
-                Toast.makeText(this, R.string.error_saving, Toast.LENGTH_LONG).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast with the row ID.
-                Toast.makeText(this, getString(R.string.info_saved), Toast.LENGTH_LONG).show();
-            }
+            // Insert a new book into the provider, receiving the content URI for the new book.
+            bookWriter.insert(contentValues, new BookWriter.Callback<Uri>() {
+                @Override
+                public void onResult(Uri newUri) {
+                    // Show a toast message depending on whether or not the insertion was successful
+                    if (newUri == null) {
+                        // If the row ID is null, then there was an error with insertion.
+                        Toast.makeText(appContext, R.string.error_saving, Toast.LENGTH_LONG).show();
+                    } else {
+                        // Otherwise, the insertion was successful and we can display a toast with the row ID.
+                        Toast.makeText(appContext, R.string.info_saved, Toast.LENGTH_LONG).show();
+                    }
+                }
+            });
         } else {
-            // Otherwise this is an EXISTING book, so update the book with content URI: currentBookUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because currentBookUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(currentBookUri, contentValues, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, R.string.toast_update_failed, Toast.LENGTH_SHORT).show();
+            // Otherwise this is an EXISTING book, so update the book with content URI: currentBookUri.
+            // The update runs after any quantity change still being written for this book.
+            BookWriter.Callback<Integer> callback = new BookWriter.Callback<Integer>() {
+                @Override
+                public void onResult(Integer rowsAffected) {
+                    // Show a toast message depending on whether or not the update was successful.
+                    if (rowsAffected != null && rowsAffected == BookWriter.CONFLICT) {
+                        // Someone else changed a field that was edited here too
+                        Toast.makeText(appContext, R.string.toast_update_conflict, Toast.LENGTH_LONG).show();
+                    } else if (rowsAffected == null || rowsAffected == 0) {
+                        // If no rows were affected, then there was an error with the update.
+                        Toast.makeText(appContext, R.string.toast_update_failed, Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the update was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.toast_update_success, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            };
+            if (shownBook == null) {
+                // The book was never shown, so every field was typed in here
+                bookWriter.update(currentBookUri, contentValues, callback);
             } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, R.string.toast_update_success, Toast.LENGTH_SHORT).show();
+                // Only write the fields edited here, and merge them with the changes made to
+                // the book since it was shown, like sales, instead of writing over them
+                ContentValues base = bookValues(shownBook);
+                ContentValues changes = new ContentValues();
+                for (String column : contentValues.keySet()) {
+                    if (!TextUtils.equals(contentValues.getAsString(column), base.getAsString(column))) {
+                        changes.put(column, contentValues.getAsString(column));
+                    }
+                }
+                bookWriter.merge(currentBookUri, base, shownVersion, changes, callback);
             }
         }
 
     }
 
+    /**
+     * Return the values of the given book, keyed by column like the values the editor saves.
+     */
+    private static ContentValues bookValues(Book book) {
+        ContentValues values = new ContentValues();
+        values.put(BooksEntry.COLUMN_PRODUCT_NAME, book.getName());
+        values.put(BooksEntry.COLUMN_PRODUCT_PRICE, book.getPrice());
+        values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, book.getQuantity());
+        values.put(BooksEntry.COLUMN_SUPPLIER_NAME, book.getSupplierName());
+        values.put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, book.getSupplierPhone());
+        return values;
+    }
+
     // Check for empty data
     private boolean dataValidation() {
         String bookNameString = mBookNameEditText.getText().toString().trim();
@@ -343,7 +453,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 BooksEntry.COLUMN_PRODUCT_PRICE,
                 BooksEntry.COLUMN_PRODUCT_QUANTITY,
                 BooksEntry.COLUMN_SUPPLIER_NAME,
-                BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+                BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+                BooksEntry.COLUMN_VERSION};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,       // Parent activity context
@@ -361,35 +472,54 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return;
         }
 
-        // Proceed with moving to the first row of the cursor and reading data from it
-        // (This should be the only row in the cursor)
-        if (cursor.moveToFirst()) {
-            int bNameColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_NAME);
-            int bPriceColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_PRICE);
-            int bQuantityColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_QUANTITY);
-            int sNameColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_SUPPLIER_NAME);
-            int sPhoneColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String bookName = cursor.getString(bNameColumnIndex);
-            int bookPrice = cursor.getInt(bPriceColumnIndex);
-            int bookQuantity = cursor.getInt(bQuantityColumnIndex);
-            String supplierName = cursor.getString(sNameColumnIndex);
-            String supplierPhone = cursor.getString(sPhoneColumnIndex);
-
-            // Update the views on the screen with the values from the database
-            mBookNameEditText.setText(bookName);
-            mBookPriceEditText.setText(Integer.toString(bookPrice));
-            mBookQuantityEditText.setText(Integer.toString(bookQuantity));
-            mSupplierNameEditText.setText(supplierName);
-            mSuppplierPhoneNumberEditText.setText(supplierPhone);
+        // Read the first row of the cursor (This should be the only row in the cursor)
+        List<Book> books = BookCursors.fromCursor(cursor);
+        if (!books.isEmpty()) {
+            Book book = books.get(0);
+            cursor.moveToFirst();
+            long version = cursor.getLong(cursor.getColumnIndex(BooksEntry.COLUMN_VERSION));
+            boolean populated = shownBook != null;
+            // Update the views on the screen with the values from the database, unless the
+            // cached values shown already are the same. Edits in progress are kept: the shown
+            // values stay the base they are merged from when saved.
+            if (book.equals(shownBook)) {
+                shownVersion = version;
+            } else if (!populated || !bookHasChanged) {
+                bindBook(book);
+                shownVersion = version;
+            }
+            if (!populated) {
+                reportPopulated("provider", ((InventoryApplication) getApplication()).getBookDetailCache());
+            }
         }
+    }
+
+    /**
+     * Show the values of the given book.
+     */
+    private void bindBook(Book book) {
+        shownBook = book;
+        mBookNameEditText.setText(book.getName());
+        mBookPriceEditText.setText(Integer.toString(book.getPrice()));
+        mBookQuantityEditText.setText(Integer.toString(book.getQuantity()));
+        mSupplierNameEditText.setText(book.getSupplierName());
+        mSuppplierPhoneNumberEditText.setText(book.getSupplierPhone());
+    }
 
+    /**
+     * Log how long the editor took to show the book, and where it came from.
+     */
+    private void reportPopulated(String source, BookDetailCache bookDetailCache) {
+        Log.d(LOG_TAG, "Editor populated from " + source + " in "
+                + (SystemClock.elapsedRealtime() - openedAt) + " ms, detail cache hit rate "
+                + Math.round(bookDetailCache.getHitRate() * 100) + "%");
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields.
+        shownBook = null;
+        shownVersion = -1;
         mBookNameEditText.setText("");
         mBookPriceEditText.setText("");
         mBookQuantityEditText.setText("");
@@ -500,21 +630,24 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deleteBook() {
         // Only perform the delete if this is an existing book.
         if (currentBookUri != null) {
-            // Call the ContentResolver to delete the book at the given content URI.
-            // Pass in null for the selection and selection args because the currentBookUri
-            // content URI already identifies the book that we want.
-            int rowsDeleted = getContentResolver().delete(currentBookUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_book_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Delete the book at the given content URI in the background. The editor is closed
+            // before the result arrives, so the toast uses the application context.
+            final Context appContext = getApplicationContext();
+            bookWriter.delete(currentBookUri, new BookWriter.Callback<Integer>() {
+                @Override
+                public void onResult(Integer rowsDeleted) {
+                    // Show a toast message depending on whether or not the delete was successful.
+                    if (rowsDeleted == null || rowsDeleted == 0) {
+                        // If no rows were deleted, then there was an error with the delete.
+                        Toast.makeText(appContext, R.string.editor_delete_book_failed,
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        // Otherwise, the delete was successful and we can display a toast.
+                        Toast.makeText(appContext, R.string.editor_delete_book_successful,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
         // Close the activity
         finish();
@@ -1,48 +1,301 @@
 package com.example.android.gwg_project7_inventoryapp;
 
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
-import com.example.android.gwg_project7_inventoryapp.data.BooksDbHelper;
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+import com.example.android.gwg_project7_inventoryapp.core.Stock;
+import com.example.android.gwg_project7_inventoryapp.data.BookCursors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.StatsEntry;
 
 /**
  * Displays list of books that were entered and stored in the app.
  */
-public class InventoryActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class InventoryActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Book>> {
+
+    /**
+     * Identifier for the book search loader
+     */
+    private static final int SEARCH_LOADER = 1;
+
+    /**
+     * Identifier for the inventory statistics loader
+     */
+    private static final int STATS_LOADER = 2;
+
+    /**
+     * File in the app's files directory holding the snapshot of the books
+     */
+    private static final String SNAPSHOT_FILE = "books.snapshot";
+
+    /**
+     * Request code of the picker choosing the CSV file to import
+     */
+    private static final int REQUEST_IMPORT = 1;
+
+    /**
+     * Maximum number of books shown as search results
+     */
+    private static final int SEARCH_LIMIT = 100;
+
+    /**
+     * Loader argument holding the search text
+     */
+    private static final String ARG_SEARCH = "search";
+
+    /**
+     * Columns shown by the list
+     */
+    private static final String[] PROJECTION = {
+            BooksEntry._ID,
+            BooksEntry.COLUMN_PRODUCT_NAME,
+            BooksEntry.COLUMN_PRODUCT_PRICE,
+            BooksEntry.COLUMN_PRODUCT_QUANTITY,
+            BooksEntry.COLUMN_SUPPLIER_NAME,
+            BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+
+    /**
+     * Identifier for the loader of the first page of book data. Page n uses BOOK_PAGE_LOADER + n.
+     */
+    private static final int BOOK_PAGE_LOADER = 100;
+
+    /**
+     * Number of books loaded per page
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Number of pages loaded ahead of the visible rows, above and below them
+     */
+    private static final int MARGIN_PAGES = 1;
+
+    /**
+     * Loader argument holding the ID of the last book before the page
+     */
+    private static final String ARG_AFTER = "after";
+
+    /**
+     * Number of rows before and after the visible ones kept in the {@link BookDetailCache}
+     */
+    private static final int DETAIL_PREFETCH_ROWS = 20;
+
+    /**
+     * Saved state keys holding the keys of the pages reached and the window of started pages
+     */
+    private static final String STATE_PAGE_KEYS = "page_keys";
+    private static final String STATE_FIRST_PAGE = "first_page";
+    private static final String STATE_LAST_PAGE = "last_page";
+
+    /**
+     * Pages of books loaded around the visible rows
+     */
+    private BookPages pages;
+
+    /**
+     * Text the books are searched for, or null when the list shows all books
+     */
+    private String searchText;
+
+    /**
+     * Books matching {@link #searchText}, or null until they are loaded
+     */
+    private List<Book> searchResults;
+
+    /**
+     * Queue writing the sales in the background. It belongs to the application, so sales are
+     * never dropped by a configuration change.
+     */
+    private SaleQueue saleQueue;
+
+    /**
+     * Writer running the other writes in the background
+     */
+    private BookWriter bookWriter;
+
+    /**
+     * Cache of the books around the visible rows, read by the editor
+     */
+    private BookDetailCache bookDetailCache;
+
+    /**
+     * Books shown by the list, including the sales not written yet
+     */
+    private List<Book> shownBooks = new ArrayList<>();
+
+    /**
+     * Tells the user about the sales refused when they were written, because the books
+     * had been sold out in the meantime.
+     */
+    private final SaleQueue.Listener saleListener = new SaleQueue.Listener() {
+        @Override
+        public void onSalesApplied(long[] ids, final boolean[] applied) {
+            for (boolean saleApplied : applied) {
+                if (!saleApplied) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(InventoryActivity.this, R.string.not_available, Toast.LENGTH_SHORT).show();
+                            showBooks();
+                        }
+                    });
+                    return;
+                }
+            }
+        }
+    };
+
+    /**
+     * CSV import, shared with the activities created after this one
+     */
+    private BookImport bookImport;
+
+    /**
+     * Snackbar showing the progress of the import, or null when none is shown
+     */
+    private Snackbar importSnackbar;
+
+    /**
+     * Shows the progress of the import, and its outcome once it ended.
+     */
+    private final BookImport.Listener importListener = new BookImport.Listener() {
+        @Override
+        public void onImportProgress(long imported, long rejected) {
+            String progress = getString(R.string.import_progress, imported, rejected);
+            if (importSnackbar == null) {
+                importSnackbar = Snackbar.make(rvItems, progress, Snackbar.LENGTH_INDEFINITE)
+                        .setAction(R.string.cancel, new View.OnClickListener() {
+                            @Override
+                            public void onClick(View v) {
+                                bookImport.cancel();
+                            }
+                        });
+                importSnackbar.show();
+            } else {
+                importSnackbar.setText(progress);
+            }
+        }
+
+        @Override
+        public void onImportFinished(CsvImporter.Result result, File rejectFile) {
+            if (importSnackbar != null) {
+                importSnackbar.dismiss();
+                importSnackbar = null;
+            }
+            String message;
+            if (result == null) {
+                message = getString(R.string.import_failed);
+            } else if (result.cancelled) {
+                message = getString(R.string.import_cancelled, result.imported);
+            } else if (result.rejected > 0) {
+                message = getString(R.string.import_finished_rejects, result.imported, result.rejected,
+                        rejectFile.getAbsolutePath());
+            } else {
+                message = getString(R.string.import_finished, result.imported, result.rejected);
+            }
+            Snackbar.make(rvItems, message, Snackbar.LENGTH_LONG).show();
+        }
+    };
+
+    /**
+     * Thread refreshing the rows of books that changed
+     */
+    private HandlerThread rowRefreshThread;
+
+    /**
+     * Observer refreshing the row of a book when it changes
+     */
+    private ContentObserver rowObserver;
+
+    /**
+     * RecyclerView showing the books
+     */
+    private RecyclerView rvItems;
 
     /**
-     * Identifier for the book data loader
+     * Layout manager of the RecyclerView
      */
-    private static final int BOOK_LOADER = 0;
+    private LinearLayoutManager layoutManager;
 
     /**
-     * Adapter for the ListView
+     * View shown instead of the list when there is no book
      */
-    private BookCursorAdapter bookCursorAdapter;
+    private View emptyView;
 
     /**
-     * Database helper that will provide us access to the database
+     * Header showing the inventory statistics
      */
-    private BooksDbHelper booksDbHelper;
+    private TextView statsTextView;
+
+    /**
+     * Loads the inventory statistics into the header. They are kept up to date by the database,
+     * so loading them costs the same at any inventory size.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> statsLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>() {
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            String[] projection = {
+                    StatsEntry.COLUMN_TITLE_COUNT,
+                    StatsEntry.COLUMN_UNITS,
+                    StatsEntry.COLUMN_STOCK_VALUE,
+                    StatsEntry.COLUMN_OUT_OF_STOCK_COUNT};
+            return new CursorLoader(InventoryActivity.this, StatsEntry.CONTENT_URI, projection, null, null, null);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return;
+            }
+            statsTextView.setText(getString(R.string.stats_summary,
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_TITLE_COUNT)),
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_UNITS)),
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_STOCK_VALUE)),
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_OUT_OF_STOCK_COUNT))));
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            statsTextView.setText(null);
+        }
+    };
+
+    /**
+     * Adapter for the RecyclerView
+     */
+    private BookAdapter bookAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,43 +312,257 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
             }
         });
 
-        // Find ListView to populate
-        ListView lvItems = findViewById(R.id.book_list_view);
+        // Find RecyclerView to populate
+        rvItems = findViewById(R.id.book_list_view);
+        layoutManager = new LinearLayoutManager(this);
+        rvItems.setLayoutManager(layoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        lvItems.setEmptyView(emptyView);
+        // Find the empty view, shown when the list has 0 items
+        emptyView = findViewById(R.id.empty_view);
 
-        // Setup an Adapter to create a list item for each row of book data in the Cursor.
-        // There is no book data yet (until the loader finishes) so pass in null for the Cursor.
-        bookCursorAdapter = new BookCursorAdapter(this, null);
-        lvItems.setAdapter(bookCursorAdapter);
+        // Show the inventory statistics above the list
+        statsTextView = findViewById(R.id.stats_text_view);
+        getLoaderManager().initLoader(STATS_LOADER, null, statsLoaderCallbacks);
 
-        // Setup the item click listener
-        lvItems.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        // Setup an Adapter to create a list item for each book.
+        // There is no book data yet (until the loader finishes).
+        bookAdapter = new BookAdapter(this);
+        rvItems.setAdapter(bookAdapter);
 
-                // Create new intent to go to {@link EditorActivity}
-                Intent intent = new Intent(InventoryActivity.this, EditorActivity.class);
+        // Sales are shown right away and written in batches
+        InventoryApplication application = (InventoryApplication) getApplication();
+        saleQueue = application.getSaleQueue();
+        saleQueue.setListener(saleListener);
+        bookWriter = application.getBookWriter();
+        bookDetailCache = application.getBookDetailCache();
+        bookImport = application.getBookImport();
+        bookImport.setListener(importListener);
 
-                // Form the content URI that represents the specific book that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link BookEntry#CONTENT_URI}.
-                // For example, the URI would be "content://com.example.android.books/books/2"
-                Uri currentBookUri = ContentUris.withAppendedId(BooksEntry.CONTENT_URI, id);
+        // Load the next page when the user scrolls close to the end of the loaded books
+        rvItems.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                updateWindow();
+                prefetchDetails();
+            }
+        });
 
-                // Set the URI on the data field of the intent
-                intent.setData(currentBookUri);
+        // Refresh the row of a changed book on its own. List cursors are only notified when
+        // books are added or removed.
+        rowRefreshThread = new HandlerThread("BookRowRefresh", Process.THREAD_PRIORITY_BACKGROUND);
+        rowRefreshThread.start();
+        rowObserver = new RowObserver(new Handler(rowRefreshThread.getLooper()));
+        getContentResolver().registerContentObserver(BooksEntry.CONTENT_URI, true, rowObserver);
 
-                // Launch the {@link EditorActivity} to display the data for the current book.
-                startActivity(intent);
+        // Kick off the loaders for the first page, or for the pages shown before a restart
+        pages = new BookPages(PAGE_SIZE, MARGIN_PAGES, new BookPages.Loading() {
+            @Override
+            public void startPage(int page, long afterId) {
+                Bundle args = new Bundle();
+                args.putLong(ARG_AFTER, afterId);
+                getLoaderManager().initLoader(BOOK_PAGE_LOADER + page, args, InventoryActivity.this);
+            }
 
+            @Override
+            public void stopPage(int page) {
+                getLoaderManager().destroyLoader(BOOK_PAGE_LOADER + page);
             }
         });
+        long[] savedKeys = savedInstanceState == null ? null : savedInstanceState.getLongArray(STATE_PAGE_KEYS);
+        if (savedKeys == null) {
+            pages.start();
+        } else {
+            pages.restore(savedKeys, savedInstanceState.getInt(STATE_FIRST_PAGE),
+                    savedInstanceState.getInt(STATE_LAST_PAGE));
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        saleQueue.setListener(null);
+        bookImport.setListener(null);
+        getContentResolver().unregisterContentObserver(rowObserver);
+        rowRefreshThread.quit();
+    }
+
+    /**
+     * Open the given book in the {@link EditorActivity}.
+     */
+    public void openBook(long id) {
+        // Create new intent to go to {@link EditorActivity}
+        Intent intent = new Intent(InventoryActivity.this, EditorActivity.class);
 
-        // Kick off the loader
-        getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        // Form the content URI that represents the specific book that was clicked on,
+        // by appending the "id" (passed as input to this method) onto the
+        // {@link BookEntry#CONTENT_URI}.
+        // For example, the URI would be "content://com.example.android.books/books/2"
+        Uri currentBookUri = ContentUris.withAppendedId(BooksEntry.CONTENT_URI, id);
+
+        // Set the URI on the data field of the intent
+        intent.setData(currentBookUri);
+
+        // Launch the {@link EditorActivity} to display the data for the current book.
+        startActivity(intent);
+    }
+
+    /**
+     * Observes every change to the books. When a single book changes, its fresh values are read
+     * on the observer thread and only that book is replaced in the list.
+     */
+    private class RowObserver extends ContentObserver {
+
+        RowObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            // Before API 16 the changed URI isn't known, so the whole list has to requery
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    reloadAll();
+                }
+            });
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // Changes to the set of books are handled by the list cursors themselves
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() != 2 || !TextUtils.isDigitsOnly(segments.get(1))) {
+                return;
+            }
+
+            Cursor cursor = getContentResolver().query(uri, PROJECTION, null, null, null);
+            if (cursor == null) {
+                return;
+            }
+            try {
+                List<Book> books = BookCursors.fromCursor(cursor);
+                if (!books.isEmpty()) {
+                    final Book book = books.get(0);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateBook(book);
+                        }
+                    });
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Replace the given book in the loaded pages and search results, and show the change.
+     */
+    private void updateBook(Book book) {
+        boolean changed = pages.replace(book);
+        List<Book> updatedResults = replaceBook(searchResults, book);
+        if (updatedResults != null) {
+            searchResults = updatedResults;
+            changed = true;
+        }
+        if (changed) {
+            showBooks();
+        }
+    }
+
+    /**
+     * Return a copy of the given books where the book with the same ID as the given one is
+     * replaced by it, or null if there is no such book.
+     */
+    private static List<Book> replaceBook(List<Book> books, Book book) {
+        if (books == null) {
+            return null;
+        }
+        for (int i = 0; i < books.size(); i++) {
+            if (books.get(i).getId() == book.getId()) {
+                List<Book> updated = new ArrayList<>(books);
+                updated.set(i, book);
+                return updated;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make every started loader requery.
+     */
+    private void reloadAll() {
+        for (int page = pages.getFirstPage(); page <= pages.getLastPage(); page++) {
+            Loader<List<Book>> loader = getLoaderManager().getLoader(BOOK_PAGE_LOADER + page);
+            if (loader != null) {
+                loader.onContentChanged();
+            }
+        }
+        Loader<List<Book>> searchLoader = getLoaderManager().getLoader(SEARCH_LOADER);
+        if (searchLoader != null) {
+            searchLoader.onContentChanged();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLongArray(STATE_PAGE_KEYS, pages.getKeys());
+        outState.putInt(STATE_FIRST_PAGE, pages.getFirstPage());
+        outState.putInt(STATE_LAST_PAGE, pages.getLastPage());
+    }
+
+    /**
+     * Move the window of loaded pages to the visible rows, unless searching.
+     */
+    private void updateWindow() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (searchText != null || first == RecyclerView.NO_POSITION || last >= bookAdapter.getItemCount()) {
+            return;
+        }
+        pages.onVisibleRange(bookAdapter.getItemId(first), bookAdapter.getItemId(last));
+    }
+
+    /**
+     * Show the search results while searching, all the loaded pages otherwise.
+     */
+    private void showBooks() {
+        List<Book> books;
+        if (searchText != null) {
+            books = searchResults != null ? new ArrayList<>(searchResults) : new ArrayList<Book>();
+        } else {
+            books = pages.getBooks();
+        }
+        // Show the sales not written yet
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            int pendingDelta = saleQueue.getPendingDelta(book.getId());
+            if (pendingDelta != 0) {
+                books.set(i, book.withQuantity(book.getQuantity() + pendingDelta));
+            }
+        }
+
+        // Only the rows that changed are rebound, once the difference has been computed
+        shownBooks = books;
+        bookAdapter.submitList(books);
+        prefetchDetails();
+        emptyView.setVisibility(books.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Cache the books around the visible rows, so the editor can show them right away.
+     */
+    private void prefetchDetails() {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            // Nothing laid out yet, the list starts at the top
+            first = 0;
+            last = 0;
+        }
+        bookDetailCache.putAll(shownBooks, first - DETAIL_PREFETCH_ROWS, last + 1 + DETAIL_PREFETCH_ROWS);
     }
 
     /**
@@ -111,11 +578,9 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
         values.put(BooksEntry.COLUMN_SUPPLIER_NAME, getString(R.string.val_dummy_supplier_name));
         values.put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, getString(R.string.val_dummy_supplier_phone));
 
-        // Insert a new row for Lord of Ring into the provider using the ContentResolver.
-        // Use the {@link BookEntry#CONTENT_URI} to indicate that we want to insert
-        // into the books database table.
-        // Receive the new content URI that will allow us to access Lord of ring data in the future.
-        Uri newUri = getContentResolver().insert(BooksEntry.CONTENT_URI, values);
+        // Insert a new row for Lord of Ring into the provider in the background.
+        // The list shows it once the provider notifies the change.
+        bookWriter.insert(values, null);
     }
 
     @Override
@@ -123,9 +588,45 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
         // Inflate the menu options from the res/menu/menu_inventory.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_inventory, menu);
+
+        // Search the books as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the books matching the given text, or all books if the text is empty.
+     */
+    private void search(String text) {
+        if (TextUtils.isEmpty(text.trim())) {
+            if (searchText != null) {
+                searchText = null;
+                searchResults = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                showBooks();
+            }
+            return;
+        }
+        searchText = text;
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH, text);
+        getLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -134,6 +635,22 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
             case R.id.insert_dummy_data:
                 insertBook();
                 return true;
+            // Respond to a click on the "Import CSV" menu option
+            case R.id.import_csv:
+                chooseImportFile();
+                return true;
+            // Respond to a click on the "Export CSV" menu option
+            case R.id.export_csv:
+                shareExport();
+                return true;
+            // Respond to a click on the "Save snapshot" menu option
+            case R.id.save_snapshot:
+                runSnapshotMethod(BooksEntry.METHOD_WRITE_SNAPSHOT, R.string.snapshot_saved);
+                return true;
+            // Respond to a click on the "Restore snapshot" menu option
+            case R.id.restore_snapshot:
+                runSnapshotMethod(BooksEntry.METHOD_RESTORE_SNAPSHOT, R.string.snapshot_restored);
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.delete_all_entries:
                 deleteAllBooks();
@@ -142,63 +659,162 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Let the user choose a CSV file to import, with the Storage Access Framework.
+     */
+    private void chooseImportFile() {
+        if (bookImport.isRunning()) {
+            Toast.makeText(this, R.string.import_running, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/*");
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                if (bookImport.start(data.getData())) {
+                    importListener.onImportProgress(0, 0);
+                }
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Share every book as a CSV file. The receiving app reads the export from the provider as
+     * it is written, with a read permission limited to the export URI.
+     */
+    private void shareExport() {
+        Uri exportUri = BooksEntry.EXPORT_URI.buildUpon()
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_FORMAT, BooksEntry.FORMAT_CSV)
+                .build();
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(BooksEntry.CSV_TYPE);
+        intent.putExtra(Intent.EXTRA_STREAM, exportUri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.export_chooser_title)));
+    }
+
+    /**
+     * Save or restore the snapshot of the books in the background, with the given provider
+     * method, and tell the user how many books it held.
+     */
+    private void runSnapshotMethod(final String method, final int messageId) {
+        final Context appContext = getApplicationContext();
+        bookWriter.submit(BooksEntry.CONTENT_URI, new BookWriter.Operation<Bundle>() {
+            @Override
+            public Bundle run(ContentResolver contentResolver) {
+                // Looking up the files directory may create it, so do it off the main thread
+                File snapshotFile = new File(appContext.getFilesDir(), SNAPSHOT_FILE);
+                return contentResolver.call(BooksEntry.CONTENT_URI, method, snapshotFile.getAbsolutePath(), null);
+            }
+        }, new BookWriter.Callback<Bundle>() {
+            @Override
+            public void onResult(Bundle result) {
+                if (result == null) {
+                    Toast.makeText(InventoryActivity.this, R.string.snapshot_failed, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(InventoryActivity.this,
+                            getString(messageId, result.getLong(BooksEntry.EXTRA_ROW_COUNT)),
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
     /**
      * Helper method to delete all books in the database.
      */
     private void deleteAllBooks() {
-        int rowsDeleted = getContentResolver().delete(BooksEntry.CONTENT_URI, null, null);
-        Toast.makeText(this, rowsDeleted + getString(R.string.toast_delete_all), Toast.LENGTH_LONG).show();
+        bookWriter.delete(BooksEntry.CONTENT_URI, new BookWriter.Callback<Integer>() {
+            @Override
+            public void onResult(Integer rowsDeleted) {
+                Toast.makeText(InventoryActivity.this, (rowsDeleted == null ? 0 : rowsDeleted)
+                        + getString(R.string.toast_delete_all), Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int i, @Nullable Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                BooksEntry._ID,
-                BooksEntry.COLUMN_PRODUCT_NAME,
-                BooksEntry.COLUMN_PRODUCT_PRICE,
-                BooksEntry.COLUMN_PRODUCT_QUANTITY,
-                BooksEntry.COLUMN_SUPPLIER_NAME,
-                BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+    public Loader<List<Book>> onCreateLoader(int i, @Nullable Bundle bundle) {
+        if (i == SEARCH_LOADER) {
+            // Query the books matching the search text, best matches first
+            Uri searchUri = BooksEntry.SEARCH_URI.buildUpon()
+                    .appendQueryParameter(BooksEntry.QUERY_PARAMETER_SEARCH, bundle.getString(ARG_SEARCH))
+                    .appendQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT, String.valueOf(SEARCH_LIMIT))
+                    .build();
+            return new BookListLoader(this, searchUri, PROJECTION);
+        }
+
+        // Only query one page of books, starting after the last book of the previous page
+        Uri pageUri = BooksEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_AFTER, String.valueOf(bundle.getLong(ARG_AFTER)))
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE))
+                .build();
 
         // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                BooksEntry.CONTENT_URI,         // Provider activity context
-                projection,                     // Columns to include in the resulting Cursor
-                null,                  // No selection clause
-                null,              // No selection arguments
-                null);                // Default sort order
+        // and read the books, in keyset order by ID
+        return new BookListLoader(this, pageUri, PROJECTION);
     }
 
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
-        // Update {@link BookCursorAdapter} with this new cursor containing updated book data
-        bookCursorAdapter.swapCursor(cursor);
+    public void onLoadFinished(@NonNull Loader<List<Book>> loader, List<Book> books) {
+        if (loader.getId() == SEARCH_LOADER) {
+            if (searchText != null) {
+                searchResults = books;
+                showBooks();
+            }
+            return;
+        }
+
+        pages.onPageLoaded(loader.getId() - BOOK_PAGE_LOADER, books);
+
+        // Update {@link BookAdapter} with the updated pages
+        showBooks();
+        updateWindow();
     }
 
     @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
+    public void onLoaderReset(@NonNull Loader<List<Book>> loader) {
         // Callback called when the data needs to be deleted
-        bookCursorAdapter.swapCursor(null);
-
+        if (loader.getId() == SEARCH_LOADER) {
+            searchResults = null;
+            return;
+        }
+        pages.onPageReset(loader.getId() - BOOK_PAGE_LOADER);
     }
 
-    public void bookSale(int id, int quantity) {
-        // Decrease book quantity by one
-        quantity--;
+    /**
+     * Sell one copy of the given book. The sale is shown right away and written by the
+     * {@link SaleQueue} together with the sales that follow it.
+     */
+    public void bookSale(long id) {
+        Book book = findShownBook(id);
+        if (book == null || !Stock.canAdjust(book.getQuantity(), -1)) {
+            Toast.makeText(this, R.string.not_available, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        saleQueue.record(id, -1);
+        showBooks();
+        Toast.makeText(this, R.string.book_sold, Toast.LENGTH_SHORT).show();
+    }
 
-        // New ContentValues object
-        if (quantity >= 0) {
-            ContentValues values = new ContentValues();
-            values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, quantity);
-            Uri updateUri = ContentUris.withAppendedId(BooksEntry.CONTENT_URI, id);
-            int rowsAffected = getContentResolver().update(updateUri, values, null, null);
-            if (rowsAffected == 1) {
-                Toast.makeText(this, R.string.book_sold, Toast.LENGTH_SHORT).show();
+    /**
+     * Return the book with the given ID as it is shown, or null if it isn't.
+     */
+    private Book findShownBook(long id) {
+        for (Book book : shownBooks) {
+            if (book.getId() == id) {
+                return book;
             }
-        } else {
-            Toast.makeText(this, R.string.not_available, Toast.LENGTH_SHORT).show();
         }
+        return null;
     }
 }
@@ -0,0 +1,138 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.app.Application;
+import android.os.StrictMode;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Application holding the objects shared by the activities, which outlive any one of them.
+ */
+public class InventoryApplication extends Application {
+
+    private static final String LOG_TAG = InventoryApplication.class.getSimpleName();
+
+    /**
+     * File journaling the sales not applied yet
+     */
+    private static final String SALE_JOURNAL = "sales.journal";
+
+    /**
+     * Longest time a sale waits before it is written, so bursts of sales are written together
+     */
+    private static final long SALE_DELAY_MILLIS = 250;
+
+    /**
+     * Number of waiting sales written without waiting longer
+     */
+    private static final int SALE_BATCH_SIZE = 50;
+
+    /**
+     * Number of whole days of stock movements kept before they are rolled into daily totals
+     */
+    private static final int MOVEMENT_RETENTION_DAYS = 30;
+
+    /**
+     * Time after the start before the stock movements are first compacted, so it doesn't slow
+     * down the start
+     */
+    private static final long MOVEMENT_COMPACTION_DELAY_MILLIS = 60 * 1000;
+
+    /**
+     * Largest number of changed books sent or received per sync request
+     */
+    private static final int SYNC_PAGE_SIZE = 200;
+
+    /**
+     * Time between the syncs that succeed
+     */
+    private static final long SYNC_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * Time before retrying a failed sync, doubled after each failure in a row up to the maximum
+     */
+    private static final long SYNC_MIN_BACKOFF_MILLIS = 30 * 1000;
+    private static final long SYNC_MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * Time after the start before the first sync, so it doesn't slow down the start
+     */
+    private static final long SYNC_DELAY_MILLIS = 10 * 1000;
+
+    private BookWriter bookWriter;
+    private SaleQueue saleQueue;
+    private BookDetailCache bookDetailCache;
+    private BookImport bookImport;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        bookWriter = new BookWriter(getContentResolver());
+        bookDetailCache = new BookDetailCache(getContentResolver());
+        bookImport = new BookImport(this);
+
+        // Looking up the files directory may create it, so do it before the policy below
+        saleQueue = new SaleQueue(new ProviderSaleSink(getContentResolver()),
+                new File(getFilesDir(), SALE_JOURNAL), SALE_DELAY_MILLIS, SALE_BATCH_SIZE);
+
+        new MovementCompactor(getContentResolver(), MOVEMENT_RETENTION_DAYS).start(MOVEMENT_COMPACTION_DELAY_MILLIS);
+
+        if (!BuildConfig.SYNC_URL.isEmpty()) {
+            final SyncEngine syncEngine = new SyncEngine(getContentResolver(), BuildConfig.SYNC_URL, SYNC_PAGE_SIZE);
+            new SyncScheduler(new SyncScheduler.Job() {
+                @Override
+                public void run() throws IOException {
+                    try {
+                        syncEngine.sync();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Sync failed, it will be retried", e);
+                        throw e;
+                    }
+                }
+            }, SYNC_INTERVAL_MILLIS, SYNC_MIN_BACKOFF_MILLIS, SYNC_MAX_BACKOFF_MILLIS).start(SYNC_DELAY_MILLIS);
+        }
+
+        // In debug builds, log and flash on any disk access from the main thread, so a write
+        // that bypasses the BookWriter shows right away. Crashing would also stop on the disk
+        // reads of the framework and libraries, which the app can't move; BookWriterStrictModeTest
+        // crashes on the app's own writes instead.
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .penaltyFlashScreen()
+                    .build());
+        }
+    }
+
+    /**
+     * Return the writer running the writes to the books in the background.
+     */
+    public BookWriter getBookWriter() {
+        return bookWriter;
+    }
+
+    /**
+     * Return the queue writing the sales in the background.
+     */
+    public SaleQueue getSaleQueue() {
+        return saleQueue;
+    }
+
+    /**
+     * Return the cache of the books shown by the list, read by the editor.
+     */
+    public BookDetailCache getBookDetailCache() {
+        return bookDetailCache;
+    }
+
+    /**
+     * Return the CSV import, which keeps running while the activities are recreated.
+     */
+    public BookImport getBookImport() {
+        return bookImport;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.MovementsEntry;
+
+/**
+ * Keeps the stock movement journal bounded: on a background thread, rolls the movements older
+ * than the retention period into their daily totals with
+ * {@link BooksEntry#METHOD_COMPACT_MOVEMENTS}, once shortly after it starts and then once a day.
+ */
+public class MovementCompactor {
+
+    private static final String LOG_TAG = MovementCompactor.class.getSimpleName();
+
+    private final ContentResolver contentResolver;
+    private final int retentionDays;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Constructs a new {@link MovementCompactor}.
+     *
+     * @param contentResolver The resolver reaching the book provider
+     * @param retentionDays   The number of whole days of movements kept, before today
+     */
+    public MovementCompactor(ContentResolver contentResolver, int retentionDays) {
+        this.contentResolver = contentResolver;
+        this.retentionDays = retentionDays;
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "MovementCompactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Compact the movements after the given delay, then once a day.
+     */
+    public void start(long initialDelayMillis) {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    // Keep the schedule, the next run rolls up what this one couldn't
+                    Log.e(LOG_TAG, "Compacting the stock movements failed", e);
+                }
+            }
+        }, initialDelayMillis, MovementsEntry.DAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Roll the movements older than the retention period into their daily totals now, on the
+     * calling thread. Return the number of movements rolled up.
+     */
+    public long compact() {
+        Bundle extras = new Bundle();
+        extras.putLong(BooksEntry.EXTRA_BEFORE,
+                System.currentTimeMillis() - retentionDays * MovementsEntry.DAY_MILLIS);
+        Bundle result = contentResolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_COMPACT_MOVEMENTS, null, extras);
+        if (result == null) {
+            throw new IllegalStateException("Book provider unavailable");
+        }
+        long compacted = result.getLong(BooksEntry.EXTRA_ROW_COUNT);
+        Log.d(LOG_TAG, "Rolled " + compacted + " stock movements into daily totals");
+        return compacted;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * {@link SaleQueue.Sink} applying the sales through {@link BooksEntry#METHOD_APPLY_SALES}.
+ */
+public class ProviderSaleSink implements SaleQueue.Sink {
+
+    private final ContentResolver contentResolver;
+
+    public ProviderSaleSink(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    @Override
+    public boolean[] applySales(long[] ids, int[] deltas, String journal, long firstSequence) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(BooksEntry.EXTRA_BOOK_IDS, ids);
+        extras.putIntArray(BooksEntry.EXTRA_DELTAS, deltas);
+        extras.putString(BooksEntry.EXTRA_JOURNAL, journal);
+        extras.putLong(BooksEntry.EXTRA_FIRST_SEQUENCE, firstSequence);
+        Bundle result = contentResolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_APPLY_SALES, null, extras);
+        if (result == null) {
+            throw new IllegalStateException("Book provider unavailable");
+        }
+        return result.getBooleanArray(BooksEntry.EXTRA_APPLIED);
+    }
+}
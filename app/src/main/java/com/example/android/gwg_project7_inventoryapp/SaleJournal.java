@@ -0,0 +1,172 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only file recording the sales of a {@link SaleQueue} until they are applied, so the
+ * sales recorded before the app is killed can be applied when it starts again.
+ * <p>
+ * The file starts with a header holding the name of the journal and the sequence number of the
+ * last sale before the records, followed by one fixed-size record per sale. Records are written
+ * straight to the file without buffering, so they survive the process being killed as soon as
+ * they are appended, and {@link #sync()} forces them to the disk so they survive a power loss
+ * too. A record cut short by a crash is ignored.
+ */
+class SaleJournal {
+
+    private static final int MAGIC = 0x53414c45;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 8;
+    private static final int RECORD_SIZE = 8 + 8 + 4;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+
+    /**
+     * Name of this journal, unique to the file
+     */
+    private final String name;
+
+    /**
+     * Sequence number of the last sale before the records in the file
+     */
+    private long baseSequence;
+
+    /**
+     * Sales found in the file when it was opened
+     */
+    private final List<Sale> recoveredSales;
+
+    /**
+     * One sale as recorded by the journal.
+     */
+    static final class Sale {
+        final long sequence;
+        final long id;
+        final int delta;
+
+        Sale(long sequence, long id, int delta) {
+            this.sequence = sequence;
+            this.id = id;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * Open the journal in the given file, creating it with a new name if it doesn't exist.
+     */
+    SaleJournal(File path) throws IOException {
+        List<Sale> sales = new ArrayList<>();
+        UUID uuid = null;
+        if (path.length() >= HEADER_SIZE) {
+            DataInputStream in = new DataInputStream(new FileInputStream(path));
+            try {
+                if (in.readInt() == MAGIC) {
+                    uuid = new UUID(in.readLong(), in.readLong());
+                    baseSequence = in.readLong();
+                    readSales(in, sales);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        file = new RandomAccessFile(path, "rw");
+        if (uuid == null) {
+            // A new or unreadable file starts a new journal, whose sequence numbers can't be
+            // mistaken for those of an earlier one
+            uuid = UUID.randomUUID();
+            baseSequence = 0;
+            sales.clear();
+        }
+        name = uuid.toString();
+        recoveredSales = sales;
+
+        // Drop a record cut short by a crash, so new records are aligned
+        long length = HEADER_SIZE + (long) sales.size() * RECORD_SIZE;
+        writeHeader(uuid);
+        file.setLength(length);
+        file.seek(length);
+    }
+
+    private static void readSales(DataInputStream in, List<Sale> sales) throws IOException {
+        while (true) {
+            try {
+                sales.add(new Sale(in.readLong(), in.readLong(), in.readInt()));
+            } catch (EOFException e) {
+                return;
+            }
+        }
+    }
+
+    private void writeHeader(UUID uuid) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putLong(uuid.getMostSignificantBits());
+        header.putLong(uuid.getLeastSignificantBits());
+        header.putLong(baseSequence);
+        file.seek(0);
+        file.write(header.array());
+    }
+
+    /**
+     * Return the name of this journal.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Return the sequence number of the last sale recorded by this journal, 0 if none.
+     */
+    long getLastSequence() {
+        return recoveredSales.isEmpty() ? baseSequence : recoveredSales.get(recoveredSales.size() - 1).sequence;
+    }
+
+    /**
+     * Return the sales found in the file when it was opened, which may not have been applied.
+     */
+    List<Sale> getRecoveredSales() {
+        return recoveredSales;
+    }
+
+    /**
+     * Record one sale at the end of the journal.
+     */
+    void append(long sequence, long id, int delta) throws IOException {
+        recordBuffer.clear();
+        recordBuffer.putLong(sequence).putLong(id).putInt(delta);
+        file.write(recordBuffer.array());
+    }
+
+    /**
+     * Force the records appended so far to the disk.
+     */
+    void sync() throws IOException {
+        file.getFD().sync();
+    }
+
+    /**
+     * Forget every sale recorded, once they are all applied. Sequence numbers go on from the
+     * given last one.
+     */
+    void truncate(long lastSequence) throws IOException {
+        baseSequence = lastSequence;
+        recoveredSales.clear();
+        writeHeader(UUID.fromString(name));
+        file.setLength(HEADER_SIZE);
+        file.seek(HEADER_SIZE);
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,388 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for book sales. Sales are recorded in memory right away, so the quantities
+ * shown can include them, and are applied by the {@link Sink} on a background thread in batches:
+ * every {@code maxDelayMillis} after the first sale of a batch, or as soon as {@code maxSales}
+ * sales are waiting. A burst of taps on the sale button then costs one transaction and one
+ * refresh of the list.
+ * <p>
+ * With a journal file, each sale is also appended to the file before it is batched. Sales still
+ * in the file when the queue is created again, after the app was killed, are applied first.
+ * Every sale has a sequence number within the journal, which lets the sink skip the sales it
+ * has already applied, so a sale is never applied twice either. The journal is forced to the
+ * disk before each batch is applied, so a batch the sink fails to apply also survives a power
+ * loss. If writing the journal fails, it is reopened; if that fails too, sales are only kept in
+ * memory from then on.
+ */
+public class SaleQueue {
+
+    private static final String LOG_TAG = SaleQueue.class.getSimpleName();
+
+    /**
+     * Applies batches of sales to the stock.
+     */
+    public interface Sink {
+
+        /**
+         * Add each delta to the quantity of the book with the same index, in one transaction.
+         * Sale i has the sequence number {@code firstSequence + i} within the given journal;
+         * sales of the journal already applied must be skipped. The journal is null when the
+         * sales aren't journaled. Return whether each sale was applied.
+         */
+        boolean[] applySales(long[] ids, int[] deltas, String journal, long firstSequence);
+    }
+
+    /**
+     * Told about the sales applied by the queue, on the queue thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a batch of sales was applied, with whether each sale was applied.
+         * A sale is refused when there aren't enough books left.
+         */
+        void onSalesApplied(long[] ids, boolean[] applied);
+    }
+
+    private final Sink sink;
+    private final File journalFile;
+    private final long maxDelayMillis;
+    private final int maxSales;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Sum of the deltas of the sales not applied yet, by book ID, guarded by itself
+     */
+    private final Map<Long, Integer> pendingDeltas = new HashMap<>();
+
+    private volatile Listener listener;
+
+    private final AtomicLong salesApplied = new AtomicLong();
+    private final AtomicLong batchesApplied = new AtomicLong();
+
+    // The following fields are only used on the queue thread
+
+    /**
+     * Journal of the sales, or null if sales are only kept in memory
+     */
+    private SaleJournal journal;
+
+    /**
+     * Name of the journal the sequence numbers belong to, or null if there are none
+     */
+    private String journalName;
+
+    /**
+     * Sequence number of the last sale recorded
+     */
+    private long lastSequence;
+
+    /**
+     * Sales of the next batch
+     */
+    private long[] batchIds;
+    private int[] batchDeltas;
+    private int batchSize;
+
+    /**
+     * Scheduled flush of the next batch, or null if none
+     */
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushBatch();
+        }
+    };
+
+    /**
+     * Constructs a new {@link SaleQueue}.
+     *
+     * @param sink           The sink applying the sales
+     * @param journalFile    The file journaling the sales, or null to keep them in memory only
+     * @param maxDelayMillis The longest time a sale waits before it is applied
+     * @param maxSales       The number of waiting sales that are applied without waiting longer
+     */
+    public SaleQueue(Sink sink, File journalFile, long maxDelayMillis, int maxSales) {
+        this.sink = sink;
+        this.journalFile = journalFile;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxSales = maxSales;
+        batchIds = new long[maxSales];
+        batchDeltas = new int[maxSales];
+
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SaleQueue");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // A flush waiting to be retried is dropped on close, the journal keeps its sales
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        // Runs before any sale is recorded, the queue thread runs its tasks in order
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                openJournal();
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Record a sale, adding the given delta to the quantity of the given book. The sale is
+     * applied later, on the queue thread.
+     */
+    public void record(final long id, final int delta) {
+        synchronized (pendingDeltas) {
+            Integer pending = pendingDeltas.get(id);
+            pendingDeltas.put(id, pending == null ? delta : pending + delta);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(id, delta);
+            }
+        });
+    }
+
+    /**
+     * Return the sum of the deltas recorded for the given book and not applied yet. Add it to
+     * the quantity read from the database to get the quantity to show.
+     */
+    public int getPendingDelta(long id) {
+        synchronized (pendingDeltas) {
+            Integer pending = pendingDeltas.get(id);
+            return pending == null ? 0 : pending;
+        }
+    }
+
+    /**
+     * Return the number of sales applied since the queue was created.
+     */
+    public long getSalesApplied() {
+        return salesApplied.get();
+    }
+
+    /**
+     * Return the number of batches applied since the queue was created.
+     */
+    public long getBatchesApplied() {
+        return batchesApplied.get();
+    }
+
+    /**
+     * Apply the waiting sales now and wait until they are applied.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            executor.submit(flushRunnable).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Apply the waiting sales and stop the queue. Sales the sink failed to apply stay in the
+     * journal, if there is one.
+     */
+    public void close() throws InterruptedException {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flushBatch();
+                closeJournal();
+            }
+        });
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open the journal and batch the sales it still holds.
+     */
+    private void openJournal() {
+        if (journalFile == null) {
+            return;
+        }
+        try {
+            journal = new SaleJournal(journalFile);
+        } catch (IOException e) {
+            // Without a journal the sales are only kept in memory
+            return;
+        }
+        journalName = journal.getName();
+        lastSequence = journal.getLastSequence();
+        for (SaleJournal.Sale sale : journal.getRecoveredSales()) {
+            synchronized (pendingDeltas) {
+                Integer pending = pendingDeltas.get(sale.id);
+                pendingDeltas.put(sale.id, pending == null ? sale.delta : pending + sale.delta);
+            }
+            addToBatch(sale.id, sale.delta);
+        }
+        if (batchSize > 0) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Reopen the journal after writing it failed. Return whether it could be reopened. The
+     * sales already in the file have been batched, so they are not batched again.
+     */
+    private boolean reopenJournal() {
+        closeJournal();
+        try {
+            SaleJournal reopened = new SaleJournal(journalFile);
+            if (!reopened.getName().equals(journalName)) {
+                // The file was lost, a new journal would number the sales from scratch
+                reopened.close();
+                Log.e(LOG_TAG, "Journal " + journalFile + " lost, sales are only kept in memory");
+                return false;
+            }
+            journal = reopened;
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Can't reopen journal " + journalFile + ", sales are only kept in memory", e);
+            return false;
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // The records written are already in the file
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Journal and batch one sale.
+     */
+    private void append(long id, int delta) {
+        lastSequence++;
+        if (journal != null) {
+            try {
+                journal.append(lastSequence, id, delta);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Can't journal sale " + lastSequence + ", reopening " + journalFile, e);
+                // Keep the sequence numbers, they are still unique
+                if (reopenJournal()) {
+                    try {
+                        journal.append(lastSequence, id, delta);
+                    } catch (IOException again) {
+                        Log.e(LOG_TAG, "Can't journal sale " + lastSequence + ", sales are only kept in memory", again);
+                        closeJournal();
+                    }
+                }
+            }
+        }
+        addToBatch(id, delta);
+
+        if (batchSize >= maxSales) {
+            flushBatch();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executor.schedule(flushRunnable, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void addToBatch(long id, int delta) {
+        if (batchSize == batchIds.length) {
+            batchIds = Arrays.copyOf(batchIds, batchSize * 2);
+            batchDeltas = Arrays.copyOf(batchDeltas, batchSize * 2);
+        }
+        batchIds[batchSize] = id;
+        batchDeltas[batchSize] = delta;
+        batchSize++;
+    }
+
+    /**
+     * Apply every sale batched so far in one call to the sink.
+     */
+    private void flushBatch() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (batchSize == 0) {
+            return;
+        }
+
+        long[] ids = Arrays.copyOf(batchIds, batchSize);
+        int[] deltas = Arrays.copyOf(batchDeltas, batchSize);
+        long firstSequence = lastSequence - batchSize + 1;
+        if (journal != null) {
+            try {
+                journal.sync();
+            } catch (IOException e) {
+                // The records are still in the file, only a power loss could drop them
+                Log.w(LOG_TAG, "Can't sync journal " + journalFile, e);
+            }
+        }
+        boolean[] applied;
+        try {
+            applied = sink.applySales(ids, deltas, journalName, firstSequence);
+        } catch (RuntimeException e) {
+            // Nothing was applied, or the sink will skip what was: try the same batch again later
+            try {
+                scheduledFlush = executor.schedule(flushRunnable, maxDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException closed) {
+                // The queue is closing, the journal keeps the batch
+            }
+            return;
+        }
+        batchSize = 0;
+
+        synchronized (pendingDeltas) {
+            for (int i = 0; i < ids.length; i++) {
+                int pending = pendingDeltas.get(ids[i]) - deltas[i];
+                if (pending == 0) {
+                    pendingDeltas.remove(ids[i]);
+                } else {
+                    pendingDeltas.put(ids[i], pending);
+                }
+            }
+        }
+        if (journal != null) {
+            try {
+                journal.truncate(lastSequence);
+            } catch (IOException e) {
+                // The sales left in the file are skipped by the sink when they are replayed
+                Log.w(LOG_TAG, "Can't truncate journal " + journalFile + ", reopening it", e);
+                reopenJournal();
+            }
+        }
+        salesApplied.addAndGet(ids.length);
+        batchesApplied.incrementAndGet();
+
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onSalesApplied(ids, applied);
+        }
+    }
+}
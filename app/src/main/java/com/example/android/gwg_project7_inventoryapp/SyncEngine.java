@@ -0,0 +1,426 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.SyncEntry;
+
+/**
+ * Syncs the books with the other stores through an HTTP endpoint, exchanging only the books
+ * changed since the last sync, in pages of {@code pageSize} books.
+ * <p>
+ * A sync first pushes the local changes listed by {@link SyncEntry#CONTENT_URI}: each page is
+ * handed over with {@link SyncEntry#METHOD_MARK_PUSHED}, which keeps it until it is posted
+ * gzipped to {@code <endpoint>/changes} and accepted. A page whose reply was lost, though the
+ * endpoint may have stored it, is posted again as is by the next sync. It then pulls the changes
+ * of the other stores, {@code GET <endpoint>/changes?limit=<pageSize>&since=<cursor>}, and
+ * applies each page with {@link SyncEntry#METHOD_APPLY_SYNC_CHANGES}, which stores the cursor
+ * of the page with its changes. A sync that fails part way resumes where it stopped.
+ * <p>
+ * Pages are JSON objects, {@code {"changes": [...], "cursor": "...", "has_more": false}}, the
+ * pushed pages only holding the changes. Each change is an object with the columns of a
+ * {@link SyncEntry#CONTENT_URI} row but the sequence and the absolute quantity, keyed by their
+ * column names, and the ID of the store that made it under {@code "store"}. It is identified
+ * across stores by {@code "change_id"}, the store ID and the sequence of the change in that store
+ * separated by a colon, so each store applies a change posted twice once. The endpoint sends
+ * every change back, the ones of this store included, which the pull skips.
+ * <p>
+ * Quantities travel as deltas, so the sales each store makes add up on every store, while the
+ * other columns travel as values: a book changed here since the last push keeps its local
+ * values over the pulled ones, as described by {@link SyncEntry}.
+ */
+public class SyncEngine {
+
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    /**
+     * Path appended to the endpoint for the changes
+     */
+    static final String PATH_CHANGES = "/changes";
+    static final String PARAMETER_SINCE = "since";
+    static final String PARAMETER_LIMIT = "limit";
+
+    static final String KEY_CHANGES = "changes";
+    static final String KEY_CURSOR = "cursor";
+    static final String KEY_HAS_MORE = "has_more";
+    static final String KEY_STORE = "store";
+    static final String KEY_CHANGE_ID = "change_id";
+
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+    private static final String GZIP = "gzip";
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] TEXT_COLUMNS = {
+            BooksEntry.COLUMN_PRODUCT_NAME,
+            BooksEntry.COLUMN_SUPPLIER_NAME,
+            BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+    private static final String[] INTEGER_COLUMNS = {
+            BooksEntry.COLUMN_PRODUCT_PRICE,
+            SyncEntry.COLUMN_QUANTITY_DELTA};
+
+    /**
+     * Outcome of a sync.
+     */
+    public static final class Result {
+
+        /**
+         * Number of local changes pushed
+         */
+        public final int pushed;
+
+        /**
+         * Number of changes pulled, the ones this store pushed included
+         */
+        public final int pulled;
+
+        /**
+         * Number of books the pulled changes changed
+         */
+        public final long applied;
+
+        Result(int pushed, int pulled, long applied) {
+            this.pushed = pushed;
+            this.pulled = pulled;
+            this.applied = applied;
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final String endpoint;
+    private final int pageSize;
+
+    /**
+     * Constructs a new {@link SyncEngine}.
+     *
+     * @param contentResolver The resolver reaching the book provider
+     * @param endpoint        The URL of the sync endpoint, without the trailing slash
+     * @param pageSize        The largest number of changes sent or received per request
+     */
+    public SyncEngine(ContentResolver contentResolver, String endpoint, int pageSize) {
+        this.contentResolver = contentResolver;
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Push the local changes, then pull the changes of the other stores, on the calling thread.
+     */
+    public Result sync() throws IOException {
+        Bundle state = call(SyncEntry.METHOD_SYNC_STATE, null);
+        String storeId = state.getString(SyncEntry.EXTRA_STORE_ID);
+        int pushed = push(storeId, state.getString(SyncEntry.EXTRA_PUSH_PAGE));
+        Result result = pull(pushed, storeId, state.getString(SyncEntry.EXTRA_SYNC_CURSOR));
+        Log.d(LOG_TAG, "Pushed " + result.pushed + " changes, pulled " + result.pulled
+                + " changing " + result.applied + " books");
+        return result;
+    }
+
+    private int push(String storeId, @Nullable String unpostedPage) throws IOException {
+        Uri pageUri = SyncEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT, String.valueOf(pageSize))
+                .build();
+        int pushed = 0;
+        if (unpostedPage != null) {
+            // The same changes under the same IDs, whether the endpoint stored them or not
+            try {
+                pushed += new JSONObject(unpostedPage).getJSONArray(KEY_CHANGES).length();
+            } catch (JSONException e) {
+                throw new IOException("Malformed page left to push", e);
+            }
+            postPage(unpostedPage);
+        }
+        while (true) {
+            JSONArray changes = new JSONArray();
+            List<String> syncIds = new ArrayList<>();
+            List<Integer> quantityDeltas = new ArrayList<>();
+            long lastSequence = 0;
+            Cursor cursor = contentResolver.query(pageUri, null, null, null, null);
+            if (cursor == null) {
+                throw new IllegalStateException("Book provider unavailable");
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    lastSequence = cursor.getLong(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_SEQUENCE));
+                    changes.put(toJson(cursor)
+                            .put(KEY_STORE, storeId)
+                            .put(KEY_CHANGE_ID, storeId + ":" + lastSequence));
+                    syncIds.add(cursor.getString(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_SYNC_ID)));
+                    quantityDeltas.add(cursor.getInt(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_QUANTITY_DELTA)));
+                }
+            } catch (JSONException e) {
+                throw new IOException("Could not encode the changes", e);
+            } finally {
+                cursor.close();
+            }
+            if (changes.length() == 0) {
+                return pushed;
+            }
+
+            String body;
+            try {
+                body = new JSONObject().put(KEY_CHANGES, changes).toString();
+            } catch (JSONException e) {
+                throw new IOException("Could not encode the changes", e);
+            }
+            // Handed over before posting, so a book changed again meanwhile gets a new change
+            // instead of adding to one the endpoint may already have
+            Bundle extras = new Bundle();
+            extras.putLong(SyncEntry.EXTRA_SEQUENCE, lastSequence);
+            // Books sold again meanwhile keep the sales not pushed yet
+            extras.putStringArray(SyncEntry.EXTRA_SYNC_IDS, syncIds.toArray(new String[syncIds.size()]));
+            extras.putIntArray(SyncEntry.EXTRA_QUANTITY_DELTAS, toIntArray(quantityDeltas));
+            extras.putString(SyncEntry.EXTRA_PUSH_PAGE, body);
+            call(SyncEntry.METHOD_MARK_PUSHED, extras);
+            postPage(body);
+            pushed += changes.length();
+            if (changes.length() < pageSize) {
+                return pushed;
+            }
+        }
+    }
+
+    private Result pull(int pushed, String storeId, String syncCursor) throws IOException {
+        int pulled = 0;
+        long applied = 0;
+        while (true) {
+            String url = endpoint + PATH_CHANGES + "?" + PARAMETER_LIMIT + "=" + pageSize;
+            if (syncCursor != null) {
+                url += "&" + PARAMETER_SINCE + "=" + URLEncoder.encode(syncCursor, "UTF-8");
+            }
+            JSONObject page = get(new URL(url));
+
+            List<ContentValues> changes = new ArrayList<>();
+            int count;
+            String nextCursor;
+            boolean hasMore;
+            try {
+                JSONArray array = page.optJSONArray(KEY_CHANGES);
+                count = array == null ? 0 : array.length();
+                for (int i = 0; i < count; i++) {
+                    JSONObject change = array.getJSONObject(i);
+                    // Already applied here, adding its quantity delta again would count it twice
+                    if (!storeId.equals(change.optString(KEY_STORE))) {
+                        changes.add(fromJson(change));
+                    }
+                }
+                nextCursor = page.isNull(KEY_CURSOR) ? syncCursor : page.getString(KEY_CURSOR);
+                hasMore = page.optBoolean(KEY_HAS_MORE);
+            } catch (JSONException e) {
+                throw new IOException("Malformed changes from the sync endpoint", e);
+            }
+
+            if (!changes.isEmpty() || (nextCursor != null && !nextCursor.equals(syncCursor))) {
+                Bundle extras = new Bundle();
+                extras.putParcelableArray(SyncEntry.EXTRA_CHANGES, changes.toArray(new ContentValues[changes.size()]));
+                extras.putString(SyncEntry.EXTRA_SYNC_CURSOR, nextCursor);
+                applied += call(SyncEntry.METHOD_APPLY_SYNC_CHANGES, extras).getLong(BooksEntry.EXTRA_ROW_COUNT);
+            }
+            pulled += count;
+            syncCursor = nextCursor;
+            // An empty page can't move the cursor forward, so it ends the pull either way
+            if (!hasMore || count == 0) {
+                return new Result(pushed, pulled, applied);
+            }
+        }
+    }
+
+    /**
+     * Post the given page of changes kept by the provider, and forget it once accepted.
+     */
+    private void postPage(String body) throws IOException {
+        post(new URL(endpoint + PATH_CHANGES), body);
+        call(SyncEntry.METHOD_PAGE_POSTED, null);
+    }
+
+    private Bundle call(String method, Bundle extras) {
+        Bundle result = contentResolver.call(BooksEntry.CONTENT_URI, method, null, extras);
+        if (result == null) {
+            throw new IllegalStateException("Book provider unavailable");
+        }
+        return result;
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Return the change at the current position of a {@link SyncEntry#CONTENT_URI} cursor.
+     */
+    private static JSONObject toJson(Cursor cursor) throws JSONException {
+        JSONObject change = new JSONObject();
+        change.put(SyncEntry.COLUMN_SYNC_ID, cursor.getString(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_SYNC_ID)));
+        boolean deleted = cursor.getInt(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_DELETED)) != 0;
+        change.put(SyncEntry.COLUMN_DELETED, deleted);
+        if (deleted) {
+            return change;
+        }
+        for (String column : TEXT_COLUMNS) {
+            int index = cursor.getColumnIndexOrThrow(column);
+            change.put(column, cursor.isNull(index) ? JSONObject.NULL : cursor.getString(index));
+        }
+        for (String column : INTEGER_COLUMNS) {
+            int index = cursor.getColumnIndexOrThrow(column);
+            change.put(column, cursor.isNull(index) ? JSONObject.NULL : cursor.getLong(index));
+        }
+        return change;
+    }
+
+    /**
+     * Return the values of a change pulled from the endpoint, as expected by
+     * {@link SyncEntry#METHOD_APPLY_SYNC_CHANGES}.
+     */
+    @VisibleForTesting
+    static ContentValues fromJson(JSONObject change) throws JSONException {
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.COLUMN_SYNC_ID, change.getString(SyncEntry.COLUMN_SYNC_ID));
+        String changeId = change.optString(KEY_CHANGE_ID, null);
+        if (changeId != null) {
+            int separator = changeId.lastIndexOf(':');
+            long sequence;
+            try {
+                sequence = Long.parseLong(changeId.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                sequence = -1;
+            }
+            if (separator <= 0 || sequence < 0) {
+                throw new JSONException("Malformed change ID " + changeId);
+            }
+            values.put(SyncEntry.COLUMN_STORE_ID, changeId.substring(0, separator));
+            values.put(SyncEntry.COLUMN_SEQUENCE, sequence);
+        }
+        boolean deleted = change.optBoolean(SyncEntry.COLUMN_DELETED);
+        values.put(SyncEntry.COLUMN_DELETED, deleted);
+        if (deleted) {
+            return values;
+        }
+        for (String column : TEXT_COLUMNS) {
+            if (change.isNull(column)) {
+                values.putNull(column);
+            } else {
+                values.put(column, change.getString(column));
+            }
+        }
+        for (String column : INTEGER_COLUMNS) {
+            if (change.isNull(column)) {
+                values.putNull(column);
+            } else {
+                values.put(column, change.getInt(column));
+            }
+        }
+        return values;
+    }
+
+    private static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * Post the given JSON body gzipped, failing unless the endpoint accepts it.
+     */
+    private static void post(URL url, String body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream gzip = new GZIPOutputStream(compressed);
+        try {
+            gzip.write(body.getBytes(UTF_8));
+        } finally {
+            gzip.close();
+        }
+
+        HttpURLConnection connection = open(url);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", JSON_TYPE);
+            connection.setRequestProperty("Content-Encoding", GZIP);
+            connection.setFixedLengthStreamingMode(compressed.size());
+            OutputStream out = connection.getOutputStream();
+            try {
+                compressed.writeTo(out);
+            } finally {
+                out.close();
+            }
+            checkResponse(connection);
+            readBody(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Get the JSON object at the given URL, failing unless the endpoint returns one.
+     */
+    private static JSONObject get(URL url) throws IOException {
+        HttpURLConnection connection = open(url);
+        try {
+            connection.setRequestProperty("Accept", JSON_TYPE);
+            // Asked for explicitly, so the body is decompressed here on every platform
+            connection.setRequestProperty("Accept-Encoding", GZIP);
+            checkResponse(connection);
+            return new JSONObject(readBody(connection));
+        } catch (JSONException e) {
+            throw new IOException("Malformed response from the sync endpoint", e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void checkResponse(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code / 100 != 2) {
+            throw new IOException("Sync endpoint answered " + code + " " + connection.getResponseMessage());
+        }
+    }
+
+    private static String readBody(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
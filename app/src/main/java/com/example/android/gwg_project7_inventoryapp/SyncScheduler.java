@@ -0,0 +1,152 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link Job} on a background thread every {@code intervalMillis}. A failed run is
+ * retried with exponential backoff: {@code minBackoffMillis} after the first failure, then twice
+ * as long after each failure in a row, up to {@code maxBackoffMillis}, so an endpoint that is
+ * down isn't called in a loop. A successful run goes back to the regular interval.
+ */
+public class SyncScheduler {
+
+    /**
+     * Work run by the scheduler, like a sync.
+     */
+    public interface Job {
+
+        /**
+         * Run the job once, throwing if it failed and should be retried.
+         */
+        void run() throws IOException;
+    }
+
+    private final Job job;
+    private final long intervalMillis;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Number of runs in a row that failed, written on the scheduler thread
+     */
+    private volatile int failures;
+
+    /**
+     * Next run, or null if none is scheduled. Only used on the scheduler thread.
+     */
+    private ScheduledFuture<?> scheduledRun;
+
+    private final Runnable runRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runJob();
+        }
+    };
+
+    /**
+     * Constructs a new {@link SyncScheduler}.
+     *
+     * @param job              The job to run
+     * @param intervalMillis   The time between the end of a successful run and the next run
+     * @param minBackoffMillis The time before the first retry of a failed run
+     * @param maxBackoffMillis The longest time between retries
+     */
+    public SyncScheduler(Job job, long intervalMillis, long minBackoffMillis, long maxBackoffMillis) {
+        this.job = job;
+        this.intervalMillis = intervalMillis;
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SyncScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Run the job after the given delay, then on schedule.
+     */
+    public void start(final long initialDelayMillis) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                schedule(initialDelayMillis);
+            }
+        });
+    }
+
+    /**
+     * Run the job now, instead of at its next scheduled time. The backoff of failed runs is
+     * kept, so retries stay spaced out after this run if it fails too.
+     */
+    public void requestRun() {
+        executor.execute(runRunnable);
+    }
+
+    /**
+     * Stop running the job, waiting for a run in progress to end.
+     */
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return the number of runs in a row that failed, 0 after a successful run.
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Return the time to wait after the given number of failures in a row: the minimum backoff
+     * doubled after each failure but the first, capped at the maximum.
+     */
+    static long backoffMillis(int failures, long minBackoffMillis, long maxBackoffMillis) {
+        long backoff = minBackoffMillis;
+        // Stop doubling at the cap, so a long outage doesn't overflow
+        for (int i = 1; i < failures && backoff < maxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, maxBackoffMillis);
+    }
+
+    private void runJob() {
+        if (scheduledRun != null) {
+            scheduledRun.cancel(false);
+            scheduledRun = null;
+        }
+        long delay;
+        try {
+            job.run();
+            failures = 0;
+            delay = intervalMillis;
+        } catch (IOException | RuntimeException e) {
+            failures++;
+            delay = backoffMillis(failures, minBackoffMillis, maxBackoffMillis);
+        }
+        schedule(delay);
+    }
+
+    private void schedule(long delayMillis) {
+        if (scheduledRun != null) {
+            scheduledRun.cancel(false);
+        }
+        try {
+            scheduledRun = executor.schedule(runRunnable, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException closed) {
+            // The scheduler is closing
+            scheduledRun = null;
+        }
+    }
+}
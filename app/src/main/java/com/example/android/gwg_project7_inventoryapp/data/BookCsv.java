@@ -0,0 +1,181 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Reads and writes books as CSV, following RFC 4180: fields are separated by commas, and fields
+ * holding commas, quotes or line breaks are quoted, with quotes doubled. The first record names
+ * the columns, using the names of the book columns. Used by the CSV import and by the export of
+ * {@link BookProvider}.
+ */
+public final class BookCsv {
+
+    /**
+     * Columns of a book file, in the order they are written.
+     */
+    public static final String[] COLUMNS = {
+            BooksEntry.COLUMN_PRODUCT_NAME,
+            BooksEntry.COLUMN_PRODUCT_PRICE,
+            BooksEntry.COLUMN_PRODUCT_QUANTITY,
+            BooksEntry.COLUMN_SUPPLIER_NAME,
+            BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+
+    private BookCsv() {
+    }
+
+    /**
+     * Reads the records of a CSV stream one at a time, so a file of any size is read with
+     * bounded memory. Wrap the stream in a buffered reader, it is read a character at a time.
+     */
+    public static final class RecordReader {
+
+        private final Reader reader;
+        private final StringBuilder field = new StringBuilder();
+
+        /**
+         * Character read ahead, or -2 if none
+         */
+        private int pending = -2;
+
+        /**
+         * Number of the line the last record started on, from 1
+         */
+        private long lineNumber;
+
+        /**
+         * Number of the line being read, from 1
+         */
+        private long currentLine = 1;
+
+        public RecordReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Return the fields of the next record, or null at the end of the stream. Empty lines
+         * are skipped.
+         */
+        public List<String> next() throws IOException {
+            int c = read();
+            while (c == '\r' || c == '\n') {
+                skipLineBreak(c);
+                c = read();
+            }
+            if (c == -1) {
+                return null;
+            }
+            lineNumber = currentLine;
+
+            List<String> fields = new ArrayList<>();
+            field.setLength(0);
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field on line " + lineNumber);
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            continue;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            currentLine++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    fields.add(field.toString());
+                    if (c != -1) {
+                        skipLineBreak(c);
+                    }
+                    return fields;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        /**
+         * Return the number of the line the last record read started on, from 1.
+         */
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * Consume the rest of the line break starting with the given character.
+         */
+        private void skipLineBreak(int c) throws IOException {
+            currentLine++;
+            if (c == '\r') {
+                int next = read();
+                if (next != '\n') {
+                    pending = next;
+                }
+            }
+        }
+
+        private int read() throws IOException {
+            if (pending != -2) {
+                int c = pending;
+                pending = -2;
+                return c;
+            }
+            return reader.read();
+        }
+    }
+
+    /**
+     * Write one record, quoting the fields that need it. Null fields are written empty.
+     */
+    public static void writeRecord(Writer writer, List<String> fields) throws IOException {
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeField(writer, fields.get(i));
+        }
+        writer.write("\r\n");
+    }
+
+    private static void writeField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
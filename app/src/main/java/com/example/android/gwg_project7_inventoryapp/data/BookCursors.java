@@ -0,0 +1,44 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.database.Cursor;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Reads {@link Book}s from cursors over the books table.
+ */
+public final class BookCursors {
+
+    private BookCursors() {
+    }
+
+    /**
+     * Read every row of the given cursor, from its first row. Columns missing from the cursor
+     * are read as null or 0.
+     */
+    public static List<Book> fromCursor(Cursor cursor) {
+        List<Book> books = new ArrayList<>(cursor.getCount());
+        int idColumnIndex = cursor.getColumnIndex(BooksEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_NAME);
+        int priceColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_PRICE);
+        int quantityColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_PRODUCT_QUANTITY);
+        int supplierNameColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_SUPPLIER_NAME);
+        int supplierPhoneColumnIndex = cursor.getColumnIndex(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            books.add(new Book(
+                    cursor.getLong(idColumnIndex),
+                    nameColumnIndex == -1 ? null : cursor.getString(nameColumnIndex),
+                    priceColumnIndex == -1 ? 0 : cursor.getInt(priceColumnIndex),
+                    quantityColumnIndex == -1 ? 0 : cursor.getInt(quantityColumnIndex),
+                    supplierNameColumnIndex == -1 ? null : cursor.getString(supplierNameColumnIndex),
+                    supplierPhoneColumnIndex == -1 ? null : cursor.getString(supplierPhoneColumnIndex)));
+        }
+        return books;
+    }
+}
@@ -1,19 +1,69 @@
 package com.example.android.gwg_project7_inventoryapp.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
+import android.util.JsonWriter;
 import android.util.Log;
 
+import com.example.android.gwg_project7_inventoryapp.BuildConfig;
+import com.example.android.gwg_project7_inventoryapp.core.BookValidator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
 import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
 import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.CONTENT_AUTHORITY;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.MovementsEntry;
 import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_BOOKS;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_CHANGES;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_DAILY;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_EXPORT;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_MOVEMENTS;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_SEARCH;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_STATS;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.PATH_SUPPLIERS;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.StatsEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.SyncEntry;
 
 
 public class BookProvider extends ContentProvider {
@@ -21,33 +71,458 @@ public class BookProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     private static final int BOOKS = 100;
     private static final int BOOKS_ID = 101;
+    private static final int BOOKS_SEARCH = 102;
+    private static final int STATS = 103;
+    private static final int STATS_SUPPLIERS = 104;
+    private static final int BOOKS_EXPORT = 105;
+    private static final int BOOKS_ID_MOVEMENTS = 106;
+    private static final int BOOKS_ID_MOVEMENTS_DAILY = 107;
+    private static final int SYNC_CHANGES = 108;
 
     static {
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS, BOOKS);
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/#", BOOKS_ID);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/" + PATH_SEARCH, BOOKS_SEARCH);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/" + PATH_STATS, STATS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/" + PATH_STATS + "/" + PATH_SUPPLIERS, STATS_SUPPLIERS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/" + PATH_EXPORT, BOOKS_EXPORT);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/#/" + PATH_MOVEMENTS, BOOKS_ID_MOVEMENTS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/#/" + PATH_MOVEMENTS + "/" + PATH_DAILY, BOOKS_ID_MOVEMENTS_DAILY);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BOOKS + "/" + PATH_CHANGES, SYNC_CHANGES);
+    }
+
+    /**
+     * Maps every book column to the same column of the books table, so that search queries
+     * joining the full-text index don't return its columns of the same name.
+     */
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<>();
+
+    static {
+        String[] columns = {
+                BooksEntry._ID,
+                BooksEntry.COLUMN_PRODUCT_NAME,
+                BooksEntry.COLUMN_PRODUCT_PRICE,
+                BooksEntry.COLUMN_PRODUCT_QUANTITY,
+                BooksEntry.COLUMN_SUPPLIER_NAME,
+                BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+        for (String column : columns) {
+            sSearchProjectionMap.put(column, BooksEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Sums the statistics of every supplier into the statistics of the whole inventory.
+     */
+    private static final Map<String, String> sStatsProjectionMap = new HashMap<>();
+
+    static {
+        String[] columns = {
+                StatsEntry.COLUMN_TITLE_COUNT,
+                StatsEntry.COLUMN_UNITS,
+                StatsEntry.COLUMN_STOCK_VALUE,
+                StatsEntry.COLUMN_OUT_OF_STOCK_COUNT};
+        for (String column : columns) {
+            sStatsProjectionMap.put(column, "IFNULL(SUM(" + column + "), 0) AS " + column);
+        }
+    }
+
+    /**
+     * Day of a stock movement, in SQL
+     */
+    private static final String SQL_MOVEMENT_DAY = MovementsEntry.COLUMN_TIME + " - "
+            + MovementsEntry.COLUMN_TIME + " % " + MovementsEntry.DAY_MILLIS;
+
+    /**
+     * Daily totals of the stock movements grouped by day, in SQL
+     */
+    private static final String SQL_MOVEMENT_TOTALS = "SUM(CASE WHEN " + MovementsEntry.COLUMN_KIND + " = " + MovementsEntry.KIND_SALE
+            + " THEN -" + MovementsEntry.COLUMN_DELTA + " ELSE 0 END) AS " + MovementsEntry.COLUMN_SOLD + ", "
+            + "SUM(CASE WHEN " + MovementsEntry.COLUMN_KIND + " = " + MovementsEntry.KIND_RESTOCK
+            + " THEN " + MovementsEntry.COLUMN_DELTA + " ELSE 0 END) AS " + MovementsEntry.COLUMN_RESTOCKED + ", "
+            + "SUM(CASE WHEN " + MovementsEntry.COLUMN_KIND + " = " + MovementsEntry.KIND_CORRECTION
+            + " THEN " + MovementsEntry.COLUMN_DELTA + " ELSE 0 END) AS " + MovementsEntry.COLUMN_CORRECTED + ", "
+            + "COUNT(*) AS " + MovementsEntry.COLUMN_MOVEMENT_COUNT;
+
+    /**
+     * Daily totals of one book over a range of days: the days already rolled up, and the
+     * movements not rolled up yet totalled on the fly. Bound to the book ID, the start and the
+     * end of the range, once for each side.
+     */
+    private static final String SQL_DAILY_MOVEMENTS = "(SELECT "
+            + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_DAY + ", "
+            + MovementsEntry.COLUMN_SOLD + ", " + MovementsEntry.COLUMN_RESTOCKED + ", "
+            + MovementsEntry.COLUMN_CORRECTED + ", " + MovementsEntry.COLUMN_MOVEMENT_COUNT
+            + " FROM " + BooksDbHelper.TABLE_STOCK_MOVEMENT_DAYS
+            + " WHERE " + MovementsEntry.COLUMN_BOOK_ID + " = ? AND " + MovementsEntry.COLUMN_DAY + " >= ? AND "
+            + MovementsEntry.COLUMN_DAY + " < ?"
+            + " UNION ALL SELECT " + MovementsEntry.COLUMN_BOOK_ID + ", " + SQL_MOVEMENT_DAY + " AS " + MovementsEntry.COLUMN_DAY + ", "
+            + SQL_MOVEMENT_TOTALS
+            + " FROM " + BooksDbHelper.TABLE_STOCK_MOVEMENTS
+            + " WHERE " + MovementsEntry.COLUMN_BOOK_ID + " = ? AND " + MovementsEntry.COLUMN_TIME + " >= ? AND "
+            + MovementsEntry.COLUMN_TIME + " < ?"
+            + " GROUP BY " + MovementsEntry.COLUMN_DAY + ")";
+
+    /**
+     * Adds up the two sides of {@link #SQL_DAILY_MOVEMENTS} for each day.
+     */
+    private static final Map<String, String> sDailyProjectionMap = new HashMap<>();
+
+    static {
+        sDailyProjectionMap.put(MovementsEntry.COLUMN_BOOK_ID, MovementsEntry.COLUMN_BOOK_ID);
+        sDailyProjectionMap.put(MovementsEntry.COLUMN_DAY, MovementsEntry.COLUMN_DAY);
+        String[] columns = {
+                MovementsEntry.COLUMN_SOLD,
+                MovementsEntry.COLUMN_RESTOCKED,
+                MovementsEntry.COLUMN_CORRECTED,
+                MovementsEntry.COLUMN_MOVEMENT_COUNT};
+        for (String column : columns) {
+            sDailyProjectionMap.put(column, "SUM(" + column + ") AS " + column);
+        }
     }
 
+    /**
+     * Ranks search results: books whose name matches come first (their first match is in
+     * column 0 of the full-text index), then shorter names, which match more closely.
+     */
+    private static final String SEARCH_SORT_ORDER = "offsets(" + BooksDbHelper.TABLE_BOOKS_FTS + ") LIKE '0 %' DESC, "
+            + "length(" + BooksEntry.TABLE_NAME + "." + BooksEntry.COLUMN_PRODUCT_NAME + "), "
+            + BooksEntry.TABLE_NAME + "." + BooksEntry._ID;
+
     private static final String LOG_TAG = BookProvider.class.getSimpleName();
+
+    /**
+     * Columns written by the export and the snapshots, in order
+     */
+    private static final String[] BOOK_FILE_COLUMNS = {
+            BooksEntry._ID,
+            BooksEntry.COLUMN_PRODUCT_NAME,
+            BooksEntry.COLUMN_PRODUCT_PRICE,
+            BooksEntry.COLUMN_PRODUCT_QUANTITY,
+            BooksEntry.COLUMN_SUPPLIER_NAME,
+            BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+
+    /**
+     * Columns of the books written to snapshots: the file columns, then the ones identifying
+     * the book to the editors and to the other stores.
+     */
+    private static final String[] SNAPSHOT_COLUMNS = {
+            BooksEntry._ID,
+            BooksEntry.COLUMN_PRODUCT_NAME,
+            BooksEntry.COLUMN_PRODUCT_PRICE,
+            BooksEntry.COLUMN_PRODUCT_QUANTITY,
+            BooksEntry.COLUMN_SUPPLIER_NAME,
+            BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            BooksEntry.COLUMN_VERSION,
+            SyncEntry.COLUMN_SYNC_ID};
+
+    /**
+     * Number of books the export and the snapshots read per query
+     */
+    private static final int BOOK_PAGE_SIZE = 500;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Insert statement used to restore snapshots, keeping the {@link BooksEntry#_ID}, version and
+     * sync ID of each book.
+     */
+    private static final String SQL_RESTORE_BOOK = "INSERT INTO " + BooksEntry.TABLE_NAME + " ("
+            + BooksEntry._ID + ", "
+            + BooksEntry.COLUMN_PRODUCT_NAME + ", "
+            + BooksEntry.COLUMN_PRODUCT_PRICE + ", "
+            + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + BooksEntry.COLUMN_SUPPLIER_NAME + ", "
+            + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+            + BooksEntry.COLUMN_VERSION + ", "
+            + SyncEntry.COLUMN_SYNC_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Insert statement used by {@link #bulkInsert(Uri, ContentValues[])}, compiled once per batch.
+     */
+    private static final String SQL_INSERT_BOOK = "INSERT INTO " + BooksEntry.TABLE_NAME + " ("
+            + BooksEntry.COLUMN_PRODUCT_NAME + ", "
+            + BooksEntry.COLUMN_PRODUCT_PRICE + ", "
+            + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + BooksEntry.COLUMN_SUPPLIER_NAME + ", "
+            + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * Add a delta to the quantity of one book in a single statement, unless it would go negative
+     * (the rule of {@link com.example.android.gwg_project7_inventoryapp.core.Stock#canAdjust}).
+     * It bumps the version itself, so the version trigger has nothing to write.
+     */
+    private static final String SQL_ADJUST_STOCK = "UPDATE " + BooksEntry.TABLE_NAME
+            + " SET " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " = " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " + ?, "
+            + BooksEntry.COLUMN_VERSION + " = " + BooksEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + BooksEntry._ID + " = ? AND " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= 0";
+
+    /**
+     * Error of a write giving a {@link BooksEntry#COLUMN_VERSION}, which only the database sets
+     */
+    private static final String ERROR_VERSION_WRITTEN = "The book version is set by the provider";
+
+    /**
+     * Error of a write giving a {@link SyncEntry#COLUMN_SYNC_ID}, which only the provider sets
+     */
+    private static final String ERROR_SYNC_ID_WRITTEN = "The book sync ID is set by the provider";
+
+    private static final String SQL_SELECT_QUANTITY = "SELECT " + BooksEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + BooksEntry.TABLE_NAME + " WHERE " + BooksEntry._ID + " = ?";
+
+    /**
+     * Append one stock movement, bound to the book ID, time, delta and kind.
+     */
+    private static final String SQL_APPEND_MOVEMENT = "INSERT INTO " + BooksDbHelper.TABLE_STOCK_MOVEMENTS + " ("
+            + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_TIME + ", "
+            + MovementsEntry.COLUMN_DELTA + ", " + MovementsEntry.COLUMN_KIND + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * Append a correction for every book whose quantity an update is about to change, bound to
+     * the time and twice to the new quantity. The selection of the update follows.
+     */
+    private static final String SQL_APPEND_CORRECTIONS = "INSERT INTO " + BooksDbHelper.TABLE_STOCK_MOVEMENTS + " ("
+            + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_TIME + ", "
+            + MovementsEntry.COLUMN_DELTA + ", " + MovementsEntry.COLUMN_KIND + ")"
+            + " SELECT " + BooksEntry._ID + ", ?, ? - " + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", " + MovementsEntry.KIND_CORRECTION
+            + " FROM " + BooksEntry.TABLE_NAME + " WHERE " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " <> ?";
+
+    /**
+     * The oldest stock movements, in the order they were appended, bound to the number to read
+     */
+    private static final String SQL_SELECT_OLDEST_MOVEMENTS = "SELECT " + MovementsEntry._ID + ", " + MovementsEntry.COLUMN_TIME
+            + " FROM " + BooksDbHelper.TABLE_STOCK_MOVEMENTS + " ORDER BY " + MovementsEntry._ID + " LIMIT ?";
+
+    /**
+     * Daily totals of the stock movements appended before a movement ID
+     */
+    private static final String SQL_SELECT_MOVEMENT_TOTALS = "SELECT " + MovementsEntry.COLUMN_BOOK_ID + ", "
+            + SQL_MOVEMENT_DAY + " AS " + MovementsEntry.COLUMN_DAY + ", " + SQL_MOVEMENT_TOTALS
+            + " FROM " + BooksDbHelper.TABLE_STOCK_MOVEMENTS + " WHERE " + MovementsEntry._ID + " < ?"
+            + " GROUP BY " + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_DAY;
+
+    private static final String SQL_INSERT_MOVEMENT_DAY = "INSERT OR IGNORE INTO " + BooksDbHelper.TABLE_STOCK_MOVEMENT_DAYS
+            + " (" + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_DAY + ") VALUES (?, ?)";
+
+    private static final String SQL_ADD_TO_MOVEMENT_DAY = "UPDATE " + BooksDbHelper.TABLE_STOCK_MOVEMENT_DAYS + " SET "
+            + MovementsEntry.COLUMN_SOLD + " = " + MovementsEntry.COLUMN_SOLD + " + ?, "
+            + MovementsEntry.COLUMN_RESTOCKED + " = " + MovementsEntry.COLUMN_RESTOCKED + " + ?, "
+            + MovementsEntry.COLUMN_CORRECTED + " = " + MovementsEntry.COLUMN_CORRECTED + " + ?, "
+            + MovementsEntry.COLUMN_MOVEMENT_COUNT + " = " + MovementsEntry.COLUMN_MOVEMENT_COUNT + " + ?"
+            + " WHERE " + MovementsEntry.COLUMN_BOOK_ID + " = ? AND " + MovementsEntry.COLUMN_DAY + " = ?";
+
+    /**
+     * Number of stock movements rolled up per transaction, so sales only wait for one batch
+     */
+    private static final int COMPACT_BATCH_SIZE = 1000;
+
+    /**
+     * The changed books in the order of their last change, bound to the number to read. Each
+     * book is looked up by its sync ID, so only the changed books are read.
+     */
+    private static final String SQL_SELECT_CHANGES = "SELECT "
+            + "c." + SyncEntry.COLUMN_SEQUENCE + " AS " + SyncEntry.COLUMN_SEQUENCE + ", "
+            + "c." + SyncEntry.COLUMN_SYNC_ID + " AS " + SyncEntry.COLUMN_SYNC_ID + ", "
+            + "b." + BooksEntry._ID + " IS NULL AS " + SyncEntry.COLUMN_DELETED + ", "
+            + "c." + SyncEntry.COLUMN_QUANTITY_DELTA + " AS " + SyncEntry.COLUMN_QUANTITY_DELTA + ", "
+            + "b." + BooksEntry.COLUMN_PRODUCT_NAME + " AS " + BooksEntry.COLUMN_PRODUCT_NAME + ", "
+            + "b." + BooksEntry.COLUMN_PRODUCT_PRICE + " AS " + BooksEntry.COLUMN_PRODUCT_PRICE + ", "
+            + "b." + BooksEntry.COLUMN_PRODUCT_QUANTITY + " AS " + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + "b." + BooksEntry.COLUMN_SUPPLIER_NAME + " AS " + BooksEntry.COLUMN_SUPPLIER_NAME + ", "
+            + "b." + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " AS " + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+            + " FROM " + BooksDbHelper.TABLE_BOOK_CHANGES + " c LEFT JOIN " + BooksEntry.TABLE_NAME + " b"
+            + " ON b." + SyncEntry.COLUMN_SYNC_ID + " = c." + SyncEntry.COLUMN_SYNC_ID
+            + " ORDER BY c." + SyncEntry.COLUMN_SEQUENCE + " LIMIT ?";
+
+    private static final String SQL_SELECT_LAST_CHANGE = "SELECT IFNULL(MAX(" + SyncEntry.COLUMN_SEQUENCE + "), 0)"
+            + " FROM " + BooksDbHelper.TABLE_BOOK_CHANGES;
+
+    /**
+     * Whether a book has a change up to a sequence, bound to its sync ID and the sequence
+     */
+    private static final String SQL_SELECT_PENDING_CHANGE = "SELECT COUNT(*) FROM " + BooksDbHelper.TABLE_BOOK_CHANGES
+            + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ? AND " + SyncEntry.COLUMN_SEQUENCE + " <= ?";
+
+    /**
+     * Write the values of a book changed by another store, bound like {@link #SQL_INSERT_BOOK}
+     * with the quantity delta in place of the quantity, followed by the sync ID. The quantity
+     * stops at zero. Books already holding these values aren't written.
+     */
+    private static final String SQL_APPLY_BOOK = "UPDATE " + BooksEntry.TABLE_NAME + " SET "
+            + BooksEntry.COLUMN_PRODUCT_NAME + " = ?1, "
+            + BooksEntry.COLUMN_PRODUCT_PRICE + " = ?2, "
+            + BooksEntry.COLUMN_PRODUCT_QUANTITY + " = MAX(0, " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " + ?3), "
+            + BooksEntry.COLUMN_SUPPLIER_NAME + " = ?4, "
+            + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " = ?5"
+            + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ?6 AND ("
+            + BooksEntry.COLUMN_PRODUCT_NAME + " IS NOT ?1 OR "
+            + BooksEntry.COLUMN_PRODUCT_PRICE + " IS NOT ?2 OR "
+            + "MAX(0, " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " + ?3) != " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " OR "
+            + BooksEntry.COLUMN_SUPPLIER_NAME + " IS NOT ?4 OR "
+            + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " IS NOT ?5)";
+
+    /**
+     * Add the quantity delta of another store to a book, stopping at zero, bound to the delta
+     * and the sync ID
+     */
+    private static final String SQL_APPLY_QUANTITY_DELTA = "UPDATE " + BooksEntry.TABLE_NAME + " SET "
+            + BooksEntry.COLUMN_PRODUCT_QUANTITY + " = MAX(0, " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " + ?1)"
+            + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ?2"
+            + " AND MAX(0, " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " + ?1) != " + BooksEntry.COLUMN_PRODUCT_QUANTITY;
+
+    /**
+     * Append a correction for a book another store's quantity delta is about to change, bound
+     * to the time, the delta and the sync ID. The correction is the change the delta makes once
+     * the quantity stops at zero, so the delta is journaled as applied, not as sent.
+     */
+    private static final String SQL_APPEND_SYNCED_MOVEMENT = "INSERT INTO " + BooksDbHelper.TABLE_STOCK_MOVEMENTS + " ("
+            + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_TIME + ", "
+            + MovementsEntry.COLUMN_DELTA + ", " + MovementsEntry.COLUMN_KIND + ")"
+            + " SELECT " + BooksEntry._ID + ", ?1, MAX(?2, -" + BooksEntry.COLUMN_PRODUCT_QUANTITY + "), "
+            + MovementsEntry.KIND_CORRECTION
+            + " FROM " + BooksEntry.TABLE_NAME + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ?3"
+            + " AND MAX(?2, -" + BooksEntry.COLUMN_PRODUCT_QUANTITY + ") != 0";
+
+    /**
+     * Take a pushed quantity delta off a book changed again since it was read, bound to the
+     * delta, the sync ID and the last sequence pushed
+     */
+    private static final String SQL_FORGET_PUSHED_DELTA = "UPDATE " + BooksDbHelper.TABLE_BOOK_CHANGES + " SET "
+            + SyncEntry.COLUMN_QUANTITY_DELTA + " = " + SyncEntry.COLUMN_QUANTITY_DELTA + " - ?"
+            + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ? AND " + SyncEntry.COLUMN_SEQUENCE + " > ?";
+
+    private static final String SQL_INSERT_SYNCED_BOOK = "INSERT INTO " + BooksEntry.TABLE_NAME + " ("
+            + BooksEntry.COLUMN_PRODUCT_NAME + ", "
+            + BooksEntry.COLUMN_PRODUCT_PRICE + ", "
+            + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + BooksEntry.COLUMN_SUPPLIER_NAME + ", "
+            + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+            + SyncEntry.COLUMN_SYNC_ID + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_SELECT_SYNCED_BOOK = "SELECT COUNT(*) FROM " + BooksEntry.TABLE_NAME
+            + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ?";
+
+    private static final String SQL_DELETE_SYNCED_BOOK = "DELETE FROM " + BooksEntry.TABLE_NAME
+            + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = ?";
+
+    private static final String SQL_SELECT_SYNC_STATE = "SELECT " + BooksDbHelper.COLUMN_VALUE
+            + " FROM " + BooksDbHelper.TABLE_SYNC_STATE + " WHERE " + BooksDbHelper.COLUMN_NAME + " = ?";
+
+    private static final String SQL_SELECT_LAST_SEQUENCE = "SELECT " + BooksDbHelper.COLUMN_LAST_SEQUENCE
+            + " FROM " + BooksDbHelper.TABLE_APPLIED_SALES + " WHERE " + BooksDbHelper.COLUMN_JOURNAL + " = ?";
+
+    /**
+     * Name of the database file
+     */
+    private final String databaseName;
+
+    /**
+     * Log of the slow statements, only in debug builds
+     */
+    @Nullable
+    private final SlowQueryLog slowQueryLog;
+
     private BooksDbHelper booksDbHelper;
 
+    /**
+     * Sends the change notifications of this provider, coalesced over a short window
+     */
+    private ChangeNotifier changeNotifier;
+
+    /**
+     * URIs changed by the batch running on the current thread. While a batch is running,
+     * change notifications are collected here and only sent once the batch commits.
+     */
+    private final ThreadLocal<Set<Uri>> batchNotifications = new ThreadLocal<>();
+
+    /**
+     * Counters and latency histograms of the provider operations, by URI match code
+     */
+    private final ProviderMetrics metrics = new ProviderMetrics(BOOKS,
+            PATH_BOOKS, PATH_BOOKS + "/#", PATH_BOOKS + "/" + PATH_SEARCH, PATH_BOOKS + "/" + PATH_STATS,
+            PATH_BOOKS + "/" + PATH_STATS + "/" + PATH_SUPPLIERS, PATH_BOOKS + "/" + PATH_EXPORT,
+            PATH_BOOKS + "/#/" + PATH_MOVEMENTS, PATH_BOOKS + "/#/" + PATH_MOVEMENTS + "/" + PATH_DAILY,
+            PATH_BOOKS + "/" + PATH_CHANGES);
+
+    /**
+     * Create the provider of the app database. Debug builds log the statements slower than
+     * {@code BuildConfig.SLOW_QUERY_MILLIS}.
+     */
+    public BookProvider() {
+        this(BooksDbHelper.DATABASE_NAME,
+                BuildConfig.SLOW_QUERY_MILLIS >= 0 ? new SlowQueryLog(BuildConfig.SLOW_QUERY_MILLIS) : null);
+    }
+
+    /**
+     * Create a provider of the books of the given database file, logging its slow statements
+     * to the given log if there is one.
+     */
+    @VisibleForTesting
+    public BookProvider(String databaseName, @Nullable SlowQueryLog slowQueryLog) {
+        this.databaseName = databaseName;
+        this.slowQueryLog = slowQueryLog;
+    }
+
     @Override
     public boolean onCreate() {
-        booksDbHelper = new BooksDbHelper(getContext());
+        booksDbHelper = new BooksDbHelper(getContext(), databaseName, new TimedCursor.Factory(slowQueryLog));
+        changeNotifier = new ChangeNotifier(getContext().getContentResolver());
         return true;
     }
 
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        int match = sUriMatcher.match(uri);
+        TraceCompat.beginSection(metrics.getSectionName(ProviderMetrics.QUERY, match));
+        long start = System.nanoTime();
+        Cursor cursor = null;
+        try {
+            cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+            return cursor;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            TraceCompat.endSection();
+            if (cursor instanceof TimedCursor) {
+                // The query runs when the cursor is first read, which records it with its rows
+                ((TimedCursor) cursor).recordInto(metrics, match, nanos);
+            } else {
+                metrics.record(ProviderMetrics.QUERY, match, nanos, cursor != null ? cursor.getCount() : -1);
+            }
+        }
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
         SQLiteDatabase database = booksDbHelper.getReadableDatabase();
 
         Cursor cursor;
 
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
-                cursor = database.query(BooksEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
-                break;
+                String limit = uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT);
+                String after = uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_AFTER);
+                if (limit != null) {
+                    limit = String.valueOf(Integer.parseInt(limit));
+                }
+                if (after != null) {
+                    // Keyset pagination walks the primary key, so the page starts with an
+                    // index seek instead of skipping over the rows of the previous pages
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("Keyset pagination only supports ordering by " + BooksEntry._ID);
+                    }
+                    selection = DatabaseUtils.concatenateWhere(selection, BooksEntry._ID + ">?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{String.valueOf(Long.parseLong(after))});
+                }
+                if ((limit != null || after != null) && sortOrder == null) {
+                    sortOrder = BooksEntry._ID;
+                }
+                cursor = database.query(BooksEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, limit);
+                // Lists only requery when books are added or removed, changed rows are
+                // refreshed on their own through their item URI
+                cursor.setNotificationUri(getContext().getContentResolver(), BooksEntry.LIST_NOTIFICATION_URI);
+                return cursor;
 
             case BOOKS_ID:
                 selection = BooksEntry._ID + "=?";
@@ -55,6 +530,50 @@ public class BookProvider extends ContentProvider {
                 cursor = database.query(BooksEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case BOOKS_SEARCH:
+                cursor = searchBooks(database, uri, projection, selection, selectionArgs);
+                // Search results are a list too
+                cursor.setNotificationUri(getContext().getContentResolver(), BooksEntry.LIST_NOTIFICATION_URI);
+                return cursor;
+
+            case STATS:
+                // One row per supplier is summed, whatever the number of books
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(BooksDbHelper.TABLE_INVENTORY_STATS);
+                builder.setProjectionMap(sStatsProjectionMap);
+                builder.setStrict(true);
+                cursor = builder.query(database, projection, selection, selectionArgs, null, null, null);
+                break;
+            case STATS_SUPPLIERS:
+                if (sortOrder == null) {
+                    sortOrder = StatsEntry.COLUMN_SUPPLIER_NAME;
+                }
+                cursor = database.query(BooksDbHelper.TABLE_INVENTORY_STATS, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                // Every change to the books is notified on the statistics URI
+                cursor.setNotificationUri(getContext().getContentResolver(), StatsEntry.CONTENT_URI);
+                return cursor;
+
+            case BOOKS_ID_MOVEMENTS:
+            case BOOKS_ID_MOVEMENTS_DAILY:
+                long bookId = Long.parseLong(uri.getPathSegments().get(1));
+                cursor = match == BOOKS_ID_MOVEMENTS
+                        ? queryMovements(database, uri, bookId, projection, selection, selectionArgs, sortOrder)
+                        : queryDailyMovements(database, uri, bookId, projection, selection, selectionArgs, sortOrder);
+                // Every movement changes the quantity of its book, which is notified on its item URI
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        ContentUris.withAppendedId(BooksEntry.CONTENT_URI, bookId));
+                return cursor;
+
+            case SYNC_CHANGES:
+                String changeLimit = uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT);
+                // A negative limit reads every change
+                cursor = database.rawQuery(SQL_SELECT_CHANGES, new String[]{
+                        changeLimit == null ? "-1" : String.valueOf(Integer.parseInt(changeLimit))});
+                // Every change to the books is below the books URI
+                cursor.setNotificationUri(getContext().getContentResolver(), BooksEntry.CONTENT_URI);
+                return cursor;
+
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -68,24 +587,342 @@ public class BookProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Start timing an operation on the given match code, and open its trace section so it shows
+     * up in system traces. Must be followed by {@link #endOperation}, on the same thread.
+     */
+    private long beginOperation(int operation, int match) {
+        TraceCompat.beginSection(metrics.getSectionName(operation, match));
+        return System.nanoTime();
+    }
+
+    /**
+     * Record an operation started by {@link #beginOperation} and close its trace section.
+     *
+     * @param rows the number of rows touched, or -1 if the operation failed
+     */
+    private void endOperation(int operation, int match, long start, int rows, int notificationMark) {
+        metrics.record(operation, match, System.nanoTime() - start, rows, notificationMark);
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Query the books matching the search text of the given search URI through the full-text
+     * index. Each word of the search text matches as a prefix, and all of them must match.
+     */
+    private Cursor searchBooks(SQLiteDatabase database, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs) {
+        String match = buildSearchMatch(uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_SEARCH));
+        if (match == null) {
+            // Nothing to search for, so nothing matches
+            return new MatrixCursor(projection != null ? projection
+                    : sSearchProjectionMap.keySet().toArray(new String[sSearchProjectionMap.size()]));
+        }
+        String limit = uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            limit = String.valueOf(Integer.parseInt(limit));
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(BooksEntry.TABLE_NAME + " JOIN " + BooksDbHelper.TABLE_BOOKS_FTS
+                + " ON " + BooksEntry.TABLE_NAME + "." + BooksEntry._ID + " = " + BooksDbHelper.TABLE_BOOKS_FTS + ".docid");
+        builder.setProjectionMap(sSearchProjectionMap);
+        builder.appendWhere(BooksDbHelper.TABLE_BOOKS_FTS + " MATCH ");
+        builder.appendWhereEscapeString(match);
+        return builder.query(database, projection, selection, selectionArgs, null, null, SEARCH_SORT_ORDER, limit);
+    }
+
+    /**
+     * Query the stock movements of the given book within the time range of the given URI, in
+     * the order they were made. The index on the book and time serves both the range and the
+     * order.
+     */
+    private static Cursor queryMovements(SQLiteDatabase database, Uri uri, long bookId, String[] projection,
+                                         String selection, String[] selectionArgs, String sortOrder) {
+        selection = DatabaseUtils.concatenateWhere(selection, MovementsEntry.COLUMN_BOOK_ID + "=? AND "
+                + MovementsEntry.COLUMN_TIME + ">=? AND " + MovementsEntry.COLUMN_TIME + "<?");
+        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{
+                String.valueOf(bookId),
+                String.valueOf(timeParameter(uri, MovementsEntry.QUERY_PARAMETER_FROM, 0)),
+                String.valueOf(timeParameter(uri, MovementsEntry.QUERY_PARAMETER_TO, Long.MAX_VALUE))});
+        if (sortOrder == null) {
+            sortOrder = MovementsEntry.COLUMN_TIME + ", " + MovementsEntry._ID;
+        }
+        return database.query(BooksDbHelper.TABLE_STOCK_MOVEMENTS, projection, selection, selectionArgs,
+                null, null, sortOrder);
+    }
+
+    /**
+     * Query the daily totals of the stock movements of the given book within the time range of
+     * the given URI, rounded to whole days, one row per day.
+     */
+    private static Cursor queryDailyMovements(SQLiteDatabase database, Uri uri, long bookId, String[] projection,
+                                              String selection, String[] selectionArgs, String sortOrder) {
+        String book = String.valueOf(bookId);
+        String from = String.valueOf(dayStart(timeParameter(uri, MovementsEntry.QUERY_PARAMETER_FROM, 0)));
+        String to = String.valueOf(dayStart(timeParameter(uri, MovementsEntry.QUERY_PARAMETER_TO, Long.MAX_VALUE)));
+        // The range is bound inside the table, so it comes before the selection
+        selectionArgs = DatabaseUtils.appendSelectionArgs(new String[]{book, from, to, book, from, to}, selectionArgs);
+        if (sortOrder == null) {
+            sortOrder = MovementsEntry.COLUMN_DAY;
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SQL_DAILY_MOVEMENTS);
+        builder.setProjectionMap(sDailyProjectionMap);
+        return builder.query(database, projection, selection, selectionArgs,
+                MovementsEntry.COLUMN_DAY, null, sortOrder);
+    }
+
+    /**
+     * Return the time in milliseconds held by the given query parameter of the given URI, or the
+     * given default if there is none.
+     */
+    private static long timeParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * Return the start of the UTC day of the given time. Times before the epoch are the epoch.
+     */
+    private static long dayStart(long time) {
+        time = Math.max(0, time);
+        return time - time % MovementsEntry.DAY_MILLIS;
+    }
+
+    /**
+     * Turn the search text into a full-text query where every word matches as a prefix.
+     * Characters with a meaning in the full-text query syntax are dropped. Return null if
+     * there is no word to search for.
+     */
+    private static String buildSearchMatch(String searchText) {
+        StringBuilder match = new StringBuilder();
+        if (searchText != null) {
+            for (String word : searchText.split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    if (match.length() > 0) {
+                        match.append(' ');
+                    }
+                    match.append(word.toLowerCase(Locale.ROOT)).append('*');
+                }
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
+            case BOOKS_SEARCH:
                 return BooksEntry.CONTENT_LIST_TYPE;
             case BOOKS_ID:
                 return BooksEntry.CONTENT_ITEM_TYPE;
+            case STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case STATS_SUPPLIERS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case BOOKS_EXPORT:
+                return BooksEntry.FORMAT_JSON.equals(exportFormat(uri)) ? BooksEntry.JSON_TYPE : BooksEntry.CSV_TYPE;
+            case BOOKS_ID_MOVEMENTS:
+                return MovementsEntry.CONTENT_LIST_TYPE;
+            case BOOKS_ID_MOVEMENTS_DAILY:
+                return MovementsEntry.DAILY_CONTENT_LIST_TYPE;
+            case SYNC_CHANGES:
+                return SyncEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + "with match" + match);
         }
     }
 
+    @Nullable
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != BOOKS_EXPORT) {
+            return null;
+        }
+        // Without a format parameter, the export can be written in either format
+        List<String> types = uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_FORMAT) == null
+                ? Arrays.asList(BooksEntry.CSV_TYPE, BooksEntry.JSON_TYPE)
+                : Arrays.asList(getType(uri));
+        List<String> matches = new ArrayList<>();
+        for (String type : types) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                matches.add(type);
+            }
+        }
+        return matches.isEmpty() ? null : matches.toArray(new String[matches.size()]);
+    }
+
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter,
+                                                  @Nullable Bundle opts) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) == BOOKS_EXPORT && uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_FORMAT) == null) {
+            // Pick the format from the MIME type asked for
+            String[] types = getStreamTypes(uri, mimeTypeFilter);
+            if (types == null) {
+                throw new FileNotFoundException("Can't export " + uri + " as " + mimeTypeFilter);
+            }
+            String format = BooksEntry.JSON_TYPE.equals(types[0]) ? BooksEntry.FORMAT_JSON : BooksEntry.FORMAT_CSV;
+            return new AssetFileDescriptor(openExport(uri, format), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+        }
+        return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != BOOKS_EXPORT) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export can only be read, not opened with mode " + mode);
+        }
+        try {
+            return openExport(uri, exportFormat(uri));
+        } catch (IllegalArgumentException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the export format asked for by the given export URI, CSV by default.
+     */
+    private static String exportFormat(Uri uri) {
+        String format = uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || BooksEntry.FORMAT_CSV.equals(format)) {
+            return BooksEntry.FORMAT_CSV;
+        }
+        if (BooksEntry.FORMAT_JSON.equals(format)) {
+            return BooksEntry.FORMAT_JSON;
+        }
+        throw new IllegalArgumentException("Unknown export format " + format);
+    }
+
+    /**
+     * Open a pipe the books are written into in the given format, on a background thread, as
+     * the other end reads them. Nothing is buffered beyond one page of books and the pipe
+     * itself, so memory stays the same whatever the number of books, and the first bytes are
+     * available as soon as the first page is read. Every page is read inside one non-exclusive
+     * transaction, like {@link #writeSnapshot(File)}, so the export holds the books as they were
+     * when it started. Writes wait for the export to be read to the end or closed.
+     */
+    private ParcelFileDescriptor openExport(Uri uri, final String format) throws FileNotFoundException {
+        String mimeType = BooksEntry.FORMAT_JSON.equals(format) ? BooksEntry.JSON_TYPE : BooksEntry.CSV_TYPE;
+        return openPipeHelper(uri, mimeType, null, format, new PipeDataWriter<String>() {
+            @Override
+            public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri,
+                                        @NonNull String mimeType, @Nullable Bundle opts, @Nullable String format) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new ParcelFileDescriptor.AutoCloseOutputStream(output), UTF_8));
+                SQLiteDatabase database = booksDbHelper.getReadableDatabase();
+                database.beginTransactionNonExclusive();
+                try {
+                    try {
+                        if (BooksEntry.FORMAT_JSON.equals(format)) {
+                            writeJsonExport(database, writer);
+                        } else {
+                            writeCsvExport(database, writer);
+                        }
+                    } finally {
+                        writer.close();
+                    }
+                    database.setTransactionSuccessful();
+                } catch (IOException e) {
+                    // The reader closed its end early, nobody is left to tell
+                    Log.w(LOG_TAG, "Export of " + uri + " stopped: " + e.getMessage());
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+    }
+
+    private static void writeCsvExport(SQLiteDatabase database, Writer writer) throws IOException {
+        BookCsv.writeRecord(writer, Arrays.asList(BOOK_FILE_COLUMNS));
+        List<String> record = new ArrayList<>(BOOK_FILE_COLUMNS.length);
+        long after = 0;
+        Cursor cursor;
+        while ((cursor = queryBooksPage(database, BOOK_FILE_COLUMNS, after)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    record.clear();
+                    for (int i = 0; i < BOOK_FILE_COLUMNS.length; i++) {
+                        record.add(cursor.getString(i));
+                    }
+                    BookCsv.writeRecord(writer, record);
+                    after = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void writeJsonExport(SQLiteDatabase database, Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+        long after = 0;
+        Cursor cursor;
+        while ((cursor = queryBooksPage(database, BOOK_FILE_COLUMNS, after)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    json.beginObject();
+                    json.name(BooksEntry._ID).value(cursor.getLong(0));
+                    json.name(BooksEntry.COLUMN_PRODUCT_NAME).value(cursor.getString(1));
+                    json.name(BooksEntry.COLUMN_PRODUCT_PRICE).value(cursor.getLong(2));
+                    json.name(BooksEntry.COLUMN_PRODUCT_QUANTITY).value(cursor.getLong(3));
+                    json.name(BooksEntry.COLUMN_SUPPLIER_NAME).value(cursor.getString(4));
+                    json.name(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER).value(cursor.getString(5));
+                    json.endObject();
+                    after = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        json.endArray();
+        json.flush();
+    }
+
+    /**
+     * Query the next page of the given columns, the first being {@link BooksEntry#_ID}, in ID
+     * order after the given ID, or return null once every book was read. Small keyset pages keep each read
+     * short, so writes aren't held up by a slow reader, and never count the whole table before
+     * the first row like a single cursor over every book would.
+     */
+    private static Cursor queryBooksPage(SQLiteDatabase database, String[] columns, long after) {
+        Cursor cursor = database.query(BooksEntry.TABLE_NAME, columns,
+                BooksEntry._ID + ">?", new String[]{String.valueOf(after)},
+                null, null, BooksEntry._ID, String.valueOf(BOOK_PAGE_SIZE));
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
         final int match = sUriMatcher.match(uri);
+        long start = beginOperation(ProviderMetrics.INSERT, match);
+        int notificationMark = metrics.notificationMark();
+        int rows = -1;
+        try {
+            Uri inserted = insert(match, uri, values);
+            rows = inserted != null ? 1 : 0;
+            return inserted;
+        } finally {
+            endOperation(ProviderMetrics.INSERT, match, start, rows, notificationMark);
+        }
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues values) {
         switch (match) {
             case BOOKS:
                 return insertBook(uri, values);
@@ -95,43 +932,95 @@ public class BookProvider extends ContentProvider {
     }
 
     /**
-     * Insert a book into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Apply all the given operations in a single database transaction. Change notifications
+     * are held back until the transaction commits, and a failed operation rolls back the batch.
+     * <p>
+     * Operations built with {@code withYieldAllowed(true)} mark points where the transaction
+     * may be committed and reopened if another thread is waiting for the database, so long
+     * batches do not starve readers. Each segment between yield points stays atomic.
      */
-    @Nullable
-    private Uri insertBook(Uri uri, ContentValues values) {
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        Set<Uri> pendingNotifications = new LinkedHashSet<>();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
 
-        //Perform sanity check
-        String productName = values.getAsString(BooksEntry.COLUMN_PRODUCT_NAME);
-        if (productName == null) {
-            throw new IllegalArgumentException("Book name or title required");
+        batchNotifications.set(pendingNotifications);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                // Yield before the operation, so that everything before it is committed together
+                if (i > 0 && operation.isYieldAllowed()
+                        && database.yieldIfContendedSafely()) {
+                    // The work done so far has been committed, so listeners can be told about it
+                    sendNotifications(pendingNotifications);
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            batchNotifications.remove();
         }
 
-        Integer productPrice = values.getAsInteger(BooksEntry.COLUMN_PRODUCT_PRICE);
-        if (productPrice != null && productPrice < 0) {
-            throw new IllegalArgumentException("Price required");
-        }
+        // The batch has been committed, notify all listeners once per changed URI
+        sendNotifications(pendingNotifications);
+        return results;
+    }
 
-        Integer productQuantity = values.getAsInteger(BooksEntry.COLUMN_PRODUCT_QUANTITY);
-        if (productQuantity != 0 && productQuantity < 0) {
-            throw new IllegalArgumentException("Price required");
+    /**
+     * Notify all listeners that the data at the given URI has changed. Notifications are
+     * coalesced by the {@link ChangeNotifier}. If a batch is running on the current thread,
+     * the notification is held back until the batch commits.
+     * <p>
+     * A change to a single book also changes the statistics, which aren't below its item URI,
+     * so they are notified too. Changes notified on {@link BooksEntry#CONTENT_URI} reach them
+     * already.
+     */
+    private void notifyChange(Uri uri) {
+        boolean notifyStats = sUriMatcher.match(uri) == BOOKS_ID;
+        metrics.countNotifications(notifyStats ? 2 : 1);
+        Set<Uri> pendingNotifications = batchNotifications.get();
+        if (pendingNotifications != null) {
+            pendingNotifications.add(uri);
+            if (notifyStats) {
+                pendingNotifications.add(StatsEntry.CONTENT_URI);
+            }
+        } else {
+            changeNotifier.notifyChange(uri);
+            if (notifyStats) {
+                changeNotifier.notifyChange(StatsEntry.CONTENT_URI);
+            }
         }
+    }
 
-        String supplierName = values.getAsString(BooksEntry.COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
-            throw new IllegalArgumentException("Supplier name required");
-        }
+    private void sendNotifications(Set<Uri> uris) {
+        changeNotifier.notifyChanges(uris);
+        uris.clear();
+    }
 
-        String supplierNumber = values.getAsString(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-        if (supplierNumber == null) {
-            throw new IllegalArgumentException("Phone number required");
-        }
+    /**
+     * Insert a book into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    @Nullable
+    private Uri insertBook(Uri uri, ContentValues values) {
+
+        //Perform sanity check
+        checkBookValues(values);
 
         // Get writable database
         SQLiteDatabase database = booksDbHelper.getWritableDatabase();
 
         // Insert the new book with the given values
+        long start = System.nanoTime();
         long id = database.insert(BooksEntry.TABLE_NAME, null, values);
+        if (slowQueryLog != null) {
+            slowQueryLog.onStatement(database, SQL_INSERT_BOOK, System.nanoTime() - start);
+        }
 
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
@@ -140,43 +1029,168 @@ public class BookProvider extends ContentProvider {
         }
 
         // Notify all listeners that the data has changed for the book content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Once we know the ID of the new row in the table,
         // return the new URI with the ID appended to the end of it
         return ContentUris.withAppendedId(uri, id);
     }
 
-
     @Override
-    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        long start = beginOperation(ProviderMetrics.BULK_INSERT, match);
+        int notificationMark = metrics.notificationMark();
+        int rows = -1;
+        try {
+            rows = bulkInsert(match, uri, values);
+            return rows;
+        } finally {
+            endOperation(ProviderMetrics.BULK_INSERT, match, start, rows, notificationMark);
+        }
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        switch (match) {
+            case BOOKS:
+                return bulkInsertBooks(uri, values);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert all the given books in a single transaction, reusing one compiled insert statement.
+     * Every row is validated before anything is written, and listeners are notified once at the
+     * end. Either all the rows are inserted or none of them is. Return the number of rows inserted.
+     */
+    private int bulkInsertBooks(Uri uri, ContentValues[] values) {
+        // Perform sanity check on every row first, so a bad row fails the batch before writing
+        for (ContentValues value : values) {
+            checkBookValues(value);
+        }
+        if (values.length == 0) {
+            return 0;
+        }
+
         // Get writable database
         SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_BOOK);
+
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                bindBook(statement, value);
+                if (statement.executeInsert() == -1) {
+                    throw new SQLException("Failed to insert row for " + uri);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+
+        // Notify all listeners once for the whole batch
+        notifyChange(uri);
+        return values.length;
+    }
+
+    /**
+     * Bind the book columns of the given values to a statement compiled from
+     * {@link #SQL_INSERT_BOOK}. Missing values are bound as NULL.
+     */
+    private static void bindBook(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        bindString(statement, 1, values.getAsString(BooksEntry.COLUMN_PRODUCT_NAME));
+        bindInteger(statement, 2, values.getAsInteger(BooksEntry.COLUMN_PRODUCT_PRICE));
+        bindInteger(statement, 3, values.getAsInteger(BooksEntry.COLUMN_PRODUCT_QUANTITY));
+        bindString(statement, 4, values.getAsString(BooksEntry.COLUMN_SUPPLIER_NAME));
+        bindString(statement, 5, values.getAsString(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindInteger(SQLiteStatement statement, int index, Integer value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    /**
+     * Check that the given values describe a valid new book, throwing an
+     * {@link IllegalArgumentException} otherwise.
+     */
+    private static void checkBookValues(ContentValues values) {
+        String error = BookValidator.validate(
+                values.getAsString(BooksEntry.COLUMN_PRODUCT_NAME),
+                values.getAsInteger(BooksEntry.COLUMN_PRODUCT_PRICE),
+                values.getAsInteger(BooksEntry.COLUMN_PRODUCT_QUANTITY),
+                values.getAsString(BooksEntry.COLUMN_SUPPLIER_NAME),
+                values.getAsString(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+        if (error == null && values.containsKey(BooksEntry.COLUMN_VERSION)) {
+            error = ERROR_VERSION_WRITTEN;
+        }
+        if (error == null && values.containsKey(SyncEntry.COLUMN_SYNC_ID)) {
+            error = ERROR_SYNC_ID_WRITTEN;
+        }
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
 
-        // Track the number of rows that were deleted
-        int rowsDeleted;
 
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long start = beginOperation(ProviderMetrics.DELETE, match);
+        int notificationMark = metrics.notificationMark();
+        int rows = -1;
+        try {
+            rows = delete(match, uri, selection, selectionArgs);
+            return rows;
+        } finally {
+            endOperation(ProviderMetrics.DELETE, match, start, rows, notificationMark);
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        // Get writable database
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+
         switch (match) {
             // Delete all rows that match the selection and selection args
             case BOOKS:
-                rowsDeleted = database.delete(BooksEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             // Delete a single row given by the ID in the URI
             case BOOKS_ID:
                 selection = BooksEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(BooksEntry.TABLE_NAME, selection, selectionArgs);
                 break;
 
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
+        // Track the number of rows that were deleted
+        long start = System.nanoTime();
+        int rowsDeleted = database.delete(BooksEntry.TABLE_NAME, selection, selectionArgs);
+        if (slowQueryLog != null) {
+            slowQueryLog.onStatement(database, "DELETE FROM " + BooksEntry.TABLE_NAME + whereClause(selection),
+                    System.nanoTime() - start);
+        }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were deleted, then notify all listeners that the set of books
+        // has changed, even for a single book, so that lists drop the deleted rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(BooksEntry.CONTENT_URI);
         }
         // Return the number of rows deleted
         return rowsDeleted;
@@ -185,69 +1199,86 @@ public class BookProvider extends ContentProvider {
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long start = beginOperation(ProviderMetrics.UPDATE, match);
+        int notificationMark = metrics.notificationMark();
+        int rows = -1;
+        try {
+            rows = update(match, uri, values, selection, selectionArgs);
+            return rows;
+        } finally {
+            endOperation(ProviderMetrics.UPDATE, match, start, rows, notificationMark);
+        }
+    }
 
+    private int update(int match, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        String expectedVersion = uri.getQueryParameter(BooksEntry.QUERY_PARAMETER_EXPECTED_VERSION);
         switch (match) {
             case BOOKS:
+                if (expectedVersion != null) {
+                    throw new IllegalArgumentException("Expected version is only supported for a single book: " + uri);
+                }
                 return updateBook(uri, values, selection, selectionArgs);
             // For the BOOK_ID code, extract out the ID from the URI,
             // so we know which row to update. Selection will be "_id=?" and selection
             // arguments will be a String array containing the actual ID.
             case BOOKS_ID:
-                selection = BooksEntry._ID + "=?";
-                selectionArgs = new String[]{
-                        String.valueOf(ContentUris.parseId(uri))
-                };
-                return updateBook(uri, values, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                if (expectedVersion == null) {
+                    selection = BooksEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(id)};
+                } else {
+                    // Conditional update: a book changed since it was read doesn't match
+                    selection = BooksEntry._ID + "=? AND " + BooksEntry.COLUMN_VERSION + "=?";
+                    selectionArgs = new String[]{
+                            String.valueOf(id), String.valueOf(Long.parseLong(expectedVersion))
+                    };
+                }
+                // Notify the plain item URI, which is what observers of the book registered on
+                return updateBook(ContentUris.withAppendedId(BooksEntry.CONTENT_URI, id), values,
+                        selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
+    /**
+     * Return the WHERE clause of the given selection, empty if there is none.
+     */
+    private static String whereClause(@Nullable String selection) {
+        return TextUtils.isEmpty(selection) ? "" : " WHERE " + selection;
+    }
+
     /**
      * Update books in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more books).
      * Return the number of rows that were successfully updated.
      */
     private int updateBook(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // If the {@link BookEntry#COLUMN_PRODUCT_NAME} key is present,
-        // check that the name value is not null.
+        // Check each value present with the same rules as an insert
+        String error = null;
         if (values.containsKey(BooksEntry.COLUMN_PRODUCT_NAME)) {
-            String productName = values.getAsString(BooksEntry.COLUMN_PRODUCT_NAME);
-            if (productName == null) {
-                throw new IllegalArgumentException("Book name or title required");
-            }
+            error = BookValidator.validateName(values.getAsString(BooksEntry.COLUMN_PRODUCT_NAME));
         }
-        // If the {@link BookEntry#COLUMN_PRODUCT_PRICE} key is present,
-        // check that the price value is not null.
-        if (values.containsKey(BooksEntry.COLUMN_PRODUCT_PRICE)) {
-            Integer productPrice = values.getAsInteger(BooksEntry.COLUMN_PRODUCT_PRICE);
-            if (productPrice != null && productPrice < 0) {
-                throw new IllegalArgumentException("Price required");
-            }
+        if (error == null && values.containsKey(BooksEntry.COLUMN_PRODUCT_PRICE)) {
+            error = BookValidator.validatePrice(values.getAsInteger(BooksEntry.COLUMN_PRODUCT_PRICE));
         }
-        // If the {@link BookEntry#COLUMN_PRODUCT_QUANTITY} key is present,
-        // check that the quantity value is not null.
-        if (values.containsKey(BooksEntry.COLUMN_PRODUCT_QUANTITY)) {
-            Integer productQuantity = values.getAsInteger(BooksEntry.COLUMN_PRODUCT_QUANTITY);
-            if (productQuantity != 0 && productQuantity < 0) {
-                throw new IllegalArgumentException("Price required");
-            }
+        if (error == null && values.containsKey(BooksEntry.COLUMN_PRODUCT_QUANTITY)) {
+            error = BookValidator.validateQuantity(values.getAsInteger(BooksEntry.COLUMN_PRODUCT_QUANTITY));
         }
-        // If the {@link BookEntry#COLUMN_SUPPLIER_NAME} key is present,
-        // check that the supplier name value is not null.
-        if (values.containsKey(BooksEntry.COLUMN_SUPPLIER_NAME)) {
-            String supplierName = values.getAsString(BooksEntry.COLUMN_SUPPLIER_NAME);
-            if (supplierName == null) {
-                throw new IllegalArgumentException("Supplier name required");
-            }
+        if (error == null && values.containsKey(BooksEntry.COLUMN_SUPPLIER_NAME)) {
+            error = BookValidator.validateSupplierName(values.getAsString(BooksEntry.COLUMN_SUPPLIER_NAME));
         }
-        // If the {@link BookEntry#COLUMN_PRODUCT_PHONE_NUMBER} key is present,
-        // check that the supplier phone value is not null.
-        if (values.containsKey(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER)) {
-            String supplierNumber = values.getAsString(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-            if (supplierNumber == null) {
-                throw new IllegalArgumentException("Phone number required");
-            }
+        if (error == null && values.containsKey(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER)) {
+            error = BookValidator.validateSupplierPhone(values.getAsString(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+        }
+        if (error == null && values.containsKey(BooksEntry.COLUMN_VERSION)) {
+            error = ERROR_VERSION_WRITTEN;
+        }
+        if (error == null && values.containsKey(SyncEntry.COLUMN_SYNC_ID)) {
+            error = ERROR_SYNC_ID_WRITTEN;
+        }
+        if (error != null) {
+            throw new IllegalArgumentException(error);
         }
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
@@ -258,13 +1289,882 @@ public class BookProvider extends ContentProvider {
 
 
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(BooksEntry.TABLE_NAME, values, selection, selectionArgs);
+        long start = System.nanoTime();
+        int rowsUpdated;
+        Integer quantity = values.getAsInteger(BooksEntry.COLUMN_PRODUCT_QUANTITY);
+        if (quantity == null) {
+            rowsUpdated = database.update(BooksEntry.TABLE_NAME, values, selection, selectionArgs);
+        } else {
+            // Journal the quantity changes as corrections, read before the rows change
+            database.beginTransaction();
+            try {
+                appendCorrections(database, quantity, selection, selectionArgs);
+                rowsUpdated = database.update(BooksEntry.TABLE_NAME, values, selection, selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (slowQueryLog != null && slowQueryLog.isSlow(nanos)) {
+            StringBuilder sql = new StringBuilder("UPDATE " + BooksEntry.TABLE_NAME + " SET ");
+            String separator = "";
+            for (String column : values.keySet()) {
+                sql.append(separator).append(column).append(" = ?");
+                separator = ", ";
+            }
+            slowQueryLog.onStatement(database, sql + whereClause(selection), nanos);
+        }
         // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // given URI has changed. For a single book that is its item URI, so lists only
+        // refresh that row.
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         // Return the number of rows updated
         return rowsUpdated;
     }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        switch (method) {
+            case BooksEntry.METHOD_ADJUST_STOCK: {
+                if (arg == null || extras == null || !extras.containsKey(BooksEntry.EXTRA_DELTA)) {
+                    throw new IllegalArgumentException("Book ID and delta required");
+                }
+                long start = beginOperation(ProviderMetrics.ADJUST_STOCK, BOOKS_ID);
+                int notificationMark = metrics.notificationMark();
+                int rows = -1;
+                try {
+                    Bundle result = adjustStock(Long.parseLong(arg), extras.getInt(BooksEntry.EXTRA_DELTA));
+                    rows = result.getBoolean(BooksEntry.EXTRA_ADJUSTED) ? 1 : 0;
+                    return result;
+                } finally {
+                    endOperation(ProviderMetrics.ADJUST_STOCK, BOOKS_ID, start, rows, notificationMark);
+                }
+            }
+            case BooksEntry.METHOD_APPLY_SALES: {
+                if (extras == null || extras.getLongArray(BooksEntry.EXTRA_BOOK_IDS) == null
+                        || extras.getIntArray(BooksEntry.EXTRA_DELTAS) == null) {
+                    throw new IllegalArgumentException("Book IDs and deltas required");
+                }
+                long start = beginOperation(ProviderMetrics.APPLY_SALES, BOOKS);
+                int notificationMark = metrics.notificationMark();
+                int rows = -1;
+                try {
+                    Bundle result = applySales(extras.getLongArray(BooksEntry.EXTRA_BOOK_IDS),
+                            extras.getIntArray(BooksEntry.EXTRA_DELTAS),
+                            extras.getString(BooksEntry.EXTRA_JOURNAL),
+                            extras.getLong(BooksEntry.EXTRA_FIRST_SEQUENCE));
+                    rows = countTrue(result.getBooleanArray(BooksEntry.EXTRA_APPLIED));
+                    return result;
+                } finally {
+                    endOperation(ProviderMetrics.APPLY_SALES, BOOKS, start, rows, notificationMark);
+                }
+            }
+            case BooksEntry.METHOD_CHECKOUT: {
+                if (extras == null || extras.getLongArray(BooksEntry.EXTRA_BOOK_IDS) == null
+                        || extras.getIntArray(BooksEntry.EXTRA_QUANTITIES) == null) {
+                    throw new IllegalArgumentException("Book IDs and quantities required");
+                }
+                long start = beginOperation(ProviderMetrics.CHECKOUT, BOOKS);
+                int notificationMark = metrics.notificationMark();
+                int rows = -1;
+                try {
+                    Bundle result = checkout(extras.getLongArray(BooksEntry.EXTRA_BOOK_IDS),
+                            extras.getIntArray(BooksEntry.EXTRA_QUANTITIES));
+                    rows = result.getBoolean(BooksEntry.EXTRA_CHECKED_OUT)
+                            ? result.getBooleanArray(BooksEntry.EXTRA_IN_STOCK).length : 0;
+                    return result;
+                } finally {
+                    endOperation(ProviderMetrics.CHECKOUT, BOOKS, start, rows, notificationMark);
+                }
+            }
+            case BooksEntry.METHOD_SUSPEND_NOTIFICATIONS:
+                changeNotifier.suspend();
+                return null;
+            case BooksEntry.METHOD_RENEW_SUSPENSION:
+                changeNotifier.renewSuspension();
+                return null;
+            case BooksEntry.METHOD_RESUME_NOTIFICATIONS:
+                changeNotifier.resume();
+                return null;
+            case BooksEntry.METHOD_WRITE_SNAPSHOT:
+                if (arg == null) {
+                    throw new IllegalArgumentException("Snapshot file required");
+                }
+                return writeSnapshot(new File(arg));
+            case BooksEntry.METHOD_RESTORE_SNAPSHOT:
+                if (arg == null) {
+                    throw new IllegalArgumentException("Snapshot file required");
+                }
+                return restoreSnapshot(new File(arg));
+            case BooksEntry.METHOD_COMPACT_MOVEMENTS:
+                if (extras == null || !extras.containsKey(BooksEntry.EXTRA_BEFORE)) {
+                    throw new IllegalArgumentException("Compaction time required");
+                }
+                return compactMovements(extras.getLong(BooksEntry.EXTRA_BEFORE));
+            case SyncEntry.METHOD_MARK_PUSHED:
+                if (extras == null || !extras.containsKey(SyncEntry.EXTRA_SEQUENCE)) {
+                    throw new IllegalArgumentException("Pushed sequence required");
+                }
+                return markPushed(extras.getLong(SyncEntry.EXTRA_SEQUENCE),
+                        extras.getStringArray(SyncEntry.EXTRA_SYNC_IDS),
+                        extras.getIntArray(SyncEntry.EXTRA_QUANTITY_DELTAS),
+                        extras.getString(SyncEntry.EXTRA_PUSH_PAGE));
+            case SyncEntry.METHOD_PAGE_POSTED:
+                return pagePosted();
+            case SyncEntry.METHOD_APPLY_SYNC_CHANGES:
+                if (extras == null || extras.getParcelableArray(SyncEntry.EXTRA_CHANGES) == null) {
+                    throw new IllegalArgumentException("Changes required");
+                }
+                return applySyncChanges(extras.getParcelableArray(SyncEntry.EXTRA_CHANGES),
+                        extras.getString(SyncEntry.EXTRA_SYNC_CURSOR));
+            case SyncEntry.METHOD_SYNC_STATE:
+                return getSyncState();
+            case BooksEntry.METHOD_METRICS:
+                return getMetrics();
+            case BooksEntry.METHOD_NOTIFICATION_STATS:
+                Bundle stats = new Bundle();
+                stats.putLong(BooksEntry.EXTRA_CHANGES_REQUESTED, changeNotifier.getChangesRequested());
+                stats.putLong(BooksEntry.EXTRA_NOTIFICATIONS_SENT, changeNotifier.getNotificationsSent());
+                return stats;
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    /**
+     * Return the metrics of every operation used so far, as described by
+     * {@link BooksEntry#METHOD_METRICS}.
+     */
+    private Bundle getMetrics() {
+        Bundle result = new Bundle();
+        for (int entry = 0; entry < metrics.getEntryCount(); entry++) {
+            long calls = metrics.getCalls(entry);
+            if (calls == 0) {
+                continue;
+            }
+            Bundle operation = new Bundle();
+            operation.putLong(BooksEntry.EXTRA_CALLS, calls);
+            operation.putLong(BooksEntry.EXTRA_ERRORS, metrics.getErrors(entry));
+            operation.putLong(BooksEntry.EXTRA_ROWS, metrics.getRows(entry));
+            operation.putLong(BooksEntry.EXTRA_NOTIFICATIONS, metrics.getNotifications(entry));
+            operation.putLong(BooksEntry.EXTRA_TIME_NANOS, metrics.getTimeNanos(entry));
+            operation.putLong(BooksEntry.EXTRA_MAX_NANOS, metrics.getMaxNanos(entry));
+            operation.putLongArray(BooksEntry.EXTRA_LATENCY_BUCKETS, metrics.getLatencyBuckets(entry));
+            result.putBundle(metrics.getEntryName(entry), operation);
+        }
+        return result;
+    }
+
+    /**
+     * Print the operation metrics and the notification counters, for
+     * {@code adb shell dumpsys activity provider BookProvider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        metrics.dump(writer);
+        writer.println("Changes requested: " + changeNotifier.getChangesRequested()
+                + ", notifications sent: " + changeNotifier.getNotificationsSent());
+    }
+
+    /**
+     * Add the given delta to the quantity of a book. The quantity is changed in the database by a
+     * single guarded statement, so concurrent callers never lose each other's updates and the
+     * quantity never goes below zero. The change is appended to the stock movements in the same
+     * transaction. Return the resulting quantity, so callers don't need to read it before or
+     * after writing. A delta of 0 changes nothing, so the book gets no new version, sync change,
+     * movement or notification.
+     */
+    private Bundle adjustStock(long id, int delta) {
+        // Get writable database
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        if (delta == 0) {
+            long quantity;
+            try {
+                quantity = DatabaseUtils.longForQuery(database, SQL_SELECT_QUANTITY, new String[]{String.valueOf(id)});
+            } catch (SQLiteDoneException e) {
+                // There is no book with this ID
+                quantity = -1;
+            }
+            Bundle result = new Bundle();
+            result.putBoolean(BooksEntry.EXTRA_ADJUSTED, false);
+            result.putInt(BooksEntry.EXTRA_QUANTITY, (int) quantity);
+            return result;
+        }
+        SQLiteStatement adjust = database.compileStatement(SQL_ADJUST_STOCK);
+        SQLiteStatement select = database.compileStatement(SQL_SELECT_QUANTITY);
+        // Only compiled for a movement to append, a refused sale doesn't need it
+        SQLiteStatement append = null;
+        long time = System.currentTimeMillis();
+
+        boolean adjusted;
+        long quantity;
+        database.beginTransaction();
+        try {
+            adjust.bindLong(1, delta);
+            adjust.bindLong(2, id);
+            adjust.bindLong(3, delta);
+            long start = System.nanoTime();
+            adjusted = adjust.executeUpdateDelete() == 1;
+            if (slowQueryLog != null) {
+                slowQueryLog.onStatement(database, SQL_ADJUST_STOCK, System.nanoTime() - start);
+            }
+            if (adjusted) {
+                append = database.compileStatement(SQL_APPEND_MOVEMENT);
+                appendMovement(append, id, time, delta, delta < 0 ? MovementsEntry.KIND_SALE : MovementsEntry.KIND_RESTOCK);
+            }
+
+            select.bindLong(1, id);
+            try {
+                quantity = select.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // There is no book with this ID
+                quantity = -1;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            adjust.close();
+            select.close();
+            if (append != null) {
+                append.close();
+            }
+        }
+
+        // Only the adjusted book has changed
+        if (adjusted) {
+            notifyChange(ContentUris.withAppendedId(BooksEntry.CONTENT_URI, id));
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(BooksEntry.EXTRA_ADJUSTED, adjusted);
+        result.putInt(BooksEntry.EXTRA_QUANTITY, (int) quantity);
+        return result;
+    }
+
+    /**
+     * Add the given deltas to the quantities of the given books, in one transaction. Each delta
+     * is applied by the same guarded statement as {@link #adjustStock(long, int)}, so a sale
+     * that would make a quantity negative is refused without failing the others. Adjustments
+     * of the given journal already applied by an earlier call are skipped.
+     */
+    private Bundle applySales(long[] ids, int[] deltas, @Nullable String journal, long firstSequence) {
+        if (ids.length != deltas.length) {
+            throw new IllegalArgumentException("One delta per book required");
+        }
+
+        // Get writable database
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        SQLiteStatement adjust = database.compileStatement(SQL_ADJUST_STOCK);
+        SQLiteStatement append = database.compileStatement(SQL_APPEND_MOVEMENT);
+        long time = System.currentTimeMillis();
+        boolean[] applied = new boolean[ids.length];
+        Set<Uri> pendingNotifications = new LinkedHashSet<>();
+
+        database.beginTransaction();
+        try {
+            long lastSequence = journal != null ? getLastAppliedSequence(database, journal) : 0;
+
+            for (int i = 0; i < ids.length; i++) {
+                if (journal != null && firstSequence + i <= lastSequence) {
+                    // Applied by an earlier call, whose reply was lost
+                    applied[i] = true;
+                    continue;
+                }
+                adjust.bindLong(1, deltas[i]);
+                adjust.bindLong(2, ids[i]);
+                adjust.bindLong(3, deltas[i]);
+                long start = System.nanoTime();
+                applied[i] = adjust.executeUpdateDelete() == 1;
+                if (slowQueryLog != null) {
+                    slowQueryLog.onStatement(database, SQL_ADJUST_STOCK, System.nanoTime() - start);
+                }
+                if (applied[i]) {
+                    appendMovement(append, ids[i], time, deltas[i],
+                            deltas[i] < 0 ? MovementsEntry.KIND_SALE : MovementsEntry.KIND_RESTOCK);
+                    pendingNotifications.add(ContentUris.withAppendedId(BooksEntry.CONTENT_URI, ids[i]));
+                    pendingNotifications.add(StatsEntry.CONTENT_URI);
+                }
+            }
+
+            long newLastSequence = firstSequence + ids.length - 1;
+            if (journal != null && newLastSequence > lastSequence) {
+                putLastAppliedSequence(database, journal, newLastSequence);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            adjust.close();
+            append.close();
+        }
+
+        // The sales have been committed, notify each adjusted book once
+        metrics.countNotifications(pendingNotifications.size());
+        sendNotifications(pendingNotifications);
+
+        Bundle result = new Bundle();
+        result.putBooleanArray(BooksEntry.EXTRA_APPLIED, applied);
+        return result;
+    }
+
+    /**
+     * Return the last sequence number applied from the given journal, 0 if none was.
+     */
+    private static long getLastAppliedSequence(SQLiteDatabase database, String journal) {
+        try {
+            return DatabaseUtils.longForQuery(database, SQL_SELECT_LAST_SEQUENCE, new String[]{journal});
+        } catch (SQLiteDoneException e) {
+            // Nothing has been applied from this journal yet
+            return 0;
+        }
+    }
+
+    private static void putLastAppliedSequence(SQLiteDatabase database, String journal, long sequence) {
+        ContentValues values = new ContentValues();
+        values.put(BooksDbHelper.COLUMN_JOURNAL, journal);
+        values.put(BooksDbHelper.COLUMN_LAST_SEQUENCE, sequence);
+        database.insertWithOnConflict(BooksDbHelper.TABLE_APPLIED_SALES, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static int countTrue(boolean[] values) {
+        int count = 0;
+        for (boolean value : values) {
+            if (value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sell the given quantities of the given books in one transaction, committed only if every
+     * line is in stock. Each line is taken by the same guarded statement as
+     * {@link #adjustStock(long, int)}, so lines selling the same book add up, and a short line
+     * leaves the whole checkout unapplied. Every line is tried even after a short one, so the
+     * caller learns about all the short lines at once.
+     */
+    private Bundle checkout(long[] ids, int[] quantities) {
+        if (ids.length != quantities.length) {
+            throw new IllegalArgumentException("One quantity per book required");
+        }
+        for (int quantity : quantities) {
+            if (quantity <= 0) {
+                throw new IllegalArgumentException("Quantities must be positive");
+            }
+        }
+
+        // Get writable database
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        SQLiteStatement adjust = database.compileStatement(SQL_ADJUST_STOCK);
+        SQLiteStatement select = database.compileStatement(SQL_SELECT_QUANTITY);
+        // Only compiled once a line is in stock
+        SQLiteStatement append = null;
+        long time = System.currentTimeMillis();
+        boolean[] inStock = new boolean[ids.length];
+        int[] remaining = new int[ids.length];
+        boolean checkedOut = true;
+        Set<Uri> pendingNotifications = new LinkedHashSet<>();
+
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                adjust.bindLong(1, -quantities[i]);
+                adjust.bindLong(2, ids[i]);
+                adjust.bindLong(3, -quantities[i]);
+                long start = System.nanoTime();
+                inStock[i] = adjust.executeUpdateDelete() == 1;
+                if (slowQueryLog != null) {
+                    slowQueryLog.onStatement(database, SQL_ADJUST_STOCK, System.nanoTime() - start);
+                }
+                checkedOut &= inStock[i];
+                if (inStock[i]) {
+                    if (append == null) {
+                        append = database.compileStatement(SQL_APPEND_MOVEMENT);
+                    }
+                    appendMovement(append, ids[i], time, -quantities[i], MovementsEntry.KIND_SALE);
+                }
+
+                select.bindLong(1, ids[i]);
+                try {
+                    remaining[i] = (int) select.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    // There is no book with this ID
+                    remaining[i] = -1;
+                }
+                pendingNotifications.add(ContentUris.withAppendedId(BooksEntry.CONTENT_URI, ids[i]));
+            }
+            // A short line rolls back the lines before it
+            if (checkedOut) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+            adjust.close();
+            select.close();
+            if (append != null) {
+                append.close();
+            }
+        }
+
+        // The checkout has been committed, notify its books and the statistics in one go
+        if (checkedOut && ids.length > 0) {
+            pendingNotifications.add(StatsEntry.CONTENT_URI);
+            metrics.countNotifications(pendingNotifications.size());
+            sendNotifications(pendingNotifications);
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(BooksEntry.EXTRA_CHECKED_OUT, checkedOut);
+        result.putBooleanArray(BooksEntry.EXTRA_IN_STOCK, inStock);
+        result.putIntArray(BooksEntry.EXTRA_REMAINING, remaining);
+        return result;
+    }
+
+    /**
+     * Append a correction to the stock movements for every book picked by the given selection
+     * whose quantity isn't the given one yet.
+     */
+    private static void appendCorrections(SQLiteDatabase database, int quantity, String selection,
+                                          String[] selectionArgs) {
+        String sql = SQL_APPEND_CORRECTIONS + (TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")");
+        String[] bindArgs = DatabaseUtils.appendSelectionArgs(new String[]{
+                String.valueOf(System.currentTimeMillis()), String.valueOf(quantity), String.valueOf(quantity)
+        }, selectionArgs);
+        database.execSQL(sql, bindArgs);
+    }
+
+    /**
+     * Append a stock movement with the given compiled {@link #SQL_APPEND_MOVEMENT}.
+     */
+    private static void appendMovement(SQLiteStatement append, long id, long time, int delta, int kind) {
+        append.bindLong(1, id);
+        append.bindLong(2, time);
+        append.bindLong(3, delta);
+        append.bindLong(4, kind);
+        append.executeInsert();
+    }
+
+    /**
+     * Forget the changes up to the given sequence, which are in the given page to push, along
+     * with the quantity deltas pushed for the books changed again since, and keep the page
+     * until it is posted.
+     */
+    private Bundle markPushed(long sequence, @Nullable String[] syncIds, @Nullable int[] quantityDeltas,
+                              @Nullable String pushPage) {
+        if (syncIds != null && (quantityDeltas == null || quantityDeltas.length != syncIds.length)) {
+            throw new IllegalArgumentException("One quantity delta per sync ID required");
+        }
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        int forgotten;
+        database.beginTransaction();
+        try {
+            if (syncIds != null) {
+                SQLiteStatement forget = database.compileStatement(SQL_FORGET_PUSHED_DELTA);
+                try {
+                    for (int i = 0; i < syncIds.length; i++) {
+                        if (quantityDeltas[i] == 0) {
+                            continue;
+                        }
+                        forget.bindLong(1, quantityDeltas[i]);
+                        forget.bindString(2, syncIds[i]);
+                        forget.bindLong(3, sequence);
+                        forget.executeUpdateDelete();
+                    }
+                } finally {
+                    forget.close();
+                }
+            }
+            forgotten = database.delete(BooksDbHelper.TABLE_BOOK_CHANGES,
+                    SyncEntry.COLUMN_SEQUENCE + " <= ?", new String[]{String.valueOf(sequence)});
+            if (pushPage != null) {
+                putSyncState(database, BooksDbHelper.SYNC_STATE_PUSH_PAGE, pushPage);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        Bundle result = new Bundle();
+        result.putLong(BooksEntry.EXTRA_ROW_COUNT, forgotten);
+        return result;
+    }
+
+    /**
+     * Forget the page kept by {@link #markPushed}, which the endpoint accepted.
+     */
+    private Bundle pagePosted() {
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        database.delete(BooksDbHelper.TABLE_SYNC_STATE, BooksDbHelper.COLUMN_NAME + "=?",
+                new String[]{BooksDbHelper.SYNC_STATE_PUSH_PAGE});
+        return new Bundle();
+    }
+
+    /**
+     * Apply the changes of the other stores and store the sync cursor, in one transaction, as
+     * described by {@link SyncEntry#METHOD_APPLY_SYNC_CHANGES}. The sync state flags the
+     * transaction as applying, so the triggers don't list the books written here as changed.
+     */
+    private Bundle applySyncChanges(Parcelable[] changes, @Nullable String syncCursor) {
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        SQLiteStatement pending = database.compileStatement(SQL_SELECT_PENDING_CHANGE);
+        SQLiteStatement apply = database.compileStatement(SQL_APPLY_BOOK);
+        SQLiteStatement applyDelta = database.compileStatement(SQL_APPLY_QUANTITY_DELTA);
+        SQLiteStatement append = database.compileStatement(SQL_APPEND_SYNCED_MOVEMENT);
+        SQLiteStatement exists = database.compileStatement(SQL_SELECT_SYNCED_BOOK);
+        SQLiteStatement insert = database.compileStatement(SQL_INSERT_SYNCED_BOOK);
+        SQLiteStatement delete = database.compileStatement(SQL_DELETE_SYNCED_BOOK);
+        int applied = 0;
+        // Last sequence applied from each store, by journal
+        Map<String, Long> lastSequences = new HashMap<>();
+
+        database.beginTransaction();
+        try {
+            putSyncState(database, BooksDbHelper.SYNC_STATE_APPLYING, null);
+            long lastChange = DatabaseUtils.longForQuery(database, SQL_SELECT_LAST_CHANGE, null);
+            long now = System.currentTimeMillis();
+            for (Parcelable parcelable : changes) {
+                ContentValues change = (ContentValues) parcelable;
+                String syncId = change.getAsString(SyncEntry.COLUMN_SYNC_ID);
+                if (syncId == null) {
+                    throw new IllegalArgumentException("Change without a sync ID");
+                }
+                String storeId = change.getAsString(SyncEntry.COLUMN_STORE_ID);
+                Long sequence = change.getAsLong(SyncEntry.COLUMN_SEQUENCE);
+                if (storeId != null && sequence != null) {
+                    String journal = BooksDbHelper.SYNC_JOURNAL_PREFIX + storeId;
+                    Long lastSequence = lastSequences.get(journal);
+                    if (lastSequence == null) {
+                        lastSequence = getLastAppliedSequence(database, journal);
+                    }
+                    if (sequence <= lastSequence) {
+                        // Applied by an earlier pull, or posted again by a store whose push
+                        // reply was lost
+                        lastSequences.put(journal, lastSequence);
+                        continue;
+                    }
+                    lastSequences.put(journal, sequence);
+                }
+                pending.bindString(1, syncId);
+                pending.bindLong(2, lastChange);
+                // Changed here since the last push, the next sync pushes the local values
+                boolean changedHere = pending.simpleQueryForLong() > 0;
+
+                if (Boolean.TRUE.equals(change.getAsBoolean(SyncEntry.COLUMN_DELETED))) {
+                    if (!changedHere) {
+                        delete.bindString(1, syncId);
+                        applied += delete.executeUpdateDelete();
+                    }
+                    continue;
+                }
+                Integer quantityDelta = change.getAsInteger(SyncEntry.COLUMN_QUANTITY_DELTA);
+                int delta = quantityDelta == null ? 0 : quantityDelta;
+                if (changedHere) {
+                    // Sales add up whoever made them, so the delta applies all the same
+                    if (delta != 0) {
+                        appendSyncedMovement(append, now, delta, syncId);
+                        applyDelta.bindLong(1, delta);
+                        applyDelta.bindString(2, syncId);
+                        applied += applyDelta.executeUpdateDelete();
+                    }
+                    continue;
+                }
+
+                String error = BookValidator.validate(
+                        change.getAsString(BooksEntry.COLUMN_PRODUCT_NAME),
+                        change.getAsInteger(BooksEntry.COLUMN_PRODUCT_PRICE),
+                        null,
+                        change.getAsString(BooksEntry.COLUMN_SUPPLIER_NAME),
+                        change.getAsString(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+                if (error != null) {
+                    // Refusing the whole page would stop every later change from syncing
+                    Log.w(LOG_TAG, "Skipped synced book " + syncId + ": " + error);
+                    continue;
+                }
+                // Journaled first, from the quantity before the delta. A book that doesn't exist
+                // here gets no correction, and one the delta changes is always written.
+                if (delta != 0) {
+                    appendSyncedMovement(append, now, delta, syncId);
+                }
+                bindBook(apply, change);
+                apply.bindLong(3, delta);
+                apply.bindString(6, syncId);
+                if (apply.executeUpdateDelete() == 1) {
+                    applied++;
+                    continue;
+                }
+                exists.bindString(1, syncId);
+                if (exists.simpleQueryForLong() == 0) {
+                    // New here, the delta is its whole quantity
+                    error = BookValidator.validateQuantity(delta);
+                    if (error != null) {
+                        Log.w(LOG_TAG, "Skipped synced book " + syncId + ": " + error);
+                        continue;
+                    }
+                    bindBook(insert, change);
+                    insert.bindLong(3, delta);
+                    insert.bindString(6, syncId);
+                    insert.executeInsert();
+                    applied++;
+                }
+            }
+
+            for (Map.Entry<String, Long> lastSequence : lastSequences.entrySet()) {
+                putLastAppliedSequence(database, lastSequence.getKey(), lastSequence.getValue());
+            }
+            if (syncCursor != null) {
+                putSyncState(database, BooksDbHelper.SYNC_STATE_CURSOR, syncCursor);
+            }
+            database.delete(BooksDbHelper.TABLE_SYNC_STATE, BooksDbHelper.COLUMN_NAME + "=?",
+                    new String[]{BooksDbHelper.SYNC_STATE_APPLYING});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            pending.close();
+            apply.close();
+            applyDelta.close();
+            append.close();
+            exists.close();
+            insert.close();
+            delete.close();
+        }
+
+        // The books URI reaches the lists, every item and the statistics at once
+        if (applied > 0) {
+            notifyChange(BooksEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(BooksEntry.EXTRA_ROW_COUNT, applied);
+        return result;
+    }
+
+    /**
+     * Journal the quantity delta of another store as a correction of its book, as far as the
+     * quantity can go, with the given compiled {@link #SQL_APPEND_SYNCED_MOVEMENT}. Must run
+     * before the delta is applied.
+     */
+    private static void appendSyncedMovement(SQLiteStatement append, long time, int delta, String syncId) {
+        append.bindLong(1, time);
+        append.bindLong(2, delta);
+        append.bindString(3, syncId);
+        append.executeInsert();
+    }
+
+    private static void putSyncState(SQLiteDatabase database, String name, @Nullable String value) {
+        ContentValues state = new ContentValues();
+        state.put(BooksDbHelper.COLUMN_NAME, name);
+        state.put(BooksDbHelper.COLUMN_VALUE, value);
+        database.insertWithOnConflict(BooksDbHelper.TABLE_SYNC_STATE, null, state,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Return the state of the sync, as described by {@link SyncEntry#METHOD_SYNC_STATE}.
+     */
+    private Bundle getSyncState() {
+        SQLiteDatabase database = booksDbHelper.getReadableDatabase();
+        Bundle result = new Bundle();
+        try {
+            result.putString(SyncEntry.EXTRA_SYNC_CURSOR, DatabaseUtils.stringForQuery(database,
+                    SQL_SELECT_SYNC_STATE, new String[]{BooksDbHelper.SYNC_STATE_CURSOR}));
+        } catch (SQLiteDoneException e) {
+            // Never synced
+            result.putString(SyncEntry.EXTRA_SYNC_CURSOR, null);
+        }
+        result.putLong(SyncEntry.EXTRA_PENDING_CHANGES,
+                DatabaseUtils.queryNumEntries(database, BooksDbHelper.TABLE_BOOK_CHANGES));
+        result.putString(SyncEntry.EXTRA_STORE_ID, DatabaseUtils.stringForQuery(database,
+                SQL_SELECT_SYNC_STATE, new String[]{BooksDbHelper.SYNC_STATE_STORE_ID}));
+        try {
+            result.putString(SyncEntry.EXTRA_PUSH_PAGE, DatabaseUtils.stringForQuery(database,
+                    SQL_SELECT_SYNC_STATE, new String[]{BooksDbHelper.SYNC_STATE_PUSH_PAGE}));
+        } catch (SQLiteDoneException e) {
+            // Every page marked pushed was posted
+            result.putString(SyncEntry.EXTRA_PUSH_PAGE, null);
+        }
+        return result;
+    }
+
+    /**
+     * Roll the stock movements made before the start of the day of the given time into their
+     * daily totals. Movements are rolled up oldest first, one batch per transaction, so other
+     * writes only ever wait for one batch.
+     */
+    private Bundle compactMovements(long before) {
+        long cutoff = dayStart(before);
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        long compacted = 0;
+        int batch;
+        do {
+            database.beginTransaction();
+            try {
+                batch = compactMovementBatch(database, cutoff);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            compacted += batch;
+        } while (batch == COMPACT_BATCH_SIZE);
+
+        // The daily totals haven't changed, so there is nothing to notify
+        Bundle result = new Bundle();
+        result.putLong(BooksEntry.EXTRA_ROW_COUNT, compacted);
+        return result;
+    }
+
+    /**
+     * Roll up to {@link #COMPACT_BATCH_SIZE} of the oldest stock movements made before the given
+     * time into their daily totals, and return the number rolled up. Movements are appended in
+     * time order, so the batch is read by rowid from the start of the table and ends at the
+     * first recent movement; no index on the time is needed, which keeps appends cheap.
+     */
+    private static int compactMovementBatch(SQLiteDatabase database, long cutoff) {
+        int count = 0;
+        long end = 0;
+        Cursor oldest = database.rawQuery(SQL_SELECT_OLDEST_MOVEMENTS, new String[]{String.valueOf(COMPACT_BATCH_SIZE)});
+        try {
+            while (oldest.moveToNext() && oldest.getLong(1) < cutoff) {
+                end = oldest.getLong(0) + 1;
+                count++;
+            }
+        } finally {
+            oldest.close();
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        SQLiteStatement insertDay = database.compileStatement(SQL_INSERT_MOVEMENT_DAY);
+        SQLiteStatement addToDay = database.compileStatement(SQL_ADD_TO_MOVEMENT_DAY);
+        Cursor totals = database.rawQuery(SQL_SELECT_MOVEMENT_TOTALS, new String[]{String.valueOf(end)});
+        try {
+            // Columns: book, day, sold, restocked, corrected, movement count
+            while (totals.moveToNext()) {
+                insertDay.bindLong(1, totals.getLong(0));
+                insertDay.bindLong(2, totals.getLong(1));
+                insertDay.executeInsert();
+                for (int i = 0; i < 4; i++) {
+                    addToDay.bindLong(i + 1, totals.getLong(i + 2));
+                }
+                addToDay.bindLong(5, totals.getLong(0));
+                addToDay.bindLong(6, totals.getLong(1));
+                addToDay.executeUpdateDelete();
+            }
+        } finally {
+            totals.close();
+            insertDay.close();
+            addToDay.close();
+        }
+        database.delete(BooksDbHelper.TABLE_STOCK_MOVEMENTS, MovementsEntry._ID + " < ?",
+                new String[]{String.valueOf(end)});
+        return count;
+    }
+
+    /**
+     * Write a snapshot of every book to the given file. The snapshot is read inside one
+     * non-exclusive transaction, which keeps other writes out so every page sees the same books
+     * while readers, on their own connections with write-ahead logging, go on. It is written to a
+     * temporary file renamed over the given one once complete.
+     */
+    private Bundle writeSnapshot(File file) {
+        File partial = new File(file.getPath() + ".partial");
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        long rowCount;
+        boolean written = false;
+        database.beginTransactionNonExclusive();
+        try {
+            RandomAccessFile out = new RandomAccessFile(partial, "rw");
+            try {
+                out.setLength(0);
+                BookSnapshot.Writer writer = new BookSnapshot.Writer(out.getChannel(), BooksDbHelper.DATABASE_VERSION);
+                long after = 0;
+                Cursor cursor;
+                while ((cursor = queryBooksPage(database, SNAPSHOT_COLUMNS, after)) != null) {
+                    try {
+                        while (cursor.moveToNext()) {
+                            after = cursor.getLong(0);
+                            writer.write(after, cursor.getString(1), cursor.getInt(2), cursor.getInt(3),
+                                    cursor.getString(4), cursor.getString(5), cursor.getInt(6), cursor.getString(7));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                writer.finish();
+                rowCount = writer.getRowCount();
+            } finally {
+                out.close();
+            }
+            database.setTransactionSuccessful();
+            written = true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write snapshot " + file, e);
+        } finally {
+            database.endTransaction();
+            if (!written) {
+                partial.delete();
+            }
+        }
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IllegalStateException("Failed to replace snapshot " + file);
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(BooksEntry.EXTRA_ROW_COUNT, rowCount);
+        return result;
+    }
+
+    /**
+     * Replace every book with the books of the given snapshot, in one transaction. The snapshot
+     * is checked before anything changes, and is read from a memory mapping. Indexes, triggers
+     * and the tables built from the books are dropped for the load and rebuilt once at the end.
+     * The books keep their version and sync ID, so the next sync updates them at the other
+     * stores rather than duplicating them.
+     */
+    private Bundle restoreSnapshot(File file) {
+        BookSnapshot.Reader reader;
+        try {
+            reader = new BookSnapshot.Reader(file, BooksDbHelper.DATABASE_VERSION);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't restore " + file + ": " + e.getMessage(), e);
+        }
+
+        SQLiteDatabase database = booksDbHelper.getWritableDatabase();
+        SQLiteStatement insert = database.compileStatement(SQL_RESTORE_BOOK);
+        BookSnapshot.Row row = new BookSnapshot.Row();
+        database.beginTransaction();
+        try {
+            List<String> schema = BooksDbHelper.startBulkLoad(database);
+            while (reader.next(row)) {
+                insert.clearBindings();
+                insert.bindLong(1, row.id);
+                insert.bindString(2, row.name);
+                insert.bindLong(3, row.price);
+                insert.bindLong(4, row.quantity);
+                bindString(insert, 5, row.supplierName);
+                bindString(insert, 6, row.supplierPhone);
+                insert.bindLong(7, row.version);
+                bindString(insert, 8, row.syncId);
+                insert.executeInsert();
+            }
+            BooksDbHelper.finishBulkLoad(database, schema);
+            database.setTransactionSuccessful();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't restore " + file + ": " + e.getMessage(), e);
+        } finally {
+            database.endTransaction();
+            insert.close();
+        }
+
+        // Every book may have changed
+        notifyChange(BooksEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putLong(BooksEntry.EXTRA_ROW_COUNT, reader.getRowCount());
+        return result;
+    }
 }
@@ -0,0 +1,285 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the books table, written and read with NIO channels. Plain Java, so it can
+ * run in local tests.
+ * <p>
+ * A snapshot starts with a fixed header: the magic number, the format version, the database
+ * version the rows were read from, the number of rows and the CRC32 of everything after the
+ * header. Each row follows as its ID, price, quantity and version, then its name, supplier
+ * name, supplier phone and sync ID as UTF-8, each preceded by its length in bytes, or -1 for
+ * null. Numbers are big-endian. The version and sync ID are kept so a restored book is still
+ * the same book to the editors and to the other stores.
+ */
+public final class BookSnapshot {
+
+    /**
+     * "BKSN"
+     */
+    private static final int MAGIC = 0x424B534E;
+
+    /**
+     * Version of the layout described above
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Magic, format version, database version, row count and checksum
+     */
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4;
+
+    /**
+     * Size of the buffer rows are written through
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BookSnapshot() {
+    }
+
+    /**
+     * One row of a snapshot. The reader fills the same instance for every row.
+     */
+    public static final class Row {
+        public long id;
+        public String name;
+        public int price;
+        public int quantity;
+        public String supplierName;
+        public String supplierPhone;
+        public int version;
+        public String syncId;
+    }
+
+    /**
+     * Writes a snapshot sequentially through one buffer. The header is written last, so a
+     * snapshot that wasn't finished fails its checksum.
+     */
+    public static final class Writer {
+
+        private final FileChannel channel;
+        private final int databaseVersion;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private final byte[] crcChunk = new byte[BUFFER_SIZE];
+        private long rowCount;
+
+        /**
+         * Start a snapshot at the beginning of the given channel, which must be empty.
+         */
+        public Writer(FileChannel channel, int databaseVersion) throws IOException {
+            this.channel = channel;
+            this.databaseVersion = databaseVersion;
+            channel.position(HEADER_SIZE);
+        }
+
+        public void write(long id, String name, int price, int quantity, String supplierName,
+                          String supplierPhone, int version, String syncId) throws IOException {
+            byte[] nameBytes = encode(name);
+            byte[] supplierNameBytes = encode(supplierName);
+            byte[] supplierPhoneBytes = encode(supplierPhone);
+            byte[] syncIdBytes = encode(syncId);
+            int size = 8 + 4 + 4 + 4 + 4 * 4 + length(nameBytes) + length(supplierNameBytes)
+                    + length(supplierPhoneBytes) + length(syncIdBytes);
+            if (buffer.remaining() < size) {
+                drain();
+            }
+            if (buffer.remaining() < size) {
+                // A row bigger than the buffer goes out on its own
+                ByteBuffer row = ByteBuffer.allocate(size);
+                putRow(row, id, nameBytes, price, quantity, supplierNameBytes, supplierPhoneBytes, version, syncIdBytes);
+                row.flip();
+                writeFully(row);
+            } else {
+                putRow(buffer, id, nameBytes, price, quantity, supplierNameBytes, supplierPhoneBytes, version, syncIdBytes);
+            }
+            rowCount++;
+        }
+
+        /**
+         * Write the rest of the rows and the header, and force them to the disk.
+         */
+        public void finish() throws IOException {
+            drain();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putInt(databaseVersion)
+                    .putLong(rowCount)
+                    .putInt((int) crc.getValue());
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(false);
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        private void putRow(ByteBuffer target, long id, byte[] name, int price, int quantity,
+                            byte[] supplierName, byte[] supplierPhone, int version, byte[] syncId) {
+            target.putLong(id).putInt(price).putInt(quantity).putInt(version);
+            putString(target, name);
+            putString(target, supplierName);
+            putString(target, supplierPhone);
+            putString(target, syncId);
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            // Direct buffers have no array, so the checksum reads a copy
+            ByteBuffer view = source.duplicate();
+            while (view.hasRemaining()) {
+                int count = Math.min(view.remaining(), crcChunk.length);
+                view.get(crcChunk, 0, count);
+                crc.update(crcChunk, 0, count);
+            }
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        private static byte[] encode(String value) {
+            return value == null ? null : value.getBytes(UTF_8);
+        }
+
+        private static int length(byte[] bytes) {
+            return bytes == null ? 0 : bytes.length;
+        }
+
+        private static void putString(ByteBuffer target, byte[] bytes) {
+            if (bytes == null) {
+                target.putInt(-1);
+            } else {
+                target.putInt(bytes.length);
+                target.put(bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot through a memory mapping of its file, so rows are decoded straight from
+     * the page cache without copying the file through a buffer.
+     */
+    public static final class Reader {
+
+        private final MappedByteBuffer buffer;
+        private final long rowCount;
+        private long rowsRead;
+        private byte[] stringBytes = new byte[256];
+
+        /**
+         * Map the given snapshot and check its header and checksum.
+         *
+         * @throws IOException if the file isn't a complete snapshot of the given database version
+         */
+        public Reader(File file, int databaseVersion) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IOException("Not a book snapshot: " + file);
+                }
+                // The mapping stays valid once the file is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                randomAccessFile.close();
+            }
+            buffer.order(ByteOrder.BIG_ENDIAN);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a book snapshot: " + file);
+            }
+            int formatVersion = buffer.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format " + formatVersion);
+            }
+            int snapshotVersion = buffer.getInt();
+            if (snapshotVersion != databaseVersion) {
+                throw new IOException("Snapshot of database version " + snapshotVersion
+                        + " can't be restored into version " + databaseVersion);
+            }
+            rowCount = buffer.getLong();
+            int expectedCrc = buffer.getInt();
+            if (checksum() != expectedCrc) {
+                throw new IOException("Snapshot is corrupt: " + file);
+            }
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Read the next row into the given row. Return false once every row was read.
+         *
+         * @throws IOException if the file ends in the middle of a row
+         */
+        public boolean next(Row row) throws IOException {
+            if (rowsRead == rowCount) {
+                return false;
+            }
+            try {
+                row.id = buffer.getLong();
+                row.price = buffer.getInt();
+                row.quantity = buffer.getInt();
+                row.version = buffer.getInt();
+                row.name = getString();
+                row.supplierName = getString();
+                row.supplierPhone = getString();
+                row.syncId = getString();
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Snapshot ends in row " + rowsRead);
+            }
+            rowsRead++;
+            return true;
+        }
+
+        private int checksum() {
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buffer.duplicate();
+            byte[] chunk = new byte[BUFFER_SIZE];
+            while (body.hasRemaining()) {
+                int count = Math.min(body.remaining(), chunk.length);
+                body.get(chunk, 0, count);
+                crc.update(chunk, 0, count);
+            }
+            return (int) crc.getValue();
+        }
+
+        private String getString() {
+            int length = buffer.getInt();
+            if (length == -1) {
+                return null;
+            }
+            if (length < 0) {
+                throw new IllegalArgumentException("Negative string length " + length);
+            }
+            if (length > stringBytes.length) {
+                stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+            }
+            buffer.get(stringBytes, 0, length);
+            return new String(stringBytes, 0, length, UTF_8);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.gwg_project7_inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -32,6 +33,41 @@ public final class BooksContract {
      */
     public static final String PATH_BOOKS = "books";
 
+    /**
+     * Path appended to the books path for full-text search over book and supplier names.
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the books path for the inventory statistics.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path appended to the statistics path for the statistics of each supplier.
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Path appended to the books path for the export of every book as a file.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path appended to the item URI of a book for the stock movements of that book.
+     */
+    public static final String PATH_MOVEMENTS = "movements";
+
+    /**
+     * Path appended to the movements path for the daily totals of the movements.
+     */
+    public static final String PATH_DAILY = "daily";
+
+    /**
+     * Path appended to the books path for the books changed since the last sync.
+     */
+    public static final String PATH_CHANGES = "changes";
+
     // To prevent someone from accidentally instantiating the contract class,
     // give it an empty constructor.
     private BooksContract() {
@@ -57,6 +93,84 @@ public final class BooksContract {
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BOOKS);
 
+        /**
+         * URI the cursors listing books are notified on.
+         * <p>
+         * Adding or removing books, or changing books picked by a selection, is notified on
+         * {@link #CONTENT_URI}, which reaches this URI below it. A change to a single book is only
+         * notified on the item URI of that book ({@link #CONTENT_URI}/#), which doesn't reach
+         * this URI, so that lists can refresh the changed row instead of requerying every book.
+         * To hear about both, register an observer on {@link #CONTENT_URI} for descendants.
+         */
+        public static final Uri LIST_NOTIFICATION_URI = Uri.withAppendedPath(CONTENT_URI, "list");
+
+        /**
+         * The content URI to search books by book or supplier name. The search text is passed as
+         * the {@link #QUERY_PARAMETER_SEARCH} query parameter. Every word of the search text
+         * matches as a prefix, and books whose name matches come before supplier-only matches.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Query parameter on {@link #SEARCH_URI} holding the search text.
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} limiting the number of books returned.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} for keyset pagination: only books whose
+         * {@link #_ID} is greater than this value are returned, in {@link #_ID} order. Pass the
+         * ID of the last book of a page to get the next page.
+         */
+        public static final String QUERY_PARAMETER_AFTER = "after";
+
+        /**
+         * Query parameter on the item URI of a book ({@link #CONTENT_URI}/#) making an update
+         * conditional: the book is only updated if its {@link #COLUMN_VERSION} is still this
+         * value. Otherwise nothing is written and the update returns 0, whether the book was
+         * changed since it was read or deleted; read the book again to tell which.
+         */
+        public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
+        /**
+         * The content URI to read every book as one file, opened with
+         * {@link ContentResolver#openInputStream} or {@link ContentResolver#openTypedAssetFileDescriptor}.
+         * The format is chosen with the {@link #QUERY_PARAMETER_FORMAT} query parameter, or by
+         * the MIME type asked for, and is CSV by default. The file is written as it is read, so
+         * it can only be read once, from start to end.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * Query parameter on {@link #EXPORT_URI} holding the format of the file,
+         * {@link #FORMAT_CSV} or {@link #FORMAT_JSON}.
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+
+        /**
+         * Export format writing the books as CSV, with a header naming the columns.
+         */
+        public static final String FORMAT_CSV = "csv";
+
+        /**
+         * Export format writing the books as a JSON array of objects.
+         */
+        public static final String FORMAT_JSON = "json";
+
+        /**
+         * The MIME type of {@link #EXPORT_URI} in the {@link #FORMAT_CSV} format.
+         */
+        public static final String CSV_TYPE = "text/csv";
+
+        /**
+         * The MIME type of {@link #EXPORT_URI} in the {@link #FORMAT_JSON} format.
+         */
+        public static final String JSON_TYPE = "application/json";
+
         /**
          * Name of database table for books
          */
@@ -99,6 +213,614 @@ public final class BooksContract {
          * Type: TEXT
          */
         public static final String COLUMN_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
+        /**
+         * Version of the book, starting at 1 and increased by every change to the book. Set by
+         * the provider only, it can't be written.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_VERSION = "version";
+
+        /**
+         * Quantity at or below which a book counts as low on stock. Low stock queries should
+         * use this literal value, e.g. {@code quantity <= 5}, rather than a bound argument, so
+         * that SQLite can use the partial low stock index.
+         */
+        public static final int LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Provider method that atomically adds a delta to the quantity of one book, without
+         * letting the quantity go below zero. The book ID is passed as the call argument and the
+         * delta as {@link #EXTRA_DELTA}. The result holds {@link #EXTRA_ADJUSTED} and
+         * {@link #EXTRA_QUANTITY}.
+         */
+        public static final String METHOD_ADJUST_STOCK = "adjust_stock";
+        /**
+         * Amount to add to the book quantity, negative for a sale. Required by
+         * {@link #METHOD_ADJUST_STOCK}.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_DELTA = "delta";
+        /**
+         * Whether the quantity was changed. False if the book doesn't exist, if the delta is 0,
+         * or if the delta would have made the quantity negative.
+         * <p>
+         * Type: boolean
+         */
+        public static final String EXTRA_ADJUSTED = "adjusted";
+        /**
+         * Quantity of the book after the call, or -1 if the book doesn't exist.
+         * <p>
+         * Type: int
+         */
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /**
+         * Provider method that holds back change notifications during bulk work. Every call must
+         * be matched by a call to {@link #METHOD_RESUME_NOTIFICATIONS}, which sends the held back
+         * notifications. Notifications resume on their own a few seconds after the suspension was
+         * last renewed with {@link #METHOD_RENEW_SUSPENSION} in any case.
+         */
+        public static final String METHOD_SUSPEND_NOTIFICATIONS = "suspend_notifications";
+        /**
+         * Provider method keeping the current {@link #METHOD_SUSPEND_NOTIFICATIONS} from lapsing,
+         * called by bulk work as it makes progress.
+         */
+        public static final String METHOD_RENEW_SUSPENSION = "renew_suspension";
+        /**
+         * Provider method undoing one {@link #METHOD_SUSPEND_NOTIFICATIONS}.
+         */
+        public static final String METHOD_RESUME_NOTIFICATIONS = "resume_notifications";
+        /**
+         * Provider method returning {@link #EXTRA_CHANGES_REQUESTED} and
+         * {@link #EXTRA_NOTIFICATIONS_SENT}, to check how well change notifications are coalesced.
+         */
+        public static final String METHOD_NOTIFICATION_STATS = "notification_stats";
+        /**
+         * Number of changes the provider made since it started.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_CHANGES_REQUESTED = "changes_requested";
+        /**
+         * Number of change notifications the provider sent since it started. Each one makes the
+         * listening cursors requery.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_NOTIFICATIONS_SENT = "notifications_sent";
+
+        /**
+         * Provider method that adds a delta to the quantity of several books in one transaction,
+         * the same way as {@link #METHOD_ADJUST_STOCK} does for one. The books and deltas are
+         * passed as {@link #EXTRA_BOOK_IDS} and {@link #EXTRA_DELTAS}, and the result holds
+         * {@link #EXTRA_APPLIED}.
+         * <p>
+         * Callers that may send the same adjustments twice, for example when replaying a journal
+         * after a crash, number them: adjustment i has the sequence number
+         * {@link #EXTRA_FIRST_SEQUENCE} + i within {@link #EXTRA_JOURNAL}. The provider
+         * remembers the last sequence number applied for each journal and skips the adjustments
+         * it has already applied.
+         */
+        public static final String METHOD_APPLY_SALES = "apply_sales";
+        /**
+         * IDs of the books to adjust.
+         * <p>
+         * Type: long[]
+         */
+        public static final String EXTRA_BOOK_IDS = "book_ids";
+        /**
+         * Amounts to add to the quantity of each book, negative for sales.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_DELTAS = "deltas";
+        /**
+         * Name of the journal the adjustments come from. Optional, adjustments without a journal
+         * are always applied.
+         * <p>
+         * Type: String
+         */
+        public static final String EXTRA_JOURNAL = "journal";
+        /**
+         * Sequence number of the first adjustment within {@link #EXTRA_JOURNAL}, starting at 1.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_FIRST_SEQUENCE = "first_sequence";
+        /**
+         * Whether each adjustment was applied, now or by an earlier call. False if the book
+         * doesn't exist or if the delta would have made the quantity negative.
+         * <p>
+         * Type: boolean[]
+         */
+        public static final String EXTRA_APPLIED = "applied";
+
+        /**
+         * Provider method selling several books at once, all or nothing. The books are passed as
+         * {@link #EXTRA_BOOK_IDS} and the copies sold of each as {@link #EXTRA_QUANTITIES}; a book
+         * may appear on several lines. Every line is taken from the stock in one transaction,
+         * which is only committed if every line had enough copies. The result holds
+         * {@link #EXTRA_CHECKED_OUT}, {@link #EXTRA_IN_STOCK} and {@link #EXTRA_REMAINING}.
+         */
+        public static final String METHOD_CHECKOUT = "checkout";
+        /**
+         * Number of copies sold of each book, each greater than zero.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_QUANTITIES = "quantities";
+        /**
+         * Whether the checkout was applied, which is the case if every line was in stock.
+         * <p>
+         * Type: boolean
+         */
+        public static final String EXTRA_CHECKED_OUT = "checked_out";
+        /**
+         * Whether there were enough copies for each line, once the lines before it were taken.
+         * <p>
+         * Type: boolean[]
+         */
+        public static final String EXTRA_IN_STOCK = "in_stock";
+        /**
+         * Copies of the book left after each line, once the lines before it were taken. For a
+         * line without enough copies, the copies there were for it, so short lines can be shown
+         * with what is left. -1 for a book that doesn't exist.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_REMAINING = "remaining";
+
+        /**
+         * Provider method writing a snapshot of every book to the file whose absolute path is
+         * passed as the argument. The snapshot is consistent, written while other writes wait,
+         * and only replaces the file once it is complete. The result holds
+         * {@link #EXTRA_ROW_COUNT}.
+         */
+        public static final String METHOD_WRITE_SNAPSHOT = "write_snapshot";
+
+        /**
+         * Provider method replacing every book with the books of the snapshot file whose absolute
+         * path is passed as the argument, in one transaction. A snapshot written by another
+         * database version, or damaged, is refused and nothing changes. The books keep their
+         * {@link #COLUMN_VERSION} and sync ID, and the next sync takes the other stores to the
+         * restored values. The result holds {@link #EXTRA_ROW_COUNT}.
+         */
+        public static final String METHOD_RESTORE_SNAPSHOT = "restore_snapshot";
+
+        /**
+         * Number of books written to or restored from a snapshot.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_ROW_COUNT = "row_count";
+
+        /**
+         * Provider method returning the counters and latency histograms of the provider
+         * operations since it started. The result holds one Bundle for each operation used,
+         * keyed by the operation name and the path it matched, for example
+         * {@code "update books/#"}. Each of them holds {@link #EXTRA_CALLS},
+         * {@link #EXTRA_ERRORS}, {@link #EXTRA_ROWS}, {@link #EXTRA_NOTIFICATIONS},
+         * {@link #EXTRA_TIME_NANOS}, {@link #EXTRA_MAX_NANOS} and {@link #EXTRA_LATENCY_BUCKETS}.
+         * A query is recorded when its cursor is first read, which is when it runs, with the rows
+         * of the cursor and the time to create and fill it.
+         * The same numbers are printed by {@code adb shell dumpsys activity provider BookProvider}.
+         */
+        public static final String METHOD_METRICS = "metrics";
+        /**
+         * Number of calls of an operation, failed ones included.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_CALLS = "calls";
+        /**
+         * Number of calls of an operation that threw.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_ERRORS = "errors";
+        /**
+         * Number of rows inserted, updated or deleted by an operation. Queries don't count rows,
+         * as counting them would run the query before the caller reads it.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_ROWS = "rows";
+        /**
+         * Number of change notifications requested by an operation, before coalescing.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_NOTIFICATIONS = "notifications";
+        /**
+         * Total time spent in an operation, in nanoseconds.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_TIME_NANOS = "time_nanos";
+        /**
+         * Longest call of an operation, in nanoseconds.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_MAX_NANOS = "max_nanos";
+        /**
+         * Latency histogram of an operation. Element 0 counts the calls under 1 microsecond,
+         * element i the calls from 2<sup>i-1</sup> up to 2<sup>i</sup> microseconds, and the last
+         * element all the slower calls.
+         * <p>
+         * Type: long[]
+         */
+        public static final String EXTRA_LATENCY_BUCKETS = "latency_buckets";
+
+        /**
+         * Provider method rolling the stock movements made before {@link #EXTRA_BEFORE} into
+         * their daily totals, so the movement journal stays bounded. The time is rounded down to
+         * the start of its day, so only whole days are rolled up. The daily totals of
+         * {@link MovementsEntry#buildDailyUri} don't change. The result holds
+         * {@link #EXTRA_ROW_COUNT}, the number of movements rolled up.
+         */
+        public static final String METHOD_COMPACT_MOVEMENTS = "compact_movements";
+        /**
+         * Time before which movements are rolled up, in milliseconds since the epoch.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_BEFORE = "before";
+
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements. Every change to the
+     * quantity of a book appends a movement, in the same transaction as the change: the opening
+     * quantity of a new book, every sale and restock, and every correction of the quantity
+     * written by an update. The deltas of the movements of a book add up to its quantity until
+     * old movements are rolled into daily totals by {@link BooksEntry#METHOD_COMPACT_MOVEMENTS}.
+     * Movements of deleted books are kept, and replacing every book, by an import or a snapshot
+     * restore, starts the history again.
+     * <p>
+     * Cursors over the movements are notified on the item URI of their book.
+     */
+    public static final class MovementsEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the movements of a book.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+        /**
+         * The MIME type of the daily totals of the movements of a book.
+         */
+        public static final String DAILY_CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DAILY;
+
+        /**
+         * Query parameter on the movements URIs: only movements at or after this time, in
+         * milliseconds since the epoch, are returned.
+         */
+        public static final String QUERY_PARAMETER_FROM = "from";
+        /**
+         * Query parameter on the movements URIs: only movements before this time, in
+         * milliseconds since the epoch, are returned.
+         */
+        public static final String QUERY_PARAMETER_TO = "to";
+
+        /**
+         * Length of the days of the daily totals. Days start at midnight UTC.
+         */
+        public static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+        /**
+         * Kind of a movement selling copies, with a negative delta.
+         */
+        public static final int KIND_SALE = 1;
+        /**
+         * Kind of a movement adding copies, with a positive delta.
+         */
+        public static final int KIND_RESTOCK = 2;
+        /**
+         * Kind of a movement setting the quantity, like the opening quantity of a new book or a
+         * quantity typed in the editor. Its delta is the difference with the quantity before.
+         */
+        public static final int KIND_CORRECTION = 3;
+
+        /**
+         * Book the movement changed the quantity of.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_BOOK_ID = "book_id";
+        /**
+         * Time of the movement, in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TIME = "time";
+        /**
+         * Amount added to the quantity, negative when copies left.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DELTA = "delta";
+        /**
+         * {@link #KIND_SALE}, {@link #KIND_RESTOCK} or {@link #KIND_CORRECTION}.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_KIND = "kind";
+
+        /**
+         * Start of the day of the daily totals, in milliseconds since the epoch. Only in daily
+         * rows, along with {@link #COLUMN_BOOK_ID} and the columns below.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DAY = "day";
+        /**
+         * Copies sold during the day.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SOLD = "sold";
+        /**
+         * Copies restocked during the day.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_RESTOCKED = "restocked";
+        /**
+         * Sum of the deltas of the corrections made during the day.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_CORRECTED = "corrected";
+        /**
+         * Number of movements made during the day.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_MOVEMENT_COUNT = "movement_count";
+
+        private MovementsEntry() {
+        }
+
+        /**
+         * Return the content URI of the movements of the given book, oldest first. Limit them to
+         * a time range with {@link #QUERY_PARAMETER_FROM} and {@link #QUERY_PARAMETER_TO}.
+         * Movements already rolled into daily totals aren't listed.
+         */
+        public static Uri buildMovementsUri(long bookId) {
+            return ContentUris.withAppendedId(BooksEntry.CONTENT_URI, bookId).buildUpon()
+                    .appendPath(PATH_MOVEMENTS)
+                    .build();
+        }
+
+        /**
+         * Return the content URI of the daily totals of the movements of the given book, one row
+         * per day with movements, oldest first. They include the movements rolled up by
+         * {@link BooksEntry#METHOD_COMPACT_MOVEMENTS}. The {@link #QUERY_PARAMETER_FROM} and
+         * {@link #QUERY_PARAMETER_TO} times are rounded down to the start of their day.
+         */
+        public static Uri buildDailyUri(long bookId) {
+            return buildMovementsUri(bookId).buildUpon()
+                    .appendPath(PATH_DAILY)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory statistics. The statistics are
+     * kept up to date by the database on every change to the books, so reading them never scans
+     * the books.
+     */
+    public static final class StatsEntry {
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the statistics of the whole inventory.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+        /**
+         * The MIME type of the {@link #SUPPLIERS_URI} for the statistics of each supplier.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * The content URI to read the statistics of the whole inventory, as a single row.
+         * Cursors are notified of every change to the books.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BooksEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The content URI to read the statistics of each supplier, one row per supplier.
+         */
+        public static final Uri SUPPLIERS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * Name of the supplier, empty for the books without a supplier. Only in
+         * {@link #SUPPLIERS_URI} rows.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_SUPPLIER_NAME = BooksEntry.COLUMN_SUPPLIER_NAME;
+        /**
+         * Number of different books.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TITLE_COUNT = "title_count";
+        /**
+         * Number of copies on hand, all books together.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UNITS = "units";
+        /**
+         * Value of the copies on hand, the sum of price times quantity.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_STOCK_VALUE = "stock_value";
+        /**
+         * Number of books without any copy left.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the sync of the books with the other stores.
+     * The database keeps a change sequence: every insert, update or delete of a book lists the
+     * book as changed, once, however often it changed. A sync pushes the changed books, forgets
+     * them with {@link #METHOD_MARK_PUSHED}, then applies the changes of the other stores with
+     * {@link #METHOD_APPLY_SYNC_CHANGES}, so its cost depends on the number of changes, not on
+     * the number of books. The methods are called on {@link BooksEntry#CONTENT_URI}.
+     * <p>
+     * Quantities are synced as deltas, {@link #COLUMN_QUANTITY_DELTA}, so concurrent sales at two
+     * stores add up: each store applies the deltas of the others, whatever it changed itself.
+     * The other columns are synced as values, and a book changed here since the last push keeps
+     * its local values. A deleted book is deleted everywhere, unless changed since.
+     */
+    public static final class SyncEntry {
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the changed books.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /**
+         * The content URI to read the books changed since they were last pushed, in the order of
+         * their last change. Each row has the columns below and the book columns of
+         * {@link BooksEntry}, null for a deleted book. Limit the number of rows with
+         * {@link BooksEntry#QUERY_PARAMETER_LIMIT}. The projection and selection are ignored.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BooksEntry.CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * Position of the last change of the book in the change sequence.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SEQUENCE = "seq";
+        /**
+         * Identifier of the book shared by every store, set by the provider when the book is
+         * inserted. Also a column of the books, which can't be written.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_SYNC_ID = "sync_id";
+        /**
+         * 1 if the book was deleted, 0 otherwise.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DELETED = "deleted";
+        /**
+         * Change to the quantity of the book since it was last pushed, the whole quantity of a
+         * book created since then.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * Random ID of the store that made a change pulled from the sync endpoint. With the
+         * {@link #COLUMN_SEQUENCE} of the change in that store, it identifies the change.
+         * Only in the changes passed to {@link #METHOD_APPLY_SYNC_CHANGES}.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_STORE_ID = "store_id";
+
+        /**
+         * Provider method forgetting the changes up to {@link #EXTRA_SEQUENCE}, once they are in
+         * the page about to be pushed, {@link #EXTRA_PUSH_PAGE}. The books changed again since
+         * then stay listed, less the quantity deltas pushed, {@link #EXTRA_SYNC_IDS} and
+         * {@link #EXTRA_QUANTITY_DELTAS}. The page is kept, in the same transaction, until
+         * {@link #METHOD_PAGE_POSTED}, so a push whose reply was lost posts the same changes
+         * again rather than new ones adding up the same deltas. The result holds
+         * {@link BooksEntry#EXTRA_ROW_COUNT}, the number of changes forgotten.
+         */
+        public static final String METHOD_MARK_PUSHED = "mark_pushed";
+        /**
+         * Last sequence pushed.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_SEQUENCE = "sequence";
+        /**
+         * Sync IDs of the books pushed, optional.
+         * <p>
+         * Type: String[]
+         */
+        public static final String EXTRA_SYNC_IDS = "sync_ids";
+        /**
+         * Quantity deltas pushed, in the order of {@link #EXTRA_SYNC_IDS}.
+         * <p>
+         * Type: int[]
+         */
+        public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+        /**
+         * Page of changes to push, opaque to the provider.
+         * <p>
+         * Type: String
+         */
+        public static final String EXTRA_PUSH_PAGE = "push_page";
+
+        /**
+         * Provider method forgetting the page kept by {@link #METHOD_MARK_PUSHED}, once the
+         * endpoint accepted it.
+         */
+        public static final String METHOD_PAGE_POSTED = "page_posted";
+
+        /**
+         * Provider method applying the changes of the other stores, {@link #EXTRA_CHANGES}, and
+         * storing {@link #EXTRA_SYNC_CURSOR}, in one transaction with one change notification.
+         * Each change holds {@link #COLUMN_SYNC_ID}, {@link #COLUMN_DELETED} and, unless
+         * deleted, {@link #COLUMN_QUANTITY_DELTA} and every book column but the quantity. The
+         * delta is added to the quantity and journaled as a correction. The quantity stops at
+         * zero when two stores sold the last copies, and the correction only holds the copies
+         * that were left. The delta also opens the quantity of a book new here. A book changed
+         * here since the last push keeps its other local values, which the next sync pushes.
+         * Changes with invalid values are skipped. A change holding {@link #COLUMN_STORE_ID} and {@link #COLUMN_SEQUENCE} is
+         * applied once: it is skipped if a change of the same store with the same or a later
+         * sequence was applied already. Applied changes aren't listed as local changes. The
+         * result holds {@link BooksEntry#EXTRA_ROW_COUNT}, the number of books changed.
+         */
+        public static final String METHOD_APPLY_SYNC_CHANGES = "apply_sync_changes";
+        /**
+         * Changes of the other stores, oldest first.
+         * <p>
+         * Type: ContentValues[]
+         */
+        public static final String EXTRA_CHANGES = "changes";
+        /**
+         * Position of the sync endpoint in its changes, given by the endpoint. Opaque to the
+         * provider, null before the first sync.
+         * <p>
+         * Type: String
+         */
+        public static final String EXTRA_SYNC_CURSOR = "sync_cursor";
+
+        /**
+         * Provider method returning the state of the sync: {@link #EXTRA_SYNC_CURSOR},
+         * {@link #EXTRA_PENDING_CHANGES}, {@link #EXTRA_STORE_ID} and {@link #EXTRA_PUSH_PAGE},
+         * null unless a page marked pushed wasn't posted yet.
+         */
+        public static final String METHOD_SYNC_STATE = "sync_state";
+        /**
+         * Random ID of this store, to tell its own changes from the other stores'.
+         * <p>
+         * Type: String
+         */
+        public static final String EXTRA_STORE_ID = "store_id";
+        /**
+         * Number of books changed since they were last marked pushed.
+         * <p>
+         * Type: long
+         */
+        public static final String EXTRA_PENDING_CHANGES = "pending_changes";
 
+        private SyncEntry() {
+        }
     }
 }
@@ -1,13 +1,27 @@
 package com.example.android.gwg_project7_inventoryapp.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
 import com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import com.example.android.gwg_project7_inventoryapp.data.BooksContract.MovementsEntry;
+import com.example.android.gwg_project7_inventoryapp.data.BooksContract.StatsEntry;
+import com.example.android.gwg_project7_inventoryapp.data.BooksContract.SyncEntry;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Database helper for Books app. Manages database creation and version management.
+ * <p>
+ * The schema is built by creating the version 1 table and then running every migration step in
+ * order, so a fresh install and an upgraded install always end up with the same schema.
  */
 public class BooksDbHelper extends SQLiteOpenHelper {
 
@@ -16,12 +30,121 @@ public class BooksDbHelper extends SQLiteOpenHelper {
     /**
      * Name of the database file
      */
-    private static final String DATABASE_NAME = "books.db";
+    static final String DATABASE_NAME = "books.db";
+
+    /**
+     * Database version. If you change the database schema, you must increment the database version
+     * and add the matching step to {@link #upgrade(SQLiteDatabase, int, int)}.
+     */
+    @VisibleForTesting
+    static final int DATABASE_VERSION = 8;
+
+    /**
+     * Index on the book name, case-insensitive so it serves sorting and searching by title.
+     */
+    static final String INDEX_PRODUCT_NAME = "books_product_name_idx";
+    /**
+     * Index on the supplier name.
+     */
+    static final String INDEX_SUPPLIER_NAME = "books_supplier_name_idx";
+    /**
+     * Index on the book quantity.
+     */
+    static final String INDEX_PRODUCT_QUANTITY = "books_quantity_idx";
+    /**
+     * Partial index holding only the books at or below {@link BooksEntry#LOW_STOCK_THRESHOLD}.
+     */
+    static final String INDEX_LOW_STOCK = "books_low_stock_idx";
+
+    /**
+     * Full-text index over the book and supplier names. Its docid is the {@link BooksEntry#_ID}
+     * of the indexed book, and it is kept in sync with the books table by triggers.
+     */
+    static final String TABLE_BOOKS_FTS = "books_fts";
+
+    /**
+     * Last sequence number applied by {@link BooksEntry#METHOD_APPLY_SALES} for each journal,
+     * and by {@link SyncEntry#METHOD_APPLY_SYNC_CHANGES} for each other store, under the
+     * journal named {@link #SYNC_JOURNAL_PREFIX} followed by the store ID.
+     */
+    static final String TABLE_APPLIED_SALES = "applied_sales";
+    static final String COLUMN_JOURNAL = "journal";
+    static final String COLUMN_LAST_SEQUENCE = "last_sequence";
+    static final String SYNC_JOURNAL_PREFIX = "sync:";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Inventory statistics of each supplier, kept up to date by triggers on the books table.
+     * Books without a supplier are counted under the empty name.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final String TABLE_INVENTORY_STATS = "inventory_stats";
+
+    /**
+     * Journal of the stock movements, one row appended for every change to a quantity.
+     */
+    static final String TABLE_STOCK_MOVEMENTS = "stock_movements";
+    /**
+     * Index on the book and time of the movements, the only one, so appends stay cheap.
+     */
+    static final String INDEX_MOVEMENT_BOOK_TIME = "stock_movements_book_time_idx";
+
+    /**
+     * Daily totals of the movements of each book rolled up from {@link #TABLE_STOCK_MOVEMENTS}.
+     */
+    static final String TABLE_STOCK_MOVEMENT_DAYS = "stock_movement_days";
+
+    /**
+     * Unique index on the sync ID of the books.
+     */
+    static final String INDEX_SYNC_ID = "books_sync_id_idx";
+
+    /**
+     * Books changed since they were last pushed to the sync endpoint, one row per book, keyed by
+     * an increasing change sequence, with the change to its quantity since then. A change to a
+     * book already listed moves it to the end.
+     */
+    static final String TABLE_BOOK_CHANGES = "book_changes";
+
+    /**
+     * Named values of the sync, like the cursor of the last change pulled.
+     */
+    static final String TABLE_SYNC_STATE = "sync_state";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_VALUE = "value";
+
+    /**
+     * Name of the sync cursor in the sync state table
+     */
+    static final String SYNC_STATE_CURSOR = "cursor";
+    /**
+     * Name of the random ID of this store in the sync state table, sent with every change pushed
+     * so the store can tell its own changes when they come back.
+     */
+    static final String SYNC_STATE_STORE_ID = "store_id";
+    /**
+     * Name of the flag set in the sync state table while the changes of the other stores are
+     * applied, so the triggers don't list them as local changes.
+     */
+    static final String SYNC_STATE_APPLYING = "applying";
+    /**
+     * Name of the page of changes handed to the push but not accepted by the endpoint yet in
+     * the sync state table, posted again as is by the next sync.
+     */
+    static final String SYNC_STATE_PUSH_PAGE = "push_page";
+
+    /**
+     * New random sync ID, in SQL.
+     */
+    private static final String SQL_NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+
+    /**
+     * Current time in milliseconds since the epoch, in SQL.
+     */
+    static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * First SQLite version supporting partial indexes.
+     */
+    private static final int[] PARTIAL_INDEX_SQLITE_VERSION = {3, 8, 0};
 
     /**
      * Constructs a new instance of {@link BooksDbHelper}.
@@ -29,7 +152,46 @@ public class BooksDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public BooksDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructs a new instance of {@link BooksDbHelper} on the given database file.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     */
+    @VisibleForTesting
+    BooksDbHelper(Context context, String name) {
+        this(context, name, null);
+    }
+
+    /**
+     * Constructs a new instance of {@link BooksDbHelper} on the given database file, whose
+     * cursors are created by the given factory.
+     *
+     * @param context of the app
+     * @param name    of the database file
+     * @param factory of the cursors, or null for plain SQLite cursors
+     */
+    BooksDbHelper(Context context, String name, @Nullable SQLiteDatabase.CursorFactory factory) {
+        super(context, name, factory, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Readers get connections of their own, so a long transaction doesn't block them
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * This is called when the database has been opened. Before Jelly Bean write-ahead logging
+     * can only be turned on here.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     /**
@@ -48,6 +210,9 @@ public class BooksDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_BOOKS_TABLE);
+
+        // Bring the version 1 schema up to date
+        upgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
@@ -55,6 +220,410 @@ public class BooksDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        upgrade(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run every migration step after {@code fromVersion} up to and including {@code toVersion}.
+     * {@link SQLiteOpenHelper} runs this inside a transaction, so a failed step leaves the
+     * database untouched at its old version.
+     */
+    @VisibleForTesting
+    static void upgrade(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion + 1; version <= toVersion; version++) {
+            switch (version) {
+                case 2:
+                    upgradeToVersion2(db);
+                    break;
+                case 3:
+                    upgradeToVersion3(db);
+                    break;
+                case 4:
+                    upgradeToVersion4(db);
+                    break;
+                case 5:
+                    upgradeToVersion5(db);
+                    break;
+                case 6:
+                    upgradeToVersion6(db);
+                    break;
+                case 7:
+                    upgradeToVersion7(db);
+                    break;
+                case 8:
+                    upgradeToVersion8(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 2: index the columns used for sorting, filtering and searching books.
+     */
+    private static void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_PRODUCT_NAME + " ON " + BooksEntry.TABLE_NAME
+                + " (" + BooksEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_NAME + " ON " + BooksEntry.TABLE_NAME
+                + " (" + BooksEntry.COLUMN_SUPPLIER_NAME + ");");
+        db.execSQL("CREATE INDEX " + INDEX_PRODUCT_QUANTITY + " ON " + BooksEntry.TABLE_NAME
+                + " (" + BooksEntry.COLUMN_PRODUCT_QUANTITY + ");");
+
+        // Older devices ship an SQLite without partial indexes. The quantity index above
+        // still serves low stock queries there.
+        if (supportsPartialIndexes(db)) {
+            db.execSQL("CREATE INDEX " + INDEX_LOW_STOCK + " ON " + BooksEntry.TABLE_NAME
+                    + " (" + BooksEntry.COLUMN_PRODUCT_QUANTITY + ")"
+                    + " WHERE " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " <= " + BooksEntry.LOW_STOCK_THRESHOLD + ";");
+        }
+    }
+
+    /**
+     * Version 3: full-text index over the book and supplier names, kept in sync by triggers.
+     * FTS4 keeps its own copy of the names, because external content tables need a newer
+     * SQLite than the oldest supported devices have.
+     */
+    private static void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts4("
+                + BooksEntry.COLUMN_PRODUCT_NAME + ", " + BooksEntry.COLUMN_SUPPLIER_NAME + ");");
+
+        // Index the books that already exist
+        fillBooksFts(db);
+
+        db.execSQL("CREATE TRIGGER books_fts_insert AFTER INSERT ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + " INSERT INTO " + TABLE_BOOKS_FTS + " (docid, "
+                + BooksEntry.COLUMN_PRODUCT_NAME + ", " + BooksEntry.COLUMN_SUPPLIER_NAME + ")"
+                + " VALUES (NEW." + BooksEntry._ID + ", NEW." + BooksEntry.COLUMN_PRODUCT_NAME
+                + ", NEW." + BooksEntry.COLUMN_SUPPLIER_NAME + ");"
+                + " END;");
+        // Only name changes touch the index, so stock updates don't pay for it
+        db.execSQL("CREATE TRIGGER books_fts_update AFTER UPDATE OF "
+                + BooksEntry.COLUMN_PRODUCT_NAME + ", " + BooksEntry.COLUMN_SUPPLIER_NAME
+                + " ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + TABLE_BOOKS_FTS + " SET "
+                + BooksEntry.COLUMN_PRODUCT_NAME + " = NEW." + BooksEntry.COLUMN_PRODUCT_NAME + ", "
+                + BooksEntry.COLUMN_SUPPLIER_NAME + " = NEW." + BooksEntry.COLUMN_SUPPLIER_NAME
+                + " WHERE docid = NEW." + BooksEntry._ID + ";"
+                + " END;");
+        db.execSQL("CREATE TRIGGER books_fts_delete AFTER DELETE ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + " DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = OLD." + BooksEntry._ID + ";"
+                + " END;");
+    }
+
+    /**
+     * Version 4: remember which journaled sales have been applied, so replaying a journal
+     * never applies a sale twice.
+     */
+    private static void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_APPLIED_SALES + " ("
+                + COLUMN_JOURNAL + " TEXT PRIMARY KEY, "
+                + COLUMN_LAST_SEQUENCE + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Version 5: inventory statistics per supplier, maintained by triggers. Each change to a
+     * book updates the row of its supplier, so the statistics are read without scanning books.
+     */
+    private static void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_INVENTORY_STATS + " ("
+                + StatsEntry.COLUMN_SUPPLIER_NAME + " TEXT PRIMARY KEY NOT NULL, "
+                + StatsEntry.COLUMN_TITLE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + StatsEntry.COLUMN_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                + StatsEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0, "
+                + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+
+        // Count the books that already exist
+        fillInventoryStats(db);
+
+        db.execSQL("CREATE TRIGGER inventory_stats_insert AFTER INSERT ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + addToStats("NEW", "+")
+                + " END;");
+        // Name changes don't change the statistics, so they don't pay for them
+        db.execSQL("CREATE TRIGGER inventory_stats_update AFTER UPDATE OF "
+                + BooksEntry.COLUMN_PRODUCT_PRICE + ", " + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + BooksEntry.COLUMN_SUPPLIER_NAME + " ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + addToStats("OLD", "-")
+                + addToStats("NEW", "+")
+                + " END;");
+        db.execSQL("CREATE TRIGGER inventory_stats_delete AFTER DELETE ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + addToStats("OLD", "-")
+                + " END;");
+    }
+
+    /**
+     * Version 6: a version on each book, increased by every change to it, so a writer can update
+     * a book only if nobody changed it since it was read. Statements that set the version
+     * themselves, like the stock adjustment, bump it without the trigger doing a second write;
+     * the trigger catches every other change to the book.
+     */
+    private static void upgradeToVersion6(SQLiteDatabase db) {
+        // Existing books start at version 1, like new ones
+        db.execSQL("ALTER TABLE " + BooksEntry.TABLE_NAME + " ADD COLUMN "
+                + BooksEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 1;");
+
+        db.execSQL("CREATE TRIGGER books_version_update AFTER UPDATE OF "
+                + BooksEntry.COLUMN_PRODUCT_NAME + ", " + BooksEntry.COLUMN_PRODUCT_PRICE + ", "
+                + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", " + BooksEntry.COLUMN_SUPPLIER_NAME + ", "
+                + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " ON " + BooksEntry.TABLE_NAME
+                + " WHEN NEW." + BooksEntry.COLUMN_VERSION + " = OLD." + BooksEntry.COLUMN_VERSION + " BEGIN"
+                + " UPDATE " + BooksEntry.TABLE_NAME + " SET "
+                + BooksEntry.COLUMN_VERSION + " = OLD." + BooksEntry.COLUMN_VERSION + " + 1"
+                + " WHERE " + BooksEntry._ID + " = NEW." + BooksEntry._ID + ";"
+                + " END;");
+    }
+
+    /**
+     * Version 7: journal of the stock movements, and the daily totals old movements are rolled
+     * into. The provider appends the sales, restocks and corrections itself, as only it knows
+     * which is which, while the opening quantity of a new book is appended by a trigger. The
+     * movements are keyed by an increasing rowid, so the oldest ones are the cheapest to find.
+     */
+    private static void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_STOCK_MOVEMENTS + " ("
+                + MovementsEntry._ID + " INTEGER PRIMARY KEY, "
+                + MovementsEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + MovementsEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                + MovementsEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + MovementsEntry.COLUMN_KIND + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + INDEX_MOVEMENT_BOOK_TIME + " ON " + TABLE_STOCK_MOVEMENTS
+                + " (" + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_TIME + ");");
+        db.execSQL("CREATE TABLE " + TABLE_STOCK_MOVEMENT_DAYS + " ("
+                + MovementsEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, "
+                + MovementsEntry.COLUMN_DAY + " INTEGER NOT NULL, "
+                + MovementsEntry.COLUMN_SOLD + " INTEGER NOT NULL DEFAULT 0, "
+                + MovementsEntry.COLUMN_RESTOCKED + " INTEGER NOT NULL DEFAULT 0, "
+                + MovementsEntry.COLUMN_CORRECTED + " INTEGER NOT NULL DEFAULT 0, "
+                + MovementsEntry.COLUMN_MOVEMENT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_DAY + "));");
+
+        // The books that already exist open with their current quantity
+        fillStockMovements(db);
+
+        db.execSQL("CREATE TRIGGER stock_movements_insert AFTER INSERT ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + " INSERT INTO " + TABLE_STOCK_MOVEMENTS + " ("
+                + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_TIME + ", "
+                + MovementsEntry.COLUMN_DELTA + ", " + MovementsEntry.COLUMN_KIND + ")"
+                + " VALUES (NEW." + BooksEntry._ID + ", " + SQL_NOW_MILLIS + ", NEW."
+                + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", " + MovementsEntry.KIND_CORRECTION + ");"
+                + " END;");
+    }
+
+    /**
+     * Version 8: sync IDs identifying the books across stores, and the change sequence listing
+     * the books changed since the last sync, kept by triggers. Each change replaces the row of
+     * its book, so a sync sends each changed book once, however often it changed, and never
+     * reads the books that didn't change. The row keeps how much the quantity of the book
+     * changed since it was last pushed, so the sales of two stores add up instead of the last
+     * store to sync overwriting the other's count. The triggers skip the changes applied from
+     * the other stores. Each store gets a random ID, to tell its own changes from the others'
+     * when the endpoint sends them back.
+     */
+    private static void upgradeToVersion8(SQLiteDatabase db) {
+        // A column added to a table can't default to a random value, new books get theirs
+        // from the insert trigger
+        db.execSQL("ALTER TABLE " + BooksEntry.TABLE_NAME + " ADD COLUMN " + SyncEntry.COLUMN_SYNC_ID + " TEXT;");
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_SYNC_ID + " ON " + BooksEntry.TABLE_NAME
+                + " (" + SyncEntry.COLUMN_SYNC_ID + ");");
+        // AUTOINCREMENT, so sequences of changes already pushed and forgotten aren't reused
+        db.execSQL("CREATE TABLE " + TABLE_BOOK_CHANGES + " ("
+                + SyncEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SyncEntry.COLUMN_SYNC_ID + " TEXT NOT NULL UNIQUE, "
+                + SyncEntry.COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + COLUMN_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_VALUE + " TEXT);");
+        db.execSQL("INSERT INTO " + TABLE_SYNC_STATE + " (" + COLUMN_NAME + ", " + COLUMN_VALUE + ")"
+                + " VALUES ('" + SYNC_STATE_STORE_ID + "', " + SQL_NEW_SYNC_ID + ");");
+
+        // Every book that already exists is pushed by the first sync, with its whole quantity
+        fillBookChanges(db);
+
+        String notApplying = "NOT EXISTS (SELECT 1 FROM " + TABLE_SYNC_STATE
+                + " WHERE " + COLUMN_NAME + " = '" + SYNC_STATE_APPLYING + "')";
+        // The sync ID is given to every new book, synced ones included
+        db.execSQL("CREATE TRIGGER book_changes_insert AFTER INSERT ON " + BooksEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + BooksEntry.TABLE_NAME + " SET " + SyncEntry.COLUMN_SYNC_ID + " = " + SQL_NEW_SYNC_ID
+                + " WHERE " + BooksEntry._ID + " = NEW." + BooksEntry._ID + " AND " + SyncEntry.COLUMN_SYNC_ID + " IS NULL;"
+                + " INSERT OR REPLACE INTO " + TABLE_BOOK_CHANGES + " ("
+                + SyncEntry.COLUMN_SYNC_ID + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ")"
+                + " SELECT " + SyncEntry.COLUMN_SYNC_ID + ", " + BooksEntry.COLUMN_PRODUCT_QUANTITY
+                + " FROM " + BooksEntry.TABLE_NAME
+                + " WHERE " + BooksEntry._ID + " = NEW." + BooksEntry._ID + " AND " + notApplying + ";"
+                + " END;");
+        // Only the synced columns, so neither the version nor the sync ID count as changes.
+        // Replacing the row moves the book to the end of the sequence, with its delta so far.
+        db.execSQL("CREATE TRIGGER book_changes_update AFTER UPDATE OF "
+                + BooksEntry.COLUMN_PRODUCT_NAME + ", " + BooksEntry.COLUMN_PRODUCT_PRICE + ", "
+                + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", " + BooksEntry.COLUMN_SUPPLIER_NAME + ", "
+                + BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " ON " + BooksEntry.TABLE_NAME
+                + " WHEN " + notApplying + " BEGIN"
+                + " INSERT OR REPLACE INTO " + TABLE_BOOK_CHANGES + " ("
+                + SyncEntry.COLUMN_SYNC_ID + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ")"
+                + " VALUES (NEW." + SyncEntry.COLUMN_SYNC_ID + ", NEW." + BooksEntry.COLUMN_PRODUCT_QUANTITY
+                + " - OLD." + BooksEntry.COLUMN_PRODUCT_QUANTITY + " + IFNULL((SELECT " + SyncEntry.COLUMN_QUANTITY_DELTA
+                + " FROM " + TABLE_BOOK_CHANGES + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = NEW." + SyncEntry.COLUMN_SYNC_ID + "), 0));"
+                + " END;");
+        // A deleted book keeps minus the quantity the other stores know, for a restore bringing
+        // it back to count from
+        db.execSQL("CREATE TRIGGER book_changes_delete AFTER DELETE ON " + BooksEntry.TABLE_NAME
+                + " WHEN " + notApplying + " BEGIN"
+                + " INSERT OR REPLACE INTO " + TABLE_BOOK_CHANGES + " ("
+                + SyncEntry.COLUMN_SYNC_ID + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ")"
+                + " VALUES (OLD." + SyncEntry.COLUMN_SYNC_ID + ", IFNULL((SELECT " + SyncEntry.COLUMN_QUANTITY_DELTA
+                + " FROM " + TABLE_BOOK_CHANGES + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " = OLD." + SyncEntry.COLUMN_SYNC_ID
+                + "), 0) - OLD." + BooksEntry.COLUMN_PRODUCT_QUANTITY + ");"
+                + " END;");
+    }
+
+    /**
+     * Return the trigger statements adding ({@code sign} "+") or removing ({@code sign} "-") the
+     * given row ("NEW" or "OLD") to the statistics of its supplier. The supplier row is created
+     * when its first book is added and deleted when its last book is removed.
+     */
+    private static String addToStats(String row, String sign) {
+        String supplier = "IFNULL(" + row + "." + BooksEntry.COLUMN_SUPPLIER_NAME + ", '')";
+        String quantity = row + "." + BooksEntry.COLUMN_PRODUCT_QUANTITY;
+        String price = row + "." + BooksEntry.COLUMN_PRODUCT_PRICE;
+        return " INSERT OR IGNORE INTO " + TABLE_INVENTORY_STATS
+                + " (" + StatsEntry.COLUMN_SUPPLIER_NAME + ") VALUES (" + supplier + ");"
+                + " UPDATE " + TABLE_INVENTORY_STATS + " SET "
+                + StatsEntry.COLUMN_TITLE_COUNT + " = " + StatsEntry.COLUMN_TITLE_COUNT + " " + sign + " 1, "
+                + StatsEntry.COLUMN_UNITS + " = " + StatsEntry.COLUMN_UNITS + " " + sign + " " + quantity + ", "
+                + StatsEntry.COLUMN_STOCK_VALUE + " = " + StatsEntry.COLUMN_STOCK_VALUE + " " + sign + " " + price + " * " + quantity + ", "
+                + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " = " + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " " + sign + " (" + quantity + " <= 0)"
+                + " WHERE " + StatsEntry.COLUMN_SUPPLIER_NAME + " = " + supplier + ";"
+                + " DELETE FROM " + TABLE_INVENTORY_STATS + " WHERE " + StatsEntry.COLUMN_SUPPLIER_NAME + " = " + supplier
+                + " AND " + StatsEntry.COLUMN_TITLE_COUNT + " = 0;";
+    }
+
+    /**
+     * Index every book in the full-text index, which must be empty.
+     */
+    private static void fillBooksFts(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_BOOKS_FTS + " (docid, "
+                + BooksEntry.COLUMN_PRODUCT_NAME + ", " + BooksEntry.COLUMN_SUPPLIER_NAME + ")"
+                + " SELECT " + BooksEntry._ID + ", " + BooksEntry.COLUMN_PRODUCT_NAME + ", "
+                + BooksEntry.COLUMN_SUPPLIER_NAME + " FROM " + BooksEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Append the opening quantity of every book to the stock movements.
+     */
+    private static void fillStockMovements(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_STOCK_MOVEMENTS + " ("
+                + MovementsEntry.COLUMN_BOOK_ID + ", " + MovementsEntry.COLUMN_TIME + ", "
+                + MovementsEntry.COLUMN_DELTA + ", " + MovementsEntry.COLUMN_KIND + ")"
+                + " SELECT " + BooksEntry._ID + ", " + SQL_NOW_MILLIS + ", "
+                + BooksEntry.COLUMN_PRODUCT_QUANTITY + ", " + MovementsEntry.KIND_CORRECTION
+                + " FROM " + BooksEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Give a sync ID to every book without one, and list every book as changed. A book replaced
+     * by one with the same sync ID was listed with minus the quantity the other stores know, so
+     * the delta pushed takes them to the quantity of the book. A book new to them gets its
+     * whole quantity.
+     */
+    private static void fillBookChanges(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + BooksEntry.TABLE_NAME + " SET " + SyncEntry.COLUMN_SYNC_ID + " = " + SQL_NEW_SYNC_ID
+                + " WHERE " + SyncEntry.COLUMN_SYNC_ID + " IS NULL;");
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_BOOK_CHANGES + " ("
+                + SyncEntry.COLUMN_SYNC_ID + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ")"
+                + " SELECT " + SyncEntry.COLUMN_SYNC_ID + ", " + BooksEntry.COLUMN_PRODUCT_QUANTITY
+                + " + " + pendingQuantityDelta() + " FROM " + BooksEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Return the quantity delta listed for the book of the current books row, 0 if it isn't
+     * listed, in SQL.
+     */
+    private static String pendingQuantityDelta() {
+        return "IFNULL((SELECT " + SyncEntry.COLUMN_QUANTITY_DELTA + " FROM " + TABLE_BOOK_CHANGES
+                + " WHERE " + TABLE_BOOK_CHANGES + "." + SyncEntry.COLUMN_SYNC_ID
+                + " = " + BooksEntry.TABLE_NAME + "." + SyncEntry.COLUMN_SYNC_ID + "), 0)";
+    }
+
+    /**
+     * Count every book in the inventory statistics, which must be empty.
+     */
+    private static void fillInventoryStats(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_INVENTORY_STATS + " SELECT "
+                + "IFNULL(" + BooksEntry.COLUMN_SUPPLIER_NAME + ", ''), "
+                + "COUNT(*), "
+                + "SUM(" + BooksEntry.COLUMN_PRODUCT_QUANTITY + "), "
+                + "SUM(" + BooksEntry.COLUMN_PRODUCT_PRICE + " * " + BooksEntry.COLUMN_PRODUCT_QUANTITY + "), "
+                + "SUM(" + BooksEntry.COLUMN_PRODUCT_QUANTITY + " <= 0)"
+                + " FROM " + BooksEntry.TABLE_NAME
+                + " GROUP BY IFNULL(" + BooksEntry.COLUMN_SUPPLIER_NAME + ", '');");
+    }
+
+    /**
+     * Empty the books table for a bulk load: drop its indexes and triggers, then delete every
+     * book along with the full-text index, the statistics and the stock movements built from
+     * them. Loading rows into a bare table and building each index once afterwards is much
+     * faster than updating every index and trigger target row by row. Return the statements
+     * creating the indexes and triggers again, to pass to {@link #finishBulkLoad} once the books
+     * are loaded. Must run inside a transaction.
+     */
+    static List<String> startBulkLoad(SQLiteDatabase db) {
+        List<String> statements = new ArrayList<>();
+        List<String> drops = new ArrayList<>();
+        // Indexes come first, so they are built before the triggers exist
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE tbl_name = ? AND type IN ('index', 'trigger') AND sql IS NOT NULL"
+                + " ORDER BY type", new String[]{BooksEntry.TABLE_NAME});
+        try {
+            while (cursor.moveToNext()) {
+                drops.add("DROP " + cursor.getString(0) + " " + cursor.getString(1));
+                statements.add(cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String drop : drops) {
+            db.execSQL(drop);
+        }
+        // The books replaced are deleted for the other stores too, like the delete trigger does
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_BOOK_CHANGES + " ("
+                + SyncEntry.COLUMN_SYNC_ID + ", " + SyncEntry.COLUMN_QUANTITY_DELTA + ")"
+                + " SELECT " + SyncEntry.COLUMN_SYNC_ID + ", " + pendingQuantityDelta()
+                + " - " + BooksEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + BooksEntry.TABLE_NAME + ";");
+        // Without triggers, SQLite empties the table without visiting each row
+        db.execSQL("DELETE FROM " + BooksEntry.TABLE_NAME);
+        db.execSQL("DELETE FROM " + TABLE_BOOKS_FTS);
+        db.execSQL("DELETE FROM " + TABLE_INVENTORY_STATS);
+        db.execSQL("DELETE FROM " + TABLE_STOCK_MOVEMENTS);
+        db.execSQL("DELETE FROM " + TABLE_STOCK_MOVEMENT_DAYS);
+        return statements;
+    }
+
+    /**
+     * Finish a bulk load started by {@link #startBulkLoad}: create the indexes and triggers again
+     * and rebuild the full-text index, the statistics and the opening stock movements from the
+     * loaded books, which are all listed as changed for the next sync.
+     */
+    static void finishBulkLoad(SQLiteDatabase db, List<String> statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+        fillBooksFts(db);
+        fillInventoryStats(db);
+        fillStockMovements(db);
+        fillBookChanges(db);
+    }
+
+    /**
+     * Return true if the SQLite library behind the given database supports partial indexes.
+     */
+    static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        for (int i = 0; i < PARTIAL_INDEX_SQLITE_VERSION.length; i++) {
+            int part = i < version.length ? Integer.parseInt(version[i]) : 0;
+            if (part != PARTIAL_INDEX_SQLITE_VERSION[i]) {
+                return part > PARTIAL_INDEX_SQLITE_VERSION[i];
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,186 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the change notifications of {@link BookProvider}. Changed URIs are collected for a
+ * short window and then sent once each, so a burst of writes causes one requery of the
+ * listening cursors instead of one per write. Notifications can also be suspended during bulk
+ * work, in which case they are all sent when the work resumes.
+ */
+class ChangeNotifier {
+
+    /**
+     * How long changes are collected before they are sent
+     */
+    static final long COALESCE_WINDOW_MILLIS = 50;
+
+    /**
+     * Longest time notifications stay suspended after the suspension was last renewed, so a
+     * caller that never resumes them can't silence the provider for good.
+     */
+    static final long MAX_SUSPEND_MILLIS = 10000;
+
+    private final ContentResolver contentResolver;
+    private final Handler handler;
+
+    /**
+     * URIs changed since the last notifications were sent, guarded by this
+     */
+    private final Set<Uri> pendingUris = new LinkedHashSet<>();
+
+    /**
+     * Number of callers that suspended notifications, guarded by this
+     */
+    private int suspendCount;
+
+    /**
+     * Time at which notifications were suspended or the suspension last renewed, guarded by this
+     */
+    private long suspendedAt;
+
+    /**
+     * Whether a flush is scheduled, guarded by this
+     */
+    private boolean flushScheduled;
+
+    private final AtomicLong changesRequested = new AtomicLong();
+    private final AtomicLong notificationsSent = new AtomicLong();
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ChangeNotifier.this) {
+                flushScheduled = false;
+                if (suspendCount > 0) {
+                    long remaining = suspendedAt + MAX_SUSPEND_MILLIS - SystemClock.elapsedRealtime();
+                    if (remaining > 0) {
+                        // Check again when the suspension would lapse, it may have been renewed
+                        scheduleFlush(remaining);
+                        return;
+                    }
+                    // Give up a suspension that lasted too long
+                    suspendCount = 0;
+                }
+            }
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+        HandlerThread thread = new HandlerThread("BookChangeNotifier", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Record that the data at the given URI has changed. Listeners are notified at the end of
+     * the current window, or when notifications are resumed.
+     */
+    void notifyChange(Uri uri) {
+        changesRequested.incrementAndGet();
+        synchronized (this) {
+            pendingUris.add(uri);
+            if (suspendCount == 0) {
+                scheduleFlush(COALESCE_WINDOW_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Record that the data at all the given URIs has changed.
+     */
+    void notifyChanges(Collection<Uri> uris) {
+        changesRequested.addAndGet(uris.size());
+        synchronized (this) {
+            pendingUris.addAll(uris);
+            if (suspendCount == 0 && !pendingUris.isEmpty()) {
+                scheduleFlush(COALESCE_WINDOW_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Hold back all notifications until {@link #resume()} is called as many times as this was.
+     */
+    synchronized void suspend() {
+        if (suspendCount++ == 0) {
+            suspendedAt = SystemClock.elapsedRealtime();
+            scheduleFlush(MAX_SUSPEND_MILLIS);
+        }
+    }
+
+    /**
+     * Keep the current suspension from lapsing for another {@link #MAX_SUSPEND_MILLIS}. Bulk
+     * work renews it as it makes progress, so only a caller that stopped is cut off.
+     */
+    synchronized void renewSuspension() {
+        if (suspendCount > 0) {
+            suspendedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Undo one {@link #suspend()}. Once every suspension is undone, the held back
+     * notifications are sent right away.
+     */
+    void resume() {
+        synchronized (this) {
+            if (suspendCount == 0 || --suspendCount > 0) {
+                return;
+            }
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+        flush();
+    }
+
+    /**
+     * Number of changes reported to this notifier
+     */
+    long getChangesRequested() {
+        return changesRequested.get();
+    }
+
+    /**
+     * Number of notifications actually sent, each of which makes the listening cursors requery
+     */
+    long getNotificationsSent() {
+        return notificationsSent.get();
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, delayMillis);
+        }
+    }
+
+    /**
+     * Send one notification per pending URI.
+     */
+    private void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            uris = new ArrayList<>(pendingUris);
+            pendingUris.clear();
+        }
+        for (Uri uri : uris) {
+            contentResolver.notifyChange(uri, null);
+        }
+        notificationsSent.addAndGet(uris.size());
+    }
+}
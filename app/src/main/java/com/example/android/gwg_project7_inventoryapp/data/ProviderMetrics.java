@@ -0,0 +1,255 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the operations of {@link BookProvider}, kept for each
+ * operation and each URI match code. Recording is lock-free: every value is a slot of one
+ * {@link AtomicLongArray}, so concurrent operations never wait on each other.
+ * <p>
+ * Latencies go into fixed buckets: bucket 0 counts operations under 1 microsecond, bucket i
+ * those from 2<sup>i-1</sup> up to 2<sup>i</sup> microseconds, and the last bucket everything
+ * slower.
+ */
+class ProviderMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int ADJUST_STOCK = 5;
+    static final int APPLY_SALES = 6;
+    static final int CHECKOUT = 7;
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulkInsert", "update", "delete",
+            "adjustStock", "applySales", "checkout"};
+
+    static final int BUCKET_COUNT = 22;
+
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int ROWS = 2;
+    private static final int NOTIFICATIONS = 3;
+    private static final int TIME_NANOS = 4;
+    private static final int MAX_NANOS = 5;
+    private static final int FIRST_BUCKET = 6;
+    private static final int STRIDE = FIRST_BUCKET + BUCKET_COUNT;
+
+    private final int firstMatch;
+
+    /**
+     * Names of the match codes, the last one standing for URIs that didn't match
+     */
+    private final String[] matchNames;
+
+    /**
+     * Trace section name of each operation and match code, built once so tracing doesn't
+     * allocate
+     */
+    private final String[] sectionNames;
+
+    private final AtomicLongArray values;
+
+    /**
+     * Notifications requested by the operations running on each thread, so an operation can
+     * count its own notifications even while other threads notify
+     */
+    private final ThreadLocal<int[]> threadNotifications = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * @param firstMatch the first match code
+     * @param matchNames the names of the consecutive match codes starting at {@code firstMatch}
+     */
+    ProviderMetrics(int firstMatch, String... matchNames) {
+        this.firstMatch = firstMatch;
+        this.matchNames = new String[matchNames.length + 1];
+        System.arraycopy(matchNames, 0, this.matchNames, 0, matchNames.length);
+        this.matchNames[matchNames.length] = "unknown";
+        sectionNames = new String[OPERATION_NAMES.length * this.matchNames.length];
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < this.matchNames.length; slot++) {
+                sectionNames[operation * this.matchNames.length + slot] =
+                        "BookProvider." + OPERATION_NAMES[operation] + " " + this.matchNames[slot];
+            }
+        }
+        values = new AtomicLongArray(sectionNames.length * STRIDE);
+    }
+
+    /**
+     * Return the name of the trace section of the given operation on the given match code.
+     */
+    String getSectionName(int operation, int match) {
+        return sectionNames[entry(operation, match)];
+    }
+
+    /**
+     * Count notifications requested by the operation running on the current thread.
+     */
+    void countNotifications(int count) {
+        threadNotifications.get()[0] += count;
+    }
+
+    /**
+     * Return the number of notifications requested so far on the current thread, to pass back
+     * to {@link #record} once the operation is done.
+     */
+    int notificationMark() {
+        return threadNotifications.get()[0];
+    }
+
+    /**
+     * Record one operation on the given match code.
+     *
+     * @param nanos            the time the operation took
+     * @param rows             the number of rows touched, or -1 if the operation failed
+     * @param notificationMark the {@link #notificationMark()} taken when the operation started
+     */
+    void record(int operation, int match, long nanos, int rows, int notificationMark) {
+        int base = entry(operation, match) * STRIDE;
+        values.incrementAndGet(base + CALLS);
+        if (rows < 0) {
+            values.incrementAndGet(base + ERRORS);
+        } else if (rows > 0) {
+            values.addAndGet(base + ROWS, rows);
+        }
+        int notifications = threadNotifications.get()[0] - notificationMark;
+        if (notifications > 0) {
+            values.addAndGet(base + NOTIFICATIONS, notifications);
+        }
+        values.addAndGet(base + TIME_NANOS, nanos);
+        long max = values.get(base + MAX_NANOS);
+        while (nanos > max && !values.compareAndSet(base + MAX_NANOS, max, nanos)) {
+            max = values.get(base + MAX_NANOS);
+        }
+        values.incrementAndGet(base + FIRST_BUCKET + bucket(nanos));
+    }
+
+    /**
+     * Record one operation on the given match code that requested no notifications, such as a
+     * query whose cursor is read on another thread than the one that created it.
+     *
+     * @param nanos the time the operation took
+     * @param rows  the number of rows touched, or -1 if the operation failed
+     */
+    void record(int operation, int match, long nanos, int rows) {
+        record(operation, match, nanos, rows, notificationMark());
+    }
+
+    /**
+     * Return the bucket of the given latency.
+     */
+    static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Return the number of entries, one for each operation and match code.
+     */
+    int getEntryCount() {
+        return sectionNames.length;
+    }
+
+    /**
+     * Return the name of an entry, the operation followed by the path it matched.
+     */
+    String getEntryName(int entry) {
+        return OPERATION_NAMES[entry / matchNames.length] + " " + matchNames[entry % matchNames.length];
+    }
+
+    long getCalls(int entry) {
+        return values.get(entry * STRIDE + CALLS);
+    }
+
+    long getErrors(int entry) {
+        return values.get(entry * STRIDE + ERRORS);
+    }
+
+    long getRows(int entry) {
+        return values.get(entry * STRIDE + ROWS);
+    }
+
+    long getNotifications(int entry) {
+        return values.get(entry * STRIDE + NOTIFICATIONS);
+    }
+
+    long getTimeNanos(int entry) {
+        return values.get(entry * STRIDE + TIME_NANOS);
+    }
+
+    long getMaxNanos(int entry) {
+        return values.get(entry * STRIDE + MAX_NANOS);
+    }
+
+    long[] getLatencyBuckets(int entry) {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = values.get(entry * STRIDE + FIRST_BUCKET + i);
+        }
+        return buckets;
+    }
+
+    /**
+     * Return the upper bound in microseconds of the bucket holding the given fraction of the
+     * calls of an entry, or -1 if the entry has no calls. The last bucket has no upper bound,
+     * {@link Long#MAX_VALUE} is returned for it.
+     */
+    long getPercentileMicros(int entry, double fraction) {
+        long[] buckets = getLatencyBuckets(entry);
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Print one line for every operation and match code that was used, with its counters and
+     * latency percentiles.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("BookProvider operations (latency percentiles are bucket upper bounds):");
+        for (int entry = 0; entry < getEntryCount(); entry++) {
+            long calls = getCalls(entry);
+            if (calls == 0) {
+                continue;
+            }
+            writer.println(String.format(Locale.US,
+                    "  %-30s calls=%d errors=%d rows=%d notifications=%d mean=%dus p50<%s p99<%s max=%dus",
+                    getEntryName(entry), calls, getErrors(entry), getRows(entry), getNotifications(entry),
+                    getTimeNanos(entry) / calls / 1000, formatBound(getPercentileMicros(entry, 0.5)),
+                    formatBound(getPercentileMicros(entry, 0.99)), getMaxNanos(entry) / 1000));
+        }
+    }
+
+    private static String formatBound(long micros) {
+        return micros == Long.MAX_VALUE ? "inf" : micros + "us";
+    }
+
+    private int entry(int operation, int match) {
+        int slot = match - firstMatch;
+        if (slot < 0 || slot >= matchNames.length - 1) {
+            slot = matchNames.length - 1;
+        }
+        return operation * matchNames.length + slot;
+    }
+}
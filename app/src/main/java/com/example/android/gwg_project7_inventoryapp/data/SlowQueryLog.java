@@ -0,0 +1,93 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debug log of the statements of {@link BookProvider} slower than a threshold, each logged with
+ * its {@code EXPLAIN QUERY PLAN} output.
+ * <p>
+ * Queries are timed by their {@link TimedCursor}: an SQLite cursor runs its query when its rows
+ * are first counted, not when it is created. Writes are timed by the provider. Both are passed
+ * to {@link #onStatement}. Plans are explained with every parameter bound to NULL, since
+ * a cursor doesn't keep its arguments; the plan depends on where the parameters are, not on
+ * their values.
+ */
+class SlowQueryLog {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    /**
+     * Factory of plain cursors, so explaining a query doesn't time and explain the explanation
+     */
+    private static final SQLiteDatabase.CursorFactory PLAIN_CURSORS = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    };
+
+    private final long thresholdNanos;
+
+    /**
+     * @param thresholdMillis the time from which a statement is logged
+     */
+    SlowQueryLog(long thresholdMillis) {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Return whether a statement that took the given time is logged.
+     */
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * Log the given statement with its plan if it took longer than the threshold.
+     */
+    void onStatement(SQLiteDatabase db, String sql, long nanos) {
+        if (isSlow(nanos)) {
+            onSlowStatement(sql, nanos, explainQueryPlan(db, sql));
+        }
+    }
+
+    /**
+     * Called for every slow statement. Logs it as a warning.
+     *
+     * @param plan the details of the query plan, one per line of the plan
+     */
+    void onSlowStatement(String sql, long nanos, List<String> plan) {
+        StringBuilder message = new StringBuilder("Slow statement (")
+                .append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms): ").append(sql);
+        for (String detail : plan) {
+            message.append("\n    ").append(detail);
+        }
+        Log.w(LOG_TAG, message.toString());
+    }
+
+    /**
+     * Return the details of the query plan of the given statement, one per line of the plan.
+     */
+    static List<String> explainQueryPlan(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQueryWithFactory(PLAIN_CURSORS, "EXPLAIN QUERY PLAN " + sql, null, null);
+        try {
+            List<String> plan = new ArrayList<>(cursor.getCount());
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+            return plan;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.support.annotation.Nullable;
+import android.support.v4.os.TraceCompat;
+
+/**
+ * Cursor timing the run of its query, which happens the first time its rows are counted, not
+ * when the cursor is created. Moving the cursor counts the rows first, so every query goes
+ * through here, on whichever thread first reads the cursor.
+ * <p>
+ * The time goes to the slow query log, if there is one, and to the provider metrics of the
+ * query that handed the cursor out, added to the time it took to create the cursor.
+ */
+class TimedCursor extends SQLiteCursor {
+
+    /**
+     * Factory of the cursors of the provider database.
+     */
+    static class Factory implements SQLiteDatabase.CursorFactory {
+
+        @Nullable
+        private final SlowQueryLog slowQueryLog;
+
+        /**
+         * @param slowQueryLog the log of the slow queries, or null to log none
+         */
+        Factory(@Nullable SlowQueryLog slowQueryLog) {
+            this.slowQueryLog = slowQueryLog;
+        }
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+            return new TimedCursor(db, masterQuery, editTable, query, slowQueryLog);
+        }
+    }
+
+    /**
+     * Prefix of {@link SQLiteQuery#toString()} before the SQL
+     */
+    private static final String QUERY_PREFIX = "SQLiteQuery: ";
+
+    private final SQLiteDatabase db;
+    private final SQLiteQuery query;
+    @Nullable
+    private final SlowQueryLog slowQueryLog;
+
+    private boolean run;
+    private long runNanos;
+    private int count;
+
+    // Set once by the provider before handing the cursor out
+    private ProviderMetrics metrics;
+    private int match;
+    private long createNanos;
+
+    private TimedCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query,
+                        @Nullable SlowQueryLog slowQueryLog) {
+        super(driver, editTable, query);
+        this.db = db;
+        this.query = query;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Record the query into the given metrics once it has run, as a query on the given match
+     * code that took the given time to create the cursor on top of the time it takes to run.
+     * Right away if the query has already run.
+     */
+    void recordInto(ProviderMetrics metrics, int match, long createNanos) {
+        this.metrics = metrics;
+        this.match = match;
+        this.createNanos = createNanos;
+        if (run) {
+            metrics.record(ProviderMetrics.QUERY, match, createNanos + runNanos, count);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        if (run) {
+            return super.getCount();
+        }
+        if (metrics != null) {
+            TraceCompat.beginSection(metrics.getSectionName(ProviderMetrics.QUERY, match));
+        }
+        long start = System.nanoTime();
+        int rows = -1;
+        try {
+            count = super.getCount();
+            rows = count;
+        } finally {
+            runNanos = System.nanoTime() - start;
+            run = true;
+            if (metrics != null) {
+                TraceCompat.endSection();
+                metrics.record(ProviderMetrics.QUERY, match, createNanos + runNanos, rows);
+            }
+        }
+        if (slowQueryLog != null) {
+            slowQueryLog.onStatement(db, sql(), runNanos);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        if (!run && metrics != null) {
+            // Closed without being read, the query never ran
+            run = true;
+            metrics.record(ProviderMetrics.QUERY, match, createNanos, 0);
+        }
+        super.close();
+    }
+
+    private String sql() {
+        String description = query.toString();
+        return description.startsWith(QUERY_PREFIX) ? description.substring(QUERY_PREFIX.length()) : description;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit test for the number formatting of {@link BookAdapter}.
+ */
+public class BookAdapterTest {
+
+    @Test
+    public void formatInt_matchesToString() {
+        int[] values = {0, 7, 10, 58, 300, -1, -42, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            char[] buffer = new char[11];
+            int start = BookAdapter.formatInt(value, buffer);
+            assertEquals(Integer.toString(value), new String(buffer, start, buffer.length - start));
+        }
+    }
+}
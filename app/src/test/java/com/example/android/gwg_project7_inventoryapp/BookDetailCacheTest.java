@@ -0,0 +1,67 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.StatsEntry;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Local unit test checking which provider notifications drop the books of a
+ * {@link BookDetailCache}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, application = Application.class)
+public class BookDetailCacheTest {
+
+    private ContentResolver resolver;
+    private BookDetailCache cache;
+
+    @Before
+    public void setUp() {
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        cache = new BookDetailCache(resolver);
+        cache.putAll(Arrays.asList(
+                new Book(1, "First", 10, 1, "Supplier", "5550000"),
+                new Book(2, "Second", 10, 1, "Supplier", "5550000")), 0, 2);
+    }
+
+    @Test
+    public void bookChange_dropsOnlyThatBook() {
+        resolver.notifyChange(ContentUris.withAppendedId(BooksEntry.CONTENT_URI, 1), null);
+
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+
+    @Test
+    public void statsChange_keepsTheBooks() {
+        // Notified along with every sale
+        resolver.notifyChange(StatsEntry.CONTENT_URI, null);
+
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+
+    @Test
+    public void tableChange_dropsEveryBook() {
+        resolver.notifyChange(BooksEntry.CONTENT_URI, null);
+
+        assertNull(cache.get(1));
+        assertNull(cache.get(2));
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for the window of pages kept by {@link BookPages}, loaded from an in-memory
+ * table of book IDs.
+ */
+public class BookPagesTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int MARGIN_PAGES = 1;
+    private static final int BOOK_COUNT = 1000;
+
+    /**
+     * IDs of the books in the table
+     */
+    private final TreeSet<Long> table = new TreeSet<>();
+
+    /**
+     * Key of each started page, by page
+     */
+    private final TreeMap<Integer, Long> started = new TreeMap<>();
+
+    private BookPages pages;
+
+    @Before
+    public void setUp() {
+        for (long id = 1; id <= BOOK_COUNT; id++) {
+            table.add(id);
+        }
+        pages = new BookPages(PAGE_SIZE, MARGIN_PAGES, new BookPages.Loading() {
+            @Override
+            public void startPage(int page, long afterId) {
+                started.put(page, afterId);
+            }
+
+            @Override
+            public void stopPage(int page) {
+                started.remove(page);
+            }
+        });
+        pages.start();
+        loadStartedPages();
+    }
+
+    @Test
+    public void scrolling_keepsABoundedWindow() {
+        // Down to the end, one screen of 5 rows at a time
+        for (long first = 1; first + 4 <= BOOK_COUNT; first += 5) {
+            scrollTo(first, first + 4);
+            // The visible pages, and the margin and one page to spare on each side
+            assertTrue(pages.getBooks().size() <= (2 + 2 * (MARGIN_PAGES + 1)) * PAGE_SIZE);
+            assertTrue(started.size() <= 2 + 2 * (MARGIN_PAGES + 1));
+        }
+        assertEquals(BOOK_COUNT, last(pages.getBooks()));
+
+        // And back up to the top, through the pages loaded again from their keys
+        for (long first = BOOK_COUNT - 4; first >= 1; first -= 5) {
+            scrollTo(first, first + 4);
+            assertTrue(pages.getBooks().size() <= (2 + 2 * (MARGIN_PAGES + 1)) * PAGE_SIZE);
+        }
+        assertEquals(1, pages.getBooks().get(0).getId());
+        assertContiguous(pages.getBooks());
+    }
+
+    @Test
+    public void reloadedPage_leavesOutTheBooksOfTheNextPage() {
+        scrollTo(491, 495);
+        // Delete books from a page dropped from the window, then scroll back to it
+        table.remove(12L);
+        table.remove(13L);
+
+        scrollTo(1, 5);
+
+        List<Book> shown = pages.getBooks();
+        assertEquals(2 * PAGE_SIZE - 2, countBelow(shown, 20));
+        assertContiguous(shown);
+    }
+
+    @Test
+    public void shorterLastPage_dropsTheStalePagesAfterIt() {
+        scrollTo(11, 15);
+        long[] keys = pages.getKeys();
+        assertTrue(keys.length > 2);
+
+        // Every book after the first page is deleted, so the second page comes back empty
+        table.tailSet(11L).clear();
+        loadStartedPages();
+
+        assertEquals(2, pages.getKeys().length);
+        assertEquals(1, pages.getLastPage());
+        assertEquals(PAGE_SIZE, pages.getBooks().size());
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void restoredWindow_loadsTheSamePages() {
+        scrollTo(301, 305);
+        long[] keys = pages.getKeys();
+        int first = pages.getFirstPage();
+        int last = pages.getLastPage();
+        List<Book> shown = pages.getBooks();
+
+        started.clear();
+        pages = new BookPages(PAGE_SIZE, MARGIN_PAGES, new BookPages.Loading() {
+            @Override
+            public void startPage(int page, long afterId) {
+                started.put(page, afterId);
+            }
+
+            @Override
+            public void stopPage(int page) {
+                started.remove(page);
+            }
+        });
+        pages.restore(keys, first, last);
+        loadStartedPages();
+
+        assertEquals(shown, pages.getBooks());
+    }
+
+    /**
+     * Show the rows from the first to the last given book, and load the pages it starts.
+     */
+    private void scrollTo(long firstVisibleId, long lastVisibleId) {
+        pages.onVisibleRange(firstVisibleId, lastVisibleId);
+        loadStartedPages();
+        // Loading the new pages may extend the window
+        pages.onVisibleRange(firstVisibleId, lastVisibleId);
+        loadStartedPages();
+    }
+
+    /**
+     * Load every started page, like its loader would, in page order.
+     */
+    private void loadStartedPages() {
+        for (Integer page : new ArrayList<>(started.keySet())) {
+            Long after = started.get(page);
+            if (after == null) {
+                // Stopped by the load of an earlier page
+                continue;
+            }
+            List<Book> books = new ArrayList<>();
+            for (Long id : table.tailSet(after, false)) {
+                if (books.size() == PAGE_SIZE) {
+                    break;
+                }
+                books.add(new Book(id, "Book " + id, 10, 1, "Supplier", "5550000"));
+            }
+            pages.onPageLoaded(page, books);
+        }
+    }
+
+    private void assertContiguous(List<Book> books) {
+        for (int i = 1; i < books.size(); i++) {
+            long previous = books.get(i - 1).getId();
+            long id = books.get(i).getId();
+            assertEquals(table.higher(previous), Long.valueOf(id));
+        }
+    }
+
+    private static long last(List<Book> books) {
+        return books.get(books.size() - 1).getId();
+    }
+
+    private static int countBelow(List<Book> books, long id) {
+        int count = 0;
+        for (Book book : books) {
+            if (book.getId() <= id) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
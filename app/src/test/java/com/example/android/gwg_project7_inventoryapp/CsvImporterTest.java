@@ -0,0 +1,160 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+import com.example.android.gwg_project7_inventoryapp.data.BookCsv;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link CsvImporter} and the CSV format of {@link BookCsv}.
+ */
+public class CsvImporterTest {
+
+    private static final String HEADER = "product_name,price,quantity,supplier_name,supplier_phone_number\r\n";
+
+    @Test
+    public void recordReader_handlesQuotesAndLineBreaks() throws IOException {
+        BookCsv.RecordReader reader = new BookCsv.RecordReader(new StringReader(
+                "a,\"b,c\",\"say \"\"hi\"\"\"\r\n\n\"multi\nline\",,x\ry"));
+
+        assertEquals(Arrays.asList("a", "b,c", "say \"hi\""), reader.next());
+        assertEquals(1, reader.getLineNumber());
+        assertEquals(Arrays.asList("multi\nline", "", "x"), reader.next());
+        assertEquals(3, reader.getLineNumber());
+        assertEquals(Arrays.asList("y"), reader.next());
+        assertEquals(5, reader.getLineNumber());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void writeRecord_readsBackTheSameFields() throws IOException {
+        List<String> fields = Arrays.asList("plain", "with, comma", "with \"quotes\"", "two\r\nlines", "");
+        StringWriter writer = new StringWriter();
+        BookCsv.writeRecord(writer, fields);
+
+        assertEquals(fields, new BookCsv.RecordReader(new StringReader(writer.toString())).next());
+    }
+
+    @Test
+    public void importBooks_writesValidRowsInOrderAndRejectsInvalidOnes() throws IOException {
+        String csv = HEADER
+                + "Dune,12,3,Chilton,5550100\r\n"
+                + ",5,1,Chilton,5550100\r\n"
+                + "Emma,-1,1,Chilton,5550100\r\n"
+                + "Walden,7,many,Beacon,5550101\r\n"
+                + "\"Ulysses, annotated\",20,2,Beacon,5550101\r\n";
+        RecordingSink sink = new RecordingSink();
+        StringWriter rejects = new StringWriter();
+
+        CsvImporter.Result result = new CsvImporter(sink, 2, 2).importBooks(new StringReader(csv), rejects, null);
+
+        assertEquals(2, result.imported);
+        assertEquals(3, result.rejected);
+        assertEquals("Dune", sink.books.get(0).getName());
+        assertEquals("Ulysses, annotated", sink.books.get(1).getName());
+
+        BookCsv.RecordReader rejectReader = new BookCsv.RecordReader(new StringReader(rejects.toString()));
+        rejectReader.next();
+        List<String> reject = rejectReader.next();
+        assertEquals("3", reject.get(5));
+        assertEquals("Book name or title required", reject.get(6));
+        assertEquals("Price required", rejectReader.next().get(6));
+        assertEquals("Quantity must be a number", rejectReader.next().get(6));
+        assertNull(rejectReader.next());
+    }
+
+    @Test
+    public void importBooks_streamsManyRowsInChunks() throws IOException {
+        final int rows = 100000;
+        RecordingSink sink = new RecordingSink();
+
+        long start = System.nanoTime();
+        CsvImporter.Result result = new CsvImporter(sink, 4, 1000)
+                .importBooks(new BufferedReader(new GeneratedCsv(rows)), new StringWriter(), null);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Imported " + rows + " rows in " + elapsedMillis + " ms");
+
+        assertEquals(rows, result.imported);
+        assertEquals(rows / 1000, sink.chunks);
+        for (int i = 0; i < rows; i++) {
+            assertEquals("Book " + i, sink.books.get(i).getName());
+        }
+    }
+
+    @Test
+    public void cancel_stopsWritingChunks() throws IOException {
+        final CsvImporter[] importer = new CsvImporter[1];
+        RecordingSink sink = new RecordingSink() {
+            @Override
+            public void insert(List<Book> books) {
+                super.insert(books);
+                importer[0].cancel();
+            }
+        };
+        importer[0] = new CsvImporter(sink, 2, 100);
+
+        CsvImporter.Result result = importer[0].importBooks(
+                new BufferedReader(new GeneratedCsv(100000)), new StringWriter(), null);
+
+        assertTrue(result.cancelled);
+        assertEquals(1, sink.chunks);
+        assertEquals(100, result.imported);
+    }
+
+    private static class RecordingSink implements CsvImporter.Sink {
+        final List<Book> books = new ArrayList<>();
+        int chunks;
+
+        @Override
+        public void insert(List<Book> books) {
+            this.books.addAll(books);
+            chunks++;
+        }
+    }
+
+    /**
+     * Book file of the given number of rows, generated as it is read.
+     */
+    private static class GeneratedCsv extends Reader {
+        private final int rows;
+        private int row = -1;
+        private String line = HEADER;
+        private int position;
+
+        GeneratedCsv(int rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == line.length()) {
+                if (++row == rows) {
+                    return -1;
+                }
+                line = "Book " + row + "," + (row % 90) + "," + (row % 7) + ",Supplier " + (row % 13) + ",555" + row + "\r\n";
+                position = 0;
+            }
+            int count = Math.min(length, line.length() - position);
+            line.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test checking that {@link SaleQueue} batches sales without losing or repeating any.
+ */
+public class SaleQueueTest {
+
+    private static final int BOOKS = 20;
+    private static final int INITIAL_QUANTITY = 1000000;
+
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = File.createTempFile("sales", ".journal");
+        journalFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        journalFile.delete();
+    }
+
+    @Test
+    public void sustainedSales_areAppliedOnceInBatches() throws Exception {
+        final int threads = 4;
+        final int salesPerThread = 50000;
+        FakeStock stock = new FakeStock();
+        final SaleQueue queue = new SaleQueue(stock, journalFile, 20, 500);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] sellers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seller = t;
+            sellers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < salesPerThread; i++) {
+                        queue.record((seller + i) % BOOKS, -1);
+                    }
+                }
+            };
+            sellers[t].start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread seller : sellers) {
+            seller.join();
+        }
+        queue.close();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        int sales = threads * salesPerThread;
+        System.out.println("Applied " + sales + " sales in " + queue.getBatchesApplied() + " batches, "
+                + (sales * 1000000000L / elapsedNanos) + " sales/s");
+
+        assertEquals(sales, queue.getSalesApplied());
+        assertEquals(sales, stock.applyCount);
+        assertEquals(INITIAL_QUANTITY * BOOKS - sales, stock.totalQuantity());
+        assertTrue(queue.getBatchesApplied() < sales / 100);
+        for (int id = 0; id < BOOKS; id++) {
+            assertEquals(0, queue.getPendingDelta(id));
+        }
+    }
+
+    @Test
+    public void pendingDelta_coversSalesNotAppliedYet() throws Exception {
+        FakeStock stock = new FakeStock();
+        stock.failing = true;
+        SaleQueue queue = new SaleQueue(stock, null, 10, 100);
+
+        queue.record(3, -1);
+        queue.record(3, -1);
+        queue.record(4, -1);
+        assertEquals(-2, queue.getPendingDelta(3));
+        assertEquals(-1, queue.getPendingDelta(4));
+
+        stock.failing = false;
+        queue.close();
+        assertEquals(0, queue.getPendingDelta(3));
+        assertEquals(INITIAL_QUANTITY - 2, stock.quantity(3));
+        assertEquals(INITIAL_QUANTITY - 1, stock.quantity(4));
+    }
+
+    @Test
+    public void journaledSales_areAppliedAfterRestart() throws Exception {
+        FakeStock stock = new FakeStock();
+        stock.failing = true;
+        SaleQueue queue = new SaleQueue(stock, journalFile, 10, 100);
+        for (int i = 0; i < 250; i++) {
+            queue.record(i % BOOKS, -1);
+        }
+        // The sink never succeeded, so every sale is left in the journal
+        queue.close();
+        assertEquals(0, stock.applyCount);
+
+        stock.failing = false;
+        SaleQueue restarted = new SaleQueue(stock, journalFile, 10, 100);
+        restarted.flush();
+        assertEquals(250, stock.applyCount);
+        assertEquals(INITIAL_QUANTITY * BOOKS - 250, stock.totalQuantity());
+
+        // Sales recorded after the restart go on from the recovered ones
+        restarted.record(1, -1);
+        restarted.close();
+        assertEquals(251, stock.applyCount);
+    }
+
+    @Test
+    public void batchWhoseReplyWasLost_isNotAppliedTwice() throws Exception {
+        FakeStock stock = new FakeStock();
+        stock.loseNextReply = true;
+        SaleQueue queue = new SaleQueue(stock, journalFile, 10, 100);
+        for (int i = 0; i < 50; i++) {
+            queue.record(7, -1);
+        }
+        queue.close();
+
+        assertEquals(INITIAL_QUANTITY - 50, stock.quantity(7));
+        assertEquals(50, stock.applyCount);
+
+        // Nothing is left to replay either
+        SaleQueue restarted = new SaleQueue(stock, journalFile, 10, 100);
+        restarted.close();
+        assertEquals(INITIAL_QUANTITY - 50, stock.quantity(7));
+    }
+
+    /**
+     * Sink applying sales to quantities in memory, and skipping journaled sales it already
+     * applied like the provider does.
+     */
+    private static class FakeStock implements SaleQueue.Sink {
+
+        private final Map<Long, Integer> quantities = new HashMap<>();
+        private final Map<String, Long> lastSequences = new HashMap<>();
+
+        /**
+         * Fail every call without applying anything
+         */
+        volatile boolean failing;
+
+        /**
+         * Apply the next batch, then fail as if the reply was lost
+         */
+        volatile boolean loseNextReply;
+
+        /**
+         * Number of sales applied
+         */
+        int applyCount;
+
+        @Override
+        public synchronized boolean[] applySales(long[] ids, int[] deltas, String journal, long firstSequence) {
+            if (failing) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            long lastSequence = journal != null && lastSequences.containsKey(journal) ? lastSequences.get(journal) : 0;
+            boolean[] applied = new boolean[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                if (journal != null && firstSequence + i <= lastSequence) {
+                    applied[i] = true;
+                    continue;
+                }
+                int quantity = quantity(ids[i]);
+                if (quantity + deltas[i] >= 0) {
+                    quantities.put(ids[i], quantity + deltas[i]);
+                    applied[i] = true;
+                    applyCount++;
+                }
+            }
+            if (journal != null) {
+                lastSequences.put(journal, Math.max(lastSequence, firstSequence + ids.length - 1));
+            }
+
+            if (loseNextReply) {
+                loseNextReply = false;
+                throw new IllegalStateException("Reply lost");
+            }
+            return applied;
+        }
+
+        synchronized int quantity(long id) {
+            Integer quantity = quantities.get(id);
+            return quantity == null ? INITIAL_QUANTITY : quantity;
+        }
+
+        synchronized long totalQuantity() {
+            long total = 0;
+            for (long id = 0; id < BOOKS; id++) {
+                total += quantity(id);
+            }
+            return total;
+        }
+    }
+}
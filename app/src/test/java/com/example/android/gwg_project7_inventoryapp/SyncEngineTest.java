@@ -0,0 +1,555 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.gwg_project7_inventoryapp.data.BookProvider;
+import com.example.android.gwg_project7_inventoryapp.data.BooksContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.MovementsEntry;
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.SyncEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test syncing a real {@link BookProvider}, under Robolectric, with a stand-in sync
+ * endpoint served by MockWebServer. It runs in a plain application, so the app doesn't start
+ * its own sync.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, application = Application.class)
+public class SyncEngineTest {
+
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Store ID of the changes made by the other store
+     */
+    private static final String OTHER_STORE = "other-store";
+
+    /**
+     * Database of the other store, when a test runs one
+     */
+    private static final String OTHER_STORE_DB = "sync-other-store.db";
+
+    private ContentResolver resolver;
+    private BookProvider provider;
+    private StandInEndpoint endpoint;
+    private MockWebServer server;
+    private SyncEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        provider = new BookProvider();
+        provider.attachInfo(RuntimeEnvironment.application, null);
+        ShadowContentResolver.registerProviderInternal(BooksContract.CONTENT_AUTHORITY, provider);
+
+        endpoint = new StandInEndpoint();
+        server = new MockWebServer();
+        server.setDispatcher(endpoint);
+        server.start();
+        engine = new SyncEngine(resolver, server.url("/sync").toString(), PAGE_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        provider.shutdown();
+        RuntimeEnvironment.application.deleteDatabase(OTHER_STORE_DB);
+    }
+
+    @Test
+    public void firstSync_pushesEveryBookInCompressedPages() throws Exception {
+        insertBooks(250);
+
+        SyncEngine.Result result = engine.sync();
+
+        assertEquals(250, result.pushed);
+        assertEquals(250, endpoint.changes.size());
+        assertEquals(3, endpoint.pushes);
+        assertEquals(0, endpoint.uncompressedPushes);
+        assertEquals(0, pendingChanges());
+        // The pushed changes came back unchanged, and weren't written or listed again
+        assertEquals(250, result.pulled);
+        assertEquals(0, result.applied);
+        assertEquals(250, bookCount());
+    }
+
+    @Test
+    public void laterSyncs_onlySendTheChanges() throws Exception {
+        long[] ids = insertBooks(250);
+        engine.sync();
+        int requests = server.getRequestCount();
+
+        SyncEngine.Result idle = engine.sync();
+        assertEquals(0, idle.pushed);
+        assertEquals(0, idle.pulled);
+        // A single empty pull, however many books there are
+        assertEquals(requests + 1, server.getRequestCount());
+
+        adjustStock(ids[7], -1);
+        adjustStock(ids[7], -1);
+        SyncEngine.Result afterSale = engine.sync();
+        assertEquals(1, afterSale.pushed);
+        JSONObject pushed = endpoint.changes.get(endpoint.changes.size() - 1);
+        assertEquals(syncId(ids[7]), pushed.getString(SyncEntry.COLUMN_SYNC_ID));
+        // The two sales, not the quantity left
+        assertEquals(-2, pushed.getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+        assertFalse(pushed.has(BooksEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void remoteChanges_areAppliedInOneGo() throws Exception {
+        long[] ids = insertBooks(3);
+        engine.sync();
+
+        // Another store sells a copy of the first book, deletes the second and adds a book
+        endpoint.add(change(syncId(ids[0]), "Book 0", -1));
+        JSONObject deleted = new JSONObject();
+        deleted.put(SyncEntry.COLUMN_SYNC_ID, syncId(ids[1]));
+        deleted.put(SyncEntry.COLUMN_DELETED, true);
+        deleted.put(SyncEngine.KEY_STORE, OTHER_STORE);
+        endpoint.add(deleted);
+        endpoint.add(change("other-store-book", "Remote book", 4));
+
+        SyncEngine.Result result = engine.sync();
+
+        assertEquals(3, result.applied);
+        assertEquals(9, quantity(ids[0]));
+        assertEquals(3, bookCount());
+        assertEquals(0, pendingChanges());
+        Cursor cursor = resolver.query(BooksEntry.CONTENT_URI, new String[]{BooksEntry.COLUMN_PRODUCT_QUANTITY},
+                SyncEntry.COLUMN_SYNC_ID + "=?", new String[]{"other-store-book"}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(4, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void localChangeNotPushed_keepsItsValuesButAddsTheRemoteSales() throws Exception {
+        long[] ids = insertBooks(1);
+        engine.sync();
+        adjustStock(ids[0], -3);
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(SyncEntry.EXTRA_CHANGES, new ContentValues[]{
+                changeValues(syncId(ids[0]), "Renamed elsewhere", -2)});
+        extras.putString(SyncEntry.EXTRA_SYNC_CURSOR, "1");
+        resolver.call(BooksEntry.CONTENT_URI, SyncEntry.METHOD_APPLY_SYNC_CHANGES, null, extras);
+
+        assertEquals("Book 0", readBook(ids[0], BooksEntry.COLUMN_PRODUCT_NAME));
+        assertEquals(5, quantity(ids[0]));
+        assertEquals(1, pendingChanges());
+
+        // Only the local sales are pushed, the remote ones aren't sent back
+        assertEquals(1, engine.sync().pushed);
+        JSONObject pushed = endpoint.changes.get(endpoint.changes.size() - 1);
+        assertEquals(-3, pushed.getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+    }
+
+    @Test
+    public void concurrentSalesAtTwoStores_addUp() throws Exception {
+        // The last copy of a book, known to the other store too
+        long[] ids = insertBooks(1, 1);
+        engine.sync();
+        String syncId = syncId(ids[0]);
+        BookProvider otherStore = openOtherStore();
+        try {
+            applyAt(otherStore, endpoint.changes);
+
+            // Both stores sell it before either syncs again
+            Bundle sale = new Bundle();
+            sale.putInt(BooksEntry.EXTRA_DELTA, -1);
+            otherStore.call(BooksEntry.METHOD_ADJUST_STOCK, readAt(otherStore, syncId, BooksEntry._ID), sale);
+            endpoint.add(change(syncId, "Book 0", -1));
+            adjustStock(ids[0], -1);
+
+            SyncEngine.Result result = engine.sync();
+
+            assertEquals(1, result.pushed);
+            // No copy was left for the other sale, the quantity stops at zero
+            assertEquals(0, result.applied);
+            assertEquals(0, quantity(ids[0]));
+            assertEquals(0, pendingChanges());
+            // The journal only holds what the quantity moved by: opening copy and local sale
+            assertEquals(0, movedQuantity(ids[0]));
+
+            // The other store stops at zero the same way
+            applyAt(otherStore, endpoint.changes);
+            assertEquals("0", readAt(otherStore, syncId, BooksEntry.COLUMN_PRODUCT_QUANTITY));
+        } finally {
+            otherStore.shutdown();
+        }
+    }
+
+    @Test
+    public void saleWhilePushing_staysPending() {
+        long[] ids = insertBooks(1);
+        String syncId = syncId(ids[0]);
+        Cursor cursor = resolver.query(SyncEntry.CONTENT_URI, null, null, null, null);
+        long sequence;
+        int delta;
+        try {
+            assertTrue(cursor.moveToFirst());
+            sequence = cursor.getLong(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_SEQUENCE));
+            delta = cursor.getInt(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_QUANTITY_DELTA));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(10, delta);
+
+        // Sold after the push read the book, before it was marked pushed
+        adjustStock(ids[0], -1);
+        Bundle extras = new Bundle();
+        extras.putLong(SyncEntry.EXTRA_SEQUENCE, sequence);
+        extras.putStringArray(SyncEntry.EXTRA_SYNC_IDS, new String[]{syncId});
+        extras.putIntArray(SyncEntry.EXTRA_QUANTITY_DELTAS, new int[]{delta});
+        resolver.call(BooksEntry.CONTENT_URI, SyncEntry.METHOD_MARK_PUSHED, null, extras);
+
+        assertEquals(1, pendingChanges());
+        cursor = resolver.query(SyncEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(-1, cursor.getInt(cursor.getColumnIndexOrThrow(SyncEntry.COLUMN_QUANTITY_DELTA)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void restoredSnapshot_updatesTheBooksOfTheOtherStores() throws Exception {
+        long[] ids = insertBooks(1);
+        String syncId = syncId(ids[0]);
+        engine.sync();
+        File snapshot = new File(RuntimeEnvironment.application.getCacheDir(), "sync.snapshot");
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_WRITE_SNAPSHOT, snapshot.getAbsolutePath(), null);
+        adjustStock(ids[0], -3);
+        engine.sync();
+
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_RESTORE_SNAPSHOT, snapshot.getAbsolutePath(), null);
+        snapshot.delete();
+        assertEquals(syncId, syncId(ids[0]));
+        assertEquals("1", readBook(ids[0], BooksEntry.COLUMN_VERSION));
+        assertEquals(1, engine.sync().pushed);
+
+        // The same book, taken back to its restored quantity everywhere
+        JSONObject pushed = endpoint.changes.get(endpoint.changes.size() - 1);
+        assertEquals(syncId, pushed.getString(SyncEntry.COLUMN_SYNC_ID));
+        assertEquals(3, pushed.getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+        assertEquals(10, quantity(ids[0]));
+    }
+
+    @Test
+    public void failedPush_keepsTheChanges() throws Exception {
+        insertBooks(5);
+        endpoint.failing = true;
+        try {
+            engine.sync();
+            fail("Expected the sync to fail");
+        } catch (IOException expected) {
+            // The endpoint is down
+        }
+        // Kept in the page left to push
+        String page = resolver.call(BooksEntry.CONTENT_URI, SyncEntry.METHOD_SYNC_STATE, null, null)
+                .getString(SyncEntry.EXTRA_PUSH_PAGE);
+        assertEquals(5, new JSONObject(page).getJSONArray(SyncEngine.KEY_CHANGES).length());
+
+        endpoint.failing = false;
+        assertEquals(5, engine.sync().pushed);
+        assertEquals(0, pendingChanges());
+        assertEquals(5, endpoint.changes.size());
+    }
+
+    @Test
+    public void lostPushReply_movesTheOtherStoreOnce() throws Exception {
+        long[] ids = insertBooks(1);
+        String syncId = syncId(ids[0]);
+        engine.sync();
+
+        // The endpoint stores the sale, but its reply is lost
+        adjustStock(ids[0], -1);
+        endpoint.failingAfterStoring = true;
+        try {
+            engine.sync();
+            fail("Expected the sync to fail");
+        } catch (IOException expected) {
+            // The reply was lost
+        }
+        // Sold again before the next sync
+        adjustStock(ids[0], -1);
+        endpoint.failingAfterStoring = false;
+
+        SyncEngine.Result result = engine.sync();
+
+        // The lost page again, then the new sale
+        assertEquals(2, result.pushed);
+        assertEquals(4, endpoint.changes.size());
+        assertEquals(endpoint.changes.get(1).getString(SyncEngine.KEY_CHANGE_ID),
+                endpoint.changes.get(2).getString(SyncEngine.KEY_CHANGE_ID));
+        assertEquals(-1, endpoint.changes.get(3).getInt(SyncEntry.COLUMN_QUANTITY_DELTA));
+        assertEquals(8, quantity(ids[0]));
+
+        // The other store pulls every change, twice, and only counts each sale once
+        BookProvider otherStore = openOtherStore();
+        try {
+            applyAt(otherStore, endpoint.changes);
+            applyAt(otherStore, endpoint.changes);
+            assertEquals("8", readAt(otherStore, syncId, BooksEntry.COLUMN_PRODUCT_QUANTITY));
+        } finally {
+            otherStore.shutdown();
+        }
+    }
+
+    private long[] insertBooks(int count) {
+        return insertBooks(count, 10);
+    }
+
+    private long[] insertBooks(int count, int quantity) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_NAME, "Book " + i);
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_PRICE, 10);
+            rows[i].put(BooksEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+            rows[i].put(BooksEntry.COLUMN_SUPPLIER_NAME, "Sync supplier");
+            rows[i].put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        }
+        resolver.bulkInsert(BooksEntry.CONTENT_URI, rows);
+
+        long[] ids = new long[count];
+        Cursor cursor = resolver.query(BooksEntry.CONTENT_URI, new String[]{BooksEntry._ID}, null, null, BooksEntry._ID);
+        try {
+            for (int i = 0; i < count && cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Return the provider of the other store, on its own database.
+     */
+    private static BookProvider openOtherStore() {
+        BookProvider otherStore = new BookProvider(OTHER_STORE_DB, null);
+        otherStore.attachInfo(RuntimeEnvironment.application, null);
+        return otherStore;
+    }
+
+    /**
+     * Apply the given changes pulled from the endpoint at the other store, skipping its own
+     * like its pull would.
+     */
+    private static void applyAt(BookProvider otherStore, List<JSONObject> changes) throws JSONException {
+        List<ContentValues> values = new ArrayList<>();
+        for (JSONObject change : changes) {
+            if (!OTHER_STORE.equals(change.optString(SyncEngine.KEY_STORE))) {
+                values.add(SyncEngine.fromJson(change));
+            }
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(SyncEntry.EXTRA_CHANGES, values.toArray(new ContentValues[values.size()]));
+        otherStore.call(SyncEntry.METHOD_APPLY_SYNC_CHANGES, null, extras);
+    }
+
+    private static String readAt(BookProvider store, String syncId, String column) {
+        Cursor cursor = store.query(BooksEntry.CONTENT_URI, new String[]{column},
+                SyncEntry.COLUMN_SYNC_ID + "=?", new String[]{syncId}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void adjustStock(long id, int delta) {
+        Bundle extras = new Bundle();
+        extras.putInt(BooksEntry.EXTRA_DELTA, delta);
+        resolver.call(BooksEntry.CONTENT_URI, BooksEntry.METHOD_ADJUST_STOCK, String.valueOf(id), extras);
+    }
+
+    private long pendingChanges() {
+        return resolver.call(BooksEntry.CONTENT_URI, SyncEntry.METHOD_SYNC_STATE, null, null)
+                .getLong(SyncEntry.EXTRA_PENDING_CHANGES);
+    }
+
+    private int bookCount() {
+        Cursor cursor = resolver.query(BooksEntry.CONTENT_URI, new String[]{BooksEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the sum of the stock movements of the given book.
+     */
+    private int movedQuantity(long id) {
+        Cursor cursor = resolver.query(MovementsEntry.buildMovementsUri(id),
+                new String[]{MovementsEntry.COLUMN_DELTA}, null, null, null);
+        try {
+            int sum = 0;
+            while (cursor.moveToNext()) {
+                sum += cursor.getInt(0);
+            }
+            return sum;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int quantity(long id) {
+        return Integer.parseInt(readBook(id, BooksEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    private String syncId(long id) {
+        return readBook(id, SyncEntry.COLUMN_SYNC_ID);
+    }
+
+    private String readBook(long id, String column) {
+        Uri uri = ContentUris.withAppendedId(BooksEntry.CONTENT_URI, id);
+        Cursor cursor = resolver.query(uri, new String[]{column}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues changeValues(String syncId, String name, int quantityDelta) {
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.COLUMN_SYNC_ID, syncId);
+        values.put(SyncEntry.COLUMN_DELETED, false);
+        values.put(BooksEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(BooksEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(SyncEntry.COLUMN_QUANTITY_DELTA, quantityDelta);
+        values.put(BooksEntry.COLUMN_SUPPLIER_NAME, "Sync supplier");
+        values.put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        return values;
+    }
+
+    /**
+     * Return a change made by the other store.
+     */
+    private static JSONObject change(String syncId, String name, int quantityDelta) throws JSONException {
+        JSONObject change = new JSONObject();
+        ContentValues values = changeValues(syncId, name, quantityDelta);
+        for (String key : values.keySet()) {
+            change.put(key, values.get(key));
+        }
+        change.put(SyncEngine.KEY_STORE, OTHER_STORE);
+        return change;
+    }
+
+    /**
+     * Stand-in for the sync endpoint: keeps every change pushed, in order, and serves them back
+     * from a cursor, its position in that list, one gzipped page at a time. It keeps no track of
+     * the changes it already has, so a page posted twice is served twice.
+     */
+    private static class StandInEndpoint extends Dispatcher {
+
+        final List<JSONObject> changes = new ArrayList<>();
+        volatile boolean failing;
+        /**
+         * Whether pushed pages are stored but answered with an error, like a lost reply
+         */
+        volatile boolean failingAfterStoring;
+        volatile int pushes;
+        volatile int uncompressedPushes;
+
+        synchronized void add(JSONObject change) {
+            changes.add(change);
+        }
+
+        @Override
+        public synchronized MockResponse dispatch(RecordedRequest request) {
+            if (failing) {
+                return new MockResponse().setResponseCode(503);
+            }
+            HttpUrl url = request.getRequestUrl();
+            if (!url.encodedPath().equals("/sync" + SyncEngine.PATH_CHANGES)) {
+                return new MockResponse().setResponseCode(404);
+            }
+            try {
+                if ("POST".equals(request.getMethod())) {
+                    pushes++;
+                    InputStream body = request.getBody().inputStream();
+                    if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                        body = new GZIPInputStream(body);
+                    } else {
+                        uncompressedPushes++;
+                    }
+                    JSONArray pushed = new JSONObject(new Buffer().readFrom(body).readUtf8())
+                            .getJSONArray(SyncEngine.KEY_CHANGES);
+                    for (int i = 0; i < pushed.length(); i++) {
+                        changes.add(pushed.getJSONObject(i));
+                    }
+                    if (failingAfterStoring) {
+                        return new MockResponse().setResponseCode(503);
+                    }
+                    return new MockResponse().setBody("{}");
+                }
+
+                String since = url.queryParameter(SyncEngine.PARAMETER_SINCE);
+                int from = since == null ? 0 : Integer.parseInt(since);
+                int to = Math.min(changes.size(), from + Integer.parseInt(url.queryParameter(SyncEngine.PARAMETER_LIMIT)));
+                JSONObject page = new JSONObject();
+                page.put(SyncEngine.KEY_CHANGES, new JSONArray(changes.subList(from, to)));
+                page.put(SyncEngine.KEY_CURSOR, String.valueOf(to));
+                page.put(SyncEngine.KEY_HAS_MORE, to < changes.size());
+
+                Buffer compressed = new Buffer();
+                OutputStream gzip = new GZIPOutputStream(compressed.outputStream());
+                gzip.write(page.toString().getBytes("UTF-8"));
+                gzip.close();
+                return new MockResponse().addHeader("Content-Encoding", "gzip").setBody(compressed);
+            } catch (JSONException | IOException e) {
+                return new MockResponse().setResponseCode(400);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.gwg_project7_inventoryapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test checking that {@link SyncScheduler} retries failed runs with a growing,
+ * capped backoff.
+ */
+public class SyncSchedulerTest {
+
+    @Test
+    public void backoff_doublesUpToTheMaximum() {
+        assertEquals(100, SyncScheduler.backoffMillis(1, 100, 1000));
+        assertEquals(200, SyncScheduler.backoffMillis(2, 100, 1000));
+        assertEquals(400, SyncScheduler.backoffMillis(3, 100, 1000));
+        assertEquals(800, SyncScheduler.backoffMillis(4, 100, 1000));
+        assertEquals(1000, SyncScheduler.backoffMillis(5, 100, 1000));
+        // A long outage neither overflows nor passes the maximum
+        assertEquals(1000, SyncScheduler.backoffMillis(Integer.MAX_VALUE, 100, 1000));
+    }
+
+    @Test
+    public void failedRuns_areRetriedUntilOneSucceeds() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch succeeded = new CountDownLatch(1);
+        SyncScheduler scheduler = new SyncScheduler(new SyncScheduler.Job() {
+            @Override
+            public void run() throws IOException {
+                if (runs.incrementAndGet() <= 3) {
+                    throw new IOException("Endpoint down");
+                }
+                succeeded.countDown();
+            }
+        }, TimeUnit.HOURS.toMillis(1), 5, 20);
+
+        scheduler.start(0);
+
+        assertTrue(succeeded.await(5, TimeUnit.SECONDS));
+        scheduler.close();
+        // The next run waits for the regular interval
+        assertEquals(4, runs.get());
+        assertEquals(0, scheduler.getFailures());
+    }
+
+    @Test
+    public void requestedRun_runsRightAway() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        SyncScheduler scheduler = new SyncScheduler(new SyncScheduler.Job() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, TimeUnit.HOURS.toMillis(1), 5, 20);
+
+        scheduler.start(TimeUnit.HOURS.toMillis(1));
+        scheduler.requestRun();
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        scheduler.close();
+    }
+}
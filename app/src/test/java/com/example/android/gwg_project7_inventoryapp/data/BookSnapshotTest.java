@@ -0,0 +1,157 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test writing and reading {@link BookSnapshot} files.
+ */
+public class BookSnapshotTest {
+
+    private static final int DATABASE_VERSION = 6;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("books", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void snapshot_readsBackEveryValue() throws IOException {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longName.append("\u00dcn\u00efc\u00f6d\u00e9 ");
+        }
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            BookSnapshot.Writer writer = new BookSnapshot.Writer(out.getChannel(), DATABASE_VERSION);
+            writer.write(1, "Dune", 12, 3, "Chilton", "5550100", 4, "9f86d081884c7d65");
+            writer.write(7, longName.toString(), 0, -2, null, "", 1, null);
+            writer.finish();
+        } finally {
+            out.close();
+        }
+
+        BookSnapshot.Reader reader = new BookSnapshot.Reader(file, DATABASE_VERSION);
+        BookSnapshot.Row row = new BookSnapshot.Row();
+        assertEquals(2, reader.getRowCount());
+
+        assertTrue(reader.next(row));
+        assertEquals(1, row.id);
+        assertEquals("Dune", row.name);
+        assertEquals(12, row.price);
+        assertEquals(3, row.quantity);
+        assertEquals("Chilton", row.supplierName);
+        assertEquals("5550100", row.supplierPhone);
+        assertEquals(4, row.version);
+        assertEquals("9f86d081884c7d65", row.syncId);
+
+        assertTrue(reader.next(row));
+        assertEquals(7, row.id);
+        assertEquals(longName.toString(), row.name);
+        assertEquals(-2, row.quantity);
+        assertNull(row.supplierName);
+        assertEquals("", row.supplierPhone);
+        assertNull(row.syncId);
+
+        assertFalse(reader.next(row));
+    }
+
+    @Test
+    public void corruptSnapshot_isRejected() throws IOException {
+        writeRows(100);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(BookSnapshot.HEADER_SIZE + 50);
+            int b = out.read();
+            out.seek(BookSnapshot.HEADER_SIZE + 50);
+            out.write(b ^ 1);
+        } finally {
+            out.close();
+        }
+        assertRejected(DATABASE_VERSION);
+    }
+
+    @Test
+    public void unfinishedSnapshot_isRejected() throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            BookSnapshot.Writer writer = new BookSnapshot.Writer(out.getChannel(), DATABASE_VERSION);
+            writer.write(1, "Dune", 12, 3, "Chilton", "5550100", 1, "9f86d081884c7d65");
+            // Never finished, so the header is missing
+        } finally {
+            out.close();
+        }
+        assertRejected(DATABASE_VERSION);
+    }
+
+    @Test
+    public void snapshotOfOtherDatabaseVersion_isRejected() throws IOException {
+        writeRows(10);
+        assertRejected(DATABASE_VERSION + 1);
+    }
+
+    @Test
+    public void millionRows_roundTripInSeconds() throws IOException {
+        final int rows = 1000000;
+        long start = System.nanoTime();
+        writeRows(rows);
+        long writeMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        BookSnapshot.Reader reader = new BookSnapshot.Reader(file, DATABASE_VERSION);
+        BookSnapshot.Row row = new BookSnapshot.Row();
+        long count = 0;
+        while (reader.next(row)) {
+            assertEquals(count + 1, row.id);
+            count++;
+        }
+        long readMillis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Snapshot of " + rows + " rows, " + file.length() / 1024 + " KiB: written in "
+                + writeMillis + " ms, read in " + readMillis + " ms");
+
+        assertEquals(rows, count);
+        assertTrue(writeMillis + readMillis < 10000);
+    }
+
+    private void writeRows(int count) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = out.getChannel();
+            BookSnapshot.Writer writer = new BookSnapshot.Writer(channel, DATABASE_VERSION);
+            for (int i = 1; i <= count; i++) {
+                writer.write(i, "Book " + i, i % 90, i % 7, "Supplier " + (i % 13), "555" + i, 1, "sync-" + i);
+            }
+            writer.finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertRejected(int databaseVersion) {
+        try {
+            new BookSnapshot.Reader(file, databaseVersion);
+            fail("Expected the snapshot to be rejected");
+        } catch (IOException expected) {
+            // Nothing is restored from a bad snapshot
+        }
+    }
+}
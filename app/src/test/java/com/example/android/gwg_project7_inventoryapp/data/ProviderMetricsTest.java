@@ -0,0 +1,113 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link ProviderMetrics}.
+ */
+public class ProviderMetricsTest {
+
+    private static final int BOOKS = 100;
+    private static final int BOOKS_ID = 101;
+
+    private final ProviderMetrics metrics = new ProviderMetrics(BOOKS, "books", "books/#");
+
+    @Test
+    public void bucket_isThePowerOfTwoAboveTheLatency() {
+        assertEquals(0, ProviderMetrics.bucket(999));
+        assertEquals(1, ProviderMetrics.bucket(1000));
+        assertEquals(2, ProviderMetrics.bucket(3999));
+        assertEquals(3, ProviderMetrics.bucket(4000));
+        assertEquals(ProviderMetrics.BUCKET_COUNT - 1, ProviderMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void record_countsByOperationAndMatch() {
+        int entry = entryNamed("update books/#");
+        int mark = metrics.notificationMark();
+        metrics.countNotifications(2);
+        metrics.record(ProviderMetrics.UPDATE, BOOKS_ID, 300000, 1, mark);
+        metrics.record(ProviderMetrics.UPDATE, BOOKS_ID, 5000, -1, metrics.notificationMark());
+
+        assertEquals(2, metrics.getCalls(entry));
+        assertEquals(1, metrics.getErrors(entry));
+        assertEquals(1, metrics.getRows(entry));
+        assertEquals(2, metrics.getNotifications(entry));
+        assertEquals(305000, metrics.getTimeNanos(entry));
+        assertEquals(300000, metrics.getMaxNanos(entry));
+        long buckets = 0;
+        for (long count : metrics.getLatencyBuckets(entry)) {
+            buckets += count;
+        }
+        assertEquals(2, buckets);
+        assertEquals(0, metrics.getCalls(entryNamed("update books")));
+    }
+
+    @Test
+    public void record_putsUnknownMatchesTogether() {
+        metrics.record(ProviderMetrics.DELETE, -1, 0, -1, metrics.notificationMark());
+        metrics.record(ProviderMetrics.DELETE, 150, 0, -1, metrics.notificationMark());
+
+        assertEquals(2, metrics.getErrors(entryNamed("delete unknown")));
+    }
+
+    @Test
+    public void percentile_isTheUpperBoundOfItsBucket() {
+        for (int i = 0; i < 99; i++) {
+            // 100 microseconds, in the bucket up to 128
+            metrics.record(ProviderMetrics.QUERY, BOOKS, 100000, 0, 0);
+        }
+        // 5 milliseconds, in the bucket up to 8192
+        metrics.record(ProviderMetrics.QUERY, BOOKS, 5000000, 0, 0);
+
+        int entry = entryNamed("query books");
+        assertEquals(128, metrics.getPercentileMicros(entry, 0.5));
+        assertEquals(128, metrics.getPercentileMicros(entry, 0.99));
+        assertEquals(8192, metrics.getPercentileMicros(entry, 1));
+        assertEquals(-1, metrics.getPercentileMicros(entryNamed("query books/#"), 0.5));
+    }
+
+    @Test
+    public void dump_listsOnlyUsedOperations() {
+        metrics.record(ProviderMetrics.INSERT, BOOKS, 1000, 1, metrics.notificationMark());
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out));
+
+        assertTrue(out.toString().contains("insert books "));
+        assertFalse(out.toString().contains("update"));
+    }
+
+    @Test
+    public void record_staysCheap() {
+        int mark = metrics.notificationMark();
+        // Warm up, then time many records. An update takes hundreds of microseconds, so 1% of it
+        // is still a few microseconds
+        for (int i = 0; i < 200000; i++) {
+            metrics.record(ProviderMetrics.UPDATE, BOOKS_ID, i, 1, mark);
+        }
+        int count = 1000000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            metrics.record(ProviderMetrics.UPDATE, BOOKS_ID, i, 1, mark);
+        }
+        long nanosPerRecord = (System.nanoTime() - start) / count;
+        System.out.println("ProviderMetrics.record: " + nanosPerRecord + " ns");
+        assertTrue("record took " + nanosPerRecord + " ns", nanosPerRecord < 2000);
+    }
+
+    private int entryNamed(String name) {
+        for (int entry = 0; entry < metrics.getEntryCount(); entry++) {
+            if (metrics.getEntryName(entry).equals(name)) {
+                return entry;
+            }
+        }
+        throw new AssertionError("No entry " + name);
+    }
+}
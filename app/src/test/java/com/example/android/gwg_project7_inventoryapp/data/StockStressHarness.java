@@ -0,0 +1,390 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.example.android.gwg_project7_inventoryapp.data.BooksContract.BooksEntry;
+
+/**
+ * Runs concurrent sales, restocks, edits and list queries against one {@link BookProvider}, then
+ * checks that no stock change was lost: the final quantity of every book must be its initial
+ * quantity plus its restocks, minus its sales, plus the quantity changes written by its edits,
+ * and no quantity may ever be seen below zero. Edits read the book and write it back like the
+ * editor does, so an edit overwriting a sale made since it read the book fails the run.
+ * Reports the throughput and latency percentiles of each kind of operation, so changes to the
+ * concurrency of the data layer can be compared against it.
+ */
+class StockStressHarness {
+
+    /**
+     * Kinds of operations run by the harness, one kind per thread
+     */
+    enum Operation {
+        SALE, RESTOCK, EDIT, LIST
+    }
+
+    /**
+     * Number of times an edit reads the book again after another write changed it, before giving
+     * up
+     */
+    private static final int EDIT_ATTEMPTS = 100;
+
+    /**
+     * Size of a stress run. Every field can be overridden by the system property
+     * {@code stress.<field>}, for example {@code -Dstress.sellers=16}.
+     */
+    static final class Config {
+        int books = 20;
+        int initialQuantity = 50;
+        int sellers = 4;
+        int restockers = 2;
+        int editors = 2;
+        int readers = 2;
+        int operationsPerThread = 500;
+        int maxRestock = 3;
+        int pageSize = 50;
+        long seed = 42;
+
+        /**
+         * Return a configuration with the defaults, overridden by the {@code stress.*} system
+         * properties.
+         */
+        static Config fromSystemProperties() {
+            Config config = new Config();
+            config.books = Integer.getInteger("stress.books", config.books);
+            config.initialQuantity = Integer.getInteger("stress.initialQuantity", config.initialQuantity);
+            config.sellers = Integer.getInteger("stress.sellers", config.sellers);
+            config.restockers = Integer.getInteger("stress.restockers", config.restockers);
+            config.editors = Integer.getInteger("stress.editors", config.editors);
+            config.readers = Integer.getInteger("stress.readers", config.readers);
+            config.operationsPerThread = Integer.getInteger("stress.operationsPerThread", config.operationsPerThread);
+            config.maxRestock = Integer.getInteger("stress.maxRestock", config.maxRestock);
+            config.pageSize = Integer.getInteger("stress.pageSize", config.pageSize);
+            config.seed = Long.getLong("stress.seed", config.seed);
+            return config;
+        }
+
+        int threads(Operation operation) {
+            switch (operation) {
+                case SALE:
+                    return sellers;
+                case RESTOCK:
+                    return restockers;
+                case EDIT:
+                    return editors;
+                default:
+                    return readers;
+            }
+        }
+    }
+
+    /**
+     * Outcome of a stress run.
+     */
+    static final class Report {
+
+        /**
+         * Every broken invariant and every failed operation, empty if the run was clean
+         */
+        final List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+
+        final long[] counts = new long[Operation.values().length];
+        final long[] p50Nanos = new long[Operation.values().length];
+        final long[] p99Nanos = new long[Operation.values().length];
+        long elapsedNanos;
+        long sales;
+        long refusedSales;
+        long restocked;
+        long edited;
+        long editConflicts;
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(Locale.US,
+                    "%d sales (%d refused), %d copies restocked, %+d copies edited (%d conflicts) in %d ms",
+                    sales, refusedSales, restocked, edited, editConflicts, elapsedNanos / 1000000));
+            for (Operation operation : Operation.values()) {
+                int i = operation.ordinal();
+                if (counts[i] == 0) {
+                    continue;
+                }
+                report.append(String.format(Locale.US, "%n  %-8s %7d ops %9.0f ops/s  p50 %6d us  p99 %6d us",
+                        operation, counts[i], counts[i] * 1e9 / elapsedNanos,
+                        p50Nanos[i] / 1000, p99Nanos[i] / 1000));
+            }
+            for (String violation : violations) {
+                report.append("\n  VIOLATION ").append(violation);
+            }
+            return report.toString();
+        }
+    }
+
+    private final BookProvider provider;
+    private final Config config;
+
+    private long[] ids;
+    private AtomicLongArray sold;
+    private AtomicLongArray restocked;
+    private AtomicLongArray edited;
+
+    StockStressHarness(BookProvider provider, Config config) {
+        this.provider = provider;
+        this.config = config;
+    }
+
+    /**
+     * Insert the books, run every thread to the end and check the invariants.
+     */
+    Report run() throws InterruptedException {
+        final Report report = new Report();
+        insertBooks();
+        sold = new AtomicLongArray(config.books);
+        restocked = new AtomicLongArray(config.books);
+        edited = new AtomicLongArray(config.books);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        final List<long[]>[] latencies = newLatencyLists();
+        int threadIndex = 0;
+        for (final Operation operation : Operation.values()) {
+            for (int t = 0; t < config.threads(operation); t++) {
+                final Random random = new Random(config.seed + threadIndex++);
+                final long[] threadLatencies = new long[config.operationsPerThread];
+                latencies[operation.ordinal()].add(threadLatencies);
+                threads.add(new Thread(operation + "-" + t) {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < config.operationsPerThread; i++) {
+                            long begin = System.nanoTime();
+                            try {
+                                runOperation(operation, random, i, report);
+                            } catch (RuntimeException e) {
+                                report.violations.add(getName() + " failed: " + e);
+                            }
+                            threadLatencies[i] = System.nanoTime() - begin;
+                        }
+                    }
+                });
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report.elapsedNanos = System.nanoTime() - startNanos;
+
+        for (Operation operation : Operation.values()) {
+            long[] all = merge(latencies[operation.ordinal()]);
+            report.counts[operation.ordinal()] = all.length;
+            if (all.length > 0) {
+                Arrays.sort(all);
+                report.p50Nanos[operation.ordinal()] = percentile(all, 0.50);
+                report.p99Nanos[operation.ordinal()] = percentile(all, 0.99);
+            }
+        }
+        for (int book = 0; book < config.books; book++) {
+            report.sales += sold.get(book);
+            report.restocked += restocked.get(book);
+            report.edited += edited.get(book);
+        }
+        checkFinalQuantities(report);
+        return report;
+    }
+
+    private void runOperation(Operation operation, Random random, int i, Report report) {
+        int book = random.nextInt(config.books);
+        switch (operation) {
+            case SALE:
+                Bundle sale = adjustStock(book, -1);
+                if (sale.getBoolean(BooksEntry.EXTRA_ADJUSTED)) {
+                    sold.incrementAndGet(book);
+                } else {
+                    synchronized (report) {
+                        report.refusedSales++;
+                    }
+                }
+                if (sale.getInt(BooksEntry.EXTRA_QUANTITY) < 0) {
+                    report.violations.add("Book " + ids[book] + " reached quantity " + sale.getInt(BooksEntry.EXTRA_QUANTITY));
+                }
+                break;
+            case RESTOCK:
+                int copies = 1 + random.nextInt(config.maxRestock);
+                Bundle restock = adjustStock(book, copies);
+                if (restock.getBoolean(BooksEntry.EXTRA_ADJUSTED)) {
+                    restocked.addAndGet(book, copies);
+                } else {
+                    report.violations.add("Restock of book " + ids[book] + " was refused");
+                }
+                break;
+            case EDIT:
+                edit(book, "Stress book " + book + " edit " + i, random.nextInt(100), random.nextInt(3) - 1, report);
+                break;
+            case LIST:
+                Cursor cursor = provider.query(BooksEntry.CONTENT_URI.buildUpon()
+                                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_AFTER, "0")
+                                .appendQueryParameter(BooksEntry.QUERY_PARAMETER_LIMIT, String.valueOf(config.pageSize))
+                                .build(),
+                        new String[]{BooksEntry._ID, BooksEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        if (cursor.getInt(1) < 0) {
+                            report.violations.add("Book " + cursor.getLong(0) + " listed with quantity " + cursor.getInt(1));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Read the book, and write it back with the given name and price and its quantity changed by
+     * the given amount, but never below zero, as the editor saves the fields it shows. The write
+     * only goes through if the book is still at the version read, otherwise the book is read
+     * again, like {@code BookWriter.merge} does.
+     */
+    private void edit(int book, String name, int price, int quantityChange, Report report) {
+        Uri uri = bookUri(book);
+        for (int attempt = 0; attempt < EDIT_ATTEMPTS; attempt++) {
+            long quantity;
+            long version;
+            Cursor cursor = provider.query(uri, new String[]{BooksEntry.COLUMN_PRODUCT_QUANTITY, BooksEntry.COLUMN_VERSION},
+                    null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    report.violations.add("Book " + ids[book] + " is gone");
+                    return;
+                }
+                quantity = cursor.getLong(0);
+                version = cursor.getLong(1);
+            } finally {
+                cursor.close();
+            }
+
+            long newQuantity = Math.max(0, quantity + quantityChange);
+            ContentValues values = new ContentValues();
+            values.put(BooksEntry.COLUMN_PRODUCT_NAME, name);
+            values.put(BooksEntry.COLUMN_PRODUCT_PRICE, price);
+            values.put(BooksEntry.COLUMN_PRODUCT_QUANTITY, newQuantity);
+            Uri conditional = uri.buildUpon()
+                    .appendQueryParameter(BooksEntry.QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(version))
+                    .build();
+            if (provider.update(conditional, values, null, null) == 1) {
+                edited.addAndGet(book, newQuantity - quantity);
+                return;
+            }
+            // Another write changed the book since it was read
+            synchronized (report) {
+                report.editConflicts++;
+            }
+        }
+        report.violations.add("Edit of book " + ids[book] + " gave up after " + EDIT_ATTEMPTS + " attempts");
+    }
+
+    private Bundle adjustStock(int book, int delta) {
+        Bundle extras = new Bundle();
+        extras.putInt(BooksEntry.EXTRA_DELTA, delta);
+        return provider.call(BooksEntry.METHOD_ADJUST_STOCK, String.valueOf(ids[book]), extras);
+    }
+
+    private void insertBooks() {
+        ContentValues[] rows = new ContentValues[config.books];
+        for (int book = 0; book < config.books; book++) {
+            rows[book] = new ContentValues();
+            rows[book].put(BooksEntry.COLUMN_PRODUCT_NAME, "Stress book " + book);
+            rows[book].put(BooksEntry.COLUMN_PRODUCT_PRICE, 10);
+            rows[book].put(BooksEntry.COLUMN_PRODUCT_QUANTITY, config.initialQuantity);
+            rows[book].put(BooksEntry.COLUMN_SUPPLIER_NAME, "Stress supplier");
+            rows[book].put(BooksEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "5550000");
+        }
+        provider.bulkInsert(BooksEntry.CONTENT_URI, rows);
+
+        ids = new long[config.books];
+        Cursor cursor = provider.query(BooksEntry.CONTENT_URI, new String[]{BooksEntry._ID},
+                null, null, BooksEntry._ID);
+        try {
+            for (int book = 0; book < config.books && cursor.moveToNext(); book++) {
+                ids[book] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void checkFinalQuantities(Report report) {
+        for (int book = 0; book < config.books; book++) {
+            Cursor cursor = provider.query(bookUri(book), new String[]{BooksEntry.COLUMN_PRODUCT_QUANTITY},
+                    null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    report.violations.add("Book " + ids[book] + " is gone");
+                    continue;
+                }
+                long expected = config.initialQuantity + restocked.get(book) - sold.get(book) + edited.get(book);
+                if (cursor.getLong(0) != expected) {
+                    report.violations.add(String.format(Locale.US,
+                            "Book %d: quantity %d, expected %d + %d restocked - %d sold %+d edited = %d (lost update)",
+                            ids[book], cursor.getLong(0), config.initialQuantity, restocked.get(book),
+                            sold.get(book), edited.get(book), expected));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private Uri bookUri(int book) {
+        return ContentUris.withAppendedId(BooksEntry.CONTENT_URI, ids[book]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<long[]>[] newLatencyLists() {
+        List<long[]>[] lists = new List[Operation.values().length];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new ArrayList<>();
+        }
+        return lists;
+    }
+
+    private static long[] merge(List<long[]> arrays) {
+        int length = 0;
+        for (long[] array : arrays) {
+            length += array.length;
+        }
+        long[] merged = new long[length];
+        int offset = 0;
+        for (long[] array : arrays) {
+            System.arraycopy(array, 0, merged, offset, array.length);
+            offset += array.length;
+        }
+        return merged;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(sorted.length * fraction) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.gwg_project7_inventoryapp.data;
+
+import android.app.Application;
+import android.content.Context;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test running the {@link StockStressHarness} under Robolectric, on a real SQLite
+ * database. The size of the run can be changed with the {@code stress.*} Gradle properties, for
+ * example {@code ./gradlew :app:testDebugUnitTest -Pstress.sellers=16}. It runs in a plain
+ * application, so the app singletons don't start their own threads during the run.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, application = Application.class)
+public class StockStressTest {
+
+    private static final String TEST_DB = "stress-test.db";
+
+    private Context context;
+    private BookProvider provider;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        context.deleteDatabase(TEST_DB);
+        provider = new BookProvider(TEST_DB, null);
+        provider.attachInfo(context, null);
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void concurrentStockChanges_loseNoUpdate() throws InterruptedException {
+        StockStressHarness.Config config = StockStressHarness.Config.fromSystemProperties();
+        StockStressHarness.Report report = new StockStressHarness(provider, config).run();
+        System.out.println(report);
+
+        assertTrue(report.toString(), report.violations.isEmpty());
+        assertEquals(config.sellers * (long) config.operationsPerThread, report.sales + report.refusedSales);
+    }
+
+    @Test
+    public void scarceStock_neverGoesNegative() throws InterruptedException {
+        // Far more sales than copies, so most sales race for the last copies
+        StockStressHarness.Config config = new StockStressHarness.Config();
+        config.books = 2;
+        config.initialQuantity = 10;
+        config.sellers = 8;
+        config.restockers = 1;
+        config.maxRestock = 1;
+        config.operationsPerThread = 200;
+        StockStressHarness.Report report = new StockStressHarness(provider, config).run();
+        System.out.println(report);
+
+        assertTrue(report.toString(), report.violations.isEmpty());
+        assertTrue(report.refusedSales > 0);
+        assertEquals(config.books * config.initialQuantity + report.restocked - report.sales + report.edited,
+                remainingCopies());
+    }
+
+    private long remainingCopies() {
+        Cursor cursor = provider.query(BooksContract.StatsEntry.CONTENT_URI,
+                new String[]{BooksContract.StatsEntry.COLUMN_UNITS}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
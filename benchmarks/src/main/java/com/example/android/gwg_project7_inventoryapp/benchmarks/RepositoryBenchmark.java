@@ -0,0 +1,117 @@
+package com.example.android.gwg_project7_inventoryapp.benchmarks;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+import com.example.android.gwg_project7_inventoryapp.core.BookRepository;
+import com.example.android.gwg_project7_inventoryapp.core.InMemoryBookRepository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link BookRepository} operations the app relies on, on an inventory of
+ * {@link #bookCount} books spread over {@link #SUPPLIERS} suppliers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    private static final int SUPPLIERS = 50;
+
+    /**
+     * Number of books per page, like the list of the app
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Number of books in the inventory
+     */
+    @Param({"10000", "100000"})
+    public int bookCount;
+
+    private BookRepository repository;
+    private List<Book> batch;
+    private long nextId;
+
+    @Setup(Level.Iteration)
+    public void fillRepository() {
+        repository = new InMemoryBookRepository();
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            books.add(book(i));
+        }
+        repository.insertAll(books);
+
+        batch = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            batch.add(book(i));
+        }
+    }
+
+    @Benchmark
+    public long insert() {
+        return repository.insert(book(bookCount));
+    }
+
+    @Benchmark
+    public void insertBatch() {
+        repository.insertAll(batch);
+    }
+
+    @Benchmark
+    public boolean update() {
+        long id = nextId();
+        return repository.update(new Book(id, "Renamed " + id, 10, 5, "Supplier " + (id % SUPPLIERS), "5550000"));
+    }
+
+    @Benchmark
+    public int adjustStock() {
+        // Alternate sales and restocks so the quantities stay positive
+        long id = nextId();
+        return repository.adjustStock(id, (id & 1) == 0 ? -1 : 1);
+    }
+
+    @Benchmark
+    public Book get() {
+        return repository.get(nextId());
+    }
+
+    @Benchmark
+    public List<Book> page() {
+        return repository.page(nextId(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Book> findBySupplier() {
+        return repository.findBySupplier("Supplier " + (nextId() % SUPPLIERS));
+    }
+
+    /**
+     * Return an ID of the initial books, cycling through all of them.
+     */
+    private long nextId() {
+        nextId = nextId % bookCount + 1;
+        return nextId;
+    }
+
+    private static Book book(int i) {
+        return new Book(0, "Book " + i, i % 90, 1000 + i % 7, "Supplier " + (i % SUPPLIERS), "555" + i);
+    }
+}
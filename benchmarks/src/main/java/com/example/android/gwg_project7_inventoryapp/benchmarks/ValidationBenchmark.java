@@ -0,0 +1,41 @@
+package com.example.android.gwg_project7_inventoryapp.benchmarks;
+
+import com.example.android.gwg_project7_inventoryapp.core.Book;
+import com.example.android.gwg_project7_inventoryapp.core.BookValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link BookValidator}, which runs on every insert and on every row of an import.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    private final Book validBook = new Book(0, "The Lord of The Ring", 58, 300, "Wizard Editorial", "2542005555");
+    private final Book invalidBook = new Book(0, "The Lord of The Ring", 58, 300, "Wizard Editorial", null);
+
+    @Benchmark
+    public String validBook() {
+        return BookValidator.validate(validBook);
+    }
+
+    @Benchmark
+    public String invalidBook() {
+        return BookValidator.validate(invalidBook);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.gwg_project7_inventoryapp.core;
+
+/**
+ * Immutable snapshot of one book of the inventory, as stored in one row of the books table.
+ */
+public final class Book {
+
+    private final long id;
+    private final String name;
+    private final int price;
+    private final int quantity;
+    private final String supplierName;
+    private final String supplierPhone;
+
+    public Book(long id, String name, int price, int quantity, String supplierName, String supplierPhone) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.supplierName = supplierName;
+        this.supplierPhone = supplierPhone;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public String getSupplierName() {
+        return supplierName;
+    }
+
+    public String getSupplierPhone() {
+        return supplierPhone;
+    }
+
+    /**
+     * Return a copy of this book with the given quantity.
+     */
+    public Book withQuantity(int quantity) {
+        return new Book(id, name, price, quantity, supplierName, supplierPhone);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Book)) {
+            return false;
+        }
+        Book book = (Book) o;
+        return id == book.id
+                && price == book.price
+                && quantity == book.quantity
+                && equal(name, book.name)
+                && equal(supplierName, book.supplierName)
+                && equal(supplierPhone, book.supplierPhone);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + quantity;
+        result = 31 * result + price;
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.gwg_project7_inventoryapp.core;
+
+import java.util.List;
+
+/**
+ * Storage of the books, with the same contract as the book provider of the app: books are
+ * validated with {@link BookValidator} before they are stored, quantities follow the
+ * {@link Stock} rules, and lists are in ID order.
+ */
+public interface BookRepository {
+
+    /**
+     * Store a new book and return its ID. The ID of the given book is ignored.
+     *
+     * @throws IllegalArgumentException if the book isn't valid
+     */
+    long insert(Book book);
+
+    /**
+     * Store all the given books, or none of them if one isn't valid. The IDs of the given books
+     * are ignored.
+     *
+     * @throws IllegalArgumentException if a book isn't valid
+     */
+    void insertAll(List<Book> books);
+
+    /**
+     * Replace the book with the ID of the given book. Return false if there is none.
+     *
+     * @throws IllegalArgumentException if the book isn't valid
+     */
+    boolean update(Book book);
+
+    /**
+     * Add the given delta to the quantity of a book, unless the quantity would go below zero.
+     * Return the new quantity, or -1 if the quantity wasn't changed or there is no such book.
+     */
+    int adjustStock(long id, int delta);
+
+    /**
+     * Return the book with the given ID, or null if there is none.
+     */
+    Book get(long id);
+
+    /**
+     * Return at most {@code limit} books whose ID is greater than {@code afterId}, in ID order.
+     */
+    List<Book> page(long afterId, int limit);
+
+    /**
+     * Return the books of the given supplier, in ID order.
+     */
+    List<Book> findBySupplier(String supplierName);
+
+    /**
+     * Delete the book with the given ID. Return false if there is none.
+     */
+    boolean delete(long id);
+
+    /**
+     * Return the number of books.
+     */
+    int size();
+}
@@ -0,0 +1,62 @@
+package com.example.android.gwg_project7_inventoryapp.core;
+
+/**
+ * Rules a book must follow to be stored, shared by the provider, the CSV import and the
+ * {@link BookRepository} implementations. Each method returns why a value is refused, or null if
+ * it is accepted.
+ */
+public final class BookValidator {
+
+    private BookValidator() {
+    }
+
+    /**
+     * Return why a book with the given values can't be inserted, or null if it can. A null price
+     * or quantity passes, the column defaults apply then.
+     */
+    public static String validate(String productName, Integer productPrice, Integer productQuantity,
+                                  String supplierName, String supplierNumber) {
+        String error = validateName(productName);
+        if (error == null) {
+            error = validatePrice(productPrice);
+        }
+        if (error == null) {
+            error = validateQuantity(productQuantity);
+        }
+        if (error == null) {
+            error = validateSupplierName(supplierName);
+        }
+        if (error == null) {
+            error = validateSupplierPhone(supplierNumber);
+        }
+        return error;
+    }
+
+    /**
+     * Return why the given book can't be stored, or null if it can.
+     */
+    public static String validate(Book book) {
+        return validate(book.getName(), book.getPrice(), book.getQuantity(),
+                book.getSupplierName(), book.getSupplierPhone());
+    }
+
+    public static String validateName(String productName) {
+        return productName == null ? "Book name or title required" : null;
+    }
+
+    public static String validatePrice(Integer productPrice) {
+        return productPrice != null && productPrice < 0 ? "Price required" : null;
+    }
+
+    public static String validateQuantity(Integer productQuantity) {
+        return productQuantity != null && productQuantity < 0 ? "Quantity required" : null;
+    }
+
+    public static String validateSupplierName(String supplierName) {
+        return supplierName == null ? "Supplier name required" : null;
+    }
+
+    public static String validateSupplierPhone(String supplierNumber) {
+        return supplierNumber == null ? "Phone number required" : null;
+    }
+}
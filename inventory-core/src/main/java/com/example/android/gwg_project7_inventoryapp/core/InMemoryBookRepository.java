@@ -0,0 +1,147 @@
+package com.example.android.gwg_project7_inventoryapp.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * {@link BookRepository} keeping the books in memory, indexed like the books table: by ID, and
+ * by supplier name. Thread-safe, every method holds the repository lock.
+ */
+public class InMemoryBookRepository implements BookRepository {
+
+    private final NavigableMap<Long, Book> books = new TreeMap<>();
+
+    /**
+     * IDs of the books of each supplier, like the supplier name index
+     */
+    private final Map<String, Set<Long>> supplierIndex = new HashMap<>();
+
+    private long lastId;
+
+    @Override
+    public synchronized long insert(Book book) {
+        checkValid(book);
+        return store(book);
+    }
+
+    @Override
+    public synchronized void insertAll(List<Book> newBooks) {
+        // Check every book first, so an invalid book stores nothing
+        for (Book book : newBooks) {
+            checkValid(book);
+        }
+        for (Book book : newBooks) {
+            store(book);
+        }
+    }
+
+    @Override
+    public synchronized boolean update(Book book) {
+        checkValid(book);
+        Book old = books.get(book.getId());
+        if (old == null) {
+            return false;
+        }
+        unindex(old);
+        books.put(book.getId(), book);
+        index(book);
+        return true;
+    }
+
+    @Override
+    public synchronized int adjustStock(long id, int delta) {
+        Book book = books.get(id);
+        if (book == null || !Stock.canAdjust(book.getQuantity(), delta)) {
+            return -1;
+        }
+        int quantity = Stock.adjust(book.getQuantity(), delta);
+        // The supplier doesn't change, so the index stays valid
+        books.put(id, book.withQuantity(quantity));
+        return quantity;
+    }
+
+    @Override
+    public synchronized Book get(long id) {
+        return books.get(id);
+    }
+
+    @Override
+    public synchronized List<Book> page(long afterId, int limit) {
+        List<Book> page = new ArrayList<>(Math.min(limit, books.size()));
+        for (Book book : books.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(book);
+        }
+        return page;
+    }
+
+    @Override
+    public synchronized List<Book> findBySupplier(String supplierName) {
+        Set<Long> ids = supplierIndex.get(supplierName);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<Book> found = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            found.add(books.get(id));
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized boolean delete(long id) {
+        Book book = books.remove(id);
+        if (book == null) {
+            return false;
+        }
+        unindex(book);
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return books.size();
+    }
+
+    private long store(Book book) {
+        long id = ++lastId;
+        Book stored = new Book(id, book.getName(), book.getPrice(), book.getQuantity(),
+                book.getSupplierName(), book.getSupplierPhone());
+        books.put(id, stored);
+        index(stored);
+        return id;
+    }
+
+    private void index(Book book) {
+        Set<Long> ids = supplierIndex.get(book.getSupplierName());
+        if (ids == null) {
+            ids = new TreeSet<>();
+            supplierIndex.put(book.getSupplierName(), ids);
+        }
+        ids.add(book.getId());
+    }
+
+    private void unindex(Book book) {
+        Set<Long> ids = supplierIndex.get(book.getSupplierName());
+        ids.remove(book.getId());
+        if (ids.isEmpty()) {
+            supplierIndex.remove(book.getSupplierName());
+        }
+    }
+
+    private static void checkValid(Book book) {
+        String error = BookValidator.validate(book);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.android.gwg_project7_inventoryapp.core;
+
+/**
+ * Stock arithmetic: a quantity never goes below zero. The provider applies the same rule in the
+ * guarded statement adjusting a quantity in the database.
+ */
+public final class Stock {
+
+    private Stock() {
+    }
+
+    /**
+     * Return whether the given delta can be added to the given quantity.
+     */
+    public static boolean canAdjust(int quantity, int delta) {
+        return (long) quantity + delta >= 0;
+    }
+
+    /**
+     * Return the given quantity with the given delta added, or -1 if it would go below zero.
+     */
+    public static int adjust(int quantity, int delta) {
+        return canAdjust(quantity, delta) ? quantity + delta : -1;
+    }
+}
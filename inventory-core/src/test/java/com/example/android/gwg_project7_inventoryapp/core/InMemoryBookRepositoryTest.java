@@ -0,0 +1,122 @@
+package com.example.android.gwg_project7_inventoryapp.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for {@link InMemoryBookRepository}, checking it keeps the contract of
+ * {@link BookRepository}.
+ */
+public class InMemoryBookRepositoryTest {
+
+    private BookRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new InMemoryBookRepository();
+    }
+
+    @Test
+    public void insert_assignsIdsInOrder() {
+        long first = repository.insert(book("A", 3, "North"));
+        long second = repository.insert(book("B", 4, "South"));
+
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertEquals("B", repository.get(second).getName());
+        assertEquals(second, repository.get(second).getId());
+        assertEquals(2, repository.size());
+    }
+
+    @Test
+    public void insert_refusesInvalidBook() {
+        try {
+            repository.insert(new Book(0, "A", 1, -1, "North", "555"));
+            fail("Expected a negative quantity to be refused");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Quantity required", expected.getMessage());
+        }
+        assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void insertAll_storesNothingIfOneBookIsInvalid() {
+        try {
+            repository.insertAll(Arrays.asList(book("A", 1, "North"), new Book(0, "B", 1, 1, "North", null)));
+            fail("Expected a book without phone number to be refused");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Phone number required", expected.getMessage());
+        }
+        assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void adjustStock_neverGoesBelowZero() {
+        long id = repository.insert(book("A", 1, "North"));
+
+        assertEquals(0, repository.adjustStock(id, -1));
+        assertEquals(-1, repository.adjustStock(id, -1));
+        assertEquals(0, repository.get(id).getQuantity());
+        assertEquals(5, repository.adjustStock(id, 5));
+        assertEquals(-1, repository.adjustStock(id + 1, 1));
+    }
+
+    @Test
+    public void page_walksBooksInIdOrder() {
+        for (int i = 0; i < 7; i++) {
+            repository.insert(book("Book " + i, i, "North"));
+        }
+
+        List<Book> first = repository.page(0, 3);
+        List<Book> second = repository.page(first.get(2).getId(), 3);
+        List<Book> last = repository.page(second.get(2).getId(), 3);
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(first));
+        assertEquals(Arrays.asList(4L, 5L, 6L), ids(second));
+        assertEquals(Arrays.asList(7L), ids(last));
+        assertTrue(repository.page(7, 3).isEmpty());
+    }
+
+    @Test
+    public void findBySupplier_followsUpdatesAndDeletes() {
+        long a = repository.insert(book("A", 1, "North"));
+        long b = repository.insert(book("B", 1, "North"));
+        repository.insert(book("C", 1, "South"));
+
+        assertTrue(repository.update(new Book(b, "B", 1, 1, "South", "555")));
+        assertEquals(Arrays.asList(a), ids(repository.findBySupplier("North")));
+        assertEquals(Arrays.asList(b, 3L), ids(repository.findBySupplier("South")));
+
+        assertTrue(repository.delete(a));
+        assertFalse(repository.delete(a));
+        assertTrue(repository.findBySupplier("North").isEmpty());
+        assertNull(repository.get(a));
+    }
+
+    @Test
+    public void update_unknownBookReturnsFalse() {
+        assertFalse(repository.update(new Book(42, "A", 1, 1, "North", "555")));
+        assertEquals(0, repository.size());
+    }
+
+    private static Book book(String name, int quantity, String supplierName) {
+        return new Book(0, name, 10, quantity, supplierName, "555");
+    }
+
+    private static List<Long> ids(List<Book> books) {
+        Long[] ids = new Long[books.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = books.get(i).getId();
+        }
+        return Arrays.asList(ids);
+    }
+}